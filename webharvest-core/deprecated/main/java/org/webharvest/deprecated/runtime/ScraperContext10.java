@@ -38,7 +38,10 @@
 
 package org.webharvest.deprecated.runtime;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -79,6 +82,9 @@ public class ScraperContext10 implements DynamicScopeContext {
 
     private Stack<Map<String, Variable>> stack = new Stack<Map<String, Variable>>();
 
+    // there are no nested scopes, so resources are kept until the end
+    private final List<Closeable> resources = new ArrayList<Closeable>();
+
     // map of function definitions
     @Deprecated
     private final Map<String, FunctionDef> functionDefs = new HashMap<String, FunctionDef>();
@@ -144,6 +150,23 @@ public class ScraperContext10 implements DynamicScopeContext {
         }
     }
 
+    @Override
+    public <V extends Variable & Closeable> void registerResource(V variable) {
+        resources.add(variable);
+    }
+
+    @Override
+    public void closeResources() {
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing resource", e);
+            }
+        }
+        resources.clear();
+    }
+
     @Override
     public Variable replaceExistingVar(String name, Variable variable) {
         final Variable oldVar = getVar(name);
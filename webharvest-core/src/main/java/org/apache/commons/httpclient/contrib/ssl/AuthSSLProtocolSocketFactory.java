@@ -167,6 +167,7 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
     private URL truststoreUrl = null;
     private String truststorePassword = null;
     private SSLContext sslcontext = null;
+    private final SSLSessionCache sessionCache;
 
     /**
      * Constructor for AuthSSLProtocolSocketFactory. Either a keystore or truststore file
@@ -183,12 +184,35 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
     public AuthSSLProtocolSocketFactory(
         final URL keystoreUrl, final String keystorePassword, 
         final URL truststoreUrl, final String truststorePassword)
+    {
+        this(keystoreUrl, keystorePassword, truststoreUrl, truststorePassword,
+            new SSLSessionCache());
+    }
+
+    /**
+     * Constructor for AuthSSLProtocolSocketFactory with specified cache of TLS sessions.
+     * 
+     * @see #AuthSSLProtocolSocketFactory(URL, String, URL, String)
+     * @param sessionCache settings of the cache of TLS sessions to be resumed
+     */
+    public AuthSSLProtocolSocketFactory(
+        final URL keystoreUrl, final String keystorePassword, 
+        final URL truststoreUrl, final String truststorePassword,
+        final SSLSessionCache sessionCache)
     {
         super();
         this.keystoreUrl = keystoreUrl;
         this.keystorePassword = keystorePassword;
         this.truststoreUrl = truststoreUrl;
         this.truststorePassword = truststorePassword;
+        this.sessionCache = sessionCache;
+    }
+
+    /**
+     * @return cache of TLS sessions with handshake counters
+     */
+    public SSLSessionCache getSessionCache() {
+        return sessionCache;
     }
 
     private static KeyStore createKeyStore(final URL url, final String password) 
@@ -287,7 +311,7 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
             }
             SSLContext sslcontext = SSLContext.getInstance("SSL");
             sslcontext.init(keymanagers, trustmanagers, null);
-            return sslcontext;
+            return sessionCache.configure(sslcontext);
         } catch (NoSuchAlgorithmException e) {
             LOG.error(e.getMessage(), e);
             throw new AuthSSLInitializationError("Unsupported algorithm exception: " + e.getMessage());
@@ -303,7 +327,8 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
         }
     }
 
-    private SSLContext getSSLContext() {
+    // context is created only once, as sessions are cached in it
+    private synchronized SSLContext getSSLContext() {
         if (this.sslcontext == null) {
             this.sslcontext = createSSLContext();
         }
@@ -344,9 +369,9 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
         int timeout = params.getConnectionTimeout();
         SocketFactory socketfactory = getSSLContext().getSocketFactory();
         if (timeout == 0) {
-            return socketfactory.createSocket(host, port, localAddress, localPort);
+            return sessionCache.track(socketfactory.createSocket(host, port, localAddress, localPort));
         } else {
-            Socket socket = socketfactory.createSocket();
+            Socket socket = sessionCache.track(socketfactory.createSocket());
             SocketAddress localaddr = new InetSocketAddress(localAddress, localPort);
             SocketAddress remoteaddr = new InetSocketAddress(host, port);
             socket.bind(localaddr);
@@ -365,12 +390,12 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
         int clientPort)
         throws IOException, UnknownHostException
    {
-       return getSSLContext().getSocketFactory().createSocket(
+       return sessionCache.track(getSSLContext().getSocketFactory().createSocket(
             host,
             port,
             clientHost,
             clientPort
-        );
+        ));
     }
 
     /**
@@ -379,10 +404,10 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
     public Socket createSocket(String host, int port)
         throws IOException, UnknownHostException
     {
-        return getSSLContext().getSocketFactory().createSocket(
+        return sessionCache.track(getSSLContext().getSocketFactory().createSocket(
             host,
             port
-        );
+        ));
     }
 
     /**
@@ -395,11 +420,11 @@ public class AuthSSLProtocolSocketFactory implements SecureProtocolSocketFactory
         boolean autoClose)
         throws IOException, UnknownHostException
     {
-        return getSSLContext().getSocketFactory().createSocket(
+        return sessionCache.track(getSSLContext().getSocketFactory().createSocket(
             socket,
             host,
             port,
             autoClose
-        );
+        ));
     }
 }
\ No newline at end of file
@@ -94,28 +94,47 @@ public class EasySSLProtocolSocketFactory implements SecureProtocolSocketFactory
 
     private SSLContext sslcontext = null;
 
+    private final SSLSessionCache sessionCache;
+
     /**
      * Constructor for EasySSLProtocolSocketFactory.
      */
     public EasySSLProtocolSocketFactory() {
+        this(new SSLSessionCache());
+    }
+
+    /**
+     * Constructor for EasySSLProtocolSocketFactory.
+     * @param sessionCache settings of the cache of TLS sessions to be resumed
+     */
+    public EasySSLProtocolSocketFactory(SSLSessionCache sessionCache) {
         super();
+        this.sessionCache = sessionCache;
+    }
+
+    /**
+     * @return cache of TLS sessions with handshake counters
+     */
+    public SSLSessionCache getSessionCache() {
+        return sessionCache;
     }
 
-    private static SSLContext createEasySSLContext() {
+    private SSLContext createEasySSLContext() {
         try {
             SSLContext context = SSLContext.getInstance("SSL");
             context.init(
               null, 
               new TrustManager[] {new EasyX509TrustManager(null)}, 
               null);
-            return context;
+            return sessionCache.configure(context);
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
             throw new HttpClientError(e.toString());
         }
     }
 
-    private SSLContext getSSLContext() {
+    // context is created only once, as sessions are cached in it
+    private synchronized SSLContext getSSLContext() {
         if (this.sslcontext == null) {
             this.sslcontext = createEasySSLContext();
         }
@@ -132,12 +151,12 @@ public class EasySSLProtocolSocketFactory implements SecureProtocolSocketFactory
         int clientPort)
         throws IOException, UnknownHostException {
 
-        return getSSLContext().getSocketFactory().createSocket(
+        return sessionCache.track(getSSLContext().getSocketFactory().createSocket(
             host,
             port,
             clientHost,
             clientPort
-        );
+        ));
     }
 
     /**
@@ -174,9 +193,9 @@ public class EasySSLProtocolSocketFactory implements SecureProtocolSocketFactory
         int timeout = params.getConnectionTimeout();
         SocketFactory socketfactory = getSSLContext().getSocketFactory();
         if (timeout == 0) {
-            return socketfactory.createSocket(host, port, localAddress, localPort);
+            return sessionCache.track(socketfactory.createSocket(host, port, localAddress, localPort));
         } else {
-            Socket socket = socketfactory.createSocket();
+            Socket socket = sessionCache.track(socketfactory.createSocket());
             SocketAddress localaddr = new InetSocketAddress(localAddress, localPort);
             SocketAddress remoteaddr = new InetSocketAddress(host, port);
             socket.bind(localaddr);
@@ -190,10 +209,10 @@ public class EasySSLProtocolSocketFactory implements SecureProtocolSocketFactory
      */
     public Socket createSocket(String host, int port)
         throws IOException, UnknownHostException {
-        return getSSLContext().getSocketFactory().createSocket(
+        return sessionCache.track(getSSLContext().getSocketFactory().createSocket(
             host,
             port
-        );
+        ));
     }
 
     /**
@@ -205,12 +224,12 @@ public class EasySSLProtocolSocketFactory implements SecureProtocolSocketFactory
         int port,
         boolean autoClose)
         throws IOException, UnknownHostException {
-        return getSSLContext().getSocketFactory().createSocket(
+        return sessionCache.track(getSSLContext().getSocketFactory().createSocket(
             socket,
             host,
             port,
             autoClose
-        );
+        ));
     }
 
     public boolean equals(Object obj) {
@@ -0,0 +1,171 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.apache.commons.httpclient.contrib.ssl;
+
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Settings of the client side TLS session cache of the {@link SSLContext}
+ * used by a secure socket factory, together with counters of the handshakes
+ * of its sockets. Session of a host is cached after the first full
+ * handshake, so that later connections to the host resume it with an
+ * abbreviated handshake, which saves a round trip and the key exchange.
+ * <p>
+ * Handshake is considered resumed if its session has been created before
+ * the socket was, i.e. by an earlier connection.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class SSLSessionCache {
+
+    /**
+     * Default maximum number of cached sessions.
+     */
+    public static final int DEFAULT_SIZE = 1000;
+
+    /**
+     * Default number of seconds a session may be resumed for.
+     */
+    public static final int DEFAULT_TIMEOUT = 3600;
+
+    private final int size;
+
+    private final int timeout;
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * Creates cache with the default size and timeout.
+     */
+    public SSLSessionCache() {
+        this(DEFAULT_SIZE, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates cache with specified size and timeout.
+     *
+     * @param size
+     *            maximum number of cached sessions, 0 for no limit
+     * @param timeout
+     *            number of seconds a session may be resumed for after it
+     *            has been established, 0 for no limit
+     */
+    public SSLSessionCache(final int size, final int timeout) {
+        if (size < 0 || timeout < 0) {
+            throw new IllegalArgumentException(
+                    "Size and timeout of session cache may not be negative");
+        }
+        this.size = size;
+        this.timeout = timeout;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return number of full handshakes of the sockets seen by this cache
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * @return number of handshakes which resumed cached session
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Applies the settings to the client session cache of specified context.
+     *
+     * @return the context
+     */
+    public SSLContext configure(final SSLContext context) {
+        final SSLSessionContext sessionContext =
+            context.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(size);
+            sessionContext.setSessionTimeout(timeout);
+        }
+        return context;
+    }
+
+    /**
+     * Counts handshakes of specified socket, if it is a secure one.
+     *
+     * @return the socket
+     */
+    public Socket track(final Socket socket) {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(
+                    new HandshakeCounter(System.currentTimeMillis()));
+        }
+        return socket;
+    }
+
+    private final class HandshakeCounter
+            implements HandshakeCompletedListener {
+
+        private final long created;
+
+        HandshakeCounter(final long created) {
+            this.created = created;
+        }
+
+        public void handshakeCompleted(final HandshakeCompletedEvent event) {
+            if (event.getSession().getCreationTime() < created) {
+                resumedHandshakes.incrementAndGet();
+            } else {
+                fullHandshakes.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -50,6 +50,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
@@ -57,6 +58,7 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.security.cert.X509Certificate;
 import java.io.IOException;
 import java.net.*;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * A <code>SecureProtocolSocketFactory</code> that uses JSSE to create
@@ -83,6 +85,10 @@ public class StrictSSLProtocolSocketFactory
     /** Host name verify flag. */
     private boolean verifyHostname = true;
 
+    /** Cache of TLS sessions of the default SSL context. */
+    private final SSLSessionCache sessionCache;
+
+    private SSLContext sslcontext = null;
 
     /**
      * Constructor for StrictSSLProtocolSocketFactory.
@@ -106,8 +112,22 @@ public class StrictSSLProtocolSocketFactory
      *
      */
     public StrictSSLProtocolSocketFactory(boolean verifyHostname) {
+        this(verifyHostname, new SSLSessionCache());
+    }
+
+    /**
+     * Constructor for StrictSSLProtocolSocketFactory with specified cache of
+     * TLS sessions. Sockets are created by the JVM's default SSL context, so
+     * the cache settings apply to all its users.
+     *
+     * @param verifyHostname  The host name verification flag.
+     * @param sessionCache settings of the cache of TLS sessions to be resumed
+     * @see #StrictSSLProtocolSocketFactory(boolean)
+     */
+    public StrictSSLProtocolSocketFactory(boolean verifyHostname, SSLSessionCache sessionCache) {
         super();
         this.verifyHostname = verifyHostname;
+        this.sessionCache = sessionCache;
     }
 
     /**
@@ -115,7 +135,26 @@ public class StrictSSLProtocolSocketFactory
      * Host name verification will be enabled by default.
      */
     public StrictSSLProtocolSocketFactory() {
-        super();
+        this(true);
+    }
+
+    /**
+     * @return cache of TLS sessions with handshake counters
+     */
+    public SSLSessionCache getSessionCache() {
+        return sessionCache;
+    }
+
+    // context is configured only once, as sessions are cached in it
+    private synchronized SSLSocketFactory getSocketFactory() throws IOException {
+        if (this.sslcontext == null) {
+            try {
+                this.sslcontext = sessionCache.configure(SSLContext.getDefault());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("Default SSL context is not available: " + e.getMessage());
+            }
+        }
+        return this.sslcontext.getSocketFactory();
     }
 
     /**
@@ -151,10 +190,10 @@ public class StrictSSLProtocolSocketFactory
     public Socket createSocket(String host, int port, 
                                InetAddress clientHost, int clientPort)
         throws IOException, UnknownHostException {
-        SSLSocketFactory sf = (SSLSocketFactory) SSLSocketFactory.getDefault();
-        SSLSocket sslSocket = (SSLSocket) sf.createSocket(host, port, 
+        SSLSocketFactory sf = getSocketFactory();
+        SSLSocket sslSocket = (SSLSocket) sessionCache.track(sf.createSocket(host, port, 
                                                           clientHost, 
-                                                          clientPort);
+                                                          clientPort));
         verifyHostname(sslSocket);
 
         return sslSocket;
@@ -196,11 +235,11 @@ public class StrictSSLProtocolSocketFactory
         int timeout = params.getConnectionTimeout();
         Socket socket = null;
         
-        SocketFactory socketfactory = SSLSocketFactory.getDefault();
+        SocketFactory socketfactory = getSocketFactory();
         if (timeout == 0) {
-            socket = socketfactory.createSocket(host, port, localAddress, localPort);
+            socket = sessionCache.track(socketfactory.createSocket(host, port, localAddress, localPort));
         } else {
-            socket = socketfactory.createSocket();
+            socket = sessionCache.track(socketfactory.createSocket());
             SocketAddress localaddr = new InetSocketAddress(localAddress, localPort);
             SocketAddress remoteaddr = new InetSocketAddress(host, port);
             socket.bind(localaddr);
@@ -215,8 +254,8 @@ public class StrictSSLProtocolSocketFactory
      */
     public Socket createSocket(String host, int port)
         throws IOException, UnknownHostException {
-        SSLSocketFactory sf = (SSLSocketFactory) SSLSocketFactory.getDefault();
-        SSLSocket sslSocket = (SSLSocket) sf.createSocket(host, port);
+        SSLSocketFactory sf = getSocketFactory();
+        SSLSocket sslSocket = (SSLSocket) sessionCache.track(sf.createSocket(host, port));
         verifyHostname(sslSocket);
 
         return sslSocket;
@@ -228,9 +267,9 @@ public class StrictSSLProtocolSocketFactory
     public Socket createSocket(Socket socket, String host, int port, 
                                boolean autoClose)
         throws IOException, UnknownHostException {
-        SSLSocketFactory sf = (SSLSocketFactory) SSLSocketFactory.getDefault();
-        SSLSocket sslSocket = (SSLSocket) sf.createSocket(socket, host, 
-                                                          port, autoClose);
+        SSLSocketFactory sf = getSocketFactory();
+        SSLSocket sslSocket = (SSLSocket) sessionCache.track(sf.createSocket(socket, host, 
+                                                          port, autoClose));
         verifyHostname(sslSocket);
 
         return sslSocket;
@@ -36,6 +36,7 @@
 */
 package org.webharvest.definition;
 
+import org.webharvest.runtime.processors.HtmlCleanerConfig;
 import org.webharvest.runtime.processors.Processor;
 
 /**
@@ -63,6 +64,11 @@ public class HtmlToXmlDef extends WebHarvestPluginDef {
     private String prunetags;
     private String hyphenReplacement;
     private String booleanAtts;
+    private String stopAfter;
+    private String maxChars;
+    private String includeOnly;
+
+    private final HtmlCleanerConfig cleanerConfig;
 
     public HtmlToXmlDef(XmlNode xmlNode, Class<? extends Processor> processorClass) {
         super(xmlNode, processorClass);
@@ -87,6 +93,11 @@ public class HtmlToXmlDef extends WebHarvestPluginDef {
         this.prunetags = xmlNode.getAttribute("prunetags");
         this.hyphenReplacement = xmlNode.getAttribute("hyphenreplacement");
         this.booleanAtts = xmlNode.getAttribute("booleanatts");
+        this.stopAfter = xmlNode.getAttribute("stop-after");
+        this.maxChars = xmlNode.getAttribute("max-chars");
+        this.includeOnly = xmlNode.getAttribute("include-only");
+
+        this.cleanerConfig = new HtmlCleanerConfig(this);
     }
 
     public String getShortElementName() {
@@ -173,4 +184,24 @@ public class HtmlToXmlDef extends WebHarvestPluginDef {
         return booleanAtts;
     }
 
+    public String getStopAfter() {
+        return stopAfter;
+    }
+
+    public String getMaxChars() {
+        return maxChars;
+    }
+
+    public String getIncludeOnly() {
+        return includeOnly;
+    }
+
+    /**
+     * @return cleaner configuration compiled from attributes of this
+     *         definition, shared by all executions of the processor
+     */
+    public HtmlCleanerConfig getCleanerConfig() {
+        return cleanerConfig;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.definition;
+
+import org.webharvest.runtime.processors.Processor;
+import org.webharvest.utils.CommonUtil;
+
+/**
+ * Definition of HTTP batch processor. Besides its own attributes it accepts
+ * all attributes of HTTP processor except the URL, which is taken from the
+ * processor's body.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class HttpBatchDef extends HttpDef {
+
+    private static final String DEFAULT_PARALLELISM = Integer.toString(4);
+
+    private String parallelism;
+
+    public HttpBatchDef(XmlNode xmlNode, Class<? extends Processor<?>> processorClass) {
+        super(xmlNode, processorClass);
+
+        this.parallelism = CommonUtil.nvl(xmlNode.getAttribute("parallelism"), DEFAULT_PARALLELISM);
+    }
+
+    public String getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public String getShortElementName() {
+        return "http-batch";
+    }
+}
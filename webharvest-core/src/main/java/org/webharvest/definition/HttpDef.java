@@ -61,7 +61,17 @@ public class HttpDef extends WebHarvestPluginDef {
     private String password;
     private String cookiePolicy;
     private String followRedirects;
+    private String maxRedirects;
     private String ignoreResponseBody;
+    private String stream;
+    private String toFile;
+    private String segments;
+    private String maxBytes;
+    private String allowedContentTypes;
+    private String cache;
+    private String cacheMaxAge;
+    private String rateLimit;
+    private String compression;
 
     private String retryAttempts;
     private String retryDelay;
@@ -78,7 +88,17 @@ public class HttpDef extends WebHarvestPluginDef {
         this.password = xmlNode.getAttribute("password");
         this.cookiePolicy = xmlNode.getAttribute("cookie-policy");
         this.followRedirects = xmlNode.getAttribute("follow-redirects");
+        this.maxRedirects = xmlNode.getAttribute("max-redirects");
         this.ignoreResponseBody = xmlNode.getAttribute("ignore-response-body");
+        this.stream = xmlNode.getAttribute("stream");
+        this.toFile = xmlNode.getAttribute("to-file");
+        this.segments = xmlNode.getAttribute("segments");
+        this.maxBytes = xmlNode.getAttribute("max-bytes");
+        this.allowedContentTypes = xmlNode.getAttribute("allowed-content-types");
+        this.cache = xmlNode.getAttribute("cache");
+        this.cacheMaxAge = xmlNode.getAttribute("cache-max-age");
+        this.rateLimit = xmlNode.getAttribute("rate-limit");
+        this.compression = xmlNode.getAttribute("compression");
 
         this.retryAttempts = CommonUtil.nvl(xmlNode.getAttribute("retry-attempts"), DEFAULT_RETRY_ATTEMPTS);
         this.retryDelay = CommonUtil.nvl(xmlNode.getAttribute("retry-delay"), DEFAULT_RETRY_DELAY);
@@ -136,4 +156,44 @@ public class HttpDef extends WebHarvestPluginDef {
     public String getIgnoreResponseBody() {
         return ignoreResponseBody;
     }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public String getCache() {
+        return cache;
+    }
+
+    public String getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public String getRateLimit() {
+        return rateLimit;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public String getMaxRedirects() {
+        return maxRedirects;
+    }
+
+    public String getToFile() {
+        return toFile;
+    }
+
+    public String getSegments() {
+        return segments;
+    }
+
+    public String getMaxBytes() {
+        return maxBytes;
+    }
+
+    public String getAllowedContentTypes() {
+        return allowedContentTypes;
+    }
 }
\ No newline at end of file
@@ -47,6 +47,7 @@ public class HttpParamDef extends WebHarvestPluginDef {
     private String isfile;
     private String filename;
     private String contenttype;
+    private String path;
 
     public HttpParamDef(XmlNode xmlNode, Class<? extends Processor> processorClass) {
         super(xmlNode, processorClass);
@@ -55,6 +56,7 @@ public class HttpParamDef extends WebHarvestPluginDef {
         this.isfile = xmlNode.getAttribute("isfile");
         this.filename = xmlNode.getAttribute("filename");
         this.contenttype = xmlNode.getAttribute("contenttype");
+        this.path = xmlNode.getAttribute("path");
     }
 
     public String getName() {
@@ -73,6 +75,10 @@ public class HttpParamDef extends WebHarvestPluginDef {
         return contenttype;
     }
 
+    public String getPath() {
+        return path;
+    }
+
     public String getShortElementName() {
         return "http-param";
     }
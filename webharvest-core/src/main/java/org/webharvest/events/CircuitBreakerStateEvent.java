@@ -0,0 +1,93 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.events;
+
+import org.webharvest.runtime.web.HostCircuitBreaker;
+import org.webharvest.runtime.web.HostCircuitBreaker.State;
+
+/**
+ * Event informing that {@link HostCircuitBreaker} of some host has changed
+ * its state, e.g. it opened because the host stopped answering requests.
+ *
+ * @see HostCircuitBreaker
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class CircuitBreakerStateEvent {
+
+    private final String host;
+
+    private final State state;
+
+    /**
+     * Default class constructor which accepts not {@code null} host and new
+     * state of its circuit breaker.
+     *
+     * @param host
+     *            host whose circuit breaker has changed its state; must not
+     *            be null
+     * @param state
+     *            new state of the circuit breaker; must not be null
+     */
+    public CircuitBreakerStateEvent(final String host, final State state) {
+        if (host == null) {
+            throw new IllegalArgumentException("Host is mandatory.");
+        }
+        if (state == null) {
+            throw new IllegalArgumentException("State is mandatory.");
+        }
+        this.host = host;
+        this.state = state;
+    }
+
+    /**
+     * Returns host whose circuit breaker has changed its state.
+     *
+     * @return host whose circuit breaker has changed its state.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns new state of the circuit breaker.
+     *
+     * @return new state of the circuit breaker.
+     */
+    public State getState() {
+        return state;
+    }
+
+}
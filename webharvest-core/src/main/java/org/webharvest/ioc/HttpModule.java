@@ -33,10 +33,22 @@
 
 package org.webharvest.ioc;
 
+import org.webharvest.runtime.web.ArchivingHttpTransport;
+import org.webharvest.runtime.web.ConnectionPoolSettings;
+import org.webharvest.runtime.web.HostCircuitBreaker;
+import org.webharvest.runtime.web.HostRateLimiter;
+import org.webharvest.runtime.web.HttpArchive;
+import org.webharvest.runtime.web.HttpBatchExecutor;
 import org.webharvest.runtime.web.HttpClientManager;
 import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+import org.webharvest.runtime.web.HttpResponseCache;
+import org.webharvest.runtime.web.HttpTransport;
+import org.webharvest.runtime.web.PermanentRedirects;
+import org.webharvest.runtime.web.ProxyPool;
+import org.webharvest.runtime.web.SessionStore;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
 
 /**
  * Google Guice module containing bindings for Web-Harvest's HTTP-related
@@ -50,6 +62,26 @@ public final class HttpModule extends AbstractModule {
 
     private final ProxySettings proxySettings;
 
+    private ConnectionPoolSettings connectionPoolSettings =
+            ConnectionPoolSettings.NO_POOL_SET;
+
+    private HttpResponseCache responseCache = HttpResponseCache.NO_CACHE;
+
+    private HostRateLimiter rateLimiter = new HostRateLimiter();
+
+    private PermanentRedirects permanentRedirects;
+
+    private SessionStore sessionStore;
+
+    private ProxyPool proxyPool = ProxyPool.NO_PROXY_POOL;
+
+    private HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+
+    private Class<? extends HttpTransport> transportClass =
+            HttpClientManager.class;
+
+    private HttpArchive archive;
+
     /**
      * Instantiates {@link HttpModule} accepting not-{@code null} reference to
      * the HTTP {@link ProxySettings}. These settings will be used to perform
@@ -65,9 +97,192 @@ public final class HttpModule extends AbstractModule {
         this.proxySettings = proxySettings;
     }
 
+    /**
+     * Sets {@link ConnectionPoolSettings} defining how HTTP connections are
+     * managed by all HTTP clients created within this module - in particular
+     * whether they share one pool of connections. By default each client uses
+     * its own single connection.
+     *
+     * @param connectionPoolSettings
+     *            reference to not {@code null} {@link ConnectionPoolSettings}
+     * @return this module
+     *
+     * @see ConnectionPoolSettings
+     */
+    public HttpModule setConnectionPoolSettings(
+            final ConnectionPoolSettings connectionPoolSettings) {
+        this.connectionPoolSettings = connectionPoolSettings;
+        return this;
+    }
+
+    /**
+     * Sets {@link HttpResponseCache} shared by all HTTP clients created within
+     * this module. Responses are cached only for requests explicitly asking
+     * for it. By default no responses are cached.
+     *
+     * @param responseCache
+     *            reference to not {@code null} {@link HttpResponseCache}
+     * @return this module
+     *
+     * @see HttpResponseCache
+     */
+    public HttpModule setResponseCache(final HttpResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    /**
+     * Sets {@link HostRateLimiter} shared by all HTTP clients created within
+     * this module, which limits rate of requests sent to each host. Requests
+     * may override its default rate. By default rate of requests is not
+     * limited and hosts are only held back when they ask for it with
+     * Retry-After header.
+     *
+     * @param rateLimiter
+     *            reference to not {@code null} {@link HostRateLimiter}
+     * @return this module
+     *
+     * @see HostRateLimiter
+     */
+    public HttpModule setRateLimiter(final HostRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Sets {@link PermanentRedirects} shared by all HTTP clients created
+     * within this module, e.g. one persisted in a file. By default each HTTP
+     * client remembers permanent redirects only for the time of its scraping.
+     *
+     * @param permanentRedirects
+     *            reference to not {@code null} {@link PermanentRedirects}
+     * @return this module
+     *
+     * @see PermanentRedirects
+     */
+    public HttpModule setPermanentRedirects(
+            final PermanentRedirects permanentRedirects) {
+        this.permanentRedirects = permanentRedirects;
+        return this;
+    }
+
+    /**
+     * Sets {@link SessionStore} shared by all HTTP clients created within
+     * this module, e.g. one persisting named session in a file. By default
+     * each HTTP client starts new session for its scraping.
+     *
+     * @param sessionStore
+     *            reference to not {@code null} {@link SessionStore}
+     * @return this module
+     *
+     * @see SessionStore
+     */
+    public HttpModule setSessionStore(final SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+        return this;
+    }
+
+    /**
+     * Sets {@link ProxyPool} shared by all HTTP clients created within this
+     * module, which selects proxy for each request sent by
+     * {@link HttpClientManager} instead of the one of {@link ProxySettings}.
+     * By default there is no pool.
+     *
+     * @param proxyPool
+     *            reference to not {@code null} {@link ProxyPool}
+     * @return this module
+     *
+     * @see ProxyPool
+     */
+    public HttpModule setProxyPool(final ProxyPool proxyPool) {
+        this.proxyPool = proxyPool;
+        return this;
+    }
+
+    /**
+     * Sets {@link HostCircuitBreaker} shared by all HTTP clients created
+     * within this module, which makes requests to hosts that keep failing
+     * fail at once instead of retrying them. By default circuit breaker
+     * never opens.
+     *
+     * @param circuitBreaker
+     *            reference to not {@code null} {@link HostCircuitBreaker}
+     * @return this module
+     *
+     * @see HostCircuitBreaker
+     */
+    public HttpModule setCircuitBreaker(
+            final HostCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /**
+     * Sets implementation of {@link HttpTransport} executing requests of
+     * http processors, e.g. {@code Http2Transport} of webharvest-http2
+     * module. By default it is {@link HttpClientManager}.
+     *
+     * @param transportClass
+     *            not {@code null} class of the transport
+     * @return this module
+     *
+     * @see HttpTransport
+     */
+    public HttpModule setTransport(
+            final Class<? extends HttpTransport> transportClass) {
+        this.transportClass = transportClass;
+        return this;
+    }
+
+    /**
+     * Sets {@link HttpArchive} which either records responses of all
+     * requests executed by the transport, or serves the recorded responses
+     * instead of sending requests over network, depending on its mode. By
+     * default requests are neither recorded nor replayed.
+     *
+     * @param archive
+     *            reference to not {@code null} {@link HttpArchive}
+     * @return this module
+     *
+     * @see HttpArchive
+     * @see ArchivingHttpTransport
+     */
+    public HttpModule setArchive(final HttpArchive archive) {
+        this.archive = archive;
+        return this;
+    }
+
     @Override
     protected void configure() {
         bind(ProxySettings.class).toInstance(proxySettings);
+        bind(ConnectionPoolSettings.class).toInstance(connectionPoolSettings);
+        bind(HttpResponseCache.class).toInstance(responseCache);
+        bind(HostRateLimiter.class).toInstance(rateLimiter);
+        bind(ProxyPool.class).toInstance(proxyPool);
+        bind(HostCircuitBreaker.class).toInstance(circuitBreaker);
+        if (permanentRedirects != null) {
+            bind(PermanentRedirects.class).toInstance(permanentRedirects);
+        } else {
+            bind(PermanentRedirects.class);
+        }
+        if (sessionStore != null) {
+            bind(SessionStore.class).toInstance(sessionStore);
+        } else {
+            bind(SessionStore.class);
+        }
         bind(HttpClientManager.class).in(ScrapingScope.class);
+        bind(HttpBatchExecutor.class).in(ScrapingScope.class);
+        if (transportClass != HttpClientManager.class) {
+            bind(transportClass).in(ScrapingScope.class);
+        }
+        if (archive != null) {
+            bind(HttpArchive.class).toInstance(archive);
+            bind(HttpTransport.class).annotatedWith(Names.named("network"))
+                    .to(transportClass);
+            bind(ArchivingHttpTransport.class).in(ScrapingScope.class);
+            bind(HttpTransport.class).to(ArchivingHttpTransport.class);
+        } else {
+            bind(HttpTransport.class).to(transportClass);
+        }
     }
 }
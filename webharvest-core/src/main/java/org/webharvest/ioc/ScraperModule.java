@@ -39,6 +39,7 @@ import org.webharvest.runtime.WebScraper;
 import org.webharvest.runtime.database.ConnectionFactory;
 import org.webharvest.runtime.database.JNDIConnectionFactory;
 import org.webharvest.runtime.database.StandaloneConnectionPool;
+import org.webharvest.runtime.processors.XmlDocumentCache;
 import org.webharvest.runtime.scripting.ScriptEngineFactory;
 import org.webharvest.runtime.scripting.jsr.JSRScriptEngineFactory;
 import org.webharvest.runtime.templaters.BaseTemplater;
@@ -127,6 +128,7 @@ public final class ScraperModule extends AbstractModule {
                 Singleton.class);
         requestStaticInjection(BaseTemplater.class);
         bind(RuntimeConfig.class).in(Singleton.class);
+        bind(XmlDocumentCache.class).in(ScrapingScope.class);
     }
 
     protected void bindDBConnectionFactory() {
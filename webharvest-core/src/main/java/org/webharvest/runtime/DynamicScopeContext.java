@@ -38,6 +38,7 @@
 
 package org.webharvest.runtime;
 
+import java.io.Closeable;
 import java.io.File;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -71,6 +72,23 @@ public interface DynamicScopeContext extends Iterable<KeyValuePair<Variable>> {
 
     boolean containsVar(String name);
 
+    /**
+     * Registers variable holding an open resource (e.g. HTTP connection) in
+     * the current scope. The variable is closed when the scope ends, unless
+     * it is still referenced from the context or it is the result of the
+     * scope, in which case it is passed to the enclosing scope.
+     *
+     * @param variable
+     *            variable to be closed when it is not needed any more
+     */
+    <V extends Variable & Closeable> void registerResource(V variable);
+
+    /**
+     * Closes all registered variables, including the ones referenced from
+     * the context. Called when the execution of scraper ends.
+     */
+    void closeResources();
+
     @Deprecated
     FunctionDef getFunctionDef(String name);
 
@@ -3,6 +3,7 @@ package org.webharvest.runtime;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.query.StaticQueryContext;
 import org.webharvest.runtime.processors.XQueryExpressionPool;
+import org.webharvest.runtime.processors.XmlDocumentCache;
 
 /**
  * Facade for runtime objects needed for specific processors' execution.
@@ -12,24 +13,66 @@ import org.webharvest.runtime.processors.XQueryExpressionPool;
  */
 public class RuntimeConfig {
 
-    private StaticQueryContext staticQueryContext;
+    // both are read on every XPath/XQuery evaluation, so they are
+    // initialized lazily without locking once created
+    private volatile StaticQueryContext staticQueryContext;
 
-    private XQueryExpressionPool xQueryExpressionPool;
+    private volatile XQueryExpressionPool xQueryExpressionPool;
 
-    public synchronized StaticQueryContext getStaticQueryContext() {
-        if (staticQueryContext == null) {
-            Configuration config = new Configuration();
-            staticQueryContext = new StaticQueryContext(config);
+    private volatile XmlDocumentCache xmlDocumentCache;
+
+    public StaticQueryContext getStaticQueryContext() {
+        StaticQueryContext result = staticQueryContext;
+        if (result == null) {
+            synchronized (this) {
+                result = staticQueryContext;
+                if (result == null) {
+                    Configuration config = new Configuration();
+                    result = staticQueryContext = new StaticQueryContext(config);
+                }
+            }
         }
-        return staticQueryContext;
+        return result;
     }
 
-    public synchronized XQueryExpressionPool getXQueryExpressionPool() {
-        if (xQueryExpressionPool == null) {
-            xQueryExpressionPool = new XQueryExpressionPool(getStaticQueryContext());
+    public XQueryExpressionPool getXQueryExpressionPool() {
+        XQueryExpressionPool result = xQueryExpressionPool;
+        if (result == null) {
+            synchronized (this) {
+                result = xQueryExpressionPool;
+                if (result == null) {
+                    result = xQueryExpressionPool =
+                        new XQueryExpressionPool(getStaticQueryContext());
+                }
+            }
         }
+        return result;
+    }
+
+    /**
+     * @return cache of documents evaluated outside of scraping, e.g. by
+     *         {@link org.webharvest.utils.XmlUtil#evaluateXPath(String, String, RuntimeConfig)};
+     *         processors use the cache bound in the scope of their scraping
+     */
+    public XmlDocumentCache getXmlDocumentCache() {
+        XmlDocumentCache result = xmlDocumentCache;
+        if (result == null) {
+            synchronized (this) {
+                result = xmlDocumentCache;
+                if (result == null) {
+                    result = xmlDocumentCache =
+                        new XmlDocumentCache(getStaticQueryContext());
+                }
+            }
+        }
+        return result;
+    }
 
-        return xQueryExpressionPool;
+    /**
+     * @return statistics of compiled XPath and XQuery expressions usage
+     */
+    public XQueryExpressionPool.Statistics getXQueryStatistics() {
+        return getXQueryExpressionPool().getStatistics();
     }
 
 }
\ No newline at end of file
@@ -74,6 +74,9 @@ public class Scraper implements WebScraper {
         } catch (InterruptedException e) {
             informListenersAboutError(e);
             Thread.currentThread().interrupt();
+        } finally {
+            // e.g. connections of streamed HTTP responses
+            context.closeResources();
         }
 
         // inform all listeners that execution is finished
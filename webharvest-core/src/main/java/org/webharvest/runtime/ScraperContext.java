@@ -36,9 +36,13 @@
 */
 package org.webharvest.runtime;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -52,10 +56,12 @@ import org.webharvest.definition.Config;
 import org.webharvest.definition.FunctionDef;
 import org.webharvest.runtime.scripting.ScriptingLanguage;
 import org.webharvest.runtime.variables.EmptyVariable;
+import org.webharvest.runtime.variables.ListVariable;
 import org.webharvest.runtime.variables.ScriptingVariable;
+import org.webharvest.runtime.variables.StreamVariable;
 import org.webharvest.runtime.variables.Variable;
 import org.webharvest.runtime.variables.VariableName;
-import org.webharvest.runtime.web.HttpClientManager;
+import org.webharvest.runtime.web.HttpTransport;
 import org.webharvest.utils.Assert;
 import org.webharvest.utils.CommonUtil;
 import org.webharvest.utils.KeyValuePair;
@@ -70,12 +76,15 @@ import com.google.inject.Inject;
  */
 public class ScraperContext implements DynamicScopeContext {
 
-    @Inject private HttpClientManager httpClientManager;
+    @Inject private HttpTransport httpTransport;
 
     private Stack<Set<String>> variablesNamesStack = new Stack<Set<String>>();
 
     private Map<String, Stack<Variable>> centralReferenceTable = new HashMap<String, Stack<Variable>>();
 
+    // variables holding open resources, registered in each scope
+    private Stack<List<Variable>> resourcesStack = new Stack<List<Variable>>();
+
     // map of function definitions
     @Deprecated
     private final Map<String, FunctionDef> functionDefs = new HashMap<String, FunctionDef>();
@@ -90,13 +99,14 @@ public class ScraperContext implements DynamicScopeContext {
 
     public ScraperContext() {
         variablesNamesStack.push(new HashSet<String>());
+        resourcesStack.push(new ArrayList<Variable>());
     }
 
     @PostConstruct
     public void initContext() {
         setLocalVar("sys", new ScriptingVariable(new SystemUtilities(this)));
         setLocalVar("http", new ScriptingVariable(
-                httpClientManager.getHttpInfo()));
+                httpTransport.getHttpInfo()));
     }
 
     public void setLocalVar(String name, Object value) {
@@ -120,6 +130,24 @@ public class ScraperContext implements DynamicScopeContext {
             localVariableNames.add(name);
         }
         variableValueStack.push((Variable) ObjectUtils.defaultIfNull(variable, EmptyVariable.INSTANCE));
+        setRepeatable(variable);
+    }
+
+    /**
+     * Makes streams stored under a name readable repeatedly, as they can be
+     * referenced again. Anonymous streams are read by one consumer only, so
+     * their content is not copied.
+     */
+    private void setRepeatable(Variable variable) {
+        if (variable instanceof StreamVariable) {
+            ((StreamVariable) variable).setRepeatable();
+        } else if (variable instanceof ListVariable) {
+            for (Variable item : ((ListVariable) variable).toList()) {
+                if (item instanceof StreamVariable) {
+                    ((StreamVariable) item).setRepeatable();
+                }
+            }
+        }
     }
 
     @Override
@@ -159,9 +187,12 @@ public class ScraperContext implements DynamicScopeContext {
 
     @Override
     public <R> R executeWithinNewContext(Callable<R> callable) throws InterruptedException {
+        R result = null;
         try {
             variablesNamesStack.push(new HashSet<String>());
-            return callable.call();
+            resourcesStack.push(new ArrayList<Variable>());
+            result = callable.call();
+            return result;
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -174,9 +205,63 @@ public class ScraperContext implements DynamicScopeContext {
             for (String varName : variablesNamesStack.pop()) {
                 removeVarFromCRT(varName);
             }
+            releaseResources(resourcesStack.pop(), result);
+        }
+    }
+
+    @Override
+    public <V extends Variable & Closeable> void registerResource(V variable) {
+        resourcesStack.peek().add(variable);
+    }
+
+    @Override
+    public void closeResources() {
+        for (List<Variable> resources : resourcesStack.getList()) {
+            for (Variable resource : resources) {
+                close(resource);
+            }
+            resources.clear();
         }
     }
 
+    /**
+     * Closes resources of the scope which has just ended, passing the ones
+     * still in use to the enclosing scope.
+     */
+    private void releaseResources(List<Variable> resources, Object result) {
+        for (Variable resource : resources) {
+            if (refersTo(result, resource) || isReferenced(resource)) {
+                resourcesStack.peek().add(resource);
+            } else {
+                close(resource);
+            }
+        }
+    }
+
+    private boolean isReferenced(Variable resource) {
+        for (Stack<Variable> stack : centralReferenceTable.values()) {
+            for (Variable variable : stack.getList()) {
+                if (refersTo(variable, resource)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void close(Variable resource) {
+        try {
+            ((Closeable) resource).close();
+        } catch (IOException e) {
+            // nothing to be done, the resource is not used any more
+        }
+    }
+
+    private static boolean refersTo(Object value, Variable resource) {
+        return value == resource || (value instanceof ListVariable
+                && ((ListVariable) value).getList().contains(resource));
+    }
+
     private Variable removeVarFromCRT(String varName) {
         // TODO rbala Currently used only for the sake of validation.
         new VariableName(varName);
@@ -43,6 +43,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -51,6 +56,7 @@ import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.collections.IteratorUtils;
 import org.apache.commons.collections.Predicate;
+import org.apache.commons.io.IOUtils;
 import org.webharvest.annotation.Definition;
 import org.webharvest.definition.FileDef;
 import org.webharvest.exception.FileException;
@@ -59,7 +65,10 @@ import org.webharvest.runtime.DynamicScopeContext;
 import org.webharvest.runtime.processors.plugins.Autoscanned;
 import org.webharvest.runtime.processors.plugins.TargetNamespace;
 import org.webharvest.runtime.templaters.BaseTemplater;
+import org.webharvest.runtime.variables.EmptyVariable;
 import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.variables.TextVariable;
 import org.webharvest.runtime.variables.Types;
 import org.webharvest.runtime.variables.Variable;
 import org.webharvest.utils.CommonUtil;
@@ -190,24 +199,41 @@ public class FileProcessor extends AbstractProcessor<FileDef> {
             new File(CommonUtil.getDirectoryFromPath(fullPath)).mkdirs();
 
             FileOutputStream out = new FileOutputStream(fullPath, append);
-            byte[] data;
-
-            if (Types.TYPE_BINARY.equalsIgnoreCase(type)) {
-                Variable bodyListVar = new BodyProcessor.Builder(elementDef).
-                    setParentProcessor(this).build().execute(context);
-                result = appendBinary(bodyListVar);
-                data = result.toBinary();
-            } else {
-                Variable body = getBodyTextContent(elementDef, context);
-                String content = body.toString();
-                data = content.getBytes(charset);
-                result = new NodeVariable(content);
+            try {
+                if (Types.TYPE_BINARY.equalsIgnoreCase(type)) {
+                    Variable bodyListVar = new BodyProcessor.Builder(elementDef).
+                        setParentProcessor(this).build().execute(context);
+                    if (bodyListVar instanceof StreamVariable) {
+                        // streamed content goes directly to the file and
+                        // is not kept in memory, so there is nothing to return
+                        copyStream(bodyListVar.toInputStream(), out);
+                        result = EmptyVariable.INSTANCE;
+                    } else {
+                        result = appendBinary(bodyListVar);
+                        out.write(result.toBinary());
+                    }
+                } else {
+                    Variable body = getBodyTextContent(elementDef, context);
+                    if (body instanceof StreamVariable) {
+                        final Writer writer = new OutputStreamWriter(out, charset);
+                        copyStream(body.toReader(), writer);
+                        writer.flush();
+                        result = EmptyVariable.INSTANCE;
+                    } else if (body instanceof TextVariable) {
+                        // text in the same charset is written undecoded
+                        out.write(body.toBinary(charset));
+                        result = body;
+                    } else {
+                        String content = body.toString();
+                        out.write(content.getBytes(charset));
+                        result = new NodeVariable(content);
+                    }
+                }
+                out.flush();
+            } finally {
+                out.close();
             }
 
-            out.write(data);
-            out.flush();
-            out.close();
-
             return result;
         } catch (IOException e) {
             throw new FileException("Error writing data to file: " + fullPath,
@@ -215,6 +241,23 @@ public class FileProcessor extends AbstractProcessor<FileDef> {
         }
     }
 
+    private void copyStream(InputStream in, OutputStream out)
+            throws IOException {
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void copyStream(Reader in, Writer out) throws IOException {
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
     /**
      * Reading the specified file.
      */
@@ -0,0 +1,458 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.processors;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.TagNode;
+import org.htmlcleaner.XmlSerializer;
+import org.webharvest.definition.HtmlToXmlDef;
+import org.webharvest.exception.ConfigurationException;
+import org.webharvest.runtime.DynamicScopeContext;
+import org.webharvest.runtime.templaters.BaseTemplater;
+import org.webharvest.utils.CommonUtil;
+import org.webharvest.utils.HtmlRegionReader;
+import org.webharvest.utils.TagNodeXmlReader;
+import org.webharvest.utils.TagSelector;
+
+/**
+ * Configuration of {@link HtmlCleaner} compiled from attributes of
+ * {@link HtmlToXmlDef}. Attributes with static values are resolved once,
+ * when the definition is created, and if none of them is templated, the
+ * same cleaner is used by all executions of the processor. Only templated
+ * attributes are evaluated on each execution.
+ * <p/>
+ * Besides the cleaner, the configuration specifies the region of the page
+ * to be cleaned: the input ends after the elements selected by stop-after
+ * attribute (or after max-chars characters), and only subtrees selected by
+ * include-only attribute are kept in the result. If stop-after is not
+ * specified and all include-only selectors select elements by id, the
+ * input ends after these elements.
+ * <p/>
+ * Instance is immutable and may be shared by concurrently running
+ * processors, as cleaning does not change the cleaner.
+ *
+ * @see HtmlToXmlProcessor
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class HtmlCleanerConfig {
+
+    /**
+     * Attribute of html-to-xml element applied to {@link CleanerProperties}.
+     */
+    private enum Option {
+        ADVANCED_XML_ESCAPE {
+            String getSource(HtmlToXmlDef def) {
+                return def.getAdvancedXmlEscape();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setAdvancedXmlEscape(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        USE_CDATA {
+            String getSource(HtmlToXmlDef def) {
+                return def.getUseCdataForScriptAndStyle();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setUseCdataForScriptAndStyle(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        SPECIAL_ENTITIES {
+            String getSource(HtmlToXmlDef def) {
+                return def.getTranslateSpecialEntities();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setTranslateSpecialEntities(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        UNICODE_CHARS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getRecognizeUnicodeChars();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setRecognizeUnicodeChars(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        OMIT_UNKNOWN_TAGS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getOmitUnknownTags();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setOmitUnknownTags(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        USE_EMPTY_ELEMENT_TAGS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getUseEmptyElementTags();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setUseEmptyElementTags(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        TREAT_UNKNOWN_TAGS_AS_CONTENT {
+            String getSource(HtmlToXmlDef def) {
+                return def.getTreatUnknownTagsAsContent();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setTreatUnknownTagsAsContent(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        OMIT_DEPRECATED_TAGS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getOmitDeprecatedTags();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setOmitDeprecatedTags(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        TREAT_DEPRECATED_TAGS_AS_CONTENT {
+            String getSource(HtmlToXmlDef def) {
+                return def.getTreatDeprecatedTagsAsContent();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setTreatDeprecatedTagsAsContent(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        OMIT_XML_DECL {
+            String getSource(HtmlToXmlDef def) {
+                return def.getOmitXmlDecl();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setOmitXmlDeclaration(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        OMIT_COMMENTS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getOmitComments();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setOmitComments(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        OMIT_HTML_ENVELOPE {
+            String getSource(HtmlToXmlDef def) {
+                return def.getOmitHtmlEnvelope();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setOmitHtmlEnvelope(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        ALLOW_MULTI_WORD_ATTRIBUTES {
+            String getSource(HtmlToXmlDef def) {
+                return def.getAllowMultiWordAttributes();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setAllowMultiWordAttributes(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        ALLOW_HTML_INSIDE_ATTRIBUTES {
+            String getSource(HtmlToXmlDef def) {
+                return def.getAllowHtmlInsideAttributes();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setAllowHtmlInsideAttributes(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        NAMESPACES_AWARE {
+            String getSource(HtmlToXmlDef def) {
+                return def.getNamespacesAware();
+            }
+            void apply(CleanerProperties properties, String value) {
+                // unlike HtmlCleaner itself, html-to-xml ignores namespaces by default
+                properties.setNamespacesAware(CommonUtil.isBooleanTrue(value));
+            }
+        },
+        HYPHEN_REPLACEMENT {
+            String getSource(HtmlToXmlDef def) {
+                return def.getHyphenReplacement();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setHyphenReplacementInComment(value);
+            }
+        },
+        PRUNE_TAGS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getPrunetags();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setPruneTags(value);
+            }
+        },
+        BOOLEAN_ATTS {
+            String getSource(HtmlToXmlDef def) {
+                return def.getBooleanAtts();
+            }
+            void apply(CleanerProperties properties, String value) {
+                properties.setBooleanAttributeValues(value);
+            }
+        };
+
+        abstract String getSource(HtmlToXmlDef def);
+
+        /**
+         * Applies value of the attribute, which is {@code null} if the
+         * attribute is not specified or evaluates to empty string.
+         */
+        abstract void apply(CleanerProperties properties, String value);
+
+        boolean isAppliedWhenMissing() {
+            return this == NAMESPACES_AWARE;
+        }
+    }
+
+    private final List<Option> staticOptions = new ArrayList<Option>();
+    private final List<String> staticValues = new ArrayList<String>();
+    private final List<Option> templatedOptions = new ArrayList<Option>();
+    private final List<String> templatedSources = new ArrayList<String>();
+
+    private final String outputType;
+    private final String replaceNbspWithSp;
+
+    private final String stopAfter;
+    private final String maxChars;
+    private final String includeOnly;
+    private final List<TagSelector> staticStopAfter;
+    private final List<TagSelector> staticIncludeOnly;
+
+    private final HtmlCleaner staticCleaner;
+
+    /**
+     * Compiles configuration of specified html-to-xml definition.
+     */
+    public HtmlCleanerConfig(final HtmlToXmlDef def) {
+        for (Option option : Option.values()) {
+            final String source = option.getSource(def);
+            if (isTemplated(source)) {
+                templatedOptions.add(option);
+                templatedSources.add(source);
+            } else if (source != null && source.length() > 0
+                    || option.isAppliedWhenMissing()) {
+                staticOptions.add(option);
+                staticValues.add(source != null && source.length() > 0
+                        ? source : null);
+            }
+        }
+        this.outputType = def.getOutputType();
+        this.replaceNbspWithSp = def.getReplaceNbspWithSp();
+        this.stopAfter = def.getStopAfter();
+        this.maxChars = def.getMaxChars();
+        this.includeOnly = def.getIncludeOnly();
+        this.staticStopAfter = isTemplated(stopAfter) ? null
+                : parseSelectors(stopAfter);
+        this.staticIncludeOnly = isTemplated(includeOnly) ? null
+                : parseSelectors(includeOnly);
+        if (!isTemplated(maxChars)) {
+            parseMaxChars(maxChars);
+        }
+        this.staticCleaner = templatedOptions.isEmpty()
+                ? new HtmlCleaner(createStaticProperties()) : null;
+    }
+
+    private static boolean isTemplated(final String source) {
+        return source != null && source.indexOf(BaseTemplater.VAR_START) >= 0;
+    }
+
+    private CleanerProperties createStaticProperties() {
+        final CleanerProperties properties = new CleanerProperties();
+        for (int i = 0; i < staticOptions.size(); i++) {
+            staticOptions.get(i).apply(properties, staticValues.get(i));
+        }
+        return properties;
+    }
+
+    /**
+     * @return whether all attributes applied to cleaner are static, so the
+     *         same cleaner is used by all executions
+     */
+    public boolean isStatic() {
+        return staticCleaner != null;
+    }
+
+    /**
+     * Returns cleaner configured for execution in specified context. The
+     * shared cleaner is returned, unless some of its attributes are
+     * templated.
+     */
+    public HtmlCleaner getCleaner(final DynamicScopeContext context) {
+        if (staticCleaner != null) {
+            return staticCleaner;
+        }
+        final CleanerProperties properties = createStaticProperties();
+        for (int i = 0; i < templatedOptions.size(); i++) {
+            final Option option = templatedOptions.get(i);
+            final String value = BaseTemplater.evaluateToString(
+                    templatedSources.get(i), null, context);
+            if (value != null || option.isAppliedWhenMissing()) {
+                option.apply(properties, value);
+            }
+        }
+        return new HtmlCleaner(properties);
+    }
+
+    /**
+     * Creates serializer of the output type specified in html-to-xml
+     * element. Serializers keep state of indentation, so each execution
+     * gets a new one.
+     */
+    public XmlSerializer createSerializer(final CleanerProperties properties,
+            final DynamicScopeContext context) {
+        return TagNodeXmlReader.createSerializer(properties,
+                getOutputType(context));
+    }
+
+    /**
+     * @return output type specified in html-to-xml element
+     */
+    public String getOutputType(final DynamicScopeContext context) {
+        return evaluate(outputType, context);
+    }
+
+    /**
+     * Limits specified input of the cleaner to the region of the page
+     * specified in html-to-xml element.
+     *
+     * @return the same reader if whole page is to be cleaned
+     */
+    public Reader limitInput(final Reader reader,
+            final DynamicScopeContext context) {
+        List<TagSelector> region = staticStopAfter != null ? staticStopAfter
+                : parseSelectors(evaluate(stopAfter, context));
+        if (region.isEmpty()) {
+            region = getIncludeOnly(context);
+            for (TagSelector selector : region) {
+                if (!selector.isUnique()) {
+                    region = Collections.emptyList();
+                    break;
+                }
+            }
+        }
+        final long limit = parseMaxChars(evaluate(maxChars, context));
+        return region.isEmpty() && limit < 0 ? reader
+                : new HtmlRegionReader(reader, region, limit);
+    }
+
+    /**
+     * Removes everything but subtrees selected by include-only attribute
+     * and their ancestors from specified cleaned tree.
+     *
+     * @return the same root
+     */
+    public TagNode selectSubtrees(final TagNode root,
+            final DynamicScopeContext context) {
+        final List<TagSelector> selectors = getIncludeOnly(context);
+        if (!selectors.isEmpty() && !matchesAny(root, selectors)) {
+            retainSelected(root, selectors);
+        }
+        return root;
+    }
+
+    private List<TagSelector> getIncludeOnly(final DynamicScopeContext context) {
+        return staticIncludeOnly != null ? staticIncludeOnly
+                : parseSelectors(evaluate(includeOnly, context));
+    }
+
+    /**
+     * Removes children of specified node which neither match any of the
+     * selectors nor contain matching node.
+     *
+     * @return whether any child is retained
+     */
+    private static boolean retainSelected(final TagNode node,
+            final List<TagSelector> selectors) {
+        final List<Object> retained = new ArrayList<Object>();
+        for (Object child : node.getChildren()) {
+            if (child instanceof TagNode
+                    && (matchesAny((TagNode) child, selectors)
+                    || retainSelected((TagNode) child, selectors))) {
+                retained.add(child);
+            }
+        }
+        if (retained.size() != node.getChildren().size()) {
+            node.removeAllChildren();
+            node.addChildren(retained);
+        }
+        return !retained.isEmpty();
+    }
+
+    private static boolean matchesAny(final TagNode node,
+            final List<TagSelector> selectors) {
+        for (TagSelector selector : selectors) {
+            if (selector.matches(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<TagSelector> parseSelectors(final String selectors) {
+        try {
+            return TagSelector.parseList(selectors);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(e.getMessage(), e);
+        }
+    }
+
+    private static long parseMaxChars(final String maxChars) {
+        try {
+            return maxChars == null || maxChars.trim().length() == 0 ? -1
+                    : Long.parseLong(maxChars.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid max-chars value: "
+                    + maxChars, e);
+        }
+    }
+
+    /**
+     * @return whether non-breaking spaces are to be replaced with spaces
+     */
+    public boolean isReplaceNbspWithSp(final DynamicScopeContext context) {
+        return BooleanUtils.toBoolean(evaluate(replaceNbspWithSp, context));
+    }
+
+    private static String evaluate(final String source,
+            final DynamicScopeContext context) {
+        return isTemplated(source)
+                ? BaseTemplater.evaluateToString(source, null, context)
+                : source;
+    }
+
+}
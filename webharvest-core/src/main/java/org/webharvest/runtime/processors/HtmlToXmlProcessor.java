@@ -40,30 +40,25 @@ import static org.webharvest.WHConstants.XMLNS_CORE;
 import static org.webharvest.WHConstants.XMLNS_CORE_10;
 
 import java.io.IOException;
+import java.io.Reader;
 
-import org.apache.commons.lang.BooleanUtils;
-import org.htmlcleaner.BrowserCompactXmlSerializer;
-import org.htmlcleaner.CleanerProperties;
-import org.htmlcleaner.CompactXmlSerializer;
+import org.apache.commons.io.IOUtils;
 import org.htmlcleaner.HtmlCleaner;
-import org.htmlcleaner.PrettyXmlSerializer;
-import org.htmlcleaner.SimpleXmlSerializer;
-import org.htmlcleaner.XmlSerializer;
+import org.htmlcleaner.TagNode;
 import org.webharvest.annotation.Definition;
 import org.webharvest.definition.HtmlToXmlDef;
 import org.webharvest.exception.ParserException;
 import org.webharvest.runtime.DynamicScopeContext;
 import org.webharvest.runtime.processors.plugins.Autoscanned;
 import org.webharvest.runtime.processors.plugins.TargetNamespace;
-import org.webharvest.runtime.templaters.BaseTemplater;
-import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.HtmlDocumentVariable;
 import org.webharvest.runtime.variables.Variable;
-import org.webharvest.utils.CommonUtil;
 
 /**
- * HTML to XML processor.
+ * HTML to XML processor. The cleaned tree is returned as
+ * {@link HtmlDocumentVariable}, so XML processors consume it directly and
+ * it is serialized only if its text is needed.
  */
-//TODO Add unit test
 //TODO Add javadoc
 @Autoscanned
 @TargetNamespace({ XMLNS_CORE, XMLNS_CORE_10 })
@@ -73,132 +68,31 @@ import org.webharvest.utils.CommonUtil;
         "omitdeprtags", "treatdeprtagsascontent", "omitxmldecl", "omitcomments",
         "omithtmlenvelope", "useemptyelementtags", "allowmultiwordattributes",
         "allowhtmlinsideattributes", "namespacesaware", "hyphenreplacement",
-        "prunetags", "booleanatts" }, definitionClass=HtmlToXmlDef.class)
+        "prunetags", "booleanatts", "stop-after", "max-chars",
+        "include-only" }, definitionClass=HtmlToXmlDef.class)
 public class HtmlToXmlProcessor extends AbstractProcessor<HtmlToXmlDef> {
 
     public Variable execute(DynamicScopeContext context) throws InterruptedException {
         Variable body = getBodyTextContent(elementDef, context);
 
-        HtmlCleaner cleaner = new HtmlCleaner();
-        CleanerProperties properties = cleaner.getProperties();
-
-        final String advancedXmlEscape = BaseTemplater.evaluateToString(elementDef.getAdvancedXmlEscape(), null, context);
-        if (advancedXmlEscape != null) {
-            properties.setAdvancedXmlEscape(CommonUtil.isBooleanTrue(advancedXmlEscape));
-        }
-
-        final String cdataForScriptAndStyle = BaseTemplater.evaluateToString(elementDef.getUseCdataForScriptAndStyle(), null, context);
-        if (cdataForScriptAndStyle != null) {
-            properties.setUseCdataForScriptAndStyle(CommonUtil.isBooleanTrue(cdataForScriptAndStyle));
-        }
-
-        final String specialEntities = BaseTemplater.evaluateToString(elementDef.getTranslateSpecialEntities(), null, context);
-        if (specialEntities != null) {
-            properties.setTranslateSpecialEntities(CommonUtil.isBooleanTrue(specialEntities));
-        }
-
-        final String recognizeUnicodeChars = BaseTemplater.evaluateToString(elementDef.getRecognizeUnicodeChars(), null, context);
-        if (recognizeUnicodeChars != null) {
-            properties.setRecognizeUnicodeChars(CommonUtil.isBooleanTrue(recognizeUnicodeChars));
-        }
-
-        final String replaceNbspWithSp = BaseTemplater.evaluateToString(elementDef.getReplaceNbspWithSp(), null, context);
-
-        final String omitUnknownTags = BaseTemplater.evaluateToString(elementDef.getOmitUnknownTags(), null, context);
-        if (omitUnknownTags != null) {
-            properties.setOmitUnknownTags(CommonUtil.isBooleanTrue(omitUnknownTags));
-        }
-
-        final String useEmptyElementTags = BaseTemplater.evaluateToString(elementDef.getUseEmptyElementTags(), null, context);
-        if (useEmptyElementTags != null) {
-            properties.setUseEmptyElementTags(CommonUtil.isBooleanTrue(useEmptyElementTags));
-        }
-
-        final String treatUnknownTagsAsContent = BaseTemplater.evaluateToString(elementDef.getTreatUnknownTagsAsContent(), null, context);
-        if (treatUnknownTagsAsContent != null) {
-            properties.setTreatUnknownTagsAsContent(CommonUtil.isBooleanTrue(treatUnknownTagsAsContent));
-        }
-
-        final String omitDeprecatedTags = BaseTemplater.evaluateToString(elementDef.getOmitDeprecatedTags(), null, context);
-        if (omitDeprecatedTags != null) {
-            properties.setOmitDeprecatedTags(CommonUtil.isBooleanTrue(omitDeprecatedTags));
-        }
-
-        final String treatDeprTagsAsContent = BaseTemplater.evaluateToString(elementDef.getTreatDeprecatedTagsAsContent(), null, context);
-        if (treatDeprTagsAsContent != null) {
-            properties.setTreatDeprecatedTagsAsContent(CommonUtil.isBooleanTrue(treatDeprTagsAsContent));
-        }
-
-        final String omitXmlDecl = BaseTemplater.evaluateToString(elementDef.getOmitXmlDecl(), null, context);
-        if (omitXmlDecl != null) {
-            properties.setOmitXmlDeclaration(CommonUtil.isBooleanTrue(omitXmlDecl));
-        }
-
-        final String omitComments = BaseTemplater.evaluateToString(elementDef.getOmitComments(), null, context);
-        if (omitComments != null) {
-            properties.setOmitComments(CommonUtil.isBooleanTrue(omitComments));
-        }
-
-        final String omitHtmlEnvelope = BaseTemplater.evaluateToString(elementDef.getOmitHtmlEnvelope(), null, context);
-        if (omitHtmlEnvelope != null) {
-            properties.setOmitHtmlEnvelope(CommonUtil.isBooleanTrue(omitHtmlEnvelope));
-        }
-
-        final String allowMultiWordAttributes = BaseTemplater.evaluateToString(elementDef.getAllowMultiWordAttributes(), null, context);
-        if (allowMultiWordAttributes != null) {
-            properties.setAllowMultiWordAttributes(CommonUtil.isBooleanTrue(allowMultiWordAttributes));
-        }
-
-        final String allowHtmlInsideAttributes = BaseTemplater.evaluateToString(elementDef.getAllowHtmlInsideAttributes(), null, context);
-        if (allowHtmlInsideAttributes != null) {
-            properties.setAllowHtmlInsideAttributes(CommonUtil.isBooleanTrue(allowHtmlInsideAttributes));
-        }
-
-        final String namespacesAware = BaseTemplater.evaluateToString(elementDef.getNamespacesAware(), null, context);
-        if (namespacesAware != null) {
-            properties.setNamespacesAware(CommonUtil.isBooleanTrue(namespacesAware));
-        } else {
-            properties.setNamespacesAware(false);
-        }
-
-        final String hyphenReplacement = BaseTemplater.evaluateToString(elementDef.getHyphenReplacement(), null, context);
-        if (hyphenReplacement != null) {
-            properties.setHyphenReplacementInComment(hyphenReplacement);
-        }
-
-        final String pruneTags = BaseTemplater.evaluateToString(elementDef.getPrunetags(), null, context);
-        if (pruneTags != null) {
-            properties.setPruneTags(pruneTags);
-        }
-
-        final String booleanAtts = BaseTemplater.evaluateToString(elementDef.getBooleanAtts(), null, context);
-        if (booleanAtts != null) {
-            properties.setBooleanAttributeValues(booleanAtts);
-        }
-
-        String outputType = BaseTemplater.evaluateToString(elementDef.getOutputType(), null, context);
+        final HtmlCleanerConfig config = elementDef.getCleanerConfig();
+        final HtmlCleaner cleaner = config.getCleaner(context);
 
+        // input may end before the end of the page, so it is closed here
+        final Reader reader = config.limitInput(body.toReader(), context);
         try {
-            XmlSerializer xmlSerializer;
-            if ("simple".equalsIgnoreCase(outputType)) {
-                xmlSerializer = new SimpleXmlSerializer(properties);
-            } else if ("pretty".equalsIgnoreCase(outputType)) {
-                xmlSerializer = new PrettyXmlSerializer(properties);
-            } else if ("browser-compact".equalsIgnoreCase(outputType)) {
-                xmlSerializer = new BrowserCompactXmlSerializer(properties);
-            } else {
-                xmlSerializer = new CompactXmlSerializer(properties);
-            }
-
-            final String xmlAsString = xmlSerializer.getAsString(cleaner.clean(body.toString()));
-
-            return new NodeVariable(
-                    BooleanUtils.toBoolean(replaceNbspWithSp)
-                            ? xmlAsString.replace('\u00A0', ' ')
-                            : xmlAsString);
+            final TagNode root = cleaner.clean(reader);
+
+            return new HtmlDocumentVariable(
+                    config.selectSubtrees(root, context),
+                    cleaner.getProperties(),
+                    config.getOutputType(context),
+                    config.isReplaceNbspWithSp(context));
 
         } catch (IOException e) {
             throw new ParserException(e);
+        } finally {
+            IOUtils.closeQuietly(reader);
         }
     }
 
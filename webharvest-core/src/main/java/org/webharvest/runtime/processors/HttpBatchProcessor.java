@@ -0,0 +1,367 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.processors;
+
+import static org.webharvest.WHConstants.XMLNS_CORE;
+import static org.webharvest.utils.CommonUtil.getBooleanValue;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.webharvest.annotation.Definition;
+import org.webharvest.definition.HttpBatchDef;
+import org.webharvest.runtime.DynamicScopeContext;
+import org.webharvest.runtime.processors.plugins.Autoscanned;
+import org.webharvest.runtime.processors.plugins.TargetNamespace;
+import org.webharvest.runtime.templaters.BaseTemplater;
+import org.webharvest.runtime.variables.EmptyVariable;
+import org.webharvest.runtime.variables.ListVariable;
+import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.runtime.web.ContentTypeFilter;
+import org.webharvest.runtime.web.HostRateLimiter;
+import org.webharvest.runtime.web.HttpBatchExecutor;
+import org.webharvest.runtime.web.HttpRequestOptions;
+import org.webharvest.runtime.web.HttpResponseWrapper;
+import org.webharvest.utils.CommonUtil;
+
+import com.google.common.base.Throwables;
+import com.google.inject.Inject;
+
+/**
+ * Executes HTTP requests for all URLs from its body concurrently and returns
+ * list of their response bodies in the order of URLs. Parameters and headers
+ * defined in the body by http-param and http-header processors, as well as
+ * the other attributes of HTTP processor, apply to every request. If a
+ * request fails its error is logged and reported as processor's property,
+ * and its place in the result list is taken by an empty value.
+ * <p/>
+ * Requests are executed concurrently only if connections of the HTTP client
+ * are pooled, otherwise one after another. Batches of single scraping share
+ * the threads of {@link HttpBatchExecutor}, so no more requests than the
+ * connections per host are executed at the same time. Each thread takes the
+ * next request to a host which the {@link HostRateLimiter} lets requests to
+ * right away, so requests to other hosts are sent while one host is held
+ * back.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see HttpProcessor
+ */
+@Autoscanned
+@TargetNamespace(XMLNS_CORE)
+@Definition(value = "http-batch", validAttributes = { "id", "parallelism",
+        "method", "follow-redirects", "max-redirects", "retry-attempts", "retry-delay",
+        "retry-delay-factor", "content-type", "charset", "username",
+        "password", "cookie-policy", "cache", "cache-max-age",
+        "rate-limit", "compression", "max-bytes", "allowed-content-types" },
+        definitionClass = HttpBatchDef.class)
+public class HttpBatchProcessor extends HttpProcessor {
+
+    @Inject
+    private HttpBatchExecutor batchExecutor;
+
+    @Inject
+    private HostRateLimiter rateLimiter;
+
+    @Override
+    public Variable execute(final DynamicScopeContext context)
+            throws InterruptedException {
+        final HttpBatchDef batchDef = (HttpBatchDef) elementDef;
+
+        final String method = BaseTemplater.evaluateToString(
+                batchDef.getMethod(), null, context);
+        final Boolean followRedirects = getBooleanValue(
+                BaseTemplater.evaluateToString(batchDef.getFollowRedirects(),
+                        null, context), true);
+        final String contentType = BaseTemplater.evaluateToString(
+                batchDef.getContentType(), null, context);
+        final String specifiedCharset = BaseTemplater.evaluateToString(
+                batchDef.getCharset(), null, context);
+        final String username = BaseTemplater.evaluateToString(
+                batchDef.getUsername(), null, context);
+        final String password = BaseTemplater.evaluateToString(
+                batchDef.getPassword(), null, context);
+        final String cookiePolicy = BaseTemplater.evaluateToString(
+                batchDef.getCookiePolicy(), null, context);
+        final int retryAttempts = BaseTemplater.evaluateToVariable(
+                batchDef.getRetryAttempts(), null, context).toInt();
+        final long retryDelay = BaseTemplater.evaluateToVariable(
+                batchDef.getRetryDelay(), null, context).toLong();
+        final double retryDelayFactor = BaseTemplater.evaluateToVariable(
+                batchDef.getRetryDelayFactor(), null, context).toDouble();
+        int parallelism = BaseTemplater.evaluateToVariable(
+                batchDef.getParallelism(), null, context).toInt();
+        final long maxBytes = getMaxBytes(BaseTemplater.evaluateToString(
+                batchDef.getMaxBytes(), null, context));
+        final ContentTypeFilter contentTypeFilter = ContentTypeFilter.parse(
+                BaseTemplater.evaluateToString(
+                        batchDef.getAllowedContentTypes(), null, context));
+
+        final String charset = specifiedCharset != null
+                ? specifiedCharset : context.getCharset();
+
+        // executes body of the processor - defines parameters, headers and URLs
+        final Variable urls = new BodyProcessor.Builder(batchDef).
+            setParentProcessor(this).build().execute(context);
+
+        final List<String> encodedUrls = new ArrayList<String>();
+        for (Variable url : urls.toList()) {
+            if (!url.isEmpty()) {
+                encodedUrls.add(CommonUtil.encodeUrl(url.toString().trim(),
+                        charset));
+            }
+        }
+
+        if (parallelism < 1) {
+            parallelism = 1;
+        } else if (parallelism > 1
+                && !httpTransport.supportsConcurrentRequests()) {
+            LOG.warn("HTTP connections are not pooled, requests of the batch will be executed one after another");
+            parallelism = 1;
+        } else if (parallelism > batchExecutor.getMaxThreads()) {
+            LOG.info("Parallelism limited to {} connections per host",
+                    batchExecutor.getMaxThreads());
+            parallelism = batchExecutor.getMaxThreads();
+        }
+
+        httpTransport.setCookiePolicy(cookiePolicy);
+
+        final HttpRequestOptions options = createRequestOptions(context,
+                maxBytes < 0);
+
+        LOG.info("Executing method {} for {} URLs using {} thread(s)...",
+                new Object[] { method, encodedUrls.size(), parallelism });
+
+        final List<Callable<Variable>> requests =
+            new ArrayList<Callable<Variable>>(encodedUrls.size());
+        for (final String url : encodedUrls) {
+            requests.add(new Callable<Variable>() {
+                @Override
+                public Variable call() throws Exception {
+                    final HttpResponseWrapper res = httpTransport.execute(
+                            method, followRedirects, contentType, url,
+                            charset, username, password,
+                            EmptyVariable.INSTANCE, httpParams, httpHeaderMap,
+                            retryAttempts, retryDelay, retryDelayFactor,
+                            options);
+                    try {
+                        if (!contentTypeFilter.accepts(res.getMimeType())) {
+                            LOG.info("Skipping response of content type {} from {}",
+                                    res.getMimeType(), url);
+                            res.abort();
+                            return EmptyVariable.INSTANCE;
+                        }
+                        // response to HEAD request has no body
+                        if ("head".equalsIgnoreCase(method)) {
+                            return EmptyVariable.INSTANCE;
+                        }
+                        return createResponseVariable(res, maxBytes,
+                                specifiedCharset, charset);
+                    } finally {
+                        res.close();
+                    }
+                }
+            });
+        }
+
+        final double requestsPerSecond = options.getRateLimit() >= 0
+                ? options.getRateLimit() : rateLimiter.getRequestsPerSecond();
+        final PendingRequests pending = new PendingRequests(requestsPerSecond);
+        for (int i = 0; i < encodedUrls.size(); i++) {
+            pending.add(i, getHost(encodedUrls.get(i)));
+        }
+
+        final Variable[] responses = new Variable[requests.size()];
+        final Exception[] errors = new Exception[requests.size()];
+        execute(requests, pending, responses, errors,
+                Math.min(parallelism, requests.size()));
+
+        final ListVariable result = new ListVariable();
+        int failed = 0;
+        for (int i = 0; i < responses.length; i++) {
+            if (errors[i] == null) {
+                result.addVariable(responses[i]);
+            } else {
+                LOG.warn("HTTP request for URL {} failed: {}",
+                        encodedUrls.get(i), errors[i].getMessage());
+                this.setProperty("Error [" + (i + 1) + "]: "
+                        + encodedUrls.get(i), errors[i].getMessage());
+                // keeps positions of results matching positions of URLs
+                result.addVariable(EmptyVariable.INSTANCE);
+                failed++;
+            }
+        }
+
+        this.setProperty("Method", method);
+        this.setProperty("Parallelism", parallelism);
+        this.setProperty("Requests", encodedUrls.size());
+        this.setProperty("Failed Requests", failed);
+
+        return result;
+    }
+
+    /**
+     * Executes specified requests by specified number of workers, each taking
+     * pending request not yet taken by the others, and stores their results
+     * and errors at positions of the requests.
+     */
+    private void execute(final List<Callable<Variable>> requests,
+            final PendingRequests pending, final Variable[] responses,
+            final Exception[] errors, final int workerCount)
+            throws InterruptedException {
+        final List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(batchExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    int index;
+                    while ((index = pending.take()) >= 0) {
+                        try {
+                            responses[index] = requests.get(index).call();
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            errors[index] = e;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            // interrupts requests still running if the batch was interrupted
+            for (Future<Void> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
+
+    private static String getHost(final String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            // the request fails with proper error once executed
+            return null;
+        }
+    }
+
+    /**
+     * Positions of the requests not yet taken by the workers, grouped by
+     * host.
+     */
+    private final class PendingRequests {
+
+        private final Map<String, Queue<Integer>> hostRequests =
+            new LinkedHashMap<String, Queue<Integer>>();
+
+        private final double requestsPerSecond;
+
+        PendingRequests(final double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+        }
+
+        synchronized void add(final int index, final String host) {
+            final String key = StringUtils.defaultString(host).toLowerCase();
+            Queue<Integer> requests = hostRequests.get(key);
+            if (requests == null) {
+                requests = new LinkedList<Integer>();
+                hostRequests.put(key, requests);
+            }
+            requests.add(index);
+        }
+
+        /**
+         * Takes the first request to the host which has to wait the least
+         * for its turn, preferring hosts which need not wait at all.
+         *
+         * @return position of the request, or -1 if there is none left
+         */
+        synchronized int take() {
+            String selected = null;
+            long selectedDelay = Long.MAX_VALUE;
+            for (String host : hostRequests.keySet()) {
+                final long delay = host.length() == 0 ? 0
+                        : rateLimiter.getDelay(host, requestsPerSecond);
+                if (delay < selectedDelay) {
+                    selected = host;
+                    selectedDelay = delay;
+                    if (delay == 0) {
+                        break;
+                    }
+                }
+            }
+            if (selected == null) {
+                return -1;
+            }
+            final Queue<Integer> requests = hostRequests.get(selected);
+            final int index = requests.remove();
+            if (requests.isEmpty()) {
+                hostRequests.remove(selected);
+            }
+            return index;
+        }
+    }
+
+    private Variable createResponseVariable(final HttpResponseWrapper res,
+            final long maxBytes, final String specifiedCharset,
+            final String defaultCharset) {
+        final byte[] responseBody = res.readBodyAsArray(maxBytes);
+        final String mimeType = StringUtils.lowerCase(res.getMimeType());
+
+        if (mimeType != null && !isTextMimeType(mimeType)) {
+            return new NodeVariable(responseBody);
+        }
+        final String charset = (specifiedCharset != null) ? specifiedCharset
+                : resolveCharset(res, mimeType, responseBody, defaultCharset);
+        return createTextVariable(responseBody, charset);
+    }
+
+}
@@ -39,17 +39,23 @@ package org.webharvest.runtime.processors;
 import static org.webharvest.WHConstants.XMLNS_CORE;
 import static org.webharvest.WHConstants.XMLNS_CORE_10;
 
+import java.io.File;
+
 import org.webharvest.annotation.Definition;
 import org.webharvest.definition.HttpParamDef;
 import org.webharvest.exception.HttpException;
+import org.webharvest.ioc.WorkingDir;
 import org.webharvest.runtime.DynamicScopeContext;
 import org.webharvest.runtime.processors.plugins.Autoscanned;
 import org.webharvest.runtime.processors.plugins.TargetNamespace;
 import org.webharvest.runtime.templaters.BaseTemplater;
 import org.webharvest.runtime.variables.EmptyVariable;
+import org.webharvest.runtime.variables.FileVariable;
 import org.webharvest.runtime.variables.Variable;
 import org.webharvest.utils.CommonUtil;
 
+import com.google.inject.Inject;
+
 /**
  * Variable definition http param processor.
  */
@@ -58,10 +64,14 @@ import org.webharvest.utils.CommonUtil;
 @Autoscanned
 @TargetNamespace({ XMLNS_CORE, XMLNS_CORE_10 })
 @Definition(value = "http-param", validAttributes = { "id", "name", "isfile",
-        "filename", "contenttype" }, requiredAttributes = "name",
+        "filename", "contenttype", "path" }, requiredAttributes = "name",
         definitionClass = HttpParamDef.class)
 public class HttpParamProcessor extends AbstractProcessor<HttpParamDef> {
 
+    @Inject
+    @WorkingDir
+    private String workingDir;
+
     public Variable execute(DynamicScopeContext context)
             throws InterruptedException {
         String name = BaseTemplater.evaluateToString(elementDef.getName(),
@@ -73,17 +83,36 @@ public class HttpParamProcessor extends AbstractProcessor<HttpParamDef> {
                 elementDef.getFilename(), null, context);
         String contentType = BaseTemplater.evaluateToString(
                 elementDef.getContenttype(), null, context);
+        String path = BaseTemplater.evaluateToString(
+                elementDef.getPath(), null, context);
 
         final HttpProcessor httpProcessor =
             (HttpProcessor) getParentProcessor();
         if (httpProcessor != null) {
+            final Variable value;
+            if (!CommonUtil.isEmptyString(path)) {
+                // file is streamed by the transport, not read here
+                final File file = new File(
+                        CommonUtil.getAbsoluteFilename(workingDir, path));
+                if (!file.isFile()) {
+                    throw new HttpException("File to be uploaded doesn't exist: "
+                            + file.getAbsolutePath());
+                }
+                if (CommonUtil.isEmptyString(fileName)) {
+                    fileName = file.getName();
+                }
+                value = new FileVariable(file, file.length(), null, null);
+                this.setProperty("Path", file.getAbsolutePath());
+            } else {
+                value = new BodyProcessor.Builder(elementDef).
+                        setParentProcessor(this).build().execute(context);
+            }
             httpProcessor.addHttpParam(
                     name,
                     isFile,
                     fileName,
                     contentType,
-                    new BodyProcessor.Builder(elementDef).
-                        setParentProcessor(this).build().execute(context));
+                    value);
             this.setProperty("Name", name);
             this.setProperty("Is File", String.valueOf(isFile));
             this.setProperty("File Name", fileName);
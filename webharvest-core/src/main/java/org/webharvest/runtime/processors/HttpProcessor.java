@@ -40,29 +40,42 @@ import static org.webharvest.WHConstants.XMLNS_CORE;
 import static org.webharvest.WHConstants.XMLNS_CORE_10;
 import static org.webharvest.utils.CommonUtil.getBooleanValue;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.webharvest.annotation.Definition;
 import org.webharvest.definition.HttpDef;
+import org.webharvest.exception.ConfigurationException;
 import org.webharvest.exception.HttpException;
+import org.webharvest.ioc.WorkingDir;
 import org.webharvest.runtime.DynamicScopeContext;
 import org.webharvest.runtime.processors.plugins.Autoscanned;
 import org.webharvest.runtime.processors.plugins.TargetNamespace;
 import org.webharvest.runtime.templaters.BaseTemplater;
 import org.webharvest.runtime.variables.EmptyVariable;
+import org.webharvest.runtime.variables.FileVariable;
 import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.variables.TextVariable;
 import org.webharvest.runtime.variables.Variable;
-import org.webharvest.runtime.web.HttpClientManager;
+import org.webharvest.runtime.web.CharsetSniffer;
+import org.webharvest.runtime.web.ContentTypeFilter;
+import org.webharvest.runtime.web.FileDownload;
 import org.webharvest.runtime.web.HttpParamInfo;
+import org.webharvest.runtime.web.HttpRequestOptions;
 import org.webharvest.runtime.web.HttpResponseWrapper;
+import org.webharvest.runtime.web.HttpTransport;
+import org.webharvest.runtime.web.RequestTiming;
 import org.webharvest.utils.CommonUtil;
 import org.webharvest.utils.KeyValuePair;
 
@@ -76,19 +89,23 @@ import com.google.inject.Inject;
 @Autoscanned
 @TargetNamespace({ XMLNS_CORE, XMLNS_CORE_10 })
 @Definition(value = "http", validAttributes = { "id", "url", "method",
-        "follow-redirects", "ignore-response-body", "retry-attempts",
+        "follow-redirects", "max-redirects", "ignore-response-body", "retry-attempts",
         "retry-delay", "retry-delay-factor", "content-type", "charset",
-        "username", "password", "cookie-policy" },
+        "username", "password", "cookie-policy", "stream", "cache",
+        "cache-max-age", "rate-limit", "compression", "to-file",
+        "segments", "max-bytes", "allowed-content-types" },
         requiredAttributes="url", definitionClass = HttpDef.class)
 public class HttpProcessor extends AbstractProcessor<HttpDef> {
 
-    private static final String HTML_META_CHARSET_REGEX = "(<meta\\s*http-equiv\\s*=\\s*(\"|')content-type(\"|')\\s*content\\s*=\\s*(\"|')text/html;\\s*charset\\s*=\\s*(.*?)(\"|')\\s*/?>)";
+    @Inject
+    protected HttpTransport httpTransport;
 
     @Inject
-    private HttpClientManager httpClientManager;
+    @WorkingDir
+    private String workingDir;
 
-    private Map<String, HttpParamInfo> httpParams = new LinkedHashMap<String, HttpParamInfo>();
-    private Map<String, String> httpHeaderMap = new HashMap<String, String>();
+    protected Map<String, HttpParamInfo> httpParams = new LinkedHashMap<String, HttpParamInfo>();
+    protected Map<String, String> httpHeaderMap = new HashMap<String, String>();
 
     public Variable execute(DynamicScopeContext context)
             throws InterruptedException {
@@ -110,10 +127,25 @@ public class HttpProcessor extends AbstractProcessor<HttpDef> {
                 elementDef.getPassword(), null, context);
         final String cookiePolicy = BaseTemplater.evaluateToString(
                 elementDef.getCookiePolicy(), null, context);
+        // response to HEAD request has no body
         final boolean skipResponseBody = getBooleanValue(
                 BaseTemplater.evaluateToString(
                         elementDef.getIgnoreResponseBody(), null, context),
+                false) || "head".equalsIgnoreCase(method);
+        final boolean streamResponseBody = getBooleanValue(
+                BaseTemplater.evaluateToString(
+                        elementDef.getStream(), null, context),
                 false);
+        final String toFile = StringUtils.trimToNull(
+                BaseTemplater.evaluateToString(elementDef.getToFile(), null,
+                        context));
+        final String segments = BaseTemplater.evaluateToString(
+                elementDef.getSegments(), null, context);
+        final long maxBytes = getMaxBytes(BaseTemplater.evaluateToString(
+                elementDef.getMaxBytes(), null, context));
+        final ContentTypeFilter contentTypeFilter = ContentTypeFilter.parse(
+                BaseTemplater.evaluateToString(
+                        elementDef.getAllowedContentTypes(), null, context));
 
         final int retryAttempts = BaseTemplater.evaluateToVariable(
                 elementDef.getRetryAttempts(), null, context).toInt();
@@ -134,19 +166,32 @@ public class HttpProcessor extends AbstractProcessor<HttpDef> {
         final Variable bodyContent = new BodyProcessor.Builder(elementDef).
             setParentProcessor(this).build().execute(context);
 
-        httpClientManager.setCookiePolicy(cookiePolicy);
+        httpTransport.setCookiePolicy(cookiePolicy);
+
+        // only body read into memory at once can be cached without buffering
+        // stream or file content, and only whole body may be served from cache
+        final HttpRequestOptions options = createRequestOptions(context,
+                !skipResponseBody && !streamResponseBody && toFile == null
+                        && maxBytes < 0);
 
         LOG.info("Executing method {}...", method);
 
         HttpResponseWrapper res = null;
+        boolean releaseConnection = true;
         try {
-            res = httpClientManager.execute(method, followRedirects, contentType,
-                    encodedUrl, charset, username, password, bodyContent,
-                    httpParams, httpHeaderMap, retryAttempts, retryDelay,
-                    retryDelayFactor);
+            // download to file sends request(s) on its own
+            if (toFile == null || skipResponseBody) {
+                res = httpTransport.execute(method, followRedirects,
+                        contentType, encodedUrl, charset, username, password,
+                        bodyContent, httpParams, httpHeaderMap, retryAttempts,
+                        retryDelay, retryDelayFactor, options);
+            }
 
-            final long declaredContentLength = res.getContentLength();
+            long declaredContentLength = res != null ? res.getContentLength()
+                    : -1;
             final long actualContentLength;
+            boolean rejected = false;
+            boolean truncated = false;
 
             Variable result;
 
@@ -155,11 +200,93 @@ public class HttpProcessor extends AbstractProcessor<HttpDef> {
                 result = EmptyVariable.INSTANCE;
                 actualContentLength = 0;
 
+            } else if (toFile != null) {
+                final File file = new File(CommonUtil.getAbsoluteFilename(
+                        workingDir, toFile));
+                LOG.info("Downloading response to {}...", file);
+
+                final String charsetToUse = charset;
+                final FileDownload download = new FileDownload(file,
+                        new FileDownload.Requester() {
+                            public HttpResponseWrapper execute(
+                                    Map<String, String> headers)
+                                    throws IOException, InterruptedException {
+                                final Map<String, String> requestHeaders =
+                                    new HashMap<String, String>(httpHeaderMap);
+                                requestHeaders.putAll(headers);
+                                return httpTransport.execute(method,
+                                        followRedirects, contentType,
+                                        encodedUrl, charsetToUse, username,
+                                        password, bodyContent, httpParams,
+                                        requestHeaders, retryAttempts,
+                                        retryDelay, retryDelayFactor, options);
+                            }
+                        })
+                        .setRetryAttempts(retryAttempts)
+                        // range of the POST response means nothing
+                        .setRangeRequests(!"post".equalsIgnoreCase(method))
+                        .setSegments(getSegments(segments))
+                        .setContentTypeFilter(contentTypeFilter)
+                        .setMaxBytes(maxBytes);
+
+                final FileVariable fileVariable = download.download();
+                // no response if the part file is complete and its length unknown
+                res = download.getResponse();
+                declaredContentLength = download.getLength();
+                truncated = download.isTruncated();
+                if (fileVariable != null) {
+                    actualContentLength = fileVariable.getSize();
+                    result = fileVariable;
+
+                    LOG.info("Downloaded: {}, mime type = {}, length = {}B.",
+                            new Object[] { url, fileVariable.getMimeType(),
+                                    actualContentLength });
+                } else {
+                    actualContentLength = 0;
+                    result = EmptyVariable.INSTANCE;
+                    rejected = true;
+                }
+
+            } else if (!contentTypeFilter.accepts(res.getMimeType())) {
+                LOG.info("Skipping response of content type {} ({} bytes)",
+                        res.getMimeType(), declaredContentLength);
+                // the rest of the body would be read when releasing the connection
+                res.abort();
+                result = EmptyVariable.INSTANCE;
+                actualContentLength = 0;
+                rejected = true;
+
+            } else if (streamResponseBody) {
+                LOG.info("Streaming response ({} bytes)...",
+                        declaredContentLength);
+
+                final BufferedInputStream responseStream =
+                        new BufferedInputStream(res.getBodyAsInputStream(maxBytes));
+
+                final String mimeType = StringUtils
+                        .lowerCase(res.getMimeType());
+
+                actualContentLength = -1;
+
+                final boolean binary = mimeType != null
+                        && !isTextMimeType(mimeType);
+                if (!binary && specifiedCharset == null) {
+                    charset = resolveCharset(res, mimeType,
+                            peek(responseStream), charset);
+                }
+                final StreamVariable streamVariable = new StreamVariable(
+                        responseStream, binary ? null : charset,
+                        new ResponseRelease(res));
+                // connection is held until the stream is read or closed
+                context.registerResource(streamVariable);
+                result = streamVariable;
+
             } else {
                 LOG.info("Getting response ({} bytes)...",
                         declaredContentLength);
 
-                final byte[] responseBody = res.readBodyAsArray();
+                final byte[] responseBody = res.readBodyAsArray(maxBytes);
+                truncated = res.isTruncated();
 
                 final String mimeType = StringUtils
                         .lowerCase(res.getMimeType());
@@ -172,49 +299,11 @@ public class HttpProcessor extends AbstractProcessor<HttpDef> {
                 if (mimeType != null && !isTextMimeType(mimeType)) {
                     result = new NodeVariable(responseBody);
                 } else {
-                    try {
-                        // resolves charset in the following way:
-                        // 1. if explicitly defined as charset attribute in http
-                        // processor, then use it
-                        // 2. if it is HTML document, reads first KB from
-                        // response's body as ASCII stream
-                        // and tries to find meta tag with specified charset
-                        // 3. use charset from response's header
-                        // 4. uses default charset for the configuration
-                        if (specifiedCharset == null) {
-                            final String responseCharset = res.getCharset();
-                            if (responseCharset != null
-                                    && Charset.isSupported(responseCharset)) {
-                                charset = responseCharset;
-                            }
-                            if ("text/html".equals(mimeType)) {
-                                String firstBodyKb = new String(responseBody,
-                                        0, Math.min(responseBody.length, 1024),
-                                        "ASCII");
-                                Matcher matcher = Pattern.compile(
-                                        HTML_META_CHARSET_REGEX,
-                                        Pattern.CASE_INSENSITIVE).matcher(
-                                        firstBodyKb);
-                                if (matcher.find()) {
-                                    String foundCharset = matcher.group(5);
-                                    try {
-                                        if (Charset.isSupported(foundCharset)) {
-                                            charset = foundCharset;
-                                        }
-                                    } catch (IllegalCharsetNameException e) {
-                                        // do nothing - charset will not be set
-                                        // here
-                                    }
-                                }
-                            }
-                        }
-                        result = new NodeVariable(new String(responseBody,
-                                charset));
-
-                    } catch (UnsupportedEncodingException e) {
-                        throw new HttpException("Charset " + charset
-                                + " is not supported!", e);
+                    if (specifiedCharset == null) {
+                        charset = resolveCharset(res, mimeType,
+                                responseBody, charset);
                     }
+                    result = createTextVariable(responseBody, charset);
                 }
             }
 
@@ -222,39 +311,249 @@ public class HttpProcessor extends AbstractProcessor<HttpDef> {
             this.setProperty("Method", method);
             this.setProperty("Follow-Redirects", followRedirects);
             this.setProperty("Content Type", String.valueOf(contentType));
-            this.setProperty("Status code", res.getStatusCode());
-            this.setProperty("Status text", res.getStatusText());
+            if (res != null) {
+                this.setProperty("Status code", res.getStatusCode());
+                this.setProperty("Status text", res.getStatusText());
+            }
             this.setProperty("Skip Response Body", skipResponseBody);
             this.setProperty("Declared Content length",
                     String.valueOf(declaredContentLength));
-            if (!skipResponseBody) {
-                this.setProperty("Received Content length",
-                        String.valueOf(actualContentLength));
-                this.setProperty("Charset", charset);
+            this.setProperty("Stream Response Body", streamResponseBody);
+            if (rejected && res != null) {
+                this.setProperty("Rejected Content Type", res.getMimeType());
             }
-
-            KeyValuePair<String>[] headerPairs = res.getHeaders();
-            if (headerPairs != null) {
-                int index = 1;
-                for (KeyValuePair<String> pair : headerPairs) {
-                    this.setProperty(
-                            "HTTP header [" + index + "]: " + pair.getKey(),
-                            pair.getValue());
-                    index++;
+            if (maxBytes >= 0) {
+                this.setProperty("Max Bytes", maxBytes);
+                if (!streamResponseBody || toFile != null) {
+                    this.setProperty("Truncated", truncated);
                 }
             }
+            if (result instanceof FileVariable) {
+                this.setProperty("To File", result.toString());
+                this.setProperty("Checksum ("
+                        + FileDownload.CHECKSUM_ALGORITHM + ")",
+                        ((FileVariable) result).getChecksum());
+            }
+            if (options.getRateLimit() >= 0) {
+                this.setProperty("Rate Limit", options.getRateLimit());
+            }
+            if (res != null) {
+                setResponseProperties(res);
+            }
+            if (!skipResponseBody) {
+                if (!streamResponseBody || toFile != null) {
+                    this.setProperty("Received Content length",
+                            String.valueOf(actualContentLength));
+                }
+                if (toFile == null) {
+                    this.setProperty("Charset", charset);
+                }
+            }
+
+            // streamed response releases the connection when fully consumed
+            releaseConnection = !(result instanceof StreamVariable);
 
             return result;
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new HttpException("Error reading response from " + url, e);
         } finally {
-            if (res != null)
+            if (res != null && releaseConnection)
                 res.close();
         }
+    }
+
+    private void setResponseProperties(HttpResponseWrapper res) {
+        this.setProperty("Served From Cache", res.isFromCache());
+        this.setProperty("Content Encoding",
+                String.valueOf(res.getContentEncoding()));
+        final RequestTiming timing = res.getTiming();
+        if (timing != null) {
+            this.setProperty("Queue Time [ms]", timing.getQueueTime());
+            this.setProperty("Connect Time [ms]", timing.getConnectTime());
+            this.setProperty("TLS Handshake Time [ms]",
+                    timing.getHandshakeTime());
+            this.setProperty("Time To First Byte [ms]",
+                    timing.getFirstByteTime());
+            if (timing.getDownloadTime() >= 0) {
+                this.setProperty("Download Time [ms]",
+                        timing.getDownloadTime());
+                this.setProperty("Download Rate [B/s]",
+                        timing.getBytesPerSecond());
+            }
+            this.setProperty("Retries", timing.getRetries());
+        }
+
+        KeyValuePair<String>[] headerPairs = res.getHeaders();
+        if (headerPairs != null) {
+            int index = 1;
+            for (KeyValuePair<String> pair : headerPairs) {
+                this.setProperty(
+                        "HTTP header [" + index + "]: " + pair.getKey(),
+                        pair.getValue());
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Creates options controlling how HTTP client manager executes requests of
+     * this processor.
+     *
+     * @param cacheable
+     *            whether the whole response body is read into memory, so
+     *            that the response may be served from and stored in the
+     *            cache if the processor asks for it
+     */
+    protected HttpRequestOptions createRequestOptions(
+            DynamicScopeContext context, boolean cacheable) {
+        boolean cache = getBooleanValue(
+                BaseTemplater.evaluateToString(
+                        elementDef.getCache(), null, context),
+                false);
+        if (cache && !cacheable) {
+            LOG.info("Response is not cached, as its body is streamed, "
+                    + "saved to file, limited or ignored");
+            cache = false;
+        }
+        final String cacheMaxAge = BaseTemplater.evaluateToString(
+                elementDef.getCacheMaxAge(), null, context);
+        final String rateLimit = BaseTemplater.evaluateToString(
+                elementDef.getRateLimit(), null, context);
+        final boolean compression = getBooleanValue(
+                BaseTemplater.evaluateToString(
+                        elementDef.getCompression(), null, context),
+                true);
+        final String maxRedirects = BaseTemplater.evaluateToString(
+                elementDef.getMaxRedirects(), null, context);
+
+        return new HttpRequestOptions.Builder()
+                .setCacheEnabled(cache)
+                .setCacheMaxAge(parseLong("cache-max-age", cacheMaxAge, -1))
+                .setRateLimit(parseDouble("rate-limit", rateLimit, -1))
+                .setCompressionEnabled(compression)
+                .setMaxRedirects(parseInt("max-redirects", maxRedirects,
+                        HttpRequestOptions.DEFAULT_MAX_REDIRECTS))
+                .build();
+    }
+
+    /**
+     * Resolves charset of the textual response in the following way:
+     * <ol>
+     * <li>if it is HTML document, scans first KB of response's body for meta
+     * tag with specified charset</li>
+     * <li>use charset from response's header</li>
+     * <li>uses default charset for the configuration</li>
+     * </ol>
+     * Charset explicitly defined as charset attribute in http processor takes
+     * precedence over all of these, so this method is not called then.
+     */
+    protected String resolveCharset(HttpResponseWrapper res, String mimeType,
+            byte[] responseHead, String defaultCharset) {
+        String charset = defaultCharset;
+        final String responseCharset = res.getCharset();
+        if (responseCharset != null && Charset.isSupported(responseCharset)) {
+            charset = responseCharset;
+        }
+        if ("text/html".equals(mimeType)) {
+            final String foundCharset = CharsetSniffer.sniff(responseHead);
+            if (foundCharset != null) {
+                charset = foundCharset;
+            }
+        }
+        return charset;
+    }
+
+    /**
+     * Wraps textual response body which is decoded only when needed.
+     */
+    protected Variable createTextVariable(byte[] responseBody, String charset) {
+        try {
+            if (Charset.isSupported(charset)) {
+                return new TextVariable(responseBody, charset);
+            }
+        } catch (IllegalCharsetNameException e) {
+            // reported below as unsupported one
+        }
+        throw new HttpException("Charset " + charset + " is not supported!");
+    }
 
+    /**
+     * Reads first KB of the stream leaving it at its original position.
+     */
+    private byte[] peek(BufferedInputStream stream) throws IOException {
+        final byte[] head = new byte[CharsetSniffer.SNIFF_LENGTH];
+        stream.mark(CharsetSniffer.SNIFF_LENGTH);
+        int length = 0;
+        int count;
+        while (length < head.length
+                && (count = stream.read(head, length, head.length - length)) >= 0) {
+            length += count;
+        }
+        stream.reset();
+        return Arrays.copyOf(head, length);
+    }
+
+    /**
+     * Parses maximum number of bytes of the response body to be read.
+     *
+     * @return the number of bytes, or -1 if it is not limited
+     */
+    protected long getMaxBytes(String maxBytes) {
+        return parseLong("max-bytes", maxBytes, -1);
+    }
+
+    /**
+     * Returns number of segments to be downloaded in parallel, if the
+     * transport can execute requests concurrently.
+     */
+    private int getSegments(String segments) {
+        final int count = parseInt("segments", segments, 1);
+        if (count > 1 && !httpTransport.supportsConcurrentRequests()) {
+            LOG.warn("HTTP connections are not pooled, response will be downloaded in one segment");
+            return 1;
+        }
+        return count;
     }
 
-    private boolean isTextMimeType(String mimeType) {
+    private static long parseLong(String attribute, String value,
+            long defaultValue) {
+        try {
+            return StringUtils.isBlank(value) ? defaultValue
+                    : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalidValue(attribute, value, e);
+        }
+    }
+
+    private static int parseInt(String attribute, String value,
+            int defaultValue) {
+        try {
+            return StringUtils.isBlank(value) ? defaultValue
+                    : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalidValue(attribute, value, e);
+        }
+    }
+
+    private static double parseDouble(String attribute, String value,
+            double defaultValue) {
+        try {
+            return StringUtils.isBlank(value) ? defaultValue
+                    : Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalidValue(attribute, value, e);
+        }
+    }
+
+    private static ConfigurationException invalidValue(String attribute,
+            String value, NumberFormatException cause) {
+        return new ConfigurationException("Invalid " + attribute
+                + " value: " + value, cause);
+    }
+
+    protected boolean isTextMimeType(String mimeType) {
         // todo: it's a temporary fix. Think better about handling mime-types.
         return mimeType.startsWith("text/") || mimeType.endsWith("/xml")
                 || mimeType.contains("javascript");
@@ -270,4 +569,23 @@ public class HttpProcessor extends AbstractProcessor<HttpDef> {
         httpHeaderMap.put(name, value);
     }
 
-}
\ No newline at end of file
+    /**
+     * Releases connection of streamed response. Connection of the response
+     * which has not been read to the end is closed, as reading the rest of
+     * it in order to reuse the connection might take long.
+     */
+    private static final class ResponseRelease implements Closeable {
+
+        private final HttpResponseWrapper response;
+
+        ResponseRelease(HttpResponseWrapper response) {
+            this.response = response;
+        }
+
+        public void close() {
+            response.abort();
+            response.close();
+        }
+    }
+
+}
@@ -39,12 +39,9 @@ package org.webharvest.runtime.processors;
 import static org.webharvest.WHConstants.XMLNS_CORE;
 import static org.webharvest.WHConstants.XMLNS_CORE_10;
 
-import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.transform.stream.StreamSource;
-
 import net.sf.saxon.Configuration;
 import net.sf.saxon.query.DynamicQueryContext;
 import net.sf.saxon.query.StaticQueryContext;
@@ -80,6 +77,9 @@ public class XPathProcessor extends AbstractProcessor<XPathDef> {
     @Inject
     private RuntimeConfig runtimeConfig;
 
+    @Inject
+    private XmlDocumentCache documentCache;
+
     public Variable execute(DynamicScopeContext context) throws InterruptedException {
         Variable xml = getBodyTextContent(elementDef, context);
         String expression = BaseTemplater.evaluateToString(elementDef.getExpression(), null, context);
@@ -103,9 +103,7 @@ public class XPathProcessor extends AbstractProcessor<XPathDef> {
             Configuration config = sqc.getConfiguration();
 
             DynamicQueryContext dynamicContext = new DynamicQueryContext(config);
-            StringReader reader = new StringReader(xml.toString());
-
-            dynamicContext.setContextItem(sqc.buildDocument(new StreamSource(reader)));
+            dynamicContext.setContextItem(documentCache.getDocument(xml));
 
             for ( Map.Entry<String, String> attEntry: evaluatedVarMap.entrySet() ) {
                 String varName = attEntry.getKey();
@@ -1,36 +1,154 @@
 package org.webharvest.runtime.processors;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import net.sf.saxon.query.StaticQueryContext;
 import net.sf.saxon.query.XQueryExpression;
 import net.sf.saxon.trans.XPathException;
 
-import java.util.Hashtable;
-import java.util.Map;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * Class represnts simple pool for XQuery expressions.
  * Client obtains compiled query using method getCompiledExpression.
+ * <p/>
+ * The pool is bounded: when it is full, the least recently used
+ * expressions are evicted, so templated expressions producing a new query
+ * for each page do not make it grow without limit. Lookups do not lock the
+ * pool, and each query is compiled only once, even if it is requested by
+ * several threads at the same time.
  *
  * @author Vladimir Nikic
  * Date: Jul 4, 2007
  */
 public class XQueryExpressionPool {
 
-    private StaticQueryContext sqc;
-    private Map pool = new Hashtable();
+    /**
+     * Default maximum number of compiled expressions kept in the pool.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final LoadingCache<String, XQueryExpression> pool;
 
     public XQueryExpressionPool(StaticQueryContext sqc) {
-        this.sqc = sqc;
+        this(sqc, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates pool keeping at most specified number of compiled expressions.
+     */
+    public XQueryExpressionPool(final StaticQueryContext sqc, int maxSize) {
+        this.pool = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .recordStats()
+            .build(new CacheLoader<String, XQueryExpression>() {
+                @Override
+                public XQueryExpression load(String query) throws XPathException {
+                    return sqc.compileQuery(query);
+                }
+            });
     }
 
-    public synchronized XQueryExpression getCompiledExpression(String query) throws XPathException {
-        if ( pool.containsKey(query) ) {
-            return (XQueryExpression) pool.get(query);
-        } else {
-            XQueryExpression exp = sqc.compileQuery(query);
-            pool.put(query, exp);
-            return exp;
+    public XQueryExpression getCompiledExpression(String query) throws XPathException {
+        try {
+            return pool.get(query);
+        } catch (ExecutionException e) {
+            // the only checked exception thrown by the loader
+            throw (XPathException) e.getCause();
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * @return number of compiled expressions in the pool
+     */
+    public long getSize() {
+        return pool.size();
+    }
+
+    /**
+     * @return snapshot of statistics of the pool usage
+     */
+    public Statistics getStatistics() {
+        return new Statistics(pool.stats(), pool.size());
+    }
+
+    /**
+     * Statistics of {@link XQueryExpressionPool} usage since its creation.
+     */
+    public static final class Statistics {
+
+        private final CacheStats stats;
+        private final long size;
+
+        Statistics(CacheStats stats, long size) {
+            this.stats = stats;
+            this.size = size;
+        }
+
+        /**
+         * @return number of lookups of already compiled expressions
+         */
+        public long getHits() {
+            return stats.hitCount();
+        }
+
+        /**
+         * @return number of lookups which had to compile the expression
+         *         (or wait for its compilation in another thread)
+         */
+        public long getMisses() {
+            return stats.missCount();
+        }
+
+        /**
+         * @return number of compiled expressions
+         */
+        public long getCompilations() {
+            return stats.loadSuccessCount();
+        }
+
+        /**
+         * @return number of expressions which failed to compile
+         */
+        public long getFailures() {
+            return stats.loadExceptionCount();
+        }
+
+        /**
+         * @return number of expressions evicted from the full pool
+         */
+        public long getEvictions() {
+            return stats.evictionCount();
+        }
+
+        /**
+         * @return total time spent compiling expressions, in milliseconds
+         */
+        public long getCompileTime() {
+            return TimeUnit.NANOSECONDS.toMillis(stats.totalLoadTime());
+        }
+
+        /**
+         * @return number of compiled expressions in the pool
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "XQuery expressions: " + size + " pooled, " + getHits()
+                + " hits, " + getMisses() + " misses, " + getCompilations()
+                + " compiled in " + getCompileTime() + " ms, "
+                + getFailures() + " failed, " + getEvictions() + " evicted";
         }
     }
 
-}
\ No newline at end of file
+}
@@ -39,14 +39,11 @@ package org.webharvest.runtime.processors;
 import static org.webharvest.WHConstants.XMLNS_CORE;
 import static org.webharvest.WHConstants.XMLNS_CORE_10;
 
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
-import javax.xml.transform.stream.StreamSource;
-
 import net.sf.saxon.Configuration;
 import net.sf.saxon.query.DynamicQueryContext;
 import net.sf.saxon.query.StaticQueryContext;
@@ -108,6 +105,9 @@ public class XQueryProcessor extends AbstractProcessor<XQueryDef> {
     @Inject
     private RuntimeConfig runtimeConfig;
 
+    @Inject
+    private XmlDocumentCache documentCache;
+
     public Variable execute(DynamicScopeContext context) throws InterruptedException {
         IElementDef xqueryElementDef = elementDef.getXqDef();
         Variable xq = getBodyTextContent(xqueryElementDef, context, true);
@@ -118,6 +118,7 @@ public class XQueryProcessor extends AbstractProcessor<XQueryDef> {
 
         final StaticQueryContext sqc = runtimeConfig.getStaticQueryContext();
         final Configuration config = sqc.getConfiguration();
+        final XmlDocumentCache documents = documentCache;
 
         try {
             final XQueryExpression exp = runtimeConfig.getXQueryExpressionPool().getCompiledExpression(xqExpression);
@@ -148,7 +149,7 @@ public class XQueryProcessor extends AbstractProcessor<XQueryDef> {
                     List<Object> paramList = new ArrayList<Object>();
                     for (Object o : variable.toList()) {
                         Variable currVar = (Variable) o;
-                        paramList.add(castSimpleValue(externalParamType, currVar, sqc));
+                        paramList.add(castSimpleValue(externalParamType, currVar, documents));
                     }
 
                     dynamicContext.setParameter(externalParamName, paramList);
@@ -158,7 +159,7 @@ public class XQueryProcessor extends AbstractProcessor<XQueryDef> {
 
                     debug(externalParamDef, context, var);
 
-                    Object value = castSimpleValue(externalParamType, var, sqc);
+                    Object value = castSimpleValue(externalParamType, var, documents);
                     dynamicContext.setParameter(externalParamName, value);
                 }
             }
@@ -170,20 +171,19 @@ public class XQueryProcessor extends AbstractProcessor<XQueryDef> {
     }
 
     /**
-     * For the specified type, value and static query context, returns proper Java typed value.
+     * For the specified type, value and document cache, returns proper Java typed value.
      *
      * @param type
      * @param value
-     * @param sqc
+     * @param documents
      * @return
      * @throws XPathException
      */
-    private Object castSimpleValue(String type, Variable value, StaticQueryContext sqc) throws XPathException {
+    private Object castSimpleValue(String type, Variable value, XmlDocumentCache documents) throws XPathException {
         type = type.toLowerCase();
 
         if (type.startsWith("node()")) {
-            StringReader reader = new StringReader(value.toString());
-            return sqc.buildDocument(new StreamSource(reader));
+            return documents.getDocument(value);
         } else if (type.startsWith("integer")) {
             return new Integer(value.toString().trim());
         } else if (type.startsWith("long")) {
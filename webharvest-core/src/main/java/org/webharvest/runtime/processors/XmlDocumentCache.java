@@ -0,0 +1,239 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.processors;
+
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.trans.XPathException;
+
+import org.webharvest.runtime.RuntimeConfig;
+import org.webharvest.runtime.variables.HtmlDocumentVariable;
+import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.variables.TextVariable;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.utils.XmlUtil;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+
+/**
+ * Bounded cache of XML documents built from variables, so that several
+ * XPath or XQuery evaluations against the same page parse it only once.
+ * Document produced by html-to-xml is looked up by identity of its
+ * variable, which is only weakly referenced, so the entry goes away with
+ * the variable. Any other variable is looked up by hash of its text, so the
+ * cache does not keep the text itself. The hash of immutable text variable
+ * is remembered for the variable (weakly referenced as well), so looking up
+ * the same variable again neither serializes nor hashes its text. Streamed
+ * response is not cached, as its text would have to be buffered to look it
+ * up; it is parsed directly instead. Cached documents are released when the
+ * cache is full (least recently used first) or when memory is low.
+ * <p/>
+ * Built documents are read only, so they may be shared by concurrently
+ * running processors. Processors of single scraping share the cache bound
+ * in its scope, so documents of one scraper are neither kept nor served by
+ * the cache of another one.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class XmlDocumentCache {
+
+    /**
+     * Default maximum number of documents kept in the cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 16;
+
+    private static final HashFunction TEXT_HASH = Hashing.sha256();
+
+    private final StaticQueryContext sqc;
+
+    private final Cache<Variable, DocumentInfo> documentsByVariable;
+
+    private final Cache<HashCode, DocumentInfo> documentsByText;
+
+    private final Cache<Variable, HashCode> textHashes;
+
+    /**
+     * Creates cache of documents built under configuration of specified
+     * {@link RuntimeConfig}, so that its compiled expressions may be
+     * evaluated against them.
+     */
+    @Inject
+    public XmlDocumentCache(RuntimeConfig runtimeConfig) {
+        this(runtimeConfig.getStaticQueryContext());
+    }
+
+    public XmlDocumentCache(StaticQueryContext sqc) {
+        this(sqc, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates cache keeping at most specified number of documents of
+     * html-to-xml variables, and the same number of documents of text.
+     */
+    public XmlDocumentCache(StaticQueryContext sqc, int maxSize) {
+        this.sqc = sqc;
+        // weak keys are compared by identity
+        this.documentsByVariable = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .weakKeys()
+            .softValues()
+            .build();
+        this.documentsByText = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .softValues()
+            .build();
+        this.textHashes = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .weakKeys()
+            .build();
+    }
+
+    /**
+     * Returns document built from specified variable, parsing it only if
+     * the same document is not cached already.
+     *
+     * @param xml
+     *            variable containing XML document
+     * @return built document
+     * @throws XPathException
+     *             if variable does not contain well-formed XML
+     */
+    public DocumentInfo getDocument(final Variable xml) throws XPathException {
+        if (xml instanceof HtmlDocumentVariable) {
+            return getDocument(documentsByVariable, xml, new Callable<Source>() {
+                public Source call() {
+                    return XmlUtil.toSource(xml);
+                }
+            });
+        }
+        if (xml instanceof StreamVariable) {
+            return sqc.buildDocument(XmlUtil.toSource(xml));
+        }
+        if (isImmutable(xml)) {
+            HashCode hash = textHashes.getIfPresent(xml);
+            if (hash == null) {
+                hash = TEXT_HASH.hashString(xml.toString());
+                textHashes.put(xml, hash);
+            }
+            return getDocument(documentsByText, hash, new Callable<Source>() {
+                public Source call() {
+                    return XmlUtil.toSource(xml);
+                }
+            });
+        }
+        return getDocument(xml.toString());
+    }
+
+    /**
+     * Returns document built from specified XML text, parsing it only if
+     * the same document is not cached already.
+     *
+     * @param xml
+     *            XML text
+     * @return built document
+     * @throws XPathException
+     *             if text is not well-formed XML
+     */
+    public DocumentInfo getDocument(final String xml) throws XPathException {
+        return getDocument(documentsByText, TEXT_HASH.hashString(xml),
+                new Callable<Source>() {
+                    public Source call() {
+                        return new StreamSource(new StringReader(xml));
+                    }
+                });
+    }
+
+    /**
+     * @return number of documents in the cache
+     */
+    public long getSize() {
+        return documentsByVariable.size() + documentsByText.size();
+    }
+
+    /**
+     * Removes all documents from the cache.
+     */
+    public void clear() {
+        documentsByVariable.invalidateAll();
+        documentsByText.invalidateAll();
+        textHashes.invalidateAll();
+    }
+
+    /**
+     * Checks whether text of specified variable never changes, so that its
+     * hash may be remembered.
+     */
+    private static boolean isImmutable(Variable xml) {
+        if (xml instanceof TextVariable) {
+            return true;
+        }
+        if (xml instanceof NodeVariable) {
+            final Object data = xml.getWrappedObject();
+            return data instanceof String || data instanceof byte[];
+        }
+        return false;
+    }
+
+    private <K> DocumentInfo getDocument(Cache<K, DocumentInfo> documents,
+            K key, final Callable<Source> source) throws XPathException {
+        try {
+            return documents.get(key, new Callable<DocumentInfo>() {
+                public DocumentInfo call() throws Exception {
+                    return sqc.buildDocument(source.call());
+                }
+            });
+        } catch (ExecutionException e) {
+            // the only checked exception thrown while building document
+            throw (XPathException) e.getCause();
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+}
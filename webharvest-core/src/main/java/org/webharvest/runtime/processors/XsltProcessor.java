@@ -59,6 +59,7 @@ import org.webharvest.runtime.processors.plugins.Autoscanned;
 import org.webharvest.runtime.processors.plugins.TargetNamespace;
 import org.webharvest.runtime.variables.NodeVariable;
 import org.webharvest.runtime.variables.Variable;
+import org.webharvest.utils.XmlUtil;
 
 /**
  * XSLT processor.
@@ -86,7 +87,7 @@ public class XsltProcessor extends AbstractProcessor<XsltDef> {
             TransformerFactory xformFactory = TransformerFactory.newInstance();
             Source xsl = new StreamSource(new StringReader(stylesheetStr.toString()));
             Transformer stylesheet = xformFactory.newTransformer(xsl);
-            Source request = new StreamSource(new StringReader(xmlStr.toString()));
+            Source request = XmlUtil.toSource(xmlStr);
             StringWriter writer = new StringWriter();
             Result response = new StreamResult(writer);
             stylesheet.transform(request, response);
@@ -0,0 +1,148 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.variables;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.webharvest.exception.VariableException;
+
+/**
+ * File variable - lightweight reference to a file, e.g. the one the body of
+ * HTTP response has been downloaded to, carrying size, checksum and mime
+ * type of its content. The content itself is never read by the variable -
+ * value of the variable is the absolute path of the file.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class FileVariable extends Variable {
+
+    private final File file;
+
+    private final long size;
+
+    private final String checksum;
+
+    private final String mimeType;
+
+    /**
+     * Creates reference to specified file.
+     *
+     * @param file
+     *            not {@code null} referenced file
+     * @param size
+     *            size of the file content in bytes
+     * @param checksum
+     *            hex encoded checksum of the file content, or {@code null}
+     *            if it is not known
+     * @param mimeType
+     *            mime type of the file content, or {@code null} if it is
+     *            not known
+     */
+    public FileVariable(final File file, final long size,
+            final String checksum, final String mimeType) {
+        this.file = file;
+        this.size = size;
+        this.checksum = checksum;
+        this.mimeType = mimeType;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public String toString(String charset) {
+        return toString();
+    }
+
+    @Override
+    public byte[] toBinary() {
+        return toString().getBytes();
+    }
+
+    @Override
+    public byte[] toBinary(String charset) {
+        if (charset == null) {
+            return toBinary();
+        }
+        try {
+            return toString().getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new VariableException(e);
+        }
+    }
+
+    @Override
+    public List<Variable> toList() {
+        return Collections.<Variable>singletonList(this);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public Object getWrappedObject() {
+        return file;
+    }
+
+    @Override
+    public Iterator<Variable> toIterator() {
+        return toList().iterator();
+    }
+
+}
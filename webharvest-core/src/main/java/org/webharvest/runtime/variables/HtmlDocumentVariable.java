@@ -0,0 +1,174 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.variables;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.transform.Source;
+
+import org.apache.commons.collections.iterators.EmptyIterator;
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.TagNode;
+import org.webharvest.exception.VariableException;
+import org.webharvest.utils.TagNodeXmlReader;
+
+/**
+ * HTML document variable - wraps tree of nodes produced by HtmlCleaner.
+ * XML consumers (XPath, XQuery and XSLT processors) read the tree directly
+ * through {@link #toSource()}, without serializing it to a string and
+ * parsing it back. The XML text is produced only when the variable is
+ * accessed in any other way; it is cached, so the variable behaves like
+ * {@link NodeVariable} holding the serialized document from then on.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class HtmlDocumentVariable extends Variable {
+
+    private final TagNode root;
+
+    private final CleanerProperties properties;
+
+    private final String outputType;
+
+    private final boolean replaceNbspWithSp;
+
+    private String value;
+
+    /**
+     * Creates variable wrapping specified cleaned tree.
+     *
+     * @param root
+     *            root of the tree returned by HtmlCleaner
+     * @param properties
+     *            properties of the cleaner which cleaned the tree
+     * @param outputType
+     *            type of serializer used to get the XML text, one of
+     *            simple, pretty, browser-compact and compact (default)
+     * @param replaceNbspWithSp
+     *            whether non-breaking spaces are replaced with spaces
+     */
+    public HtmlDocumentVariable(final TagNode root,
+            final CleanerProperties properties, final String outputType,
+            final boolean replaceNbspWithSp) {
+        this.root = root;
+        this.properties = properties;
+        this.outputType = outputType;
+        this.replaceNbspWithSp = replaceNbspWithSp;
+    }
+
+    public TagNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns source reporting the wrapped tree to XML consumers as the
+     * parser of the serialized document would do. Each call returns new
+     * source, so the tree may be read any number of times.
+     */
+    public Source toSource() {
+        return new TagNodeXmlReader(root, properties, outputType,
+                replaceNbspWithSp).toSource();
+    }
+
+    @Override
+    public String toString() {
+        if (value == null) {
+            try {
+                value = new TagNodeXmlReader(root, properties, outputType,
+                        replaceNbspWithSp).serialize();
+            } catch (IOException e) {
+                throw new VariableException("Error serializing HTML document", e);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public String toString(String charset) {
+        return toString();
+    }
+
+    @Override
+    public byte[] toBinary() {
+        return toString().getBytes();
+    }
+
+    @Override
+    public byte[] toBinary(String charset) {
+        if (charset == null) {
+            return toBinary();
+        }
+        try {
+            return toString().getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new VariableException(e);
+        }
+    }
+
+    @Override
+    public List<Variable> toList() {
+        return isEmpty() ? Collections.<Variable>emptyList()
+                : Collections.<Variable>singletonList(this);
+    }
+
+    /**
+     * Document is never empty unless both XML declaration and HTML envelope
+     * are omitted, so the tree is serialized only in the latter case.
+     */
+    @Override
+    public boolean isEmpty() {
+        if (value == null && !(properties.isOmitXmlDeclaration()
+                && properties.isOmitHtmlEnvelope())) {
+            return false;
+        }
+        return toString().length() == 0;
+    }
+
+    @Override
+    public Object getWrappedObject() {
+        return toString();
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public Iterator<Variable> toIterator() {
+        return isEmpty() ? EmptyIterator.INSTANCE : toList().iterator();
+    }
+
+}
@@ -0,0 +1,389 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.variables;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.collections.iterators.EmptyIterator;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.webharvest.exception.VariableException;
+
+/**
+ * Stream variable - wraps an {@link InputStream} (e.g. body of HTTP response)
+ * which is read lazily. Consumers capable of processing the content
+ * incrementally use {@link #toReader()} or {@link #toInputStream()}, which
+ * hand over the underlying stream without reading it into memory. Any other
+ * access reads the whole stream once and caches the result, so the variable
+ * behaves like {@link NodeVariable} from then on.
+ * <p/>
+ * By default the content can be handed over only once, any later access
+ * fails. Content of repeatable variable (e.g. one stored in context under
+ * a name, which can be referenced again) is copied aside as it is handed
+ * over (to a temporary file once it exceeds {@link #MEMORY_THRESHOLD}
+ * bytes). If such variable is accessed again, the rest of the stream is
+ * read into the copy and the content is served from it.
+ * <p/>
+ * Variable holds the underlying stream (and connection it is read from)
+ * until the stream is read to the end or the variable is closed, so its
+ * creator is expected to register it with
+ * {@link org.webharvest.runtime.DynamicScopeContext#registerResource}.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class StreamVariable extends Variable implements Closeable {
+
+    /**
+     * Maximum number of bytes of the copy of handed over content kept in
+     * memory.
+     */
+    public static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+    private final String charset;
+
+    private final Closeable release;
+
+    private InputStream stream;
+
+    private DeferredFileOutputStream copy;
+
+    private boolean repeatable;
+
+    private boolean handedOver;
+
+    private boolean closed;
+
+    private Object value;
+
+    /**
+     * Creates variable wrapping specified stream. If charset is not
+     * {@code null} the stream is considered to be a text encoded with this
+     * charset, otherwise its content is treated as binary data.
+     *
+     * @param stream
+     *            not {@code null} stream to be wrapped
+     * @param charset
+     *            charset of the text content or {@code null} for binary one
+     */
+    public StreamVariable(final InputStream stream, final String charset) {
+        this(stream, charset, stream);
+    }
+
+    /**
+     * Creates variable wrapping specified stream, which releases its source
+     * with specified {@link Closeable} instead of closing the stream (e.g.
+     * aborts HTTP connection instead of reading the rest of the response).
+     *
+     * @param stream
+     *            not {@code null} stream to be wrapped
+     * @param charset
+     *            charset of the text content or {@code null} for binary one
+     * @param release
+     *            not {@code null} closeable releasing the stream
+     */
+    public StreamVariable(final InputStream stream, final String charset,
+            final Closeable release) {
+        this.stream = stream.markSupported() ? stream
+                : new BufferedInputStream(stream);
+        this.charset = charset;
+        this.release = release;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public boolean isBinary() {
+        return charset == null;
+    }
+
+    /**
+     * Makes the content available to any number of accesses, at the cost of
+     * copying it aside when it is handed over to an incremental consumer.
+     * Has no effect once the content has been handed over.
+     */
+    public synchronized void setRepeatable() {
+        if (!handedOver) {
+            this.repeatable = true;
+        }
+    }
+
+    public synchronized boolean isRepeatable() {
+        return repeatable;
+    }
+
+    @Override
+    public String toString() {
+        final Object data = getValue();
+        return (data instanceof byte[]) ? new String((byte[]) data)
+                : (String) data;
+    }
+
+    @Override
+    public String toString(String charset) {
+        final Object data = getValue();
+        if (data instanceof byte[]) {
+            try {
+                return new String((byte[]) data, charset);
+            } catch (UnsupportedEncodingException e) {
+                throw new VariableException(e);
+            }
+        }
+        return (String) data;
+    }
+
+    @Override
+    public byte[] toBinary() {
+        final Object data = getValue();
+        return (data instanceof byte[]) ? (byte[]) data
+                : ((String) data).getBytes();
+    }
+
+    @Override
+    public byte[] toBinary(String charset) {
+        final Object data = getValue();
+        if (charset == null || data instanceof byte[]) {
+            return toBinary();
+        }
+        try {
+            return ((String) data).getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new VariableException(e);
+        }
+    }
+
+    /**
+     * Returns reader over the content without reading it into memory. If
+     * the content has been already read, reader over cached value is
+     * returned.
+     */
+    @Override
+    public Reader toReader() {
+        if (value != null) {
+            return new StringReader(toString());
+        }
+        final InputStream in = openStream();
+        try {
+            return isBinary() ? new InputStreamReader(in)
+                    : new InputStreamReader(in, charset);
+        } catch (UnsupportedEncodingException e) {
+            IOUtils.closeQuietly(in);
+            throw new VariableException(e);
+        }
+    }
+
+    /**
+     * Returns stream of the content without reading it into memory if it
+     * contains binary data. Text content has to be converted to platform's
+     * default charset (as in {@link #toBinary()}), so it is read and cached
+     * first.
+     */
+    @Override
+    public InputStream toInputStream() {
+        if (value != null || !isBinary()) {
+            return new ByteArrayInputStream(toBinary());
+        }
+        return openStream();
+    }
+
+    @Override
+    public List<Variable> toList() {
+        return isEmpty() ? Collections.<Variable>emptyList()
+                : Collections.<Variable>singletonList(this);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        if (value != null) {
+            return (value instanceof byte[]) ? ((byte[]) value).length == 0
+                    : ((String) value).length() == 0;
+        }
+        if (copy != null) {
+            // content is being read by its consumer
+            return stream == null && copy.getByteCount() == 0;
+        }
+        checkNotHandedOver();
+        try {
+            stream.mark(1);
+            final boolean empty = stream.read() < 0;
+            stream.reset();
+            return empty;
+        } catch (IOException e) {
+            throw new VariableException("Error reading stream content", e);
+        }
+    }
+
+    @Override
+    public Object getWrappedObject() {
+        return getValue();
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public Iterator<Variable> toIterator() {
+        return isEmpty() ? EmptyIterator.INSTANCE : toList().iterator();
+    }
+
+    /**
+     * Releases the underlying stream if it has not been read to the end and
+     * deletes the copy of the content. Content which has not been cached
+     * cannot be accessed afterwards.
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            releaseStream();
+            deleteCopy();
+        }
+    }
+
+    private synchronized Object getValue() {
+        if (value == null) {
+            if (copy == null) {
+                checkNotHandedOver();
+            }
+            final InputStream in = (copy == null) ? takeStream() : openCopy();
+            try {
+                value = isBinary() ? IOUtils.toByteArray(in)
+                        : IOUtils.toString(in, charset);
+            } catch (IOException e) {
+                throw new VariableException("Error reading stream content", e);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            deleteCopy();
+        }
+        return value;
+    }
+
+    /**
+     * Hands over the underlying stream, copying its content aside on the
+     * first call if the variable is repeatable, then returns stream of the
+     * copy.
+     */
+    private synchronized InputStream openStream() {
+        if (copy != null) {
+            return openCopy();
+        }
+        checkNotHandedOver();
+        handedOver = true;
+        if (!repeatable) {
+            // stream is kept to be released when the variable is closed
+            return new CloseShieldInputStream(stream) {
+                @Override
+                public void close() {
+                    super.close();
+                    releaseStream();
+                }
+            };
+        }
+        copy = new DeferredFileOutputStream(MEMORY_THRESHOLD,
+                "webharvest-stream", ".tmp", null);
+        // the rest of the stream is needed to complete the copy
+        return new TeeInputStream(new CloseShieldInputStream(stream), copy);
+    }
+
+    private InputStream takeStream() {
+        checkOpen();
+        final InputStream in = stream;
+        stream = null;
+        return in;
+    }
+
+    private InputStream openCopy() {
+        checkOpen();
+        try {
+            if (stream != null) {
+                IOUtils.copy(stream, copy);
+                releaseStream();
+                copy.close();
+            }
+            return copy.isInMemory() ? new ByteArrayInputStream(copy.getData())
+                    : new FileInputStream(copy.getFile());
+        } catch (IOException e) {
+            throw new VariableException("Error reading stream content", e);
+        }
+    }
+
+    private synchronized void releaseStream() {
+        if (stream != null) {
+            stream = null;
+            try {
+                release.close();
+            } catch (IOException e) {
+                // the stream is not read any more
+            }
+        }
+    }
+
+    private void deleteCopy() {
+        if (copy != null) {
+            IOUtils.closeQuietly(copy);
+            if (!copy.isInMemory()) {
+                copy.getFile().delete();
+            }
+            copy = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new VariableException("Stream has already been closed");
+        }
+    }
+
+    private void checkNotHandedOver() {
+        checkOpen();
+        if (handedOver) {
+            throw new VariableException("Stream content has already been "
+                    + "read and can be read only once");
+        }
+    }
+
+}
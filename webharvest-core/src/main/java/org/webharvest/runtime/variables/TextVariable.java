@@ -0,0 +1,178 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.variables;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.collections.iterators.EmptyIterator;
+import org.webharvest.exception.VariableException;
+
+/**
+ * Text variable - wraps encoded text (e.g. body of HTTP response) together
+ * with its charset. The text is decoded only when it is actually needed, so
+ * content which is just written to a file in the same charset or treated as
+ * binary never gets decoded at all. Decoded text is cached softly, so it can
+ * be reclaimed under memory pressure and decoded again on demand.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class TextVariable extends Variable {
+
+    private final byte[] bytes;
+
+    private final String charset;
+
+    private SoftReference<String> text;
+
+    /**
+     * Creates variable wrapping specified text.
+     *
+     * @param bytes
+     *            not {@code null} encoded text
+     * @param charset
+     *            not {@code null} supported charset the text is encoded with
+     */
+    public TextVariable(final byte[] bytes, final String charset) {
+        this.bytes = bytes;
+        this.charset = charset;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    @Override
+    public String toString() {
+        String value = (text != null) ? text.get() : null;
+        if (value == null) {
+            value = decode();
+            text = new SoftReference<String>(value);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString(String charset) {
+        return toString();
+    }
+
+    @Override
+    public byte[] toBinary() {
+        return toBinary(Charset.defaultCharset().name());
+    }
+
+    /**
+     * Returns wrapped bytes as they are if requested charset is the one the
+     * text is encoded with, otherwise text is decoded and encoded again.
+     */
+    @Override
+    public byte[] toBinary(String charset) {
+        if (charset == null) {
+            return toBinary();
+        }
+        if (isSameCharset(charset)) {
+            return bytes;
+        }
+        try {
+            return toString().getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new VariableException(e);
+        }
+    }
+
+    /**
+     * Returns reader decoding wrapped bytes incrementally.
+     */
+    @Override
+    public Reader toReader() {
+        try {
+            return new InputStreamReader(new ByteArrayInputStream(bytes),
+                    charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new VariableException(e);
+        }
+    }
+
+    @Override
+    public List<Variable> toList() {
+        return isEmpty() ? Collections.<Variable>emptyList()
+                : Collections.<Variable>singletonList(this);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bytes.length == 0;
+    }
+
+    @Override
+    public Object getWrappedObject() {
+        return toString();
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public Iterator<Variable> toIterator() {
+        return isEmpty() ? EmptyIterator.INSTANCE : toList().iterator();
+    }
+
+    private String decode() {
+        try {
+            return new String(bytes, charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new VariableException(e);
+        }
+    }
+
+    private boolean isSameCharset(final String other) {
+        if (charset.equalsIgnoreCase(other)) {
+            return true;
+        }
+        try {
+            return Charset.forName(charset).equals(Charset.forName(other));
+        } catch (IllegalArgumentException e) {
+            // unsupported or illegal charset name
+            return false;
+        }
+    }
+
+}
@@ -36,6 +36,10 @@
 */
 package org.webharvest.runtime.variables;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -149,5 +153,27 @@ public abstract class Variable {
         }
     }
 
+    /**
+     * Safely converts this variable to character stream. Variables backed by
+     * a stream override it in order to let consumers read the content
+     * incrementally.
+     *
+     * @return reader over string value of this variable
+     */
+    public Reader toReader() {
+        return new StringReader(toString());
+    }
+
+    /**
+     * Safely converts this variable to byte stream. Variables backed by
+     * a stream override it in order to let consumers read the content
+     * incrementally.
+     *
+     * @return input stream over binary value of this variable
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(toBinary());
+    }
+
     public abstract Iterator toIterator();
 }
\ No newline at end of file
@@ -0,0 +1,298 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webharvest.exception.HttpException;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.utils.KeyValuePair;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * {@link HttpTransport} recording responses of another transport in an
+ * {@link HttpArchive}, or replaying the recorded responses without touching
+ * the network, depending on the mode of the archive. Requests are identified
+ * by method, URL, parameters and body; of request headers only the
+ * requested range is taken into account.
+ * <p>
+ * Recorded responses are stored with their bodies decoded, as they are seen
+ * by http processors. Body is recorded as it is read by the processor, so
+ * the part of it which has not been read (e.g. beyond the limit of bytes to
+ * be read) is left out. Replayed responses are reported in {@link HttpInfo}
+ * as served from cache.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see HttpArchive
+ */
+public final class ArchivingHttpTransport implements HttpTransport {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ArchivingHttpTransport.class);
+
+    // size of the body kept in memory until it is recorded
+    private static final int MEMORY_THRESHOLD = 64 * 1024;
+
+    private final HttpTransport delegate;
+    private final HttpArchive archive;
+
+    @Inject
+    public ArchivingHttpTransport(@Named("network") final HttpTransport delegate,
+            final HttpArchive archive) {
+        this.delegate = delegate;
+        this.archive = archive;
+    }
+
+    @Override
+    public void setCookiePolicy(final String cookiePolicy) {
+        delegate.setCookiePolicy(cookiePolicy);
+    }
+
+    @Override
+    public HttpResponseWrapper execute(final String methodType,
+            final Boolean followRedirects, final String contentType,
+            final String url, final String charset, final String username,
+            final String password, final Variable bodyContent,
+            final Map<String, HttpParamInfo> params, final Map<String, String> headers,
+            final int retryAttempts, final long retryDelay,
+            final double retryDelayFactor, final HttpRequestOptions options)
+            throws InterruptedException, UnsupportedEncodingException {
+        final String key = getRequestKey(methodType, url, charset,
+                bodyContent, params, headers);
+
+        if (archive.getMode() == HttpArchive.Mode.REPLAY) {
+            return replay(key);
+        }
+
+        final HttpResponseWrapper response = delegate.execute(methodType,
+                followRedirects, contentType, url, charset, username,
+                password, bodyContent, params, headers, retryAttempts,
+                retryDelay, retryDelayFactor, options);
+        // body is recorded as it is read by the processor
+        response.setBodyRecorder(new Recording(key));
+        return response;
+    }
+
+    private HttpResponseWrapper replay(final String key) {
+        final CachedHttpResponse archived;
+        try {
+            archived = archive.replay(key);
+        } catch (IOException e) {
+            throw new HttpException("Cannot read response of " + key
+                    + " from HTTP archive " + archive.getFile(), e);
+        }
+        if (archived == null) {
+            throw new HttpException("No response of " + key
+                    + " recorded in HTTP archive " + archive.getFile());
+        }
+        LOG.debug("Replaying response of {}", key);
+        final HttpResponseWrapper response = new HttpResponseWrapper(archived);
+        delegate.getHttpInfo().setResponse(response);
+        return response;
+    }
+
+    /**
+     * Creates archive record of specified response. Headers describing
+     * encoding of the transferred body are left out, because the body is
+     * stored decoded.
+     */
+    private static CachedHttpResponse toArchived(final String key,
+            final HttpResponseWrapper response) {
+        final List<String> names = new ArrayList<String>();
+        final List<String> values = new ArrayList<String>();
+        final KeyValuePair<String>[] headers = response.getHeaders();
+        if (headers != null) {
+            for (KeyValuePair<String> header : headers) {
+                final String name = header.getKey();
+                if (name != null && !"Content-Encoding".equalsIgnoreCase(name)
+                        && !"Content-Length".equalsIgnoreCase(name)
+                        && !"Transfer-Encoding".equalsIgnoreCase(name)) {
+                    names.add(name);
+                    values.add(header.getValue());
+                }
+            }
+        }
+        return CachedHttpResponse.create(key, response.getStatusCode(),
+                response.getStatusText(), response.getCharset(),
+                names.toArray(new String[names.size()]),
+                values.toArray(new String[values.size()]),
+                new byte[0], System.currentTimeMillis());
+    }
+
+    /**
+     * Returns key identifying request in the archive: its method and URL,
+     * followed by requested range and digest of its parameters and body, if
+     * it has any.
+     */
+    static String getRequestKey(final String methodType, final String url,
+            final String charset, final Variable bodyContent,
+            final Map<String, HttpParamInfo> params,
+            final Map<String, String> headers)
+            throws UnsupportedEncodingException {
+        final String method = "post".equalsIgnoreCase(methodType)
+                || "head".equalsIgnoreCase(methodType)
+                ? methodType.toUpperCase() : "GET";
+        final String fullUrl = url.startsWith("http://") || url.startsWith("https://")
+                ? url : "http://" + url;
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (params != null) {
+            for (HttpParamInfo param : params.values()) {
+                append(content, param.getName().getBytes("UTF-8"));
+                content.write(param.isFile() ? ':' : '=');
+                if (param.getValue() != null) {
+                    append(content, param.isFile() || charset == null
+                            ? param.getValue().toBinary()
+                            : param.getValue().toBinary(charset));
+                }
+                content.write('&');
+            }
+        }
+        if (bodyContent != null) {
+            append(content, charset != null
+                    ? bodyContent.toBinary(charset) : bodyContent.toBinary());
+        }
+        final StringBuilder key = new StringBuilder(method).append(' ')
+                .append(fullUrl);
+        // ranges of the same URL are different responses
+        final String range = getHeader(headers, "Range");
+        if (range != null) {
+            key.append(" [").append(range.trim()).append(']');
+        }
+        if (content.size() > 0) {
+            key.append(" #").append(DigestUtils.md5Hex(content.toByteArray()));
+        }
+        return key.toString();
+    }
+
+    private static String getHeader(final Map<String, String> headers,
+            final String name) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void append(final ByteArrayOutputStream out, final byte[] bytes) {
+        if (bytes != null) {
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public boolean supportsConcurrentRequests() {
+        return archive.getMode() == HttpArchive.Mode.REPLAY
+                || delegate.supportsConcurrentRequests();
+    }
+
+    @Override
+    public HttpInfo getHttpInfo() {
+        return delegate.getHttpInfo();
+    }
+
+    /**
+     * Copies body of the response aside (to a temporary file once it gets
+     * large) as it is read, and appends the response to the archive when
+     * the body is read or the response closed.
+     */
+    private final class Recording implements HttpResponseWrapper.BodyRecorder {
+
+        private final String key;
+        private final DeferredFileOutputStream body = new DeferredFileOutputStream(
+                MEMORY_THRESHOLD, "webharvest-archive", ".tmp", null);
+        private boolean failed;
+
+        Recording(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset,
+                final int length) {
+            if (!failed) {
+                try {
+                    body.write(buffer, offset, length);
+                } catch (IOException e) {
+                    failed = true;
+                    LOG.warn("Cannot record response of {} in HTTP archive: {}",
+                            key, e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void finish(final HttpResponseWrapper response) {
+            InputStream in = null;
+            try {
+                body.close();
+                if (!failed) {
+                    in = body.isInMemory()
+                            ? new ByteArrayInputStream(body.getData())
+                            : new FileInputStream(body.getFile());
+                    archive.record(toArchived(key, response), in,
+                            body.getByteCount());
+                }
+            } catch (IOException e) {
+                LOG.warn("Cannot record response of {} in HTTP archive: {}",
+                        key, e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(in);
+                if (!body.isInMemory()) {
+                    body.getFile().delete();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * HTTP response stored in {@link HttpResponseCache} together with everything
+ * needed to decide whether it may be served without contacting the server
+ * (freshness lifetime computed from {@code Cache-Control} / {@code Expires})
+ * or how to revalidate it ({@code ETag} / {@code Last-Modified} validators).
+ * Instances are immutable; revalidation produces a new instance.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see HttpResponseCache
+ */
+public final class CachedHttpResponse implements Serializable {
+
+    private static final long serialVersionUID = -2904571036728163471L;
+
+    private final String key;
+    private final int statusCode;
+    private final String statusText;
+    private final String charset;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final Map<String, String> varyValues;
+    private final byte[] body;
+    private final long storedAt;
+    private final long expiresAt;
+
+    private CachedHttpResponse(final String key, final int statusCode,
+            final String statusText, final String charset,
+            final String[] headerNames, final String[] headerValues,
+            final Map<String, String> varyValues, final byte[] body,
+            final long storedAt) {
+        this.key = key;
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.charset = charset;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.varyValues = varyValues;
+        this.body = body;
+        this.storedAt = storedAt;
+        this.expiresAt = computeExpiresAt(storedAt);
+    }
+
+    /**
+     * Checks whether response of the executed method may be stored in a
+     * cache: it must be a {@code 200 OK} response neither forbidding storage
+     * ({@code Cache-Control: no-store}, {@code Vary: *}) nor being useless
+     * for the cache, i.e. having neither freshness lifetime nor validator.
+     *
+     * @param method
+     *            executed HTTP method
+     * @param maxAgeOverride
+     *            freshness lifetime in seconds overriding the one sent by
+     *            server, or negative value if there is no override
+     * @return {@code true} if response may be cached
+     */
+    public static boolean isStorable(final HttpMethodBase method,
+            final long maxAgeOverride) {
+        if (method.getStatusCode() != HttpStatus.SC_OK) {
+            return false;
+        }
+        final Header vary = method.getResponseHeader("Vary");
+        if (vary != null && vary.getValue().trim().equals("*")) {
+            return false;
+        }
+        final String[] names = names(method.getResponseHeaders());
+        final String[] values = values(method.getResponseHeaders());
+        if (hasDirective(names, values, "no-store")) {
+            return false;
+        }
+        if (maxAgeOverride > 0) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        return expiresAt(names, values, now) > now
+                || method.getResponseHeader("ETag") != null
+                || method.getResponseHeader("Last-Modified") != null;
+    }
+
+    /**
+     * Creates cache entry from the executed method.
+     *
+     * @param key
+     *            cache key of the request
+     * @param method
+     *            executed HTTP method
+     * @param body
+     *            response body already read from the method
+     * @return new cache entry
+     */
+    public static CachedHttpResponse fromMethod(final String key,
+            final HttpMethodBase method, final byte[] body) {
+        final String[] names = names(method.getResponseHeaders());
+        final String[] values = values(method.getResponseHeaders());
+        return new CachedHttpResponse(key, method.getStatusCode(),
+                method.getStatusText(), method.getResponseCharSet(), names,
+                values, varyValues(method, names, values),
+                body != null ? body : new byte[0], System.currentTimeMillis());
+    }
+
+    /**
+     * Creates entry from response parts stored elsewhere, e.g. in
+     * {@link HttpArchive}. The entry does not vary on any request header.
+     */
+    static CachedHttpResponse create(final String key, final int statusCode,
+            final String statusText, final String charset,
+            final String[] headerNames, final String[] headerValues,
+            final byte[] body, final long storedAt) {
+        return create(key, statusCode, statusText, charset, headerNames,
+                headerValues, new HashMap<String, String>(), body, storedAt);
+    }
+
+    /**
+     * Creates entry from response parts stored elsewhere, e.g. in
+     * {@link DiskHttpResponseCache}, including the request headers it varies
+     * on.
+     */
+    static CachedHttpResponse create(final String key, final int statusCode,
+            final String statusText, final String charset,
+            final String[] headerNames, final String[] headerValues,
+            final Map<String, String> varyValues, final byte[] body,
+            final long storedAt) {
+        return new CachedHttpResponse(key, statusCode, statusText, charset,
+                headerNames, headerValues, varyValues, body, storedAt);
+    }
+
+    /**
+     * Creates new entry from this one refreshed by the {@code 304 Not
+     * Modified} response of conditional request: headers sent with the 304
+     * response replace the stored ones and freshness lifetime is computed
+     * anew.
+     *
+     * @param notModified
+     *            executed conditional method which got 304 response
+     * @return revalidated cache entry
+     */
+    public CachedHttpResponse revalidate(final HttpMethodBase notModified) {
+        final List<String> names = new ArrayList<String>();
+        final List<String> values = new ArrayList<String>();
+        for (int i = 0; i < headerNames.length; i++) {
+            if (notModified.getResponseHeader(headerNames[i]) == null) {
+                names.add(headerNames[i]);
+                values.add(headerValues[i]);
+            }
+        }
+        for (Header header : notModified.getResponseHeaders()) {
+            names.add(header.getName());
+            values.add(header.getValue());
+        }
+        return new CachedHttpResponse(key, statusCode, statusText, charset,
+                names.toArray(new String[names.size()]),
+                values.toArray(new String[values.size()]), varyValues, body,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Checks whether this entry may be served without revalidation.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param maxAgeOverride
+     *            freshness lifetime in seconds overriding the one sent by
+     *            server, or negative value if there is no override
+     * @return {@code true} if response is fresh
+     */
+    public boolean isFresh(final long now, final long maxAgeOverride) {
+        if (maxAgeOverride >= 0) {
+            return now < storedAt + maxAgeOverride * 1000L;
+        }
+        return now < expiresAt;
+    }
+
+    /**
+     * Checks whether headers the response varies on have the same values in
+     * specified request as they had in the request this response was
+     * received for.
+     *
+     * @param method
+     *            HTTP method about to be executed
+     * @return {@code true} if this entry may be used for the request
+     */
+    public boolean matches(final HttpMethodBase method) {
+        for (Map.Entry<String, String> entry : varyValues.entrySet()) {
+            final Header header = method.getRequestHeader(entry.getKey());
+            if (!StringUtils.equals(entry.getValue(),
+                    header != null ? header.getValue() : null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds {@code If-None-Match} and {@code If-Modified-Since} request
+     * headers making specified method a conditional request revalidating this
+     * entry.
+     *
+     * @param method
+     *            HTTP method about to be executed
+     */
+    public void addValidators(final HttpMethodBase method) {
+        final String etag = getHeader("ETag");
+        if (etag != null) {
+            method.setRequestHeader("If-None-Match", etag);
+        }
+        final String lastModified = getHeader("Last-Modified");
+        if (lastModified != null) {
+            method.setRequestHeader("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * @return first value of the response header with specified name, or
+     *         {@code null} if there is no such header
+     */
+    public String getHeader(final String name) {
+        return header(headerNames, headerValues, name);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getStatusText() {
+        return statusText;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public String[] getHeaderNames() {
+        return headerNames.clone();
+    }
+
+    public String[] getHeaderValues() {
+        return headerValues.clone();
+    }
+
+    /**
+     * @return values of the request headers the response varies on, by
+     *         header name
+     */
+    Map<String, String> getVaryValues() {
+        return new HashMap<String, String>(varyValues);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    private long computeExpiresAt(final long now) {
+        return expiresAt(headerNames, headerValues, now);
+    }
+
+    private static String[] names(final Header[] headers) {
+        final String[] names = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            names[i] = headers[i].getName();
+        }
+        return names;
+    }
+
+    private static String[] values(final Header[] headers) {
+        final String[] values = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            values[i] = headers[i].getValue();
+        }
+        return values;
+    }
+
+    private static Map<String, String> varyValues(final HttpMethodBase method,
+            final String[] names, final String[] values) {
+        final Map<String, String> result = new HashMap<String, String>();
+        for (int i = 0; i < names.length; i++) {
+            if ("Vary".equalsIgnoreCase(names[i])) {
+                for (String name : StringUtils.split(values[i], ", ")) {
+                    final Header header = method.getRequestHeader(name);
+                    result.put(name, header != null ? header.getValue() : null);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes expiration time according to RFC 2616, section 13.2:
+     * {@code Cache-Control} {@code max-age} (decreased by {@code Age}) takes
+     * precedence over {@code Expires}, which is taken relative to the
+     * server's {@code Date} to be immune to clock skew. Responses which
+     * must be revalidated or carry no expiration at all expire immediately.
+     */
+    private static long expiresAt(final String[] names, final String[] values,
+            final long now) {
+        if (hasDirective(names, values, "no-cache")
+                || hasDirective(names, values, "must-revalidate")) {
+            return now;
+        }
+        final String maxAge = directiveValue(names, values, "max-age");
+        if (maxAge != null) {
+            try {
+                final long age = parseSeconds(header(names, values, "Age"));
+                return now + (Long.parseLong(maxAge) - age) * 1000L;
+            } catch (NumberFormatException e) {
+                return now;
+            }
+        }
+        final String expires = header(names, values, "Expires");
+        if (expires != null) {
+            try {
+                final Date expiresDate = DateUtil.parseDate(expires);
+                final String date = header(names, values, "Date");
+                if (date != null) {
+                    return now + expiresDate.getTime()
+                            - DateUtil.parseDate(date).getTime();
+                }
+                return expiresDate.getTime();
+            } catch (DateParseException e) {
+                // invalid dates, like "0", mean "already expired"
+                return now;
+            }
+        }
+        return now;
+    }
+
+    private static long parseSeconds(final String value) {
+        if (value == null) {
+            return 0;
+        }
+        return Math.max(0, Long.parseLong(value.trim()));
+    }
+
+    private static String header(final String[] names, final String[] values,
+            final String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasDirective(final String[] names,
+            final String[] values, final String directive) {
+        return directiveValue(names, values, directive) != null;
+    }
+
+    /**
+     * @return value of specified {@code Cache-Control} directive, empty
+     *         string if directive has no value or {@code null} if there is
+     *         no such directive
+     */
+    private static String directiveValue(final String[] names,
+            final String[] values, final String directive) {
+        for (int i = 0; i < names.length; i++) {
+            if ("Cache-Control".equalsIgnoreCase(names[i])
+                    || "Pragma".equalsIgnoreCase(names[i])) {
+                for (String token : StringUtils.split(values[i], ',')) {
+                    final String[] parts = token.trim().split("=", 2);
+                    if (parts[0].trim().equalsIgnoreCase(directive)) {
+                        return parts.length > 1
+                                ? StringUtils.strip(parts[1].trim(), "\"")
+                                : "";
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+}
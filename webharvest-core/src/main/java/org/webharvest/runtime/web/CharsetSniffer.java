@@ -0,0 +1,125 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds charset declared by meta tag in the head of HTML document. The bytes
+ * are scanned in place as ASCII text, so no string is built for that.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class CharsetSniffer {
+
+    /**
+     * Number of leading bytes of the document which are scanned.
+     */
+    public static final int SNIFF_LENGTH = 1024;
+
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta\\s*http-equiv\\s*=\\s*(\"|')content-type(\"|')\\s*content"
+                    + "\\s*=\\s*(\"|')text/html;\\s*charset\\s*=\\s*(.*?)"
+                    + "(\"|')\\s*/?>", Pattern.CASE_INSENSITIVE);
+
+    private CharsetSniffer() {
+    }
+
+    /**
+     * Returns supported charset declared in the first
+     * {@link #SNIFF_LENGTH} bytes of the document, or {@code null} if there
+     * is none.
+     */
+    public static String sniff(final byte[] head) {
+        final Matcher matcher = META_CHARSET.matcher(new AsciiSequence(head,
+                0, Math.min(head.length, SNIFF_LENGTH)));
+        if (matcher.find()) {
+            final String charset = matcher.group(4);
+            try {
+                if (Charset.isSupported(charset)) {
+                    return charset;
+                }
+            } catch (IllegalCharsetNameException e) {
+                // not a charset at all
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes viewed as ASCII characters; non ASCII bytes are seen as
+     * replacement characters, as ASCII decoder would do.
+     */
+    private static final class AsciiSequence implements CharSequence {
+
+        private final byte[] bytes;
+
+        private final int offset;
+
+        private final int length;
+
+        AsciiSequence(final byte[] bytes, final int offset, final int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(final int index) {
+            final byte b = bytes[offset + index];
+            return b < 0 ? '\uFFFD' : (char) b;
+        }
+
+        public CharSequence subSequence(final int start, final int end) {
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * Encapsulates configuration of HTTP connections management performed by
+ * {@link HttpClientManager}. By default ({@link #NO_POOL_SET}) every
+ * {@link HttpClientManager} holds single connection, which is reused only for
+ * subsequent requests to the same host. Settings created with {@link Builder}
+ * make {@link HttpClientManager} use pool of connections, which is thread safe
+ * and keeps alive connections to many hosts at once. Pool can be shared by all
+ * {@link HttpClientManager}s configured with the same settings, so concurrent
+ * harvests running in one JVM reuse already established connections.
+ * Request which does not get a connection from the full pool within the
+ * acquire timeout fails, instead of waiting for ever.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see HttpClientManager
+ * @see MultiThreadedHttpConnectionManager
+ */
+public final class ConnectionPoolSettings {
+
+    public static final ConnectionPoolSettings NO_POOL_SET =
+            new ConnectionPoolSettings(new Builder());
+
+    /**
+     * Default time in milliseconds request waits for connection from the
+     * full pool.
+     */
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 60000;
+
+    private final int maxConnectionsPerHost;
+    private final int maxTotalConnections;
+    private final long idleConnectionTimeout;
+    private final long acquireTimeout;
+    private final boolean staleCheckingEnabled;
+    private final boolean shared;
+
+    private HttpConnectionManager sharedConnectionManager;
+
+    private ConnectionPoolSettings(final Builder builder) {
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.maxTotalConnections = builder.maxTotalConnections;
+        this.idleConnectionTimeout = builder.idleConnectionTimeout;
+        this.acquireTimeout = builder.acquireTimeout;
+        this.staleCheckingEnabled = builder.staleCheckingEnabled;
+        this.shared = builder.shared;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public boolean isStaleCheckingEnabled() {
+        return staleCheckingEnabled;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Returns connection manager to be used by newly created HTTP client.
+     * Shared pool is created once and returned on each subsequent call.
+     */
+    synchronized HttpConnectionManager getConnectionManager() {
+        if (this == NO_POOL_SET) {
+            return new SimpleHttpConnectionManager();
+        }
+        if (!shared) {
+            return createPooledConnectionManager();
+        }
+        if (sharedConnectionManager == null) {
+            sharedConnectionManager = createPooledConnectionManager();
+        }
+        return sharedConnectionManager;
+    }
+
+    /**
+     * Closes connections which have been idle for longer than configured
+     * timeout. Has no effect if there is no pool or timeout is not positive.
+     */
+    void evictIdleConnections(final HttpConnectionManager connectionManager) {
+        if (this != NO_POOL_SET && idleConnectionTimeout > 0) {
+            connectionManager.closeIdleConnections(idleConnectionTimeout);
+        }
+    }
+
+    private HttpConnectionManager createPooledConnectionManager() {
+        final HttpConnectionManagerParams params =
+                new HttpConnectionManagerParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        params.setMaxTotalConnections(maxTotalConnections);
+        params.setStaleCheckingEnabled(staleCheckingEnabled);
+
+        final MultiThreadedHttpConnectionManager connectionManager =
+                new TimedConnectionManager();
+        connectionManager.setParams(params);
+        return connectionManager;
+    }
+
+    /**
+     * Pool recording the time spent waiting for free connection in the
+     * {@link RequestTiming} of the request being executed.
+     */
+    private static final class TimedConnectionManager
+            extends MultiThreadedHttpConnectionManager {
+
+        @Override
+        public HttpConnection getConnectionWithTimeout(
+                final HostConfiguration hostConfiguration, final long timeout)
+                throws ConnectionPoolTimeoutException {
+            final long start = System.nanoTime();
+            try {
+                return super.getConnectionWithTimeout(hostConfiguration, timeout);
+            } finally {
+                final RequestTiming timing = RequestTiming.current();
+                if (timing != null) {
+                    timing.addPoolTime(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+        private int maxConnectionsPerHost =
+                MultiThreadedHttpConnectionManager.DEFAULT_MAX_HOST_CONNECTIONS;
+        private int maxTotalConnections =
+                MultiThreadedHttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS;
+        private long idleConnectionTimeout = 60000;
+        private long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+        private boolean staleCheckingEnabled = true;
+        private boolean shared;
+
+        public Builder setMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+            if (maxConnectionsPerHost <= 0) {
+                throw new IllegalArgumentException(
+                        "Max connections per host must be positive");
+            }
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Builder setMaxTotalConnections(final int maxTotalConnections) {
+            if (maxTotalConnections <= 0) {
+                throw new IllegalArgumentException(
+                        "Max total connections must be positive");
+            }
+            this.maxTotalConnections = maxTotalConnections;
+            return this;
+        }
+
+        /**
+         * Sets time in milliseconds after which idle connection is closed.
+         * Zero or negative value disables eviction of idle connections.
+         */
+        public Builder setIdleConnectionTimeout(
+                final long idleConnectionTimeout) {
+            this.idleConnectionTimeout = idleConnectionTimeout;
+            return this;
+        }
+
+        /**
+         * Sets time in milliseconds request waits for connection when all
+         * connections of the pool are in use. Zero means waiting without
+         * limit.
+         */
+        public Builder setAcquireTimeout(final long acquireTimeout) {
+            if (acquireTimeout < 0) {
+                throw new IllegalArgumentException(
+                        "Acquire timeout must not be negative");
+            }
+            this.acquireTimeout = acquireTimeout;
+            return this;
+        }
+
+        public Builder setStaleCheckingEnabled(
+                final boolean staleCheckingEnabled) {
+            this.staleCheckingEnabled = staleCheckingEnabled;
+            return this;
+        }
+
+        public Builder setShared(final boolean shared) {
+            this.shared = shared;
+            return this;
+        }
+
+        public ConnectionPoolSettings build() {
+            return new ConnectionPoolSettings(this);
+        }
+    }
+}
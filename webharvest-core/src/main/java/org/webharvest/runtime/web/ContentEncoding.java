@@ -0,0 +1,121 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoding of HTTP response bodies according to their
+ * {@code Content-Encoding}. Decompression is done on the fly while the body
+ * is read, so it never has to be held in memory in compressed form.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+final class ContentEncoding {
+
+    /**
+     * Value of {@code Accept-Encoding} request header listing all supported
+     * encodings.
+     */
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * @return {@code true} if specified content encoding is decoded by
+     *         {@link #decode(InputStream, String)}
+     */
+    static boolean isSupported(final String encoding) {
+        final String name = normalize(encoding);
+        return "gzip".equals(name) || "x-gzip".equals(name)
+                || "deflate".equals(name);
+    }
+
+    /**
+     * Wraps specified stream of encoded body into stream decoding it. Streams
+     * of unknown encoding and empty streams are returned untouched.
+     *
+     * @param in
+     *            stream of encoded response body
+     * @param encoding
+     *            value of {@code Content-Encoding} header, may be {@code null}
+     * @return stream of decoded response body
+     * @throws IOException
+     *             if body does not start with valid header of the encoding
+     */
+    static InputStream decode(final InputStream in, final String encoding)
+            throws IOException {
+        if (!isSupported(encoding)) {
+            return in;
+        }
+        final BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        final int first = buffered.read();
+        final int second = buffered.read();
+        buffered.reset();
+        if (first < 0) {
+            // e.g. response to HEAD request
+            return buffered;
+        }
+        if (!"deflate".equals(normalize(encoding))) {
+            return new GZIPInputStream(buffered);
+        }
+        // "deflate" should be zlib stream, but some servers send raw deflate
+        final boolean zlib = second >= 0 && (first & 0x0f) == 8
+                && ((first << 8) | second) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(buffered, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static String normalize(final String encoding) {
+        return encoding == null ? null : encoding.trim().toLowerCase();
+    }
+
+}
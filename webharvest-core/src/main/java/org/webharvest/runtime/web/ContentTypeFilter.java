@@ -0,0 +1,114 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * List of mime types of the responses whose bodies are wanted, e.g.
+ * {@code "text/html, application/xhtml+xml, text/*"}. Type may be given
+ * with wildcard subtype, and {@code "*&#47;*"} matches any type. Response
+ * without content type is accepted, as there is no telling what it is.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class ContentTypeFilter {
+
+    /**
+     * Filter accepting any content type.
+     */
+    public static final ContentTypeFilter ANY =
+        new ContentTypeFilter(Collections.<String>emptyList());
+
+    private final List<String> mimeTypes;
+
+    private ContentTypeFilter(final List<String> mimeTypes) {
+        this.mimeTypes = mimeTypes;
+    }
+
+    /**
+     * Creates filter from comma separated list of mime types.
+     *
+     * @param list
+     *            list of mime types; {@code null} or blank string for any
+     *            content type
+     */
+    public static ContentTypeFilter parse(final String list) {
+        if (StringUtils.isBlank(list)) {
+            return ANY;
+        }
+        final List<String> mimeTypes = new ArrayList<String>();
+        for (String mimeType : StringUtils.split(list, ", \t\r\n")) {
+            if ("*/*".equals(mimeType)) {
+                return ANY;
+            }
+            mimeTypes.add(mimeType.toLowerCase());
+        }
+        return new ContentTypeFilter(mimeTypes);
+    }
+
+    /**
+     * Checks whether content of specified mime type is accepted.
+     *
+     * @param mimeType
+     *            mime type (without parameters) of the content, or
+     *            {@code null} if it is not known
+     */
+    public boolean accepts(final String mimeType) {
+        if (mimeTypes.isEmpty() || StringUtils.isBlank(mimeType)) {
+            return true;
+        }
+        final String type = mimeType.trim().toLowerCase();
+        for (String accepted : mimeTypes) {
+            if (accepted.endsWith("/*")
+                    ? type.startsWith(accepted.substring(0,
+                            accepted.length() - 1))
+                    : type.equals(accepted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return mimeTypes.isEmpty() ? "*/*" : StringUtils.join(mimeTypes, ", ");
+    }
+
+}
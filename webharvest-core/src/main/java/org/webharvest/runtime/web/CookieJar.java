@@ -0,0 +1,338 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+
+/**
+ * {@link HttpState} keeping cookies indexed by their domain. HttpClient
+ * matches every cookie of the state against every request; when executed
+ * with the state returned by {@link #forHost(String)}, it matches only the
+ * cookies of domains the request's host belongs to, so sessions collecting
+ * lots of cookies from various sites do not slow down. Cookies are still
+ * selected by the cookie spec of the client's cookie policy.
+ * <p>
+ * Cookie without expiration date is given one when it is added, and expired
+ * cookie removes the one it replaces instead of being added, so that only
+ * the candidates for a request need to be checked for expiration.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class CookieJar extends HttpState {
+
+    /**
+     * Lifetime of cookie received without expiration date.
+     */
+    static final long DEFAULT_COOKIE_LIFETIME = DAYS.toMillis(1);
+
+    private final Map<String, List<Cookie>> cookiesByDomain =
+        new HashMap<String, List<Cookie>>();
+
+    private boolean changed = true;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * HttpClient 3.1 doesn't send back cookies without expiration date, which
+     * leads to inability to login to some sites, being always redirected to
+     * login page. Such cookies therefore expire one day after they have been
+     * received (patched by heysteveo -
+     * https://sourceforge.net/projects/web-harvest/forums/forum/591299/topic/4372223
+     * post #10).
+     */
+    @Override
+    public synchronized void addCookie(final Cookie cookie) {
+        if (cookie == null) {
+            return;
+        }
+        final String domain = getDomainKey(cookie.getDomain());
+        List<Cookie> cookies = cookiesByDomain.get(domain);
+        if (cookies == null) {
+            cookies = new ArrayList<Cookie>();
+            cookiesByDomain.put(domain, cookies);
+        }
+        // cookie with the same name, domain and path is replaced
+        changed |= cookies.remove(cookie);
+
+        if (cookie.getExpiryDate() == null) {
+            cookie.setExpiryDate(new Date(System.currentTimeMillis()
+                    + DEFAULT_COOKIE_LIFETIME));
+        } else if (cookie.isExpired()) {
+            // server deletes the cookie
+            if (cookies.isEmpty()) {
+                cookiesByDomain.remove(domain);
+            }
+            return;
+        }
+        cookies.add(cookie);
+        changed = true;
+    }
+
+    @Override
+    public synchronized void addCookies(final Cookie[] cookies) {
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                addCookie(cookie);
+            }
+        }
+    }
+
+    /**
+     * @return all cookies of this jar
+     */
+    @Override
+    public synchronized Cookie[] getCookies() {
+        final List<Cookie> result = new ArrayList<Cookie>();
+        for (List<Cookie> cookies : cookiesByDomain.values()) {
+            result.addAll(cookies);
+        }
+        return result.toArray(new Cookie[result.size()]);
+    }
+
+    /**
+     * Returns cookies which may be sent to specified host, i.e. cookies of
+     * the host's domain and of all its parent domains. Expired cookies are
+     * removed.
+     *
+     * @param host
+     *            name of the host
+     * @return cookies to be matched against request to the host
+     */
+    public synchronized Cookie[] getCookies(final String host) {
+        final List<Cookie> result = new ArrayList<Cookie>();
+        final Date now = new Date();
+        String domain = getDomainKey(host);
+        while (true) {
+            final List<Cookie> cookies = cookiesByDomain.get(domain);
+            if (cookies != null) {
+                changed |= purgeExpiredCookies(cookies, now);
+                if (cookies.isEmpty()) {
+                    cookiesByDomain.remove(domain);
+                }
+                result.addAll(cookies);
+            }
+            final int index = domain.indexOf('.');
+            if (index < 0) {
+                break;
+            }
+            domain = domain.substring(index + 1);
+        }
+        return result.toArray(new Cookie[result.size()]);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public synchronized Cookie[] getCookies(final String domain,
+            final int port, final String path, final boolean secure) {
+        return CookiePolicy.getDefaultSpec().match(domain, port, path, secure,
+                getCookies(domain));
+    }
+
+    @Override
+    public synchronized boolean purgeExpiredCookies() {
+        return purgeExpiredCookies(new Date());
+    }
+
+    @Override
+    public synchronized boolean purgeExpiredCookies(final Date date) {
+        boolean removed = false;
+        final Iterator<List<Cookie>> iterator =
+            cookiesByDomain.values().iterator();
+        while (iterator.hasNext()) {
+            final List<Cookie> cookies = iterator.next();
+            removed |= purgeExpiredCookies(cookies, date);
+            if (cookies.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        changed |= removed;
+        return removed;
+    }
+
+    private static boolean purgeExpiredCookies(final List<Cookie> cookies,
+            final Date date) {
+        boolean removed = false;
+        final Iterator<Cookie> iterator = cookies.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(date)) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void clearCookies() {
+        cookiesByDomain.clear();
+        changed = true;
+    }
+
+    /**
+     * Tells whether cookies have been added or removed since the last call
+     * of this method (or since the jar was created), and starts tracking
+     * the changes anew.
+     *
+     * @return {@code true} if the cookies have changed
+     */
+    synchronized boolean resetChanged() {
+        final boolean result = changed;
+        changed = false;
+        return result;
+    }
+
+    /**
+     * Returns state to execute request to specified host with. It offers
+     * HttpClient only the cookies returned by {@link #getCookies(String)},
+     * but stores received cookies and uses credentials of this jar.
+     *
+     * @param host
+     *            name of the host the request is sent to
+     * @return state for the request
+     */
+    public HttpState forHost(final String host) {
+        return new HostState(host);
+    }
+
+    private static String getDomainKey(final String domain) {
+        if (domain == null) {
+            return "";
+        }
+        final String key = domain.toLowerCase();
+        return key.startsWith(".") ? key.substring(1) : key;
+    }
+
+    /**
+     * View of the jar for single request.
+     */
+    @SuppressWarnings("deprecation")
+    private final class HostState extends HttpState {
+
+        private final String host;
+
+        HostState(final String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void addCookie(final Cookie cookie) {
+            CookieJar.this.addCookie(cookie);
+        }
+
+        @Override
+        public void addCookies(final Cookie[] cookies) {
+            CookieJar.this.addCookies(cookies);
+        }
+
+        @Override
+        public Cookie[] getCookies() {
+            return CookieJar.this.getCookies(host);
+        }
+
+        @Override
+        public Cookie[] getCookies(final String domain, final int port,
+                final String path, final boolean secure) {
+            return CookieJar.this.getCookies(domain, port, path, secure);
+        }
+
+        @Override
+        public boolean purgeExpiredCookies(final Date date) {
+            return CookieJar.this.purgeExpiredCookies(date);
+        }
+
+        @Override
+        public void clearCookies() {
+            CookieJar.this.clearCookies();
+        }
+
+        @Override
+        public int getCookiePolicy() {
+            return CookieJar.this.getCookiePolicy();
+        }
+
+        @Override
+        public boolean isAuthenticationPreemptive() {
+            return CookieJar.this.isAuthenticationPreemptive();
+        }
+
+        @Override
+        public void setCredentials(final AuthScope authscope,
+                final Credentials credentials) {
+            CookieJar.this.setCredentials(authscope, credentials);
+        }
+
+        @Override
+        public Credentials getCredentials(final AuthScope authscope) {
+            return CookieJar.this.getCredentials(authscope);
+        }
+
+        @Override
+        public Credentials getCredentials(final String realm,
+                final String host) {
+            return CookieJar.this.getCredentials(realm, host);
+        }
+
+        @Override
+        public void setProxyCredentials(final AuthScope authscope,
+                final Credentials credentials) {
+            CookieJar.this.setProxyCredentials(authscope, credentials);
+        }
+
+        @Override
+        public Credentials getProxyCredentials(final AuthScope authscope) {
+            return CookieJar.this.getProxyCredentials(authscope);
+        }
+
+        @Override
+        public Credentials getProxyCredentials(final String realm,
+                final String proxyHost) {
+            return CookieJar.this.getProxyCredentials(realm, proxyHost);
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HttpResponseCache} keeping responses as files in a directory, so
+ * they survive between runs of the scraper. Total size of the
+ * cache is bounded; least recently used entries are evicted first. Index of
+ * the entries is rebuilt from the directory content on creation, taking file
+ * modification times as the last access times.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class DiskHttpResponseCache implements HttpResponseCache {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(DiskHttpResponseCache.class);
+
+    private static final String FILE_SUFFIX = ".cache";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x57484352; // "WHCR"
+    private static final int VERSION = 1;
+
+    private final File directory;
+    private final long maxSize;
+
+    // file name -> file size, in access order
+    private final LinkedHashMap<String, Long> index =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * Creates cache in specified directory, which is created if it does not
+     * exist yet.
+     *
+     * @param directory
+     *            directory where responses are stored
+     * @param maxSize
+     *            maximum total size of stored responses in bytes
+     */
+    public DiskHttpResponseCache(final File directory, final long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum cache size must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException(
+                    "Cannot create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        loadIndex();
+    }
+
+    @Override
+    public CachedHttpResponse get(final String key) {
+        final String fileName = fileName(key);
+        synchronized (this) {
+            // get() (unlike containsKey()) marks the entry as recently used
+            if (index.get(fileName) == null) {
+                return null;
+            }
+        }
+        // file is read outside the lock, other entries are served meanwhile
+        final File file = new File(directory, fileName);
+        final long modified = file.lastModified();
+        CachedHttpResponse response = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            response = read(in);
+        } catch (IOException e) {
+            LOG.warn("Cannot read cached response from {}: {}", file,
+                    e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (response == null) {
+            synchronized (this) {
+                // unless it has been just replaced by another thread
+                if (file.lastModified() == modified) {
+                    delete(fileName);
+                }
+            }
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        // guards against (unlikely) collision of key digests
+        return key.equals(response.getKey()) ? response : null;
+    }
+
+    @Override
+    public void put(final CachedHttpResponse response) {
+        final String fileName = fileName(response.getKey());
+        if (response.getBody().length > maxSize) {
+            synchronized (this) {
+                delete(fileName);
+            }
+            return;
+        }
+        // file is written outside the lock and then renamed into place
+        File tempFile = null;
+        DataOutputStream out = null;
+        try {
+            tempFile = File.createTempFile(fileName, TEMP_FILE_SUFFIX,
+                    directory);
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            write(out, response);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            LOG.warn("Cannot store response for {}: {}", response.getKey(),
+                    e.getMessage());
+            IOUtils.closeQuietly(out);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            return;
+        }
+        final long length = tempFile.length();
+        synchronized (this) {
+            delete(fileName);
+            if (length > maxSize) {
+                tempFile.delete();
+                return;
+            }
+            if (!tempFile.renameTo(new File(directory, fileName))) {
+                LOG.warn("Cannot store response for {}: cannot rename {}",
+                        response.getKey(), tempFile);
+                tempFile.delete();
+                return;
+            }
+            index.put(fileName, Long.valueOf(length));
+            size += length;
+            evict();
+        }
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        delete(fileName(key));
+    }
+
+    /**
+     * @return total size of stored responses in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator =
+                index.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void delete(final String fileName) {
+        final Long fileSize = index.remove(fileName);
+        if (fileSize != null) {
+            size -= fileSize;
+        }
+        new File(directory, fileName).delete();
+    }
+
+    private void loadIndex() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File first, final File second) {
+                final long difference =
+                        first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(FILE_SUFFIX)) {
+                index.put(file.getName(), Long.valueOf(file.length()));
+                size += file.length();
+            } else if (file.isFile()
+                    && file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                // left by interrupted put()
+                file.delete();
+            }
+        }
+        evict();
+    }
+
+    private static void write(final DataOutputStream out,
+            final CachedHttpResponse response) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, response.getKey());
+        out.writeLong(response.getStoredAt());
+        out.writeInt(response.getStatusCode());
+        writeString(out, response.getStatusText());
+        writeString(out, response.getCharset());
+        final String[] names = response.getHeaderNames();
+        final String[] values = response.getHeaderValues();
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            writeString(out, names[i]);
+            writeString(out, values[i]);
+        }
+        final Map<String, String> varyValues = response.getVaryValues();
+        out.writeInt(varyValues.size());
+        for (Map.Entry<String, String> entry : varyValues.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(response.getBody().length);
+        out.write(response.getBody());
+    }
+
+    private static CachedHttpResponse read(final DataInputStream in)
+            throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cached response");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cached response version "
+                    + version);
+        }
+        final String key = readString(in);
+        final long storedAt = in.readLong();
+        final int statusCode = in.readInt();
+        final String statusText = readString(in);
+        final String charset = readString(in);
+        final int headerCount = in.readInt();
+        final String[] names = new String[headerCount];
+        final String[] values = new String[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            names[i] = readString(in);
+            values[i] = readString(in);
+        }
+        final int varyCount = in.readInt();
+        final Map<String, String> varyValues = new HashMap<String, String>();
+        for (int i = 0; i < varyCount; i++) {
+            varyValues.put(readString(in), readString(in));
+        }
+        final byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return CachedHttpResponse.create(key, statusCode, statusText, charset,
+                names, values, varyValues, body, storedAt);
+    }
+
+    /**
+     * Writes UTF-8 bytes of the string prefixed with their count, which
+     * (unlike {@link DataOutputStream#writeUTF(String)}) is not limited to
+     * 64 KB, or -1 for {@code null}.
+     */
+    private static void writeString(final DataOutputStream out,
+            final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final DataInputStream in)
+            throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String fileName(final String key) {
+        return DigestUtils.md5Hex(key) + FILE_SUFFIX;
+    }
+
+}
@@ -0,0 +1,722 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webharvest.runtime.variables.FileVariable;
+import org.webharvest.utils.KeyValuePair;
+
+/**
+ * Downloads body of the response straight to the file, so that the body is
+ * never held in memory.
+ * <p/>
+ * Body is written to the {@code .part} file next to the target one, which
+ * is renamed when the download completes. If the server supports range
+ * requests and identifies the content with a validator ({@code ETag} or
+ * {@code Last-Modified} header), progress of the download is kept in the
+ * {@code .part.properties} file, so that the download interrupted by a
+ * broken connection is resumed from where it stopped - either right away
+ * (up to the specified number of retry attempts) or by the next download
+ * of the same file. Resumed requests are conditional ({@code If-Range}),
+ * so content changed in between is downloaded from scratch.
+ * <p/>
+ * Large content can be downloaded in several segments requested in
+ * parallel, which are written to their positions in the same file.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class FileDownload {
+
+    /**
+     * Sends request for the downloaded content.
+     */
+    public interface Requester {
+
+        /**
+         * Executes the request with specified headers added to the headers
+         * of the request.
+         */
+        HttpResponseWrapper execute(Map<String, String> headers)
+                throws IOException, InterruptedException;
+
+    }
+
+    public static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(FileDownload.class);
+
+    private static final int TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+    private static final Pattern CONTENT_RANGE =
+        Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final File file;
+
+    private final File partFile;
+
+    private final File stateFile;
+
+    private final Requester requester;
+
+    private int segments = 1;
+
+    private int retryAttempts;
+
+    private boolean rangeRequests = true;
+
+    private ContentTypeFilter contentTypeFilter = ContentTypeFilter.ANY;
+
+    private HttpResponseWrapper response;
+
+    private String validator;
+
+    private String mimeType;
+
+    private long length = -1;
+
+    private List<Segment> parts;
+
+    private boolean resumable;
+
+    private MessageDigest digest;
+
+    private boolean rejected;
+
+    private long maxBytes = -1;
+
+    private volatile boolean truncated;
+
+    /**
+     * Creates download of the content requested by specified requester to
+     * specified file.
+     */
+    public FileDownload(final File file, final Requester requester) {
+        this.file = file;
+        this.partFile = new File(file.getPath() + ".part");
+        this.stateFile = new File(file.getPath() + ".part.properties");
+        this.requester = requester;
+    }
+
+    /**
+     * Sets number of segments of the content to be requested in parallel.
+     */
+    public FileDownload setSegments(final int segments) {
+        this.segments = Math.max(1, segments);
+        return this;
+    }
+
+    /**
+     * Sets how many times the transfer broken in the middle is resumed.
+     */
+    public FileDownload setRetryAttempts(final int retryAttempts) {
+        this.retryAttempts = Math.max(0, retryAttempts);
+        return this;
+    }
+
+    /**
+     * Enables or disables range requests (enabled by default), which make
+     * sense for GET requests only.
+     */
+    public FileDownload setRangeRequests(final boolean rangeRequests) {
+        this.rangeRequests = rangeRequests;
+        return this;
+    }
+
+    /**
+     * Sets filter of the content types to be downloaded. Content of other
+     * types is not downloaded at all.
+     */
+    public FileDownload setContentTypeFilter(
+            final ContentTypeFilter contentTypeFilter) {
+        this.contentTypeFilter = contentTypeFilter;
+        return this;
+    }
+
+    /**
+     * Limits number of bytes of the content to be downloaded. Content
+     * exceeding the limit is truncated; such download is never resumed.
+     *
+     * @param maxBytes
+     *            maximum number of bytes, negative for no limit
+     */
+    public FileDownload setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the content exceeded maximum number of bytes
+     *         and has been truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return response to the first request of the download, or
+     *         {@code null} if no request has been sent yet
+     */
+    public HttpResponseWrapper getResponse() {
+        return response;
+    }
+
+    /**
+     * @return length of the downloaded content, or -1 if it is not known
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Downloads the content, resuming previously interrupted download of the
+     * same file if possible.
+     *
+     * @return variable referencing the downloaded file, or {@code null} if
+     *         the content type is not accepted by the content type filter
+     */
+    public FileVariable download() throws IOException, InterruptedException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory()
+                && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        boolean completed = false;
+        if (rangeRequests && maxBytes < 0 && loadState()
+                && contentTypeFilter.accepts(mimeType)) {
+            LOG.info("Resuming download of {} ({} of {} bytes done)...",
+                    new Object[] { file, getDone(), length });
+            try {
+                transferSegments();
+                if (response == null) {
+                    // whole content was transferred before
+                    validate();
+                }
+                completed = true;
+            } catch (ContentChangedException e) {
+                LOG.info("Content of {} has changed since the download started, downloading it again", file);
+            }
+        }
+        if (!completed) {
+            start();
+            if (rejected) {
+                return null;
+            }
+        }
+
+        return complete();
+    }
+
+    /**
+     * Starts the download from scratch. If the content is to be downloaded
+     * in segments, its length is found out with request of the first byte.
+     */
+    private void start() throws IOException, InterruptedException {
+        stateFile.delete();
+        partFile.delete();
+        parts = null;
+        length = -1;
+
+        final boolean limited = maxBytes >= 0;
+        HttpResponseWrapper res = execute(segments > 1 && rangeRequests
+                && !limited
+                ? Collections.singletonMap("Range", "bytes=0-0")
+                : Collections.<String, String>emptyMap());
+        if (!contentTypeFilter.accepts(res.getMimeType())) {
+            LOG.info("Content type {} of {} is not accepted, skipping download",
+                    res.getMimeType(), file);
+            res.abort();
+            res.close();
+            rejected = true;
+            return;
+        }
+        if (res.getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+            final long[] range = getContentRange(res);
+            validator = getValidator(res);
+            mimeType = StringUtils.lowerCase(res.getMimeType());
+            res.close();
+            if (range != null && range[2] >= 0 && validator != null) {
+                length = range[2];
+                parts = split(length);
+                resumable = true;
+                final RandomAccessFile out =
+                    new RandomAccessFile(partFile, "rw");
+                try {
+                    out.setLength(length);
+                } finally {
+                    out.close();
+                }
+                saveState();
+                transferSegments();
+                return;
+            }
+            // length is not known, so the content is requested as a whole
+            res = execute(Collections.<String, String>emptyMap());
+        }
+
+        validator = getValidator(res);
+        mimeType = StringUtils.lowerCase(res.getMimeType());
+        length = res.getContentEncoding() == null ? res.getContentLength()
+                : -1;
+        // content of the limited download ends where the limit is reached
+        parts = Collections.singletonList(new Segment(0,
+                limited ? -1 : length, 0));
+        // ranges are counted in bytes of the encoded content
+        resumable = rangeRequests && !limited && validator != null
+                && res.getContentEncoding() == null
+                && !"none".equalsIgnoreCase(getHeader(res, "Accept-Ranges"));
+        if (resumable) {
+            saveState();
+        }
+        try {
+            digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        transferSegment(parts.get(0), res);
+    }
+
+    /**
+     * Transfers all unfinished segments, in parallel if there are more of
+     * them.
+     */
+    private void transferSegments() throws IOException, InterruptedException {
+        final List<Segment> pending = new ArrayList<Segment>();
+        for (Segment segment : parts) {
+            if (segment.getRemaining() != 0) {
+                pending.add(segment);
+            }
+        }
+        if (pending.size() == 1) {
+            transferSegment(pending.get(0), null);
+            return;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(pending.size());
+        try {
+            final List<Future<Void>> transfers =
+                new ArrayList<Future<Void>>(pending.size());
+            for (final Segment segment : pending) {
+                transfers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        transferSegment(segment, null);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> transfer : transfers) {
+                try {
+                    transfer.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            // interrupts transfers still running if any of them failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Transfers rest of the segment from specified response, or from the
+     * response to the range request if it is {@code null}. Transfer broken
+     * in the middle is resumed if the content supports it.
+     */
+    private void transferSegment(final Segment segment,
+            final HttpResponseWrapper initialResponse)
+            throws IOException, InterruptedException {
+        HttpResponseWrapper res = initialResponse;
+        int attempt = 0;
+        while (true) {
+            if (res == null) {
+                res = requestRange(segment);
+            }
+            try {
+                transfer(res, segment);
+                res.close();
+                return;
+            } catch (IOException e) {
+                res.abort();
+                res.close();
+                if (!resumable || attempt >= retryAttempts
+                        || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                attempt++;
+                // checksum has to be computed from the whole file then
+                digest = null;
+                LOG.warn("Download of {} broken at {} bytes, resuming (attempt {}): {}",
+                        new Object[] { file, segment.position(), attempt,
+                                e.getMessage() });
+            }
+            res = null;
+        }
+    }
+
+    /**
+     * Checks that the content has not changed since the download started
+     * by requesting its last byte.
+     */
+    private void validate() throws IOException, InterruptedException {
+        if (length > 0) {
+            requestRange(new Segment(length - 1, length, 0)).close();
+        }
+    }
+
+    private HttpResponseWrapper requestRange(final Segment segment)
+            throws IOException, InterruptedException {
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Range", "bytes=" + segment.position() + "-"
+                + (segment.end >= 0 ? String.valueOf(segment.end - 1) : ""));
+        headers.put("If-Range", validator);
+
+        final HttpResponseWrapper res = execute(headers);
+        final long[] range = getContentRange(res);
+        if (res.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT
+                || range == null || range[0] != segment.position()) {
+            // whole (possibly changed) content is not read
+            res.abort();
+            res.close();
+            throw new ContentChangedException();
+        }
+        digest = null;
+        return res;
+    }
+
+    private HttpResponseWrapper execute(final Map<String, String> headers)
+            throws IOException, InterruptedException {
+        final HttpResponseWrapper res = requester.execute(headers);
+        synchronized (this) {
+            if (response == null) {
+                response = res;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Writes body of the response to the segment's position in the file.
+     */
+    private void transfer(final HttpResponseWrapper res,
+            final Segment segment) throws IOException {
+        final InputStream body = res.getBodyAsInputStream(maxBytes);
+        final MessageDigest streamDigest = digest;
+        final ReadableByteChannel in = Channels.newChannel(
+                streamDigest != null
+                    ? new DigestInputStream(body, streamDigest) : body);
+        final RandomAccessFile out = new RandomAccessFile(partFile, "rw");
+        try {
+            final FileChannel channel = out.getChannel();
+            long remaining;
+            long count;
+            while ((remaining = segment.getRemaining()) != 0
+                    && (count = channel.transferFrom(in, segment.position(),
+                            remaining > 0 ? Math.min(remaining,
+                                    TRANSFER_CHUNK_SIZE)
+                                    : TRANSFER_CHUNK_SIZE)) > 0) {
+                segment.done += count;
+                if (resumable) {
+                    saveState();
+                }
+            }
+            if (segment.getRemaining() > 0) {
+                throw new IOException("Premature end of content at "
+                        + segment.position() + " bytes");
+            }
+            truncated = res.isTruncated();
+        } finally {
+            out.close();
+            // releases the connection
+            IOUtils.closeQuietly(body);
+        }
+    }
+
+    /**
+     * Moves completed part file to its target location.
+     */
+    private FileVariable complete() throws IOException {
+        final long size = partFile.length();
+        if (length >= 0 && size != length && !truncated) {
+            throw new IOException("Downloaded " + size + " bytes of "
+                    + length + " bytes long content");
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace file " + file);
+        }
+        if (!partFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + partFile + " to "
+                    + file);
+        }
+        stateFile.delete();
+
+        final byte[] checksum = digest != null ? digest.digest()
+                : computeChecksum(file);
+        return new FileVariable(file, size,
+                new String(Hex.encodeHex(checksum)), mimeType);
+    }
+
+    private List<Segment> split(final long contentLength) {
+        final long count = Math.max(1, Math.min(segments,
+                contentLength / TRANSFER_CHUNK_SIZE));
+        final long size = contentLength / count;
+        final List<Segment> result = new ArrayList<Segment>();
+        for (int i = 0; i < count; i++) {
+            result.add(new Segment(i * size,
+                    i == count - 1 ? contentLength : (i + 1) * size, 0));
+        }
+        return result;
+    }
+
+    private long getDone() {
+        long done = 0;
+        for (Segment segment : parts) {
+            done += segment.done;
+        }
+        return done;
+    }
+
+    /**
+     * Loads progress of previously interrupted download.
+     *
+     * @return {@code true} if there is download to be resumed
+     */
+    private boolean loadState() {
+        if (!partFile.isFile() || !stateFile.isFile()) {
+            return false;
+        }
+        final Properties state = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(stateFile);
+            state.load(in);
+            validator = state.getProperty("validator");
+            mimeType = state.getProperty("mime-type");
+            length = Long.parseLong(state.getProperty("length"));
+            final int count = Integer.parseInt(state.getProperty("segments"));
+            parts = new ArrayList<Segment>(count);
+            for (int i = 0; i < count; i++) {
+                final String[] values = StringUtils.split(
+                        state.getProperty("segment." + i));
+                parts.add(new Segment(Long.parseLong(values[0]),
+                        Long.parseLong(values[1]), Long.parseLong(values[2])));
+            }
+            resumable = true;
+            return validator != null;
+        } catch (IOException e) {
+            LOG.warn("Cannot read state of download of {}: {}", file,
+                    e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.warn("Invalid state of download of {}: {}", file,
+                    e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return false;
+    }
+
+    private synchronized void saveState() throws IOException {
+        final Properties state = new Properties();
+        state.setProperty("validator", validator);
+        if (mimeType != null) {
+            state.setProperty("mime-type", mimeType);
+        }
+        state.setProperty("length", String.valueOf(length));
+        state.setProperty("segments", String.valueOf(parts.size()));
+        for (int i = 0; i < parts.size(); i++) {
+            final Segment segment = parts.get(i);
+            state.setProperty("segment." + i, segment.start + " "
+                    + segment.end + " " + segment.done);
+        }
+        final OutputStream out = new FileOutputStream(stateFile);
+        try {
+            state.store(out, "Download of " + file.getName());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] computeChecksum(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Returns strong validator of the response content, which can be used
+     * in If-Range header.
+     */
+    private static String getValidator(final HttpResponseWrapper res) {
+        final String etag = getHeader(res, "ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return getHeader(res, "Last-Modified");
+    }
+
+    /**
+     * Parses Content-Range header of the response.
+     *
+     * @return first and last byte positions and complete length (-1 if it
+     *         is not known), or {@code null} if there is no valid header
+     */
+    private static long[] getContentRange(final HttpResponseWrapper res) {
+        final String contentRange = getHeader(res, "Content-Range");
+        if (contentRange == null) {
+            return null;
+        }
+        final Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new long[] { Long.parseLong(matcher.group(1)),
+                Long.parseLong(matcher.group(2)),
+                "*".equals(matcher.group(3)) ? -1
+                        : Long.parseLong(matcher.group(3)) };
+    }
+
+    private static String getHeader(final HttpResponseWrapper res,
+            final String name) {
+        final KeyValuePair<String>[] headers = res.getHeaders();
+        if (headers != null) {
+            for (KeyValuePair<String> header : headers) {
+                if (name.equalsIgnoreCase(header.getKey())) {
+                    return StringUtils.trimToNull(header.getValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Range of the content written to the same range of the file.
+     */
+    private static final class Segment {
+
+        private final long start;
+
+        // exclusive, -1 if the length of the content is not known
+        private final long end;
+
+        private volatile long done;
+
+        Segment(final long start, final long end, final long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        long position() {
+            return start + done;
+        }
+
+        /**
+         * @return number of bytes remaining, or -1 if it is not known
+         */
+        long getRemaining() {
+            return end >= 0 ? end - start - done : -1;
+        }
+    }
+
+    /**
+     * Thrown when the server sends whole content instead of the requested
+     * range, because the content has changed.
+     */
+    private static final class ContentChangedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
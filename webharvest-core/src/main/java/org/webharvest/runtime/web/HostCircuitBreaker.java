@@ -0,0 +1,286 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Circuit breaker of each host, which stops sending requests to a host that
+ * is down instead of letting every request spend its whole retry budget on
+ * it. Breaker of a host is closed as long as the share of failed requests
+ * among the last ones stays below the threshold. Then it opens and requests
+ * to the host fail at once. When the open time passes, the breaker is half
+ * open and lets one trial request through, whose outcome closes the breaker
+ * or opens it again.
+ * <p/>
+ * Instance is thread-safe and is meant to be shared by all
+ * {@link HttpClientManager}s, so that the state of hosts is known across
+ * concurrently running scrapers. Breaker created by the default constructor
+ * never opens.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class HostCircuitBreaker {
+
+    /**
+     * State of the breaker of one host.
+     */
+    public enum State {
+        /** Requests are sent. */
+        CLOSED,
+        /** Requests fail without being sent. */
+        OPEN,
+        /** One trial request is sent, others fail. */
+        HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final double failureRate;
+    private final long openTime;
+
+    private final ConcurrentMap<String, HostCircuit> circuits =
+        new ConcurrentHashMap<String, HostCircuit>();
+
+    /**
+     * Creates breaker which never opens.
+     */
+    public HostCircuitBreaker() {
+        this.windowSize = 0;
+        this.failureRate = 1;
+        this.openTime = 0;
+    }
+
+    /**
+     * Creates breaker with specified failure threshold.
+     *
+     * @param windowSize
+     *            number of last requests to a host the failure rate is
+     *            computed from; breaker does not open before that many
+     *            requests were sent
+     * @param failureRate
+     *            share of failed requests among the last ones which opens
+     *            the breaker, greater than 0 and at most 1
+     * @param openTime
+     *            time in milliseconds the breaker stays open before it lets
+     *            trial request through
+     */
+    public HostCircuitBreaker(final int windowSize, final double failureRate,
+            final long openTime) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        if (failureRate <= 0 || failureRate > 1) {
+            throw new IllegalArgumentException(
+                    "Failure rate must be greater than 0 and at most 1");
+        }
+        if (openTime < 0) {
+            throw new IllegalArgumentException(
+                    "Open time must not be negative");
+        }
+        this.windowSize = windowSize;
+        this.failureRate = failureRate;
+        this.openTime = openTime;
+    }
+
+    public boolean isEnabled() {
+        return windowSize > 0;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * Checks whether request to specified host may be sent. If the breaker
+     * of the host is half open, only the first caller is allowed to send
+     * the trial request.
+     *
+     * @param host
+     *            host the request is to be sent to
+     * @return {@code true} if the request may be sent
+     */
+    public boolean allowRequest(final String host) {
+        return !isEnabled() || getCircuit(host).allow(
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Records outcome of request sent to specified host.
+     *
+     * @param host
+     *            host the request was sent to
+     * @param failed
+     *            whether the host failed to answer the request
+     * @return new state of the host's breaker, or {@code null} if the state
+     *         has not changed
+     */
+    public State record(final String host, final boolean failed) {
+        return isEnabled() ? getCircuit(host).record(failed,
+                System.currentTimeMillis()) : null;
+    }
+
+    /**
+     * @return state of the breaker of specified host
+     */
+    public State getState(final String host) {
+        final HostCircuit circuit = isEnabled()
+                ? circuits.get(host.toLowerCase()) : null;
+        return circuit != null ? circuit.getState(System.currentTimeMillis())
+                : State.CLOSED;
+    }
+
+    /**
+     * @return time in milliseconds when the breaker of specified host lets
+     *         trial request through, or 0 if it is not open
+     */
+    public long getRetryTime(final String host) {
+        final HostCircuit circuit = isEnabled()
+                ? circuits.get(host.toLowerCase()) : null;
+        return circuit != null ? circuit.getRetryTime() : 0;
+    }
+
+    private HostCircuit getCircuit(final String host) {
+        final String key = host.toLowerCase();
+        HostCircuit circuit = circuits.get(key);
+        if (circuit == null) {
+            final HostCircuit newCircuit = new HostCircuit(windowSize);
+            circuit = circuits.putIfAbsent(key, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * Breaker of single host with outcomes of its last requests kept in a
+     * ring buffer.
+     */
+    private final class HostCircuit {
+
+        private final boolean[] outcomes;
+        private int count;
+        private int position;
+        private int failures;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        private long trialSentAt = -1;
+
+        HostCircuit(final int windowSize) {
+            this.outcomes = new boolean[windowSize];
+        }
+
+        synchronized State getState(final long now) {
+            return state == State.OPEN && now >= openedAt + openTime
+                    ? State.HALF_OPEN : state;
+        }
+
+        synchronized long getRetryTime() {
+            return state == State.OPEN ? openedAt + openTime : 0;
+        }
+
+        synchronized boolean allow(final long now) {
+            if (state == State.OPEN && now >= openedAt + openTime) {
+                state = State.HALF_OPEN;
+                trialSentAt = -1;
+            }
+            if (state == State.HALF_OPEN) {
+                // trial whose outcome has never been recorded is sent again
+                if (trialSentAt >= 0 && now < trialSentAt + openTime) {
+                    return false;
+                }
+                trialSentAt = now;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+
+        synchronized State record(final boolean failed, final long now) {
+            if (state == State.HALF_OPEN) {
+                if (failed) {
+                    open(now);
+                } else {
+                    close();
+                }
+                return state;
+            }
+            if (state == State.OPEN) {
+                // outcome of request sent before the breaker opened
+                return null;
+            }
+            if (count == outcomes.length) {
+                if (outcomes[position]) {
+                    failures--;
+                }
+            } else {
+                count++;
+            }
+            outcomes[position] = failed;
+            position = (position + 1) % outcomes.length;
+            if (failed) {
+                failures++;
+            }
+            if (count == outcomes.length
+                    && failures >= failureRate * count) {
+                open(now);
+                return state;
+            }
+            return null;
+        }
+
+        private void open(final long now) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            count = 0;
+            position = 0;
+            failures = 0;
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Politeness scheduler limiting the rate of HTTP requests sent to each host
+ * with a token bucket per host. Each request takes one token; tokens are
+ * refilled at the configured rate up to the configured burst. A request
+ * which finds no token reserves the next one and waits for it, so requests
+ * to the same host are spread evenly in time. Besides that, a host can be
+ * blocked for some time, e.g. when it answers with {@code Retry-After}
+ * header.
+ * <p/>
+ * Waiting blocks the thread sending the request: {@link #acquire(String)}
+ * sleeps in the caller's thread, without holding any lock, so requests of
+ * other threads to other hosts are not delayed. Callers which have other
+ * work to do, like workers of http-batch, can check the wait with
+ * {@link #getDelay(String, double)} first and send requests to other hosts
+ * meanwhile. Instance is thread-safe and is meant to be shared by all
+ * {@link HttpClientManager}s to keep the limits across concurrently running
+ * scrapers.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class HostRateLimiter {
+
+    private final double requestsPerSecond;
+    private final int burst;
+
+    private final ConcurrentMap<String, HostBucket> buckets =
+        new ConcurrentHashMap<String, HostBucket>();
+
+    /**
+     * Creates limiter which does not limit rate of requests, but still
+     * honours host blocking.
+     */
+    public HostRateLimiter() {
+        this(0, 1);
+    }
+
+    /**
+     * Creates limiter with specified default rate of requests per host.
+     *
+     * @param requestsPerSecond
+     *            maximum average number of requests per second sent to one
+     *            host; zero means no limit
+     * @param burst
+     *            maximum number of requests sent to one host at once after a
+     *            period of inactivity
+     */
+    public HostRateLimiter(final double requestsPerSecond, final int burst) {
+        if (requestsPerSecond < 0) {
+            throw new IllegalArgumentException(
+                    "Requests per second must not be negative");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Blocks the calling thread until request to specified host may be sent
+     * according to the default rate of requests.
+     *
+     * @param host
+     *            host the request is sent to
+     * @return time waited in milliseconds
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public long acquire(final String host) throws InterruptedException {
+        return acquire(host, requestsPerSecond);
+    }
+
+    /**
+     * Blocks the calling thread until request to specified host may be sent
+     * according to the specified rate of requests.
+     *
+     * @param host
+     *            host the request is sent to
+     * @param requestsPerSecond
+     *            maximum average number of requests per second sent to the
+     *            host; zero means no limit
+     * @return time waited in milliseconds
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public long acquire(final String host, final double requestsPerSecond)
+            throws InterruptedException {
+        final long delay = getBucket(host).reserve(requestsPerSecond,
+                System.currentTimeMillis());
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        return delay;
+    }
+
+    /**
+     * Returns how long request to specified host would wait at the moment
+     * according to the specified rate of requests, without reserving
+     * anything, so the wait may be longer once other requests take turn.
+     *
+     * @param host
+     *            host the request is sent to
+     * @param requestsPerSecond
+     *            maximum average number of requests per second sent to the
+     *            host; zero means no limit
+     * @return time to wait in milliseconds, 0 if request may be sent now
+     */
+    public long getDelay(final String host, final double requestsPerSecond) {
+        return getBucket(host).getDelay(requestsPerSecond,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Blocks sending requests to specified host until specified time. The
+     * requests wait in {@link #acquire(String)} meanwhile.
+     *
+     * @param host
+     *            host to be blocked
+     * @param time
+     *            time in milliseconds when requests may be sent again
+     */
+    public void blockUntil(final String host, final long time) {
+        getBucket(host).blockUntil(time);
+    }
+
+    private HostBucket getBucket(final String host) {
+        final String key = host.toLowerCase();
+        HostBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            final HostBucket newBucket = new HostBucket(burst);
+            bucket = buckets.putIfAbsent(key, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Token bucket of single host. Number of tokens goes negative when
+     * requests reserve tokens which are not refilled yet.
+     */
+    private static final class HostBucket {
+
+        private final int capacity;
+        private double tokens;
+        private long lastRefill;
+        private long blockedUntil;
+
+        HostBucket(final int capacity) {
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        /**
+         * Takes one token and returns how long the caller has to wait for it.
+         */
+        synchronized long reserve(final double requestsPerSecond,
+                final long now) {
+            long delay = 0;
+            if (requestsPerSecond > 0) {
+                tokens = Math.min(capacity, tokens
+                        + (now - lastRefill) * requestsPerSecond / 1000);
+                lastRefill = now;
+                tokens--;
+                if (tokens < 0) {
+                    delay = (long) Math.ceil(-tokens * 1000
+                            / requestsPerSecond);
+                }
+            }
+            return Math.max(delay, blockedUntil - now);
+        }
+
+        /**
+         * Returns how long the caller would have to wait for a token,
+         * without taking it.
+         */
+        synchronized long getDelay(final double requestsPerSecond,
+                final long now) {
+            long delay = 0;
+            if (requestsPerSecond > 0) {
+                final double available = Math.min(capacity, tokens
+                        + (now - lastRefill) * requestsPerSecond / 1000);
+                if (available < 1) {
+                    delay = (long) Math.ceil((1 - available) * 1000
+                            / requestsPerSecond);
+                }
+            }
+            return Math.max(0, Math.max(delay, blockedUntil - now));
+        }
+
+        synchronized void blockUntil(final long time) {
+            blockedUntil = Math.max(blockedUntil, time);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Timing of all HTTP requests sent to one host, aggregated from their
+ * {@link RequestTiming}s. Averages are in milliseconds.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class HostStatistics {
+
+    private final String host;
+
+    private int requests;
+    private int retries;
+    private long queueNanos;
+    private long connectNanos;
+    private long handshakeNanos;
+    private long firstByteNanos;
+
+    private int downloads;
+    private long downloadNanos;
+    private long receivedLength;
+
+    HostStatistics(final String host) {
+        this.host = host;
+    }
+
+    synchronized void addRequest(final RequestTiming timing) {
+        requests++;
+        retries += timing.getRetries();
+        queueNanos += timing.getQueueNanos();
+        connectNanos += timing.getConnectNanos();
+        handshakeNanos += timing.getHandshakeNanos();
+        firstByteNanos += timing.getFirstByteNanos();
+    }
+
+    synchronized void addDownload(final RequestTiming timing) {
+        downloads++;
+        downloadNanos += timing.getDownloadNanos();
+        receivedLength += timing.getReceivedLength();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    public synchronized long getAverageQueueTime() {
+        return average(queueNanos, requests);
+    }
+
+    public synchronized long getAverageConnectTime() {
+        return average(connectNanos, requests);
+    }
+
+    public synchronized long getAverageHandshakeTime() {
+        return average(handshakeNanos, requests);
+    }
+
+    public synchronized long getAverageFirstByteTime() {
+        return average(firstByteNanos, requests);
+    }
+
+    public synchronized long getAverageDownloadTime() {
+        return average(downloadNanos, downloads);
+    }
+
+    /**
+     * @return total number of bytes of response bodies received from the
+     *         host
+     */
+    public synchronized long getReceivedLength() {
+        return receivedLength;
+    }
+
+    /**
+     * @return average number of bytes received per second while downloading
+     *         response bodies
+     */
+    public synchronized long getBytesPerSecond() {
+        return downloadNanos == 0 ? receivedLength
+                : (long) ((double) receivedLength * SECONDS.toNanos(1) / downloadNanos);
+    }
+
+    private static long average(final long totalNanos, final int count) {
+        return count == 0 ? 0 : NANOSECONDS.toMillis(totalNanos / count);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return host + ": " + requests + " requests, " + retries
+                + " retries, average queue " + getAverageQueueTime()
+                + " ms, connect " + getAverageConnectTime()
+                + " ms, handshake " + getAverageHandshakeTime()
+                + " ms, first byte " + getAverageFirstByteTime()
+                + " ms, download " + getAverageDownloadTime() + " ms, "
+                + getBytesPerSecond() + " B/s";
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of HTTP responses recorded by
+ * {@link ArchivingHttpTransport}, which can replay them later without
+ * touching the network. Every record holds the request key followed by the
+ * length of the response (status, headers and body), so the index of
+ * records is built on opening by skipping over the responses, which are read
+ * only when replayed.
+ * <p>
+ * The same request may be recorded several times, e.g. when a page is
+ * polled until it changes. Replay serves the recorded responses of each
+ * request in order and keeps serving the last one when they run out.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see ArchivingHttpTransport
+ */
+public final class HttpArchive {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpArchive.class);
+
+    private static final int MAGIC = 0x57484152; // "WHAR"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * What is done with requests executed through the archive.
+     */
+    public enum Mode {
+        /** Requests are sent over network and their responses appended. */
+        RECORD,
+        /** Recorded responses are served, network is never used. */
+        REPLAY
+    }
+
+    private final File file;
+    private final Mode mode;
+    private final RandomAccessFile data;
+
+    // request key -> offsets of recorded responses, in order of recording
+    private final Map<String, List<Long>> index = new HashMap<String, List<Long>>();
+    // request key -> number of responses already replayed
+    private final Map<String, Integer> replayed = new HashMap<String, Integer>();
+    private int size;
+
+    /**
+     * Opens archive in specified file. Archive opened for recording is
+     * created if it does not exist yet, otherwise new records are appended
+     * to the existing ones.
+     *
+     * @param file
+     *            archive file
+     * @param mode
+     *            whether responses are recorded or replayed
+     */
+    public HttpArchive(final File file, final Mode mode) {
+        if (mode == Mode.REPLAY && !file.isFile()) {
+            throw new IllegalArgumentException("HTTP archive " + file
+                    + " does not exist");
+        }
+        this.file = file;
+        this.mode = mode;
+        try {
+            this.data = new RandomAccessFile(file, mode == Mode.REPLAY ? "r" : "rw");
+            loadIndex();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot open HTTP archive "
+                    + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return number of responses in the archive
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns next recorded response of the request with specified key.
+     *
+     * @param key
+     *            key of the request
+     * @return recorded response, or {@code null} if the request has not been
+     *         recorded
+     * @throws IOException
+     *             if the response cannot be read
+     */
+    public synchronized CachedHttpResponse replay(final String key) throws IOException {
+        final List<Long> offsets = index.get(key);
+        if (offsets == null) {
+            return null;
+        }
+        final Integer count = replayed.get(key);
+        final int next = count == null ? 0 : count;
+        replayed.put(key, next + 1);
+        return read(key, offsets.get(Math.min(next, offsets.size() - 1)));
+    }
+
+    /**
+     * Appends specified response to the archive.
+     *
+     * @param response
+     *            response to be recorded, keyed by its request key
+     * @throws IOException
+     *             if the response cannot be written
+     */
+    public void record(final CachedHttpResponse response) throws IOException {
+        record(response, new ByteArrayInputStream(response.getBody()),
+                response.getBody().length);
+    }
+
+    /**
+     * Appends specified response with the body read from specified stream to
+     * the archive, so that the body does not have to be held in memory.
+     *
+     * @param response
+     *            response to be recorded, keyed by its request key; its own
+     *            body is ignored
+     * @param body
+     *            stream of the body
+     * @param bodyLength
+     *            number of bytes of the body to be read from the stream
+     * @throws IOException
+     *             if the response cannot be written
+     */
+    public synchronized void record(final CachedHttpResponse response,
+            final InputStream body, final long bodyLength) throws IOException {
+        if (mode != Mode.RECORD) {
+            throw new IllegalStateException("HTTP archive " + file
+                    + " is not opened for recording");
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        writeString(out, response.getKey());
+        out.writeLong(0); // length of the response, known once it is written
+        final int responseStart = out.size();
+        out.writeLong(response.getStoredAt());
+        out.writeShort(response.getStatusCode());
+        writeString(out, nullToEmpty(response.getStatusText()));
+        writeString(out, nullToEmpty(response.getCharset()));
+        final String[] names = response.getHeaderNames();
+        final String[] values = response.getHeaderValues();
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            writeString(out, names[i]);
+            writeString(out, values[i]);
+        }
+        out.writeLong(bodyLength);
+        out.close();
+
+        final byte[] bytes = buffer.toByteArray();
+        final long responseLength = bytes.length - responseStart + bodyLength;
+        for (int i = 0; i < 8; i++) {
+            bytes[responseStart - 1 - i] = (byte) (responseLength >>> (8 * i));
+        }
+
+        final long recordStart = data.length();
+        data.seek(recordStart);
+        // record is appended under the lock, so that interrupted run leaves
+        // at most one incomplete record at the end
+        data.write(bytes);
+        final byte[] chunk = new byte[8192];
+        long remaining = bodyLength;
+        while (remaining > 0) {
+            final int count = body.read(chunk, 0,
+                    (int) Math.min(chunk.length, remaining));
+            if (count < 0) {
+                data.setLength(recordStart);
+                throw new EOFException("Body of " + response.getKey()
+                        + " is shorter than " + bodyLength + " bytes");
+            }
+            data.write(chunk, 0, count);
+            remaining -= count;
+        }
+        addToIndex(response.getKey(), recordStart + responseStart);
+    }
+
+    /**
+     * Closes the archive file.
+     */
+    public synchronized void close() throws IOException {
+        data.close();
+    }
+
+    private CachedHttpResponse read(final String key, final long offset) throws IOException {
+        data.seek(offset);
+        final long storedAt = data.readLong();
+        final int statusCode = data.readUnsignedShort();
+        final String statusText = readString();
+        final String charset = readString();
+        final int headerCount = data.readInt();
+        final String[] names = new String[headerCount];
+        final String[] values = new String[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            names[i] = readString();
+            values[i] = readString();
+        }
+        final long bodyLength = data.readLong();
+        if (bodyLength > Integer.MAX_VALUE) {
+            throw new IOException("Response of " + key + " is too large");
+        }
+        final byte[] body = new byte[(int) bodyLength];
+        data.readFully(body);
+        return CachedHttpResponse.create(key, statusCode, statusText,
+                charset.length() > 0 ? charset : null, names, values, body,
+                storedAt);
+    }
+
+    private void loadIndex() throws IOException {
+        final long length = data.length();
+        if (length == 0) {
+            if (mode == Mode.RECORD) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+            }
+            return;
+        }
+        if (length < HEADER_LENGTH || data.readInt() != MAGIC) {
+            throw new IOException("Not an HTTP archive");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported HTTP archive version " + version);
+        }
+        long position = HEADER_LENGTH;
+        try {
+            while (position < length) {
+                data.seek(position);
+                final String key = readString();
+                final long responseLength = data.readLong();
+                final long responseStart = data.getFilePointer();
+                if (responseStart + responseLength > length) {
+                    throw new EOFException();
+                }
+                addToIndex(key, responseStart);
+                position = responseStart + responseLength;
+            }
+        } catch (EOFException e) {
+            LOG.warn("HTTP archive {} ends with incomplete record, which is ignored", file);
+            if (mode == Mode.RECORD) {
+                data.setLength(position);
+            }
+        }
+    }
+
+    private void addToIndex(final String key, final long responseOffset) {
+        List<Long> offsets = index.get(key);
+        if (offsets == null) {
+            offsets = new ArrayList<Long>(1);
+            index.put(key, offsets);
+        }
+        offsets.add(responseOffset);
+        size++;
+    }
+
+    /**
+     * Writes UTF-8 bytes of the string prefixed with their count, which
+     * (unlike {@link DataOutput#writeUTF(String)}) is not limited to 64 KB.
+     */
+    private static void writeString(final DataOutput out, final String value)
+            throws IOException {
+        final byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString() throws IOException {
+        final int length = data.readInt();
+        if (length < 0 || length > data.length() - data.getFilePointer()) {
+            // incomplete record at the end of the file
+            throw new EOFException();
+        }
+        final byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value != null ? value : "";
+    }
+
+}
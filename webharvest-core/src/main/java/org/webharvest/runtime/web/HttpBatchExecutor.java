@@ -0,0 +1,95 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.webharvest.runtime.web;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Threads executing requests of HTTP batches, shared by all batches of single
+ * scraping. There are as many threads as the connections which may be open to
+ * single host, as further requests would only wait for free connection. The
+ * threads are started when needed and stop once they are idle for a while, so
+ * the executor needs not be shut down.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see org.webharvest.runtime.processors.HttpBatchProcessor
+ */
+public class HttpBatchExecutor {
+
+    /**
+     * Time in milliseconds after which idle thread stops.
+     */
+    static final long IDLE_TIMEOUT = 60000;
+
+    private final ThreadPoolExecutor executor;
+
+    @Inject
+    public HttpBatchExecutor(final ConnectionPoolSettings poolSettings) {
+        this(poolSettings.getMaxConnectionsPerHost());
+    }
+
+    HttpBatchExecutor(final int threads) {
+        this.executor = new ThreadPoolExecutor(threads, threads, IDLE_TIMEOUT,
+                MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("http-batch-%d")
+                        .setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return maximum number of requests executed at the same time
+     */
+    public int getMaxThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Submits specified task to be executed by one of the threads as soon as
+     * it is free.
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+        return executor.submit(task);
+    }
+
+}
@@ -36,68 +36,142 @@
 */
 package org.webharvest.runtime.web;
 
+import com.google.common.eventbus.EventBus;
 import com.google.inject.Inject;
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.contrib.ssl.EasySSLProtocolSocketFactory;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.*;
 import org.apache.commons.httpclient.params.HttpClientParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.protocol.DefaultProtocolSocketFactory;
 import org.apache.commons.httpclient.protocol.Protocol;
-import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.webharvest.events.CircuitBreakerStateEvent;
 import org.webharvest.runtime.variables.Variable;
 import org.webharvest.utils.CommonUtil;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
 import java.net.URL;
-import java.net.URLEncoder;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Iterator;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
- * HTTP client functionality.
+ * HTTP client functionality, i.e. {@link HttpTransport} built on Jakarta
+ * Commons HttpClient.
  */
-public class HttpClientManager {
+public class HttpClientManager implements HttpTransport {
 
     public static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.8.0.1) Gecko/20060111 Firefox/1.5.0.1";
 
     static {
-        // registers default handling for https
-        Protocol.registerProtocol("https", new Protocol("https", (ProtocolSocketFactory) new EasySSLProtocolSocketFactory(), 443));
+        // registers default handling for http and https, timing new connections
+        Protocol.registerProtocol("http", new Protocol("http",
+                TimingSocketFactory.decorate(new DefaultProtocolSocketFactory()), 80));
+        Protocol.registerProtocol("https", new Protocol("https",
+                TimingSocketFactory.decorate(new EasySSLProtocolSocketFactory()), 443));
     }
 
     private static final Logger LOG =
             LoggerFactory.getLogger(HttpClientManager.class);
     private final HttpClient client;
     private final HttpInfo httpInfo;
+    private final ConnectionPoolSettings connectionPoolSettings;
+    private final HttpResponseCache responseCache;
+    private final HostRateLimiter rateLimiter;
+    private final PermanentRedirects permanentRedirects;
+    private final CookieJar cookieJar;
+    private final SessionStore sessionStore;
+    private final ProxyPool proxyPool;
+    private final HostCircuitBreaker circuitBreaker;
+    // proxies of the methods whose connections are not released yet
+    private final Map<HttpMethodBase, ProxySettings> proxiesInUse =
+            Collections.synchronizedMap(new IdentityHashMap<HttpMethodBase, ProxySettings>());
+
+    @Inject(optional = true)
+    private EventBus eventBus;
 
-    @Inject
     public HttpClientManager(final ProxySettings proxySettings) {
-        this.client = new HttpClient();
-        this.httpInfo = new HttpInfo(client);
+        this(proxySettings, ConnectionPoolSettings.NO_POOL_SET);
+    }
+
+    public HttpClientManager(final ProxySettings proxySettings,
+                             final ConnectionPoolSettings connectionPoolSettings) {
+        this(proxySettings, connectionPoolSettings, HttpResponseCache.NO_CACHE, new HostRateLimiter(),
+                new PermanentRedirects());
+    }
+
+    public HttpClientManager(final ProxySettings proxySettings,
+                             final ConnectionPoolSettings connectionPoolSettings,
+                             final HttpResponseCache responseCache,
+                             final HostRateLimiter rateLimiter,
+                             final PermanentRedirects permanentRedirects) {
+        this(proxySettings, connectionPoolSettings, responseCache, rateLimiter, permanentRedirects,
+                new SessionStore(), ProxyPool.NO_PROXY_POOL);
+    }
+
+    public HttpClientManager(final ProxySettings proxySettings,
+                             final ConnectionPoolSettings connectionPoolSettings,
+                             final HttpResponseCache responseCache,
+                             final HostRateLimiter rateLimiter,
+                             final PermanentRedirects permanentRedirects,
+                             final SessionStore sessionStore,
+                             final ProxyPool proxyPool) {
+        this(proxySettings, connectionPoolSettings, responseCache, rateLimiter, permanentRedirects,
+                sessionStore, proxyPool, new HostCircuitBreaker());
+    }
+
+    @Inject
+    public HttpClientManager(final ProxySettings proxySettings,
+                             final ConnectionPoolSettings connectionPoolSettings,
+                             final HttpResponseCache responseCache,
+                             final HostRateLimiter rateLimiter,
+                             final PermanentRedirects permanentRedirects,
+                             final SessionStore sessionStore,
+                             final ProxyPool proxyPool,
+                             final HostCircuitBreaker circuitBreaker) {
+        this.connectionPoolSettings = connectionPoolSettings;
+        this.responseCache = responseCache;
+        this.rateLimiter = rateLimiter;
+        this.permanentRedirects = permanentRedirects;
+        this.client = new HttpClient(connectionPoolSettings.getConnectionManager());
+        this.cookieJar = new CookieJar();
+        this.client.setState(cookieJar);
+        this.sessionStore = sessionStore;
+        sessionStore.restore(cookieJar);
+        this.proxyPool = proxyPool;
+        proxyPool.applyCredentials(cookieJar);
+        this.circuitBreaker = circuitBreaker;
+        this.httpInfo = new HttpInfo(client, circuitBreaker);
 
         final HttpClientParams clientParams = new HttpClientParams();
         clientParams.setBooleanParameter("http.protocol.allow-circular-redirects", true);
+        clientParams.setConnectionManagerTimeout(connectionPoolSettings.getAcquireTimeout());
         this.client.setParams(clientParams);
 
         proxySettings.apply(this.client);
     }
 
+    @Override
     public void setCookiePolicy(String cookiePolicy) {
         if (StringUtils.isBlank(cookiePolicy) || "browser".equalsIgnoreCase(cookiePolicy)) {
             client.getParams().setCookiePolicy(CookiePolicy.BROWSER_COMPATIBILITY);
@@ -127,7 +201,23 @@ public class HttpClientManager {
             String username,
             String password,
             Variable bodyContent, Map<String, HttpParamInfo> params,
-            Map headers, int retryAttempts, long retryDelay, double retryDelayFactor) throws InterruptedException, UnsupportedEncodingException {
+            Map<String, String> headers, int retryAttempts, long retryDelay, double retryDelayFactor) throws InterruptedException, UnsupportedEncodingException {
+        return execute(methodType, followRedirects, contentType, url, charset, username, password, bodyContent,
+                params, headers, retryAttempts, retryDelay, retryDelayFactor, HttpRequestOptions.DEFAULT);
+    }
+
+    @Override
+    public HttpResponseWrapper execute(
+            String methodType,
+            Boolean followRedirects,
+            String contentType,
+            String url,
+            String charset,
+            String username,
+            String password,
+            Variable bodyContent, Map<String, HttpParamInfo> params,
+            Map<String, String> headers, int retryAttempts, long retryDelay, double retryDelayFactor,
+            HttpRequestOptions options) throws InterruptedException, UnsupportedEncodingException {
         LOG.trace("Entering execute() method for for method {} and url {}", methodType, url);
 
         if (!url.startsWith("http://") && !url.startsWith("https://")) {
@@ -152,26 +242,34 @@ public class HttpClientManager {
             }
         }
 
-        fixCookiesWithoutExpirationDate(clientState);
+        connectionPoolSettings.evictIdleConnections(client.getHttpConnectionManager());
 
         HttpMethodBase method;
         if ("post".equalsIgnoreCase(methodType)) {
             method = createPostMethod(url, params, contentType, charset, bodyContent);
         } else {
-            method = createGetMethod(url, params, charset, followRedirects);
+            final boolean head = "head".equalsIgnoreCase(methodType);
+            method = head ? createHeadMethod(url, params, charset) : createGetMethod(url, params, charset);
+            if (BooleanUtils.isTrue(followRedirects)) {
+                final String target = permanentRedirects.resolve(getUri(method));
+                if (target != null) {
+                    LOG.debug("URL {} has been moved permanently to {}", url, target);
+                    method = head ? createHeadMethod(target, null, charset) : createGetMethod(target, null, charset);
+                    url = target;
+                }
+            }
         }
 
         boolean isUserAgentSpecified = false;
 
         // define request headers, if any exist
         if (headers != null) {
-            for (Object o : headers.keySet()) {
-                String headerName = (String) o;
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                String headerName = header.getKey();
                 if ("User-Agent".equalsIgnoreCase(headerName)) {
                     isUserAgentSpecified = true;
                 }
-                String headerValue = (String) headers.get(headerName);
-                method.addRequestHeader(new Header(headerName, headerValue));
+                method.addRequestHeader(new Header(headerName, header.getValue()));
             }
         }
 
@@ -179,48 +277,160 @@ public class HttpClientManager {
             identifyAsDefaultBrowser(method);
         }
 
+        // compressed response is decoded on the fly by HttpResponseWrapper
+        if (options.isCompressionEnabled() && method.getRequestHeader("Accept-Encoding") == null) {
+            method.addRequestHeader(new Header("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING));
+        }
+
+        final String cacheKey = getCacheKey(method, options);
+        final CachedHttpResponse cachedResponse = cacheKey != null ? lookupCache(cacheKey, method) : null;
+        if (cachedResponse != null) {
+            if (cachedResponse.isFresh(System.currentTimeMillis(), options.getCacheMaxAge())) {
+                LOG.debug("Serving fresh response for {} from cache", url);
+                this.httpInfo.registerCacheHit();
+                final HttpResponseWrapper responseWrapper = new HttpResponseWrapper(cachedResponse);
+                this.httpInfo.setResponse(responseWrapper);
+                return responseWrapper;
+            }
+            cachedResponse.addValidators(method);
+        }
+
+        final RequestTiming timing = new RequestTiming(getHost(method));
+        HttpMethodBase executedMethod = null;
         HttpResponseWrapper responseWrapper = null;
         try {
             LOG.trace("Calling doExecute...");
-            responseWrapper = doExecute(url, method, followRedirects, retryAttempts, retryDelay, retryDelayFactor);
+            executedMethod = doExecute(url, method, followRedirects, retryAttempts, retryDelay, retryDelayFactor,
+                    options, timing);
+            // response of followed redirect doesn't belong to the cache key of original request
+            if (cacheKey != null && executedMethod == method) {
+                responseWrapper = updateCache(cacheKey, cachedResponse, executedMethod, options);
+            } else {
+                responseWrapper = wrapResponse(executedMethod);
+            }
+            responseWrapper.setTiming(timing);
+            // updates HTTP info with response's details
+            this.httpInfo.setResponse(responseWrapper);
+            sessionStore.save(cookieJar);
             return responseWrapper;
+        } catch (IOException e) {
+            throw new org.webharvest.exception.HttpException("IO error during HTTP execution for URL: " + url, e);
         } finally {
             if (responseWrapper == null) {
                 // i.e. an exception need thrown
-                method.releaseConnection();
+                releaseConnection(method);
+                if (executedMethod != null) {
+                    releaseConnection(executedMethod);
+                }
             }
         }
     }
 
-    private void fixCookiesWithoutExpirationDate(HttpState clientState) {
-        // If cookie expiry date is not specified in the response, HttpClient 3.1 doesn't send it back.
-        // This leads to inability to login to some sites, being always redirected to login page.
-        // Workaround here is to set cookies with null expiry dates to the current date plus 1 day
-        // ( patched by heysteveo - https://sourceforge.net/projects/web-harvest/forums/forum/591299/topic/4372223 post #10 )
-        // todo: remove this method if HttpClient 4.x fixes the problem
-        final Cookie[] cookies = clientState.getCookies();
-        if (cookies != null && cookies.length > 0) {
-            final Calendar defaultExpirationDate = Calendar.getInstance();
-            defaultExpirationDate.setTime(new Date());
-            defaultExpirationDate.add(Calendar.DAY_OF_MONTH, 1);
-            for (Cookie cookie : cookies) {
-                if (cookie.getExpiryDate() == null) {
-                    cookie.setExpiryDate(defaultExpirationDate.getTime());
+    /**
+     * Returns key identifying response of specified method in the
+     * {@link HttpResponseCache}, or {@code null} if response may not be
+     * cached. Only GET requests for the whole content are cached, so that
+     * range request (e.g. of a download segment) never gets the whole
+     * content.
+     */
+    private String getCacheKey(HttpMethodBase method, HttpRequestOptions options) {
+        if (!options.isCacheEnabled() || !"GET".equals(method.getName())
+                || method.getRequestHeader("Range") != null) {
+            return null;
+        }
+        if (responseCache == HttpResponseCache.NO_CACHE) {
+            LOG.debug("Caching of HTTP responses requested, but no response cache is configured");
+            return null;
+        }
+        try {
+            return method.getName() + " " + method.getURI();
+        } catch (URIException e) {
+            LOG.warn("Cannot cache response of invalid URI: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private CachedHttpResponse lookupCache(String cacheKey, HttpMethodBase method) {
+        final CachedHttpResponse cachedResponse = responseCache.get(cacheKey);
+        return cachedResponse != null && cachedResponse.matches(method) ? cachedResponse : null;
+    }
+
+    /**
+     * Refreshes cached response if server confirmed it has not been modified,
+     * or stores the new one if it is cacheable.
+     */
+    private HttpResponseWrapper updateCache(String cacheKey, CachedHttpResponse cachedResponse,
+                                            HttpMethodBase method, HttpRequestOptions options) throws IOException {
+        if (cachedResponse != null && method.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            LOG.debug("Cached response for {} revalidated", cacheKey);
+            releaseConnection(method);
+            final CachedHttpResponse revalidatedResponse = cachedResponse.revalidate(method);
+            responseCache.put(revalidatedResponse);
+            this.httpInfo.registerCacheRevalidation();
+            return new HttpResponseWrapper(revalidatedResponse);
+        }
+
+        this.httpInfo.registerCacheMiss();
+        if (CachedHttpResponse.isStorable(method, options.getCacheMaxAge())) {
+            // body gets buffered by the method, so it can be read again from the returned wrapper
+            responseCache.put(CachedHttpResponse.fromMethod(cacheKey, method, method.getResponseBody()));
+        } else if (cachedResponse != null) {
+            responseCache.remove(cacheKey);
+        }
+        return wrapResponse(method);
+    }
+
+    /**
+     * Creates response of specified method, which releases the proxy the
+     * method has been sent through once its connection is released.
+     */
+    private HttpResponseWrapper wrapResponse(final HttpMethodBase method) {
+        final HttpResponseWrapper responseWrapper = new HttpResponseWrapper(method);
+        if (proxiesInUse.containsKey(method)) {
+            responseWrapper.setReleaseListener(new Runnable() {
+                public void run() {
+                    releaseProxy(method);
                 }
-            }
+            });
         }
+        return responseWrapper;
     }
 
-    private HttpResponseWrapper doExecute(String url, HttpMethodBase method, Boolean followRedirects,
-                                          int retryAttempts, long retryDelay, double retryDelayFactor) throws InterruptedException {
+    /**
+     * Releases connection of specified method and the proxy it has been sent
+     * through, if any.
+     */
+    private void releaseConnection(HttpMethodBase method) {
+        method.releaseConnection();
+        releaseProxy(method);
+    }
+
+    private void releaseProxy(HttpMethodBase method) {
+        final ProxySettings proxy = proxiesInUse.remove(method);
+        if (proxy != null) {
+            proxyPool.release(proxy, false);
+        }
+    }
+
+    private HttpMethodBase doExecute(String url, HttpMethodBase method, Boolean followRedirects,
+                                     int retryAttempts, long retryDelay, double retryDelayFactor,
+                                     HttpRequestOptions options, RequestTiming timing) throws InterruptedException {
+
+        final String host = getHost(method);
 
         int attemptsRemain = retryAttempts;
 
         do {
+            timing.setRetries(retryAttempts - attemptsRemain);
+            if (host != null && !circuitBreaker.allowRequest(host)) {
+                throw circuitOpen(host, url);
+            }
             boolean wasException = false;
             try {
-                method = executeFollowingRedirects(method, url, followRedirects);
+                method = executeFollowingRedirects(method, followRedirects, options, timing);
             } catch (IOException e) {
+                // full pool of connections is not failure of the host
+                recordOutcome(host, !(e instanceof ConnectionPoolTimeoutException));
                 if (attemptsRemain == 0) {
                     throw new org.webharvest.exception.HttpException("IO error during HTTP execution for URL: " + url, e);
                 }
@@ -228,19 +438,33 @@ public class HttpClientManager {
                 LOG.warn("Exception occurred during executing HTTP method {}: {}", method.getName(), e.getMessage());
             }
 
-            if (!wasException
-                    && method.getStatusCode() != HttpStatus.SC_BAD_GATEWAY
-                    && method.getStatusCode() != HttpStatus.SC_SERVICE_UNAVAILABLE
-                    && method.getStatusCode() != HttpStatus.SC_GATEWAY_TIMEOUT
-                    && method.getStatusCode() != 509 /*Bandwidth Limit Exceeded (Apache bw/limited extension)*/) {
-                // success.
-                break;
+            if (!wasException) {
+                recordOutcome(host, TransportSupport.isHostFailure(method.getStatusCode()));
+                if (!TransportSupport.isRetryable(method.getStatusCode())) {
+                    // success.
+                    break;
+                }
             }
+
+            final long retryAfter = wasException ? 0 : getRetryAfter(method);
+            // response is neither returned nor read any more, so its connection goes back to
+            // the pool before waiting for the retry; the rest of its body is read and dropped
+            releaseConnection(method);
+            if (retryAfter > 0 && host != null) {
+                // holds back other requests to the same host as well
+                rateLimiter.blockUntil(host, System.currentTimeMillis() + retryAfter);
+            }
+
             if (attemptsRemain == 0) {
                 throw new org.webharvest.exception.HttpException("HTTP Status: " + method.getStatusCode() + ", Url: " + url);
             }
+            if (host != null && circuitBreaker.getState(host) == HostCircuitBreaker.State.OPEN) {
+                // retries would only wait for the host which is known to be down
+                throw circuitOpen(host, url);
+            }
 
-            final long delayBeforeRetry = (long) (retryDelay * (Math.pow(retryDelayFactor, retryAttempts - attemptsRemain)));
+            final long delayBeforeRetry = Math.max(retryAfter,
+                    (long) (retryDelay * (Math.pow(retryDelayFactor, retryAttempts - attemptsRemain))));
 
             LOG.warn("HTTP Status: {}; URL: [{}]; Waiting for {} second(s) before retrying (attempt {} of {})...", new Object[]{
                     method.getStatusLine(), url, MILLISECONDS.toSeconds(delayBeforeRetry), retryAttempts - attemptsRemain + 1, retryAttempts});
@@ -249,36 +473,242 @@ public class HttpClientManager {
             attemptsRemain--;
         } while (true);
 
-        final HttpResponseWrapper httpResponseWrapper = new HttpResponseWrapper(method);
-        // updates HTTP info with response's details
-        this.httpInfo.setResponse(httpResponseWrapper);
-        return httpResponseWrapper;
-    }
-
-    private HttpMethodBase executeFollowingRedirects(HttpMethodBase method, String url, Boolean followRedirects) throws IOException {
-        LOG.trace("About to call actual HTTPClient for method {} and url {}", method.getName(), url);
-        final int statusCode = client.executeMethod(method);
-        // POST method is not redirected automatically, so it's on our responsibility then.
-        if (BooleanUtils.isTrue(followRedirects)
-                && ((statusCode == HttpStatus.SC_MOVED_TEMPORARILY) ||
-                (statusCode == HttpStatus.SC_MOVED_PERMANENTLY) ||
-                (statusCode == HttpStatus.SC_SEE_OTHER) ||
-                (statusCode == HttpStatus.SC_TEMPORARY_REDIRECT))) {
-            final Header header = method.getResponseHeader("location");
-            if (header != null) {
-                final String nextURI = header.getValue();
-                if (!CommonUtil.isEmptyString(nextURI)) {
-                    method.releaseConnection();
-                    final GetMethod nextMethod = new GetMethod(CommonUtil.fullUrl(url, nextURI));
-                    identifyAsDefaultBrowser(nextMethod);
-                    client.executeMethod(nextMethod);
-                    return nextMethod;
-                }
+        return method;
+    }
+
+    /**
+     * Records outcome of request in the {@link HostCircuitBreaker} and
+     * announces change of its state, if any.
+     */
+    private void recordOutcome(String host, boolean failed) {
+        if (host == null) {
+            return;
+        }
+        final HostCircuitBreaker.State state = circuitBreaker.record(host, failed);
+        if (state != null) {
+            LOG.warn("Circuit breaker of host {} is {}", host, state);
+            if (eventBus != null) {
+                eventBus.post(new CircuitBreakerStateEvent(host, state));
             }
         }
+    }
+
+    private org.webharvest.exception.HttpException circuitOpen(String host, String url) {
+        return new org.webharvest.exception.HttpException("Circuit breaker is open for host: " + host + ", Url: " + url);
+    }
+
+    private String getHost(HttpMethodBase method) {
+        try {
+            return method.getURI().getHost();
+        } catch (URIException e) {
+            return null;
+        }
+    }
+
+    private String getUri(HttpMethodBase method) {
+        try {
+            return method.getURI().toString();
+        } catch (URIException e) {
+            throw new org.webharvest.exception.HttpException("Invalid URL: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Waits until request to the host of specified method may be sent
+     * according to the {@link HostRateLimiter}.
+     */
+    private void acquireRatePermit(HttpMethodBase method, HttpRequestOptions options,
+                                   RequestTiming timing) throws InterruptedException {
+        final String host = getHost(method);
+        if (host == null) {
+            return;
+        }
+        final double requestsPerSecond = options.getRateLimit() >= 0
+                ? options.getRateLimit() : rateLimiter.getRequestsPerSecond();
+        final long waited = rateLimiter.acquire(host, requestsPerSecond);
+        if (waited > 0) {
+            LOG.debug("Waited {} ms before sending request to {}", waited, host);
+            timing.addQueueTime(MILLISECONDS.toNanos(waited));
+        }
+    }
+
+    private long getRetryAfter(HttpMethodBase method) {
+        final Header header = method.getResponseHeader("Retry-After");
+        return header == null ? 0 : TransportSupport.parseRetryAfter(header.getValue());
+    }
+
+    /**
+     * Executes specified method and, if redirects are to be followed, the
+     * whole chain of redirects its response leads to. Redirects are never
+     * followed by HttpClient itself, so that every hop gets rate limited and
+     * permanent redirects of GET requests can be remembered in
+     * {@link PermanentRedirects}.
+     *
+     * @return method whose response is not redirect to be followed
+     */
+    private HttpMethodBase executeFollowingRedirects(HttpMethodBase method, Boolean followRedirects,
+                                                     HttpRequestOptions options,
+                                                     RequestTiming timing) throws IOException, InterruptedException {
+        LOG.trace("About to call actual HTTPClient for method {} and url {}", method.getName(), method.getURI());
+        acquireRatePermit(method, options, timing);
+        executeMethod(method, timing);
+        if (!BooleanUtils.isTrue(followRedirects)) {
+            return method;
+        }
+
+        // the same URL may be visited twice, e.g. when it redirects to itself after setting cookie
+        final Map<String, Integer> visits = new HashMap<String, Integer>();
+        visits.put(method.getURI().toString(), 1);
+        int redirectCount = 0;
+        String location;
+        while ((location = getRedirectLocation(method)) != null) {
+            final String currentUrl = method.getURI().toString();
+            String nextUrl = resolveLocation(method.getURI(), location);
+            if (TransportSupport.isPermanentRedirect(method.getStatusCode()) && "GET".equals(method.getName())) {
+                permanentRedirects.remember(currentUrl, nextUrl);
+            }
+            final String knownTarget = permanentRedirects.resolve(nextUrl);
+            if (knownTarget != null) {
+                nextUrl = knownTarget;
+            }
+
+            final Integer visitCount = visits.get(nextUrl);
+            if (visitCount != null && visitCount >= 2) {
+                releaseConnection(method);
+                throw new org.webharvest.exception.HttpException("Redirect loop detected at URL: " + nextUrl);
+            }
+            if (++redirectCount > options.getMaxRedirects()) {
+                releaseConnection(method);
+                throw new org.webharvest.exception.HttpException("Maximum number of redirects ("
+                        + options.getMaxRedirects() + ") exceeded, last URL: " + nextUrl);
+            }
+            visits.put(nextUrl, visitCount == null ? 1 : visitCount + 1);
+
+            final HttpMethodBase nextMethod = createRedirectMethod(method, nextUrl);
+            if (nextMethod == null) {
+                LOG.warn("Cannot repeat request body of {} {}, redirect to {} is not followed",
+                        new Object[]{method.getName(), currentUrl, nextUrl});
+                break;
+            }
+            releaseConnection(method);
+            LOG.debug("Following redirect ({}) from {} to {}", new Object[]{method.getStatusCode(), currentUrl, nextUrl});
+            method = nextMethod;
+            acquireRatePermit(method, options, timing);
+            executeMethod(method, timing);
+        }
         return method;
     }
 
+    /**
+     * Executes specified method offering HttpClient only the cookies which
+     * may be sent to the method's host. Connection pool and socket factories
+     * record their part of the exchange in specified timing. If there is a
+     * {@link ProxyPool}, the method is sent through the proxy it selects; the
+     * proxy is considered failed only if it cannot be connected to or it
+     * rejects the client's credentials, not for errors of the target host.
+     * Proxy which has delivered the response stays in use until the
+     * connection of the method is released, as the body is still being
+     * transferred through it.
+     */
+    private void executeMethod(HttpMethodBase method, RequestTiming timing) throws IOException {
+        final String host = getHost(method);
+        final ProxySettings proxy = proxyPool.acquire(host);
+        HostConfiguration hostConfiguration = null;
+        if (proxy != null) {
+            hostConfiguration = new HostConfiguration(client.getHostConfiguration());
+            hostConfiguration.setProxyHost(proxy.getProxyHost());
+        }
+        boolean proxyFailed = false;
+        boolean delivered = false;
+        timing.startExchange();
+        try {
+            client.executeMethod(hostConfiguration, method, host != null ? cookieJar.forHost(host) : null);
+            proxyFailed = method.getStatusCode() == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED;
+            delivered = !proxyFailed;
+        } catch (IOException e) {
+            proxyFailed = isConnectFailure(e);
+            throw e;
+        } finally {
+            timing.endExchange();
+            if (proxy != null) {
+                if (delivered) {
+                    proxiesInUse.put(method, proxy);
+                } else {
+                    proxyPool.release(proxy, proxyFailed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether specified exception means that connection could not be
+     * opened, i.e. that the proxy is down when request is sent through it.
+     */
+    private static boolean isConnectFailure(IOException e) {
+        return e instanceof ConnectException || e instanceof NoRouteToHostException
+                || e instanceof UnknownHostException
+                || (e instanceof ConnectTimeoutException && !(e instanceof ConnectionPoolTimeoutException));
+    }
+
+    /**
+     * Returns value of the "Location" header of specified method's response if
+     * it is redirect, {@code null} otherwise.
+     */
+    private String getRedirectLocation(HttpMethodBase method) {
+        if (!TransportSupport.isRedirect(method.getStatusCode())) {
+            return null;
+        }
+        final Header header = method.getResponseHeader("location");
+        return header == null || CommonUtil.isEmptyString(header.getValue()) ? null : header.getValue().trim();
+    }
+
+    private String resolveLocation(URI base, String location) {
+        try {
+            return new URI(base, location, true).toString();
+        } catch (URIException e) {
+            // location contains characters which should have been escaped
+            return CommonUtil.fullUrl(base.toString(), location);
+        }
+    }
+
+    /**
+     * Creates method requesting redirect target of specified method.
+     *
+     * @return method for the redirect target, or {@code null} if request
+     *         body of specified method cannot be sent again
+     */
+    private HttpMethodBase createRedirectMethod(HttpMethodBase method, String url) {
+        final HttpMethodBase nextMethod;
+        if (method instanceof HeadMethod) {
+            nextMethod = createHeadMethod(url, null, null);
+        } else if (!(method instanceof EntityEnclosingMethod)
+                || !TransportSupport.keepsMethodOnRedirect(method.getStatusCode())) {
+            nextMethod = createGetMethod(url, null, null);
+        } else {
+            final RequestEntity requestEntity = ((EntityEnclosingMethod) method).getRequestEntity();
+            if (requestEntity != null && !requestEntity.isRepeatable()) {
+                return null;
+            }
+            final PostMethod postMethod = new PostMethod(url);
+            postMethod.setRequestEntity(requestEntity);
+            nextMethod = postMethod;
+        }
+
+        final boolean sameHost = StringUtils.equalsIgnoreCase(getHost(method), getHost(nextMethod));
+        for (Header header : method.getRequestHeaders()) {
+            final String name = header.getName();
+            // headers generated by HttpClient (Host, Cookie, Content-Length...) are generated again
+            if (header.isAutogenerated()
+                    || name.regionMatches(true, 0, "If-", 0, 3)
+                    || (!(nextMethod instanceof EntityEnclosingMethod) && name.regionMatches(true, 0, "Content-", 0, 8))
+                    || (!sameHost && "Authorization".equalsIgnoreCase(name))) {
+                continue;
+            }
+            nextMethod.addRequestHeader(new Header(name, header.getValue()));
+        }
+        return nextMethod;
+    }
+
     /**
      * Defines "User-Agent" HTTP header.
      *
@@ -314,8 +744,13 @@ public class HttpClientManager {
                             paramContentType = null;
                         }
 
-                        byte[] bytes = value.toBinary(charset);
-                        parts[index] = new FilePart(httpParamInfo.getName(), new ByteArrayPartSource(filename, bytes), paramContentType, charset);
+                        final UploadSource source = UploadSource.create(filename, value, charset);
+                        parts[index] = new FilePart(httpParamInfo.getName(), source, paramContentType, charset) {
+                            @Override
+                            public boolean isRepeatable() {
+                                return source.isRepeatable();
+                            }
+                        };
                     } else {
                         parts[index] = new StringPart(name, CommonUtil.nvl(value, ""), charset);
                     }
@@ -345,48 +780,36 @@ public class HttpClientManager {
     // - we need to refactor entire HttpClientManager class (splitting it into
     // multiple classes/interfaces)
     GetMethod createGetMethod(String url, Map<String, HttpParamInfo> params,
-                              String charset, Boolean followRedirects) {
+                              String charset) {
         LOG.trace("Creating GET method for url '{}'", url);
-        if (params != null) {
-            final StringBuilder urlParamsBuilder = new StringBuilder();
-            final Iterator<Entry<String, HttpParamInfo>> iterator =
-                    params.entrySet().iterator();
-
-            while (iterator.hasNext()) {
-                final Entry<String, HttpParamInfo> entry = iterator.next();
-                final HttpParamInfo httpParamInfo = entry.getValue();
-
-                try {
-                    urlParamsBuilder.append(entry.getKey())
-                            .append("=")
-                            .append(URLEncoder.encode(CommonUtil.nvl(
-                                    httpParamInfo.getValue(), ""), charset));
-                } catch (UnsupportedEncodingException e) {
-                    throw new org.webharvest.exception.HttpException("Charset "
-                            + charset + " is not supported!", e);
-                }
-                if (iterator.hasNext()) {
-                    urlParamsBuilder.append("&");
-                }
-            }
-
-            if (urlParamsBuilder.length() != 0) {
-                final String urlParams = urlParamsBuilder.toString();
-                if (url.indexOf("?") < 0) {
-                    url += "?" + urlParams;
-                } else if (url.endsWith("&")) {
-                    url += urlParams;
-                } else {
-                    url += "&" + urlParams;
-                }
-            }
-        }
+        url = TransportSupport.appendQueryParams(url, params, charset);
 
         final GetMethod method = new GetMethod(url);
-        method.setFollowRedirects(followRedirects);
+        // GetMethod follows redirects by default, but they are followed by
+        // executeFollowingRedirects() instead
+        method.setFollowRedirects(false);
+        return method;
+    }
+
+    private HeadMethod createHeadMethod(String url, Map<String, HttpParamInfo> params, String charset) {
+        LOG.trace("Creating HEAD method for url '{}'", url);
+        final HeadMethod method = new HeadMethod(TransportSupport.appendQueryParams(url, params, charset));
+        method.setFollowRedirects(false);
         return method;
     }
 
+    /**
+     * Checks whether this manager may execute several requests at the same
+     * time, i.e. whether its connections are pooled.
+     *
+     * @return {@code true} if requests may be executed concurrently
+     */
+    @Override
+    public boolean supportsConcurrentRequests() {
+        return client.getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager;
+    }
+
+    @Override
     public HttpInfo getHttpInfo() {
         return httpInfo;
     }
@@ -416,6 +839,14 @@ public class HttpClientManager {
             this.proxyCredentials = credentials;
         }
 
+        Credentials getProxyCredentials() {
+            return proxyCredentials;
+        }
+
+        ProxyHost getProxyHost() {
+            return proxyHost;
+        }
+
         void apply(final HttpClient httpClient) {
             if (this == NO_PROXY_SET) {
                 return;
@@ -37,17 +37,22 @@
 
 package org.webharvest.runtime.web;
 
+import org.apache.commons.httpclient.Cookie;
 import org.apache.commons.httpclient.HttpClient;
 import org.webharvest.utils.KeyValuePair;
 
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class offers access to HTTP client and response details to the user. 
  */
 public class HttpInfo {
 
+    // client of the transport built on HttpClient, null for other transports
     public final HttpClient client;
     
     public long contentLength = 0;
@@ -60,22 +65,125 @@ public class HttpInfo {
     public long totalLength = 0;
     public int totalResponses = 0;
 
+    // lengths of the body as received (possibly compressed) and after
+    // decoding; known only once the body is read
+    public long receivedLength = 0;
+    public long decodedLength = 0;
+    public long totalReceivedLength = 0;
+    public long totalDecodedLength = 0;
+
+    public boolean fromCache = false;
+    public int cacheHits = 0;
+    public int cacheRevalidations = 0;
+    public int cacheMisses = 0;
+
+    // timing of the last request sent over network (times in milliseconds);
+    // download time and rate are known only once the body is read
+    public RequestTiming timing = null;
+    public long queueTime = 0;
+    public long connectTime = 0;
+    public long handshakeTime = 0;
+    public long firstByteTime = 0;
+    public long downloadTime = -1;
+    public long bytesPerSecond = -1;
+    public int retries = 0;
+
+    private final Map<String, HostStatistics> hostStatistics =
+        new LinkedHashMap<String, HostStatistics>();
+
+    private final HostCircuitBreaker circuitBreaker;
+
     public HttpInfo(HttpClient client) {
+        this(client, new HostCircuitBreaker());
+    }
+
+    public HttpInfo(HttpClient client, HostCircuitBreaker circuitBreaker) {
         this.client = client;
+        this.circuitBreaker = circuitBreaker;
     }
 
-    public void setResponse(HttpResponseWrapper wrapper) {
+    public synchronized void setResponse(HttpResponseWrapper wrapper) {
         this.contentLength = wrapper.getContentLength();
         this.charset = wrapper.getCharset();
         this.mimeType = wrapper.getMimeType(); 
         this.headers = wrapper.getHeaders(); 
         this.statusCode = wrapper.getStatusCode();
         this.statusText = wrapper.getStatusText();
+        this.fromCache = wrapper.isFromCache();
+        this.receivedLength = 0;
+        this.decodedLength = 0;
+        wrapper.setHttpInfo(this);
+
+        final RequestTiming timing = wrapper.getTiming();
+        if (timing != null) {
+            this.timing = timing;
+            this.queueTime = timing.getQueueTime();
+            this.connectTime = timing.getConnectTime();
+            this.handshakeTime = timing.getHandshakeTime();
+            this.firstByteTime = timing.getFirstByteTime();
+            this.downloadTime = timing.getDownloadTime();
+            this.bytesPerSecond = timing.getBytesPerSecond();
+            this.retries = timing.getRetries();
+            getHostStatistics(timing.getHost(), true).addRequest(timing);
+        }
 
         this.totalLength += this.contentLength;
         this.totalResponses++;
     }
 
+    synchronized void registerTransfer(long receivedLength, long decodedLength, RequestTiming timing) {
+        this.receivedLength = receivedLength;
+        this.decodedLength = decodedLength;
+        this.totalReceivedLength += receivedLength;
+        this.totalDecodedLength += decodedLength;
+        if (timing != null) {
+            if (timing == this.timing) {
+                this.downloadTime = timing.getDownloadTime();
+                this.bytesPerSecond = timing.getBytesPerSecond();
+            }
+            getHostStatistics(timing.getHost(), true).addDownload(timing);
+        }
+    }
+
+    /**
+     * @param host name of the host
+     * @return timing of all requests sent to specified host, or {@code null}
+     *         if no request has been sent to it
+     */
+    public synchronized HostStatistics getHostStatistics(String host) {
+        return getHostStatistics(host, false);
+    }
+
+    /**
+     * @return timing of requests sent to each host, in order in which the
+     *         hosts were first requested
+     */
+    public synchronized HostStatistics[] getHostStatistics() {
+        return hostStatistics.values().toArray(new HostStatistics[hostStatistics.size()]);
+    }
+
+    private HostStatistics getHostStatistics(String host, boolean create) {
+        final String key = String.valueOf(host).toLowerCase();
+        HostStatistics statistics = hostStatistics.get(key);
+        if (statistics == null && create) {
+            statistics = new HostStatistics(key);
+            hostStatistics.put(key, statistics);
+        }
+        return statistics;
+    }
+
+    synchronized void registerCacheHit() {
+        this.cacheHits++;
+    }
+
+    synchronized void registerCacheRevalidation() {
+        this.cacheRevalidations++;
+    }
+
+    synchronized void registerCacheMiss() {
+        this.cacheMisses++;
+    }
+
     public String getHeader(String key) {
         if (headers != null) {
             for (KeyValuePair<String> pair: headers) {
@@ -87,6 +195,44 @@ public class HttpInfo {
         return null;
     }
 
+    /**
+     * Returns value of the client's cookie with specified name, e.g. to find
+     * out whether session restored from previous run is still logged in.
+     *
+     * @return value of the cookie, or null if the client has no such
+     *         cookie or the transport is not built on HttpClient
+     */
+    public String getCookie(String name) {
+        if (client != null) {
+            final Date now = new Date();
+            for (Cookie cookie : client.getState().getCookies()) {
+                if (cookie.getName().equals(name) && !cookie.isExpired(now)) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns state of the circuit breaker of specified host, e.g. to skip
+     * pages of a host which is known to be down.
+     *
+     * @return one of CLOSED, OPEN and HALF_OPEN
+     * @see HostCircuitBreaker
+     */
+    public String getCircuitState(String host) {
+        return circuitBreaker.getState(host).name();
+    }
+
+    /**
+     * @return time in milliseconds when the circuit breaker of specified
+     *         host lets requests through again, or 0 if it is not open
+     */
+    public long getCircuitRetryTime(String host) {
+        return circuitBreaker.getRetryTime(host);
+    }
+
     public String[] getHeaders(String key) {
         List<String> result = new LinkedList<String>();
         if (headers != null) {
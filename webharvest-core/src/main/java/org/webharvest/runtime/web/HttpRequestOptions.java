@@ -0,0 +1,153 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+/**
+ * Options of single HTTP request executed by {@link HttpClientManager}
+ * which are not part of the request itself, but control how the manager
+ * executes it. Instances are immutable and created by {@link Builder}.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class HttpRequestOptions {
+
+    /**
+     * Options used when none are specified.
+     */
+    public static final HttpRequestOptions DEFAULT = new Builder().build();
+
+    /**
+     * Default maximum number of redirects followed for single request.
+     */
+    public static final int DEFAULT_MAX_REDIRECTS = 10;
+
+    private final boolean cacheEnabled;
+    private final long cacheMaxAge;
+    private final double rateLimit;
+    private final boolean compressionEnabled;
+    private final int maxRedirects;
+
+    private HttpRequestOptions(final Builder builder) {
+        this.cacheEnabled = builder.cacheEnabled;
+        this.cacheMaxAge = builder.cacheMaxAge;
+        this.rateLimit = builder.rateLimit;
+        this.compressionEnabled = builder.compressionEnabled;
+        this.maxRedirects = builder.maxRedirects;
+    }
+
+    /**
+     * @return whether response may be served from and stored in the
+     *         {@link HttpResponseCache}
+     */
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * @return freshness lifetime of cached response in seconds overriding
+     *         the one declared by server, or negative value if the one
+     *         declared by server applies
+     */
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * @return maximum average number of requests per second sent to the host
+     *         of the request (zero means no limit), or negative value if the
+     *         default rate of the {@link HostRateLimiter} applies
+     */
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @return whether server may send compressed response (which is
+     *         transparently decompressed)
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * @return maximum number of redirects followed for the request
+     */
+    public int getMaxRedirects() {
+        return maxRedirects;
+    }
+
+    /**
+     * Builder of {@link HttpRequestOptions}.
+     */
+    public static final class Builder {
+
+        private boolean cacheEnabled = false;
+        private long cacheMaxAge = -1;
+        private double rateLimit = -1;
+        private boolean compressionEnabled = true;
+        private int maxRedirects = DEFAULT_MAX_REDIRECTS;
+
+        public Builder setCacheEnabled(final boolean cacheEnabled) {
+            this.cacheEnabled = cacheEnabled;
+            return this;
+        }
+
+        public Builder setCacheMaxAge(final long cacheMaxAge) {
+            this.cacheMaxAge = cacheMaxAge;
+            return this;
+        }
+
+        public Builder setRateLimit(final double rateLimit) {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        public Builder setCompressionEnabled(final boolean compressionEnabled) {
+            this.compressionEnabled = compressionEnabled;
+            return this;
+        }
+
+        public Builder setMaxRedirects(final int maxRedirects) {
+            this.maxRedirects = maxRedirects;
+            return this;
+        }
+
+        public HttpRequestOptions build() {
+            return new HttpRequestOptions(this);
+        }
+
+    }
+
+}
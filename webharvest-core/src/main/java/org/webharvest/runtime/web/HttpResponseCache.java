@@ -0,0 +1,94 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+/**
+ * Storage of HTTP responses used by {@link HttpClientManager} to avoid
+ * downloading unchanged content again. Cache decides neither about freshness
+ * nor about storability of responses - it only keeps what it has been given
+ * and is free to drop any entry at any time.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see CachedHttpResponse
+ * @see DiskHttpResponseCache
+ */
+public interface HttpResponseCache {
+
+    /**
+     * Cache which never stores anything. Used when no response cache is
+     * configured.
+     */
+    HttpResponseCache NO_CACHE = new HttpResponseCache() {
+
+        @Override
+        public CachedHttpResponse get(final String key) {
+            return null;
+        }
+
+        @Override
+        public void put(final CachedHttpResponse response) {
+        }
+
+        @Override
+        public void remove(final String key) {
+        }
+    };
+
+    /**
+     * Returns response stored under specified key.
+     *
+     * @param key
+     *            cache key of the request
+     * @return cached response or {@code null} if there is none
+     */
+    CachedHttpResponse get(String key);
+
+    /**
+     * Stores specified response under its key replacing any previous one.
+     *
+     * @param response
+     *            response to be stored
+     */
+    void put(CachedHttpResponse response);
+
+    /**
+     * Removes response stored under specified key, if any.
+     *
+     * @param key
+     *            cache key of the request
+     */
+    void remove(String key);
+
+}
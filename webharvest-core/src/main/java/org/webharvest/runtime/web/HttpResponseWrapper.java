@@ -38,11 +38,15 @@ package org.webharvest.runtime.web;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.webharvest.utils.KeyValuePair;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class defines http server response.
@@ -55,6 +59,16 @@ public class HttpResponseWrapper {
     private int statusCode;
     private String statusText;
     private HttpMethodBase httpMethod;
+    private CachedHttpResponse cachedResponse;
+    private InputStream bodyStream;
+    private byte[] streamBody;
+    private String contentEncoding;
+    private HttpInfo httpInfo;
+    private RequestTiming timing;
+    private boolean transferReported;
+    private volatile boolean truncated;
+    private volatile BodyRecorder recorder;
+    private final AtomicReference<Runnable> releaseListener = new AtomicReference<Runnable>();
 
     /**
      * Constructor - defines response result based on specified HttpMethodBase instance.
@@ -75,6 +89,8 @@ public class HttpResponseWrapper {
                 if ("content-type".equalsIgnoreCase(currName)) {
                     int index = currValue.indexOf(';');
                     this.mimeType = index > 0 ? currValue.substring(0, index) : currValue;
+                } else if ("content-encoding".equalsIgnoreCase(currName)) {
+                    this.contentEncoding = currValue;
                 }
             }
         }
@@ -85,10 +101,111 @@ public class HttpResponseWrapper {
 
     }
 
+    /**
+     * Constructor - defines response result based on the response taken from
+     * {@link HttpResponseCache} or {@link HttpArchive}. No connection is
+     * associated with it.
+     *
+     * @param cachedResponse cached response
+     */
+    @SuppressWarnings({"unchecked"})
+    public HttpResponseWrapper(CachedHttpResponse cachedResponse) {
+        this.cachedResponse = cachedResponse;
+
+        String[] headerNames = cachedResponse.getHeaderNames();
+        String[] headerValues = cachedResponse.getHeaderValues();
+        headers = new KeyValuePair[headerNames.length];
+        for (int i = 0; i < headerNames.length; i++) {
+            headers[i] = new KeyValuePair<String>(headerNames[i], headerValues[i]);
+            if ("content-type".equalsIgnoreCase(headerNames[i])) {
+                int index = headerValues[i].indexOf(';');
+                this.mimeType = index > 0 ? headerValues[i].substring(0, index) : headerValues[i];
+            } else if ("content-encoding".equalsIgnoreCase(headerNames[i])) {
+                this.contentEncoding = headerValues[i];
+            }
+        }
+
+        this.charset = cachedResponse.getCharset();
+        this.statusCode = cachedResponse.getStatusCode();
+        this.statusText = cachedResponse.getStatusText();
+    }
+
+    /**
+     * Constructor - defines response result of {@link HttpTransport} which is
+     * not built on HttpClient. Body is read from specified stream, which is
+     * closed once the response is closed or aborted.
+     *
+     * @param statusCode status code of the response
+     * @param statusText reason phrase of the response, may be empty
+     * @param headers response headers
+     * @param bodyStream stream of the (possibly encoded) response body
+     */
+    public HttpResponseWrapper(int statusCode, String statusText, KeyValuePair<String>[] headers,
+                               InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+        this.headers = headers;
+        for (KeyValuePair<String> header : headers) {
+            if ("content-type".equalsIgnoreCase(header.getKey())) {
+                final String currValue = header.getValue();
+                int index = currValue.indexOf(';');
+                this.mimeType = index > 0 ? currValue.substring(0, index) : currValue;
+                this.charset = getCharset(currValue);
+            } else if ("content-encoding".equalsIgnoreCase(header.getKey())) {
+                this.contentEncoding = header.getValue();
+            }
+        }
+        if (this.charset == null) {
+            // the same default as of HttpClient
+            this.charset = "ISO-8859-1";
+        }
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+    }
+
+    private static String getCharset(String contentType) {
+        for (String param : contentType.split(";")) {
+            final int index = param.indexOf('=');
+            if (index > 0 && "charset".equalsIgnoreCase(param.substring(0, index).trim())) {
+                return param.substring(index + 1).trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
     public long getContentLength() {
+        if (cachedResponse != null) {
+            return cachedResponse.getBody().length;
+        }
+        if (bodyStream != null) {
+            for (KeyValuePair<String> header : headers) {
+                if ("content-length".equalsIgnoreCase(header.getKey())) {
+                    try {
+                        return Long.parseLong(header.getValue().trim());
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
         return httpMethod.getResponseContentLength();
     }
 
+    /**
+     * @return {@code true} if this response was served from {@link HttpResponseCache}
+     */
+    public boolean isFromCache() {
+        return cachedResponse != null;
+    }
+
+    /**
+     * @return value of Content-Encoding header of the response; body returned
+     *         by this wrapper is always decoded
+     */
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+
     public String getCharset() {
         return this.charset;
     }
@@ -106,21 +223,384 @@ public class HttpResponseWrapper {
         return readBodyAsArray();
     }
 
+    /**
+     * Reads the whole (decoded) response body into memory.
+     *
+     * @return response body
+     */
     public byte[] readBodyAsArray() {
         try {
-            return httpMethod.getResponseBody();
+            final byte[] body;
+            if (cachedResponse != null) {
+                body = cachedResponse.getBody();
+            } else if (bodyStream != null) {
+                body = readStreamBody();
+            } else {
+                body = httpMethod.getResponseBody();
+                // the whole body is read, so the connection is released
+                fireReleased();
+            }
+            if (body == null || !ContentEncoding.isSupported(contentEncoding)) {
+                reportTransfer(body, body);
+                recordBody(body);
+                return body;
+            }
+            final byte[] decodedBody = IOUtils.toByteArray(ContentEncoding.decode(
+                    new ByteArrayInputStream(body), contentEncoding));
+            reportTransfer(body, decodedBody);
+            recordBody(decodedBody);
+            return decodedBody;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads at most specified number of bytes of the (decoded) response body
+     * into memory. If the body is longer, the connection is aborted without
+     * reading the rest of it and the body is marked as truncated.
+     *
+     * @param maxBytes
+     *            maximum number of bytes to be read, negative for no limit
+     * @return (possibly truncated) response body
+     * @see #isTruncated()
+     */
+    public byte[] readBodyAsArray(long maxBytes) {
+        if (maxBytes < 0) {
+            return readBodyAsArray();
+        }
+        final InputStream stream = getBodyAsInputStream(maxBytes);
+        try {
+            return IOUtils.toByteArray(stream);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            IOUtils.closeQuietly(stream);
         }
     }
 
+    /**
+     * Returns stream of at most specified number of bytes of the (decoded)
+     * response body. If the body is longer, the stream ends after the
+     * specified number of bytes, the connection is aborted without reading
+     * the rest of the body and the body is marked as truncated.
+     *
+     * @param maxBytes
+     *            maximum number of bytes to be read, negative for no limit
+     * @return (possibly truncated) response body stream
+     * @see #getBodyAsInputStream()
+     * @see #isTruncated()
+     */
+    public InputStream getBodyAsInputStream(long maxBytes) {
+        final InputStream stream = getBodyAsInputStream();
+        return maxBytes < 0 ? stream : new LimitedInputStream(stream, maxBytes);
+    }
+
+    /**
+     * @return {@code true} if the body has been read with a limit, which it
+     *         exceeded
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the (decoded) response body as a stream read directly from the
+     * underlying connection. The connection is released back to the client as
+     * soon as the stream is read to the end or closed, so callers must not
+     * call {@link #close()} before they are done with the stream.
+     *
+     * @return response body stream; empty stream if response has no body
+     */
     public InputStream getBodyAsInputStream() {
-        // TODO: Fix this so a real stream is returned. DO NOT CACHE THE ENTIRE RESPONSE IN THE MEMORY!
-        return new ByteArrayInputStream(readBodyAsArray());
+        try {
+            final InputStream stream;
+            if (cachedResponse != null) {
+                stream = new ByteArrayInputStream(cachedResponse.getBody());
+            } else if (bodyStream != null) {
+                stream = streamBody != null ? new ByteArrayInputStream(streamBody) : bodyStream;
+            } else {
+                final InputStream responseStream = httpMethod.getResponseBodyAsStream();
+                stream = responseStream != null ? responseStream : new ByteArrayInputStream(new byte[0]);
+            }
+            final CountingInputStream countingStream = new CountingInputStream(stream);
+            return new BodyInputStream(ContentEncoding.decode(countingStream, contentEncoding), countingStream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the body stream once, like HttpClient buffers the body of its
+     * method, so it can be read repeatedly.
+     */
+    private synchronized byte[] readStreamBody() throws IOException {
+        if (streamBody == null) {
+            try {
+                streamBody = IOUtils.toByteArray(bodyStream);
+            } finally {
+                IOUtils.closeQuietly(bodyStream);
+            }
+        }
+        return streamBody;
+    }
+
+    /**
+     * @return timing of the request which got this response over network, or
+     *         {@code null} if the response was served from cache without
+     *         sending any request
+     */
+    public RequestTiming getTiming() {
+        return timing;
+    }
+
+    void setTiming(RequestTiming timing) {
+        this.timing = timing;
+    }
+
+    /**
+     * Defines HTTP info to be updated with number of received and decoded
+     * bytes once the body of this response is read.
+     */
+    void setHttpInfo(HttpInfo httpInfo) {
+        this.httpInfo = httpInfo;
+    }
+
+    /**
+     * Defines recorder receiving the (decoded) body of this response as it
+     * is read by the consumer of the response.
+     */
+    void setBodyRecorder(BodyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Defines listener notified once the connection of this response is
+     * released, i.e. when its body is read to the end or the response is
+     * closed or aborted, whichever comes first.
+     */
+    void setReleaseListener(Runnable listener) {
+        this.releaseListener.set(listener);
+    }
+
+    private void fireReleased() {
+        final Runnable listener = releaseListener.getAndSet(null);
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void recordBody(byte[] body) {
+        if (body != null) {
+            recordBody(body, 0, body.length);
+        }
+        finishRecording();
+    }
+
+    private void recordBody(byte[] buffer, int offset, int length) {
+        final BodyRecorder currentRecorder = recorder;
+        if (currentRecorder != null) {
+            currentRecorder.write(buffer, offset, length);
+        }
+    }
+
+    private void finishRecording() {
+        final BodyRecorder currentRecorder;
+        synchronized (this) {
+            currentRecorder = recorder;
+            recorder = null;
+        }
+        if (currentRecorder != null) {
+            currentRecorder.finish(this);
+        }
+    }
+
+    private void reportTransfer(byte[] body, byte[] decodedBody) {
+        reportTransfer(body != null ? body.length : 0, decodedBody != null ? decodedBody.length : 0);
+    }
+
+    private synchronized void reportTransfer(long receivedLength, long decodedLength) {
+        if (httpInfo != null && !transferReported) {
+            transferReported = true;
+            // body of cached response was not transferred at all
+            final long transferredLength = cachedResponse != null ? 0 : receivedLength;
+            if (timing != null) {
+                timing.endDownload(transferredLength);
+            }
+            httpInfo.registerTransfer(transferredLength, decodedLength, timing);
+        }
+    }
+
+    /**
+     * Stream of decoded body reporting number of transferred bytes when it
+     * is read to the end or closed.
+     */
+    private final class BodyInputStream extends FilterInputStream {
+
+        private final CountingInputStream receivedStream;
+        private long decodedLength;
+
+        BodyInputStream(InputStream decodedStream, CountingInputStream receivedStream) {
+            super(decodedStream);
+            this.receivedStream = receivedStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            if (result < 0) {
+                reportTransfer(receivedStream.getByteCount(), decodedLength);
+                finishRecording();
+                fireReleased();
+            } else {
+                decodedLength++;
+                recordBody(new byte[] { (byte) result }, 0, 1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int count = super.read(buffer, offset, length);
+            if (count < 0) {
+                reportTransfer(receivedStream.getByteCount(), decodedLength);
+                finishRecording();
+                fireReleased();
+            } else {
+                decodedLength += count;
+                recordBody(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            if (recorder != null) {
+                // skipped content has to be recorded as well
+                final int read = read(new byte[(int) Math.min(count, 4096)]);
+                return Math.max(read, 0);
+            }
+            final long skipped = super.skip(count);
+            decodedLength += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reportTransfer(receivedStream.getByteCount(), decodedLength);
+            finishRecording();
+            try {
+                super.close();
+            } finally {
+                fireReleased();
+            }
+        }
+    }
+
+    /**
+     * Stream ending after the limited number of bytes, which aborts the
+     * connection if there is more content to be read.
+     */
+    private final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream stream, long maxBytes) {
+            super(stream);
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                checkTruncated();
+                return -1;
+            }
+            final int result = super.read();
+            if (result >= 0) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                checkTruncated();
+                return -1;
+            }
+            final int count = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            final long skipped = super.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void checkTruncated() throws IOException {
+            if (!truncated && super.read() >= 0) {
+                truncated = true;
+                // the rest of the body would be read when releasing the connection
+                abort();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (remaining <= 0) {
+                checkTruncated();
+            }
+            try {
+                super.close();
+            } catch (IOException e) {
+                if (!truncated) {
+                    throw e;
+                }
+            }
+        }
     }
 
     public void close() {
-        httpMethod.releaseConnection();
+        finishRecording();
+        if (httpMethod != null) {
+            httpMethod.releaseConnection();
+        }
+        if (bodyStream != null) {
+            IOUtils.closeQuietly(bodyStream);
+        }
+        fireReleased();
+    }
+
+    /**
+     * Closes the underlying connection without reading the rest of the
+     * response body, which would be done by {@link #close()} in order to
+     * reuse the connection. Meant for large responses which are not needed.
+     */
+    public void abort() {
+        finishRecording();
+        if (httpMethod != null) {
+            httpMethod.abort();
+        }
+        if (bodyStream != null) {
+            IOUtils.closeQuietly(bodyStream);
+        }
+        fireReleased();
     }
 
     public KeyValuePair<String>[] getHeaders() {
@@ -135,4 +615,23 @@ public class HttpResponseWrapper {
         return statusText;
     }
 
+    /**
+     * Receives (decoded) body of the response as it is read, e.g. to record
+     * it in {@link HttpArchive}.
+     */
+    interface BodyRecorder {
+
+        /**
+         * Receives next part of the body. Failures are handled by the
+         * recorder, so they do not affect reading of the response.
+         */
+        void write(byte[] buffer, int offset, int length);
+
+        /**
+         * Called once, when the body has been read to the end or the
+         * response has been closed (possibly before reading the whole body).
+         */
+        void finish(HttpResponseWrapper response);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+import org.webharvest.runtime.variables.Variable;
+
+/**
+ * Transport executing HTTP requests of http processors. Implementations
+ * hide the HTTP client library they are built on, so processors depend on
+ * request parameters and {@link HttpResponseWrapper} only.
+ * <p/>
+ * Besides {@link HttpClientManager}, webharvest-http2 module (built with
+ * Java 11 or newer) offers {@code Http2Transport} built on the
+ * {@code java.net.http} client, which speaks HTTP/2.
+ *
+ * @see HttpClientManager
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public interface HttpTransport {
+
+    /**
+     * Sets policy of handling cookies received from servers.
+     *
+     * @param cookiePolicy
+     *            name of the policy: "browser" (the default if blank),
+     *            "ignore", "netscape", "rfc_2109" or other policy supported
+     *            by the transport
+     */
+    void setCookiePolicy(String cookiePolicy);
+
+    /**
+     * Executes HTTP request, retrying it when the server is temporarily
+     * unavailable. The calling thread blocks while the request waits for
+     * its turn in the {@link HostRateLimiter}, for the delay before retry
+     * (including the one requested by the server in "Retry-After" header)
+     * and for the response headers.
+     *
+     * @param methodType
+     *            "get", "post" or "head"
+     * @param followRedirects
+     *            whether redirects are followed
+     * @param contentType
+     *            content type of POST request
+     * @param url
+     *            requested URL
+     * @param charset
+     *            charset of request parameters and body
+     * @param username
+     *            user name for authentication, or {@code null}
+     * @param password
+     *            password for authentication, or {@code null}
+     * @param bodyContent
+     *            body of POST request with textual content type
+     * @param params
+     *            request parameters, or {@code null}
+     * @param headers
+     *            request headers, or {@code null}
+     * @param retryAttempts
+     *            number of retries of failed request
+     * @param retryDelay
+     *            delay in milliseconds before first retry
+     * @param retryDelayFactor
+     *            factor the delay is multiplied by before every next retry
+     * @param options
+     *            further options of the request
+     * @return response of the request, which must be closed when its body is
+     *         read
+     */
+    HttpResponseWrapper execute(String methodType, Boolean followRedirects,
+            String contentType, String url, String charset, String username,
+            String password, Variable bodyContent,
+            Map<String, HttpParamInfo> params, Map<String, String> headers, int retryAttempts,
+            long retryDelay, double retryDelayFactor,
+            HttpRequestOptions options) throws InterruptedException,
+            UnsupportedEncodingException;
+
+    /**
+     * Checks whether this transport may execute several requests at the same
+     * time.
+     *
+     * @return {@code true} if requests may be executed concurrently
+     */
+    boolean supportsConcurrentRequests();
+
+    /**
+     * @return details of the responses received by this transport
+     */
+    HttpInfo getHttpInfo();
+
+}
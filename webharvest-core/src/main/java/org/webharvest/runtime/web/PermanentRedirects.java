@@ -0,0 +1,181 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memo of permanent redirects (301 and 308 responses), which lets
+ * {@link HttpClientManager} send later requests for a moved URL straight to
+ * its target. By default the memo lives as long as the HTTP client manager,
+ * i.e. one scraping; memo created with a file keeps the redirects between
+ * runs, appending each new one to the file.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class PermanentRedirects {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(PermanentRedirects.class);
+
+    private static final String SEPARATOR = "\t";
+
+    private final Map<String, String> redirects =
+        new ConcurrentHashMap<String, String>();
+
+    private final File file;
+
+    /**
+     * Creates empty memo kept in memory only.
+     */
+    public PermanentRedirects() {
+        this.file = null;
+    }
+
+    /**
+     * Creates memo persisted in specified file. Redirects already stored in
+     * the file are loaded.
+     *
+     * @param file
+     *            file with one "source URL, tab, target URL" line per
+     *            redirect; it is created if it does not exist
+     */
+    public PermanentRedirects(final File file) {
+        this.file = file;
+        if (file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the final target of specified URL according to the known
+     * permanent redirects.
+     *
+     * @param url
+     *            requested URL
+     * @return URL the request should be sent to, or {@code null} if specified
+     *         URL is not known to be moved
+     */
+    public String resolve(final String url) {
+        String target = redirects.get(url);
+        if (target == null) {
+            return null;
+        }
+        // follows chains of redirects, guarding against loops
+        final Set<String> visited = new HashSet<String>();
+        visited.add(url);
+        String next;
+        while ((next = redirects.get(target)) != null && visited.add(target)) {
+            target = next;
+        }
+        return visited.contains(target) ? null : target;
+    }
+
+    /**
+     * Remembers permanent redirect.
+     *
+     * @param url
+     *            URL which has been moved
+     * @param target
+     *            new location of the URL
+     */
+    public void remember(final String url, final String target) {
+        if (url.equals(target) || target.equals(redirects.put(url, target))) {
+            return;
+        }
+        if (file != null) {
+            store(url, target);
+        }
+    }
+
+    /**
+     * @return number of known redirects
+     */
+    public int size() {
+        return redirects.size();
+    }
+
+    private void load() {
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            final BufferedReader lines = new BufferedReader(reader);
+            String line;
+            while ((line = lines.readLine()) != null) {
+                final int index = line.indexOf(SEPARATOR);
+                if (index > 0) {
+                    redirects.put(line.substring(0, index),
+                            line.substring(index + 1));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot load permanent redirects from {}: {}", file,
+                    e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private synchronized void store(final String url, final String target) {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true),
+                    "UTF-8");
+            writer.write(url + SEPARATOR + target + "\n");
+        } catch (IOException e) {
+            LOG.warn("Cannot store permanent redirect to {}: {}", file,
+                    e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+}
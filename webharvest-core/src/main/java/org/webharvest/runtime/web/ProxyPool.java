@@ -0,0 +1,353 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.ProxyHost;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+
+/**
+ * Pool of proxies {@link HttpClientManager} spreads its requests over. Proxy
+ * is selected for every request either in turn or as the one with the least
+ * requests in progress. Proxy which fails several requests in a row (it
+ * cannot be connected, or it rejects our credentials) is ejected from the
+ * pool for some time. Requests to the same host may stick to one proxy, so
+ * that the host sees one client, until that proxy fails. By default
+ * ({@link #NO_PROXY_POOL}) there is no pool and the proxy settings given to
+ * {@link HttpClientManager} apply to all requests.
+ * <p/>
+ * Instance is thread-safe and is meant to be shared by all
+ * {@link HttpClientManager}s, so that the load and health of the proxies is
+ * tracked across concurrently running scrapers.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see HttpClientManager
+ */
+public final class ProxyPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyPool.class);
+
+    public static final ProxyPool NO_PROXY_POOL = new ProxyPool(new Builder());
+
+    /**
+     * Maximum number of hosts remembered with their proxy.
+     */
+    static final int MAX_STICKY_HOSTS = 10000;
+
+    /**
+     * The way proxy is selected for a request.
+     */
+    public enum Selection {
+        /** Proxies take requests in turn. */
+        ROUND_ROBIN,
+        /** Proxy with the least requests in progress takes the request. */
+        LEAST_LOADED
+    }
+
+    private final List<Member> members;
+    private final Selection selection;
+    private final int maxFailures;
+    private final long ejectionTime;
+    private final boolean stickyHosts;
+
+    private final Map<String, Member> hostMembers =
+        new LinkedHashMap<String, Member>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Member> eldest) {
+                return size() > MAX_STICKY_HOSTS;
+            }
+        };
+
+    private int next;
+
+    private ProxyPool(final Builder builder) {
+        this.members = new ArrayList<Member>();
+        for (ProxySettings proxy : builder.proxies) {
+            members.add(new Member(proxy));
+        }
+        this.selection = builder.selection;
+        this.maxFailures = builder.maxFailures;
+        this.ejectionTime = builder.ejectionTime;
+        this.stickyHosts = builder.stickyHosts;
+    }
+
+    public Selection getSelection() {
+        return selection;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    public boolean isStickyHosts() {
+        return stickyHosts;
+    }
+
+    /**
+     * @return proxies of the pool
+     */
+    public List<ProxySettings> getProxies() {
+        final List<ProxySettings> proxies = new ArrayList<ProxySettings>();
+        for (Member member : members) {
+            proxies.add(member.proxy);
+        }
+        return Collections.unmodifiableList(proxies);
+    }
+
+    /**
+     * Checks whether specified proxy of the pool is ejected at the moment.
+     */
+    public synchronized boolean isEjected(final ProxySettings proxy) {
+        return getMember(proxy).isEjected(System.currentTimeMillis());
+    }
+
+    /**
+     * Selects proxy for a request to specified host. The proxy has to be
+     * released by {@link #release(ProxySettings, boolean)} once the request
+     * is done. If all proxies are ejected, the one coming back first is
+     * selected.
+     *
+     * @param host
+     *            host the request is sent to, may be {@code null}
+     * @return proxy for the request, or {@code null} if the pool is empty
+     */
+    public synchronized ProxySettings acquire(final String host) {
+        if (members.isEmpty()) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        Member member = stickyHosts && host != null ? hostMembers.get(host)
+                : null;
+        if (member == null || member.isEjected(now)) {
+            member = select(now);
+            if (stickyHosts && host != null) {
+                hostMembers.put(host, member);
+            }
+        }
+        member.active++;
+        return member.proxy;
+    }
+
+    /**
+     * Releases proxy acquired for a request.
+     *
+     * @param proxy
+     *            proxy returned by {@link #acquire(String)}
+     * @param failed
+     *            whether the request failed because of the proxy
+     */
+    public synchronized void release(final ProxySettings proxy,
+            final boolean failed) {
+        final Member member = getMember(proxy);
+        member.active--;
+        if (!failed) {
+            member.failures = 0;
+            return;
+        }
+        // hosts are given another proxy, e.g. for retry of the request
+        final Iterator<Member> iterator = hostMembers.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == member) {
+                iterator.remove();
+            }
+        }
+        if (++member.failures >= maxFailures) {
+            member.failures = 0;
+            member.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+            LOG.warn("Proxy {} failed {} times in a row, ejected for {} ms",
+                    new Object[] {member, maxFailures, ejectionTime});
+        }
+    }
+
+    /**
+     * Sets credentials of the proxies requiring authentication to specified
+     * state of HTTP client.
+     */
+    void applyCredentials(final HttpState state) {
+        for (Member member : members) {
+            if (member.proxy.getProxyCredentials() != null) {
+                final ProxyHost proxyHost = member.proxy.getProxyHost();
+                state.setProxyCredentials(new AuthScope(
+                        proxyHost.getHostName(), proxyHost.getPort()),
+                        member.proxy.getProxyCredentials());
+            }
+        }
+    }
+
+    private Member select(final long now) {
+        Member selected = null;
+        final int size = members.size();
+        for (int i = 0; i < size; i++) {
+            final Member member = members.get((next + i) % size);
+            if (member.isEjected(now)) {
+                continue;
+            }
+            if (selection == Selection.ROUND_ROBIN) {
+                selected = member;
+                break;
+            }
+            if (selected == null || member.active < selected.active) {
+                selected = member;
+            }
+        }
+        if (selected == null) {
+            for (Member member : members) {
+                if (selected == null
+                        || member.ejectedUntil < selected.ejectedUntil) {
+                    selected = member;
+                }
+            }
+        }
+        next = (members.indexOf(selected) + 1) % size;
+        return selected;
+    }
+
+    private Member getMember(final ProxySettings proxy) {
+        for (Member member : members) {
+            if (member.proxy == proxy) {
+                return member;
+            }
+        }
+        throw new IllegalArgumentException("Proxy is not member of the pool");
+    }
+
+    /**
+     * Proxy with its load and health.
+     */
+    private static final class Member {
+        private final ProxySettings proxy;
+        private int active;
+        private int failures;
+        private long ejectedUntil;
+
+        Member(final ProxySettings proxy) {
+            this.proxy = proxy;
+        }
+
+        boolean isEjected(final long now) {
+            return now < ejectedUntil;
+        }
+
+        @Override
+        public String toString() {
+            return proxy.getProxyHost().toString();
+        }
+    }
+
+    public static final class Builder {
+        private final List<ProxySettings> proxies =
+            new ArrayList<ProxySettings>();
+        private Selection selection = Selection.ROUND_ROBIN;
+        private int maxFailures = 3;
+        private long ejectionTime = 60000;
+        private boolean stickyHosts;
+
+        public Builder addProxy(final ProxySettings proxy) {
+            if (proxy == null || proxy == ProxySettings.NO_PROXY_SET) {
+                throw new IllegalArgumentException("Proxy is required");
+            }
+            this.proxies.add(proxy);
+            return this;
+        }
+
+        public Builder setSelection(final Selection selection) {
+            if (selection == null) {
+                throw new IllegalArgumentException("Selection is required");
+            }
+            this.selection = selection;
+            return this;
+        }
+
+        /**
+         * Sets number of requests in a row a proxy may fail before it is
+         * ejected.
+         */
+        public Builder setMaxFailures(final int maxFailures) {
+            if (maxFailures <= 0) {
+                throw new IllegalArgumentException(
+                        "Max failures must be positive");
+            }
+            this.maxFailures = maxFailures;
+            return this;
+        }
+
+        /**
+         * Sets time in milliseconds failing proxy is ejected for.
+         */
+        public Builder setEjectionTime(final long ejectionTime) {
+            if (ejectionTime < 0) {
+                throw new IllegalArgumentException(
+                        "Ejection time must not be negative");
+            }
+            this.ejectionTime = ejectionTime;
+            return this;
+        }
+
+        /**
+         * Sets whether requests to the same host are sent through the same
+         * proxy as long as it works.
+         */
+        public Builder setStickyHosts(final boolean stickyHosts) {
+            this.stickyHosts = stickyHosts;
+            return this;
+        }
+
+        public ProxyPool build() {
+            if (proxies.isEmpty()) {
+                throw new IllegalStateException(
+                        "Proxy pool requires at least one proxy");
+            }
+            return new ProxyPool(this);
+        }
+    }
+
+}
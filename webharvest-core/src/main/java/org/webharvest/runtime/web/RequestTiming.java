@@ -0,0 +1,249 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Breakdown of the time spent by single HTTP request, including all its
+ * retries and redirects:
+ * <ul>
+ * <li>queue time - waiting for the rate limiter and for a connection from
+ * the pool,</li>
+ * <li>connect time - resolving host name and opening new connections,</li>
+ * <li>handshake time - TLS handshakes of new connections,</li>
+ * <li>time to first byte - sending the request and waiting for the
+ * response headers,</li>
+ * <li>download time - reading the response body, known once it has been
+ * read.</li>
+ * </ul>
+ * The transport records the phases while it executes the request, the
+ * connection and socket factory hooks find the timing of the request being
+ * executed by the current thread with {@link #current()}.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> CURRENT =
+        new ThreadLocal<RequestTiming>();
+
+    private final String host;
+
+    private long queueNanos;
+    private long poolNanos;
+    private long connectNanos;
+    private long handshakeNanos;
+    private long exchangeNanos;
+    private int retries;
+
+    private long exchangeStart;
+    private long responseStart;
+    private volatile long downloadNanos = -1;
+    private volatile long receivedLength = -1;
+
+    RequestTiming(final String host) {
+        this.host = host;
+    }
+
+    /**
+     * @return timing of the request being executed by the current thread, or
+     *         {@code null} if there is no such request
+     */
+    static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Marks the start of request and response headers exchange executed by
+     * the current thread.
+     */
+    void startExchange() {
+        exchangeStart = System.nanoTime();
+        CURRENT.set(this);
+    }
+
+    /**
+     * Marks the end of the exchange started by {@link #startExchange()}; the
+     * response body is read from now on.
+     */
+    void endExchange() {
+        CURRENT.remove();
+        responseStart = System.nanoTime();
+        exchangeNanos += responseStart - exchangeStart;
+    }
+
+    void addQueueTime(final long nanos) {
+        queueNanos += nanos;
+    }
+
+    /**
+     * Adds time spent waiting for pooled connection, which is part of the
+     * exchange.
+     */
+    void addPoolTime(final long nanos) {
+        queueNanos += nanos;
+        poolNanos += nanos;
+    }
+
+    void addConnectTime(final long nanos) {
+        connectNanos += nanos;
+    }
+
+    void addHandshakeTime(final long nanos) {
+        handshakeNanos += nanos;
+    }
+
+    void setRetries(final int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Marks the end of reading the response body.
+     *
+     * @param receivedLength
+     *            number of bytes received
+     */
+    void endDownload(final long receivedLength) {
+        this.receivedLength = receivedLength;
+        this.downloadNanos = responseStart > 0
+                ? System.nanoTime() - responseStart : 0;
+    }
+
+    /**
+     * @return host the request was sent to
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return time in milliseconds spent waiting for rate limiter and pooled
+     *         connection
+     */
+    public long getQueueTime() {
+        return NANOSECONDS.toMillis(queueNanos);
+    }
+
+    /**
+     * @return time in milliseconds spent opening new connections
+     */
+    public long getConnectTime() {
+        return NANOSECONDS.toMillis(connectNanos);
+    }
+
+    /**
+     * @return time in milliseconds spent in TLS handshakes
+     */
+    public long getHandshakeTime() {
+        return NANOSECONDS.toMillis(handshakeNanos);
+    }
+
+    /**
+     * @return time in milliseconds from sending the request to receiving the
+     *         response headers, i.e. the time of exchange without opening
+     *         connections and waiting for them
+     */
+    public long getFirstByteTime() {
+        return NANOSECONDS.toMillis(getFirstByteNanos());
+    }
+
+    /**
+     * @return time in milliseconds spent reading the response body, or -1 if
+     *         the body has not been read yet
+     */
+    public long getDownloadTime() {
+        final long nanos = downloadNanos;
+        return nanos < 0 ? -1 : NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return number of bytes of the response body received per second, or -1
+     *         if the body has not been read yet
+     */
+    public long getBytesPerSecond() {
+        final long nanos = downloadNanos;
+        if (nanos < 0) {
+            return -1;
+        }
+        return nanos == 0 ? receivedLength
+                : (long) ((double) receivedLength * SECONDS.toNanos(1) / nanos);
+    }
+
+    /**
+     * @return number of bytes of the response body received, or -1 if the
+     *         body has not been read yet
+     */
+    public long getReceivedLength() {
+        return receivedLength;
+    }
+
+    /**
+     * @return number of times the request was retried
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    long getQueueNanos() {
+        return queueNanos;
+    }
+
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    long getFirstByteNanos() {
+        return Math.max(0, exchangeNanos - connectNanos - handshakeNanos - poolNanos);
+    }
+
+    long getDownloadNanos() {
+        return downloadNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "queue " + getQueueTime() + " ms, connect " + getConnectTime()
+                + " ms, handshake " + getHandshakeTime()
+                + " ms, first byte " + getFirstByteTime() + " ms, download "
+                + getDownloadTime() + " ms, " + getRetries() + " retries";
+    }
+
+}
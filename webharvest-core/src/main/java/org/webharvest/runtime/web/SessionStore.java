@@ -0,0 +1,248 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store of HTTP session, i.e. of the cookies collected by
+ * {@link HttpClientManager}, which lets later runs continue the session
+ * instead of logging in again. By default the session lives as long as the
+ * HTTP client manager, i.e. one scraping; store created with a directory
+ * and a session name keeps the cookies in file {@code <name>.cookies} of the
+ * directory, in Netscape cookies.txt format. The file is rewritten whenever
+ * the cookies change, and cookies which have expired in the meantime are
+ * dropped when it is loaded. Only its owner may read or write the file.
+ * <p>
+ * Credentials are not stored - they are given by the configuration on every
+ * run anyway, and sites with login form keep their session in cookies.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class SessionStore {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SessionStore.class);
+
+    private static final Pattern SESSION_NAME =
+        Pattern.compile("[A-Za-z0-9._-]+");
+
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+
+    private String savedCookies;
+
+    private boolean unsaved;
+
+    /**
+     * Creates store keeping session in memory only.
+     */
+    public SessionStore() {
+        this.file = null;
+    }
+
+    /**
+     * Creates store persisting specified session in a file of the
+     * directory.
+     *
+     * @param directory
+     *            directory of the session files; it is created if it does
+     *            not exist
+     * @param name
+     *            name of the session consisting of letters, digits, dots,
+     *            dashes and underscores
+     */
+    public SessionStore(final File directory, final String name) {
+        if (name == null || !SESSION_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid session name: "
+                    + name);
+        }
+        this.file = new File(directory, name + ".cookies");
+    }
+
+    /**
+     * @return file of the session, or {@code null} if the session is kept in
+     *         memory only
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Adds cookies of the stored session, which have not expired yet, to
+     * specified jar.
+     *
+     * @param cookieJar
+     *            jar of new HTTP client
+     */
+    public synchronized void restore(final CookieJar cookieJar) {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        final Date now = new Date();
+        final List<Cookie> cookies = new ArrayList<Cookie>();
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            final BufferedReader lines = new BufferedReader(reader);
+            String line;
+            while ((line = lines.readLine()) != null) {
+                final Cookie cookie = parseCookie(line);
+                if (cookie != null && !cookie.isExpired(now)) {
+                    cookies.add(cookie);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot load session from {}: {}", file, e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        LOG.info("Restored {} cookies of session {}", cookies.size(), file);
+        cookieJar.addCookies(cookies.toArray(new Cookie[cookies.size()]));
+        cookieJar.resetChanged();
+        savedCookies = format(cookieJar.getCookies());
+    }
+
+    /**
+     * Stores cookies of specified jar if they have changed since they were
+     * restored or stored last time. The cookies are formatted only if the
+     * jar reports a change, as this is called after every request.
+     *
+     * @param cookieJar
+     *            jar of HTTP client
+     */
+    public synchronized void save(final CookieJar cookieJar) {
+        if (file == null || !(cookieJar.resetChanged() || unsaved)) {
+            return;
+        }
+        final String cookies = format(cookieJar.getCookies());
+        if (cookies.equals(savedCookies)) {
+            return;
+        }
+        // new content replaces the old one at once, so no reader sees it half
+        // written
+        final File directory = file.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        Writer writer = null;
+        try {
+            final File temp = File.createTempFile(file.getName(), ".tmp",
+                    directory);
+            // cookies are credentials, so only the owner may access them
+            temp.setReadable(false, false);
+            temp.setReadable(true, true);
+            temp.setWritable(false, false);
+            temp.setWritable(true, true);
+            writer = new OutputStreamWriter(new FileOutputStream(temp),
+                    "UTF-8");
+            writer.write(cookies);
+            writer.close();
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                temp.delete();
+                throw new IOException("File cannot be replaced");
+            }
+            savedCookies = cookies;
+            unsaved = false;
+        } catch (IOException e) {
+            unsaved = true;
+            LOG.warn("Cannot store session to {}: {}", file, e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private static String format(final Cookie[] cookies) {
+        final StringBuilder result = new StringBuilder();
+        for (Cookie cookie : cookies) {
+            final String domain = cookie.getDomain();
+            if (domain == null || cookie.getExpiryDate() == null) {
+                continue;
+            }
+            result.append(domain).append(SEPARATOR)
+                .append(domain.startsWith(".") ? "TRUE" : "FALSE")
+                .append(SEPARATOR)
+                .append(cookie.getPath() != null ? cookie.getPath() : "/")
+                .append(SEPARATOR)
+                .append(cookie.getSecure() ? "TRUE" : "FALSE")
+                .append(SEPARATOR)
+                .append(cookie.getExpiryDate().getTime() / 1000)
+                .append(SEPARATOR).append(cookie.getName())
+                .append(SEPARATOR)
+                .append(cookie.getValue() != null ? cookie.getValue() : "")
+                .append('\n');
+        }
+        return result.toString();
+    }
+
+    private static Cookie parseCookie(final String line) {
+        if (line.length() == 0 || line.startsWith("#")) {
+            return null;
+        }
+        final String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != 7) {
+            LOG.warn("Invalid cookie skipped: {}", line);
+            return null;
+        }
+        try {
+            final Cookie cookie = new Cookie(fields[0], fields[5], fields[6],
+                    fields[2], new Date(Long.parseLong(fields[4]) * 1000),
+                    "TRUE".equals(fields[3]));
+            cookie.setDomainAttributeSpecified("TRUE".equals(fields[1]));
+            cookie.setPathAttributeSpecified(true);
+            return cookie;
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid cookie skipped: {}", line);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+/**
+ * Decorator of {@link ProtocolSocketFactory} recording the time of opening
+ * new connections and of their TLS handshakes in the {@link RequestTiming}
+ * of the request being executed by the current thread. Handshake of
+ * {@link SSLSocket} is started eagerly for that purpose, which is what the
+ * first write to the socket would do anyway.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ * @see RequestTiming#current()
+ */
+class TimingSocketFactory implements ProtocolSocketFactory {
+
+    private final ProtocolSocketFactory delegate;
+
+    TimingSocketFactory(final ProtocolSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Decorates given factory, preserving its ability to create layered
+     * sockets.
+     */
+    static ProtocolSocketFactory decorate(final ProtocolSocketFactory factory) {
+        return factory instanceof SecureProtocolSocketFactory
+                ? new Secure((SecureProtocolSocketFactory) factory)
+                : new TimingSocketFactory(factory);
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port,
+            final InetAddress localAddress, final int localPort)
+            throws IOException, UnknownHostException {
+        final long start = System.nanoTime();
+        return connected(delegate.createSocket(host, port, localAddress,
+                localPort), start);
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port,
+            final InetAddress localAddress, final int localPort,
+            final HttpConnectionParams params) throws IOException,
+            UnknownHostException, ConnectTimeoutException {
+        final long start = System.nanoTime();
+        return connected(delegate.createSocket(host, port, localAddress,
+                localPort, params), start);
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port)
+            throws IOException, UnknownHostException {
+        final long start = System.nanoTime();
+        return connected(delegate.createSocket(host, port), start);
+    }
+
+    /**
+     * Records connect time of the socket created since {@code start} and
+     * performs its TLS handshake, if any.
+     */
+    static Socket connected(final Socket socket, final long start)
+            throws IOException {
+        final RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.addConnectTime(System.nanoTime() - start);
+        }
+        return handshake(socket, timing);
+    }
+
+    private static Socket handshake(final Socket socket,
+            final RequestTiming timing) throws IOException {
+        if (timing != null && socket instanceof SSLSocket) {
+            final long start = System.nanoTime();
+            ((SSLSocket) socket).startHandshake();
+            timing.addHandshakeTime(System.nanoTime() - start);
+        }
+        return socket;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj != null && obj.getClass().equals(getClass())
+                && delegate.equals(((TimingSocketFactory) obj).delegate);
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    /**
+     * Decorator of {@link SecureProtocolSocketFactory}, which also records
+     * handshake time of sockets layered over tunnels through proxy.
+     */
+    static final class Secure extends TimingSocketFactory
+            implements SecureProtocolSocketFactory {
+
+        private final SecureProtocolSocketFactory secureDelegate;
+
+        Secure(final SecureProtocolSocketFactory delegate) {
+            super(delegate);
+            this.secureDelegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(final Socket socket, final String host,
+                final int port, final boolean autoClose) throws IOException,
+                UnknownHostException {
+            return handshake(secureDelegate.createSocket(socket, host, port,
+                    autoClose), RequestTiming.current());
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.apache.commons.lang.StringUtils;
+import org.webharvest.utils.CommonUtil;
+
+/**
+ * HTTP protocol rules shared by {@link HttpTransport} implementations, so
+ * that all of them retry and redirect requests the same way.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+final class TransportSupport {
+
+    static final int SC_PERMANENT_REDIRECT = 308;
+
+    static final int SC_BANDWIDTH_LIMIT_EXCEEDED = 509;
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private TransportSupport() {
+        // no instances
+    }
+
+    /**
+     * Checks whether request which got response with specified status should
+     * be retried, i.e. the server is (temporarily) overloaded or unreachable.
+     */
+    static boolean isRetryable(final int statusCode) {
+        return statusCode == HttpStatus.SC_BAD_GATEWAY
+                || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT
+                || statusCode == SC_BANDWIDTH_LIMIT_EXCEEDED
+                || statusCode == SC_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Checks whether response with specified status means that the host
+     * failed to handle request, which counts against its
+     * {@link HostCircuitBreaker}. Too many requests do not, as the host is
+     * alive and only asks to be held back.
+     */
+    static boolean isHostFailure(final int statusCode) {
+        return isRetryable(statusCode) && statusCode != SC_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Checks whether response with specified status redirects the request to
+     * the URL given in its "Location" header.
+     */
+    static boolean isRedirect(final int statusCode) {
+        return statusCode == HttpStatus.SC_MOVED_PERMANENTLY
+                || statusCode == HttpStatus.SC_MOVED_TEMPORARILY
+                || statusCode == HttpStatus.SC_SEE_OTHER
+                || statusCode == HttpStatus.SC_TEMPORARY_REDIRECT
+                || statusCode == SC_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Checks whether redirect with specified status is permanent, i.e. may be
+     * remembered in {@link PermanentRedirects}.
+     */
+    static boolean isPermanentRedirect(final int statusCode) {
+        return statusCode == HttpStatus.SC_MOVED_PERMANENTLY
+                || statusCode == SC_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Checks whether redirected request must keep its method and body. Like
+     * browsers do, request redirected with other status becomes GET request.
+     */
+    static boolean keepsMethodOnRedirect(final int statusCode) {
+        return statusCode == HttpStatus.SC_TEMPORARY_REDIRECT
+                || statusCode == SC_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Returns delay in milliseconds requested by the server with the
+     * "Retry-After" header, given either in seconds or as HTTP date, or 0 if
+     * the header value is missing or invalid.
+     */
+    static long parseRetryAfter(final String headerValue) {
+        if (StringUtils.isBlank(headerValue)) {
+            return 0;
+        }
+        final String value = headerValue.trim();
+        if (StringUtils.isNumeric(value)) {
+            return SECONDS.toMillis(Long.parseLong(value));
+        }
+        try {
+            return Math.max(0, DateUtil.parseDate(value).getTime()
+                    - System.currentTimeMillis());
+        } catch (DateParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Appends specified parameters encoded in specified charset to the query
+     * of specified URL.
+     */
+    static String appendQueryParams(String url,
+            final Map<String, HttpParamInfo> params, final String charset) {
+        if (params == null) {
+            return url;
+        }
+        final StringBuilder urlParamsBuilder = new StringBuilder();
+        final Iterator<Entry<String, HttpParamInfo>> iterator =
+                params.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Entry<String, HttpParamInfo> entry = iterator.next();
+            final HttpParamInfo httpParamInfo = entry.getValue();
+
+            try {
+                urlParamsBuilder.append(entry.getKey())
+                        .append("=")
+                        .append(URLEncoder.encode(CommonUtil.nvl(
+                                httpParamInfo.getValue(), ""), charset));
+            } catch (UnsupportedEncodingException e) {
+                throw new org.webharvest.exception.HttpException("Charset "
+                        + charset + " is not supported!", e);
+            }
+            if (iterator.hasNext()) {
+                urlParamsBuilder.append("&");
+            }
+        }
+
+        if (urlParamsBuilder.length() != 0) {
+            final String urlParams = urlParamsBuilder.toString();
+            if (url.indexOf("?") < 0) {
+                url += "?" + urlParams;
+            } else if (url.endsWith("&")) {
+                url += urlParams;
+            } else {
+                url += "&" + urlParams;
+            }
+        }
+        return url;
+    }
+
+}
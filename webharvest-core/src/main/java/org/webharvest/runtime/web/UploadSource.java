@@ -0,0 +1,147 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.webharvest.runtime.variables.FileVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.variables.Variable;
+
+/**
+ * Content of the file being uploaded in multipart request. Files (either
+ * referenced by {@link FileVariable} or wrapped by a variable as
+ * {@link File}) and binary {@link StreamVariable}s are read while the
+ * request is being sent, so memory needed for the upload doesn't depend
+ * on its size. Any other variable is converted to bytes up front.
+ * <p/>
+ * Length of the stream content is not known in advance, so the request
+ * has to be sent with chunked transfer encoding, and it can be sent only
+ * once.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+final class UploadSource implements PartSource {
+
+    private final String fileName;
+
+    private final byte[] bytes;
+
+    private final File file;
+
+    private InputStream stream;
+
+    private UploadSource(final String fileName, final byte[] bytes,
+            final File file, final InputStream stream) {
+        this.fileName = fileName;
+        this.bytes = bytes;
+        this.file = file;
+        this.stream = stream;
+    }
+
+    /**
+     * Creates source of the upload with specified file name and content
+     * taken from specified variable.
+     */
+    static UploadSource create(final String fileName, final Variable value,
+            final String charset) {
+        if (value instanceof FileVariable) {
+            return new UploadSource(fileName, null,
+                    ((FileVariable) value).getFile(), null);
+        }
+        if (value != null && value.getWrappedObject() instanceof File) {
+            return new UploadSource(fileName, null,
+                    (File) value.getWrappedObject(), null);
+        }
+        if (value instanceof StreamVariable
+                && ((StreamVariable) value).isBinary()) {
+            return new UploadSource(fileName, null, null,
+                    value.toInputStream());
+        }
+        return bytes(fileName, value == null ? new byte[0]
+                : value.toBinary(charset));
+    }
+
+    /**
+     * Creates source of the upload with specified content.
+     */
+    static UploadSource bytes(final String fileName, final byte[] bytes) {
+        return new UploadSource(fileName, bytes, null, null);
+    }
+
+    /**
+     * Returns length of the content in bytes, or -1 if it is not known.
+     */
+    public long getLength() {
+        if (bytes != null) {
+            return bytes.length;
+        }
+        return file != null ? file.length() : -1;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public InputStream createInputStream() throws IOException {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        if (stream == null) {
+            throw new IOException("Content of the upload " + fileName
+                    + " has been already sent");
+        }
+        final InputStream result = stream;
+        stream = null;
+        return result;
+    }
+
+    /**
+     * Checks whether the content can be sent more than once, e.g. when the
+     * request is redirected or retried.
+     */
+    boolean isRepeatable() {
+        return bytes != null || file != null;
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reader of HTML which ends as soon as the requested region of the page has
+ * been read, so the rest of the page is neither read from the underlying
+ * reader (e.g. from the network) nor cleaned. HtmlCleaner closes elements
+ * left open at the end, so it produces a valid tree of the region and
+ * everything before it.
+ * <p/>
+ * The region is complete when every specified element has been read up to
+ * its end tag, or when the specified number of characters has been read.
+ * The input is scanned without being parsed: tags in comments, scripts and
+ * styles are skipped and nested elements of the same name are counted.
+ * Element whose end tag is omitted in the page extends the region, so the
+ * reader may read more than needed, but never less. The input always ends
+ * at the end of a tag or in text, never inside markup.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class HtmlRegionReader extends Reader {
+
+    private static final Set<String> EMPTY_TAGS = new HashSet<String>(Arrays.asList(
+            "area", "base", "basefont", "br", "col", "embed", "frame", "hr",
+            "img", "input", "isindex", "keygen", "link", "meta", "param",
+            "source", "track", "wbr"));
+
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "\\s([^\\s=/>]+)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+)))?");
+
+    private static final int TEXT = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int TAG = 2;
+    private static final int COMMENT = 3;
+    private static final int RAW_TEXT = 4;
+    private static final int RAW_TEXT_END = 5;
+
+    private final Reader reader;
+    private final List<TagSelector> selectors;
+    private final long maxChars;
+
+    // per selector: name of the selected element and its nesting depth,
+    // which is 0 until the element starts and -1 after it ends
+    private final String[] openNames;
+    private final int[] depths;
+    private int incomplete;
+
+    private final StringBuilder markup = new StringBuilder();
+    private int state = TEXT;
+    private char quote;
+    private String rawTextEnd;
+    private long count;
+    private boolean finished;
+
+    /**
+     * Creates reader of the region of specified HTML.
+     *
+     * @param reader
+     *            reader of the whole page
+     * @param selectors
+     *            elements which have to be read completely, no element is
+     *            required if the list is empty
+     * @param maxChars
+     *            number of characters after which reading ends, or negative
+     *            value for no limit
+     */
+    public HtmlRegionReader(final Reader reader,
+            final List<TagSelector> selectors, final long maxChars) {
+        this.reader = reader;
+        this.selectors = selectors;
+        this.maxChars = maxChars;
+        this.openNames = new String[selectors.size()];
+        this.depths = new int[selectors.size()];
+        this.incomplete = selectors.size();
+    }
+
+    /**
+     * @return whether the input ended before the end of the page
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return number of characters read so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read(final char[] buffer, final int offset, final int length)
+            throws IOException {
+        if (finished) {
+            return -1;
+        }
+        final int read = reader.read(buffer, offset, length);
+        if (read <= 0) {
+            return read;
+        }
+        final int end = scan(buffer, offset, offset + read);
+        if (end >= 0) {
+            finished = true;
+            count += end - offset;
+            return end > offset ? end - offset : -1;
+        }
+        count += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Processes next part of the input.
+     *
+     * @return index in the buffer where the input ends, or -1 if it goes on
+     */
+    private int scan(final char[] buffer, final int from, final int to) {
+        // number of characters read before the buffer, relative to its index
+        final long base = count - from;
+        int i = from;
+        while (i < to) {
+            switch (state) {
+                case TEXT:
+                case RAW_TEXT: {
+                    int next = i;
+                    while (next < to && buffer[next] != '<') {
+                        next++;
+                    }
+                    if (maxChars >= 0 && maxChars - base <= next) {
+                        return (int) Math.max(maxChars - base, i);
+                    }
+                    if (next < to) {
+                        markup.setLength(0);
+                        markup.append('<');
+                        state = state == TEXT ? TAG_OPEN : RAW_TEXT_END;
+                    }
+                    i = next + 1;
+                    break;
+                }
+                case TAG_OPEN: {
+                    final char ch = buffer[i++];
+                    if (Character.isLetter(ch) || ch == '/' || ch == '!' || ch == '?') {
+                        markup.append(ch);
+                        quote = 0;
+                        state = TAG;
+                    } else if (ch != '<') {
+                        state = TEXT;
+                    }
+                    break;
+                }
+                case TAG: {
+                    if (markup.length() < 4 && markup.charAt(1) == '!') {
+                        // may be start of a comment
+                        markup.append(buffer[i++]);
+                        if ("<!--".contentEquals(markup)) {
+                            markup.setLength(0);
+                            state = COMMENT;
+                        } else if (markup.charAt(markup.length() - 1) == '>') {
+                            state = TEXT;
+                        }
+                        break;
+                    }
+                    final boolean quoted = markup.charAt(1) != '!';
+                    int next = i;
+                    while (next < to) {
+                        final char ch = buffer[next];
+                        if (quote != 0) {
+                            if (ch == quote) {
+                                quote = 0;
+                            }
+                        } else if (ch == '>') {
+                            break;
+                        } else if (quoted && (ch == '"' || ch == '\'')) {
+                            quote = ch;
+                        }
+                        next++;
+                    }
+                    if (next == to) {
+                        markup.append(buffer, i, to - i);
+                        i = to;
+                        break;
+                    }
+                    markup.append(buffer, i, next + 1 - i);
+                    i = next + 1;
+                    state = TEXT;
+                    if (processTag()
+                            || state == TEXT && maxChars >= 0 && base + i >= maxChars) {
+                        return i;
+                    }
+                    break;
+                }
+                case COMMENT: {
+                    final char ch = buffer[i++];
+                    if (ch == '>' && markup.length() == 2
+                            && markup.charAt(0) == '-' && markup.charAt(1) == '-') {
+                        state = TEXT;
+                    } else {
+                        // only the last two characters are needed
+                        if (markup.length() == 2) {
+                            markup.deleteCharAt(0);
+                        }
+                        markup.append(ch);
+                    }
+                    break;
+                }
+                case RAW_TEXT_END: {
+                    final char ch = buffer[i++];
+                    markup.append(ch);
+                    if (Character.toLowerCase(ch) != rawTextEnd.charAt(markup.length() - 1)) {
+                        state = RAW_TEXT;
+                        if (ch == '<') {
+                            // may be start of the end tag again
+                            markup.setLength(0);
+                            markup.append(ch);
+                            state = RAW_TEXT_END;
+                        }
+                    } else if (markup.length() == rawTextEnd.length()) {
+                        quote = 0;
+                        state = TAG;
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Updates the region with tag read completely. Names are compared in
+     * place, strings are created only for tags which may be selected.
+     *
+     * @return whether all selected elements are complete
+     */
+    private boolean processTag() {
+        if (markup.charAt(1) == '/') {
+            for (int i = 0; i < depths.length; i++) {
+                if (depths[i] > 0 && isName(2, openNames[i]) && --depths[i] == 0) {
+                    complete(i);
+                }
+            }
+        } else if (markup.charAt(1) != '!' && markup.charAt(1) != '?') {
+            final boolean selfClosing = markup.charAt(markup.length() - 2) == '/';
+            if (!selfClosing && (isName(1, "script") || isName(1, "style"))) {
+                rawTextEnd = "</" + tagName();
+                state = RAW_TEXT;
+            }
+            if (incomplete > 0) {
+                startTag(selfClosing);
+            }
+        }
+        return !selectors.isEmpty() && incomplete == 0;
+    }
+
+    private void startTag(final boolean selfClosing) {
+        String name = null;
+        String tag = null;
+        String id = null;
+        String className = null;
+        for (int i = 0; i < depths.length; i++) {
+            if (depths[i] < 0) {
+                continue;
+            }
+            if (depths[i] > 0) {
+                if (!selfClosing && isName(1, openNames[i])) {
+                    depths[i]++;
+                }
+                continue;
+            }
+            final TagSelector selector = selectors.get(i);
+            if (selector.getName() != null && !isName(1, selector.getName())
+                    || !selector.mayMatch(markup)) {
+                continue;
+            }
+            if (tag == null) {
+                tag = markup.toString();
+                name = tagName();
+            }
+            if (selector.hasAttributes() && id == null && className == null) {
+                final Matcher matcher = ATTRIBUTE.matcher(tag);
+                while (matcher.find()) {
+                    final String attribute = matcher.group(1);
+                    final String value = matcher.group(2) != null ? matcher.group(2)
+                            : matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+                    if ("id".equalsIgnoreCase(attribute)) {
+                        id = value;
+                    } else if ("class".equalsIgnoreCase(attribute)) {
+                        className = value;
+                    }
+                }
+            }
+            if (selector.matches(name, id, className)) {
+                if (selfClosing || EMPTY_TAGS.contains(name)) {
+                    complete(i);
+                } else {
+                    openNames[i] = name;
+                    depths[i] = 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether tag in markup, starting at specified index, has
+     *         specified lower case name
+     */
+    private boolean isName(final int start, final String name) {
+        final int end = start + name.length();
+        if (markup.length() <= end) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(markup.charAt(start + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        final char next = markup.charAt(end);
+        return Character.isWhitespace(next) || next == '/' || next == '>';
+    }
+
+    /**
+     * @return lower case name of start tag in markup
+     */
+    private String tagName() {
+        int end = 1;
+        while (end < markup.length()) {
+            final char ch = markup.charAt(end);
+            if (Character.isWhitespace(ch) || ch == '/' || ch == '>') {
+                break;
+            }
+            end++;
+        }
+        return markup.substring(1, end).toLowerCase();
+    }
+
+    private void complete(final int index) {
+        depths[index] = -1;
+        incomplete--;
+    }
+
+}
@@ -0,0 +1,723 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.htmlcleaner.BrowserCompactXmlSerializer;
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.CommentNode;
+import org.htmlcleaner.CompactXmlSerializer;
+import org.htmlcleaner.ContentNode;
+import org.htmlcleaner.PrettyXmlSerializer;
+import org.htmlcleaner.SimpleXmlSerializer;
+import org.htmlcleaner.TagInfo;
+import org.htmlcleaner.TagNode;
+import org.htmlcleaner.Utils;
+import org.htmlcleaner.XmlSerializer;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * SAX reader which reports tree of {@link TagNode}s cleaned by HtmlCleaner
+ * to XML consumers, e.g. Saxon's tree builder or XSLT transformer, without
+ * serializing the tree to a string and parsing it again.
+ * <p/>
+ * The reported events are the same as the ones XML parser would report for
+ * the output of HtmlCleaner's {@link XmlSerializer} of given type. Elements,
+ * attributes, text and comments are taken from the nodes of the tree; text
+ * is trimmed and indented the way the serializer does it, and it is escaped
+ * by the serializer's rules before its character references are resolved,
+ * so the content is kept exactly.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class TagNodeXmlReader implements XMLReader {
+
+    private static final String FEATURE_NAMESPACES =
+        "http://xml.org/sax/features/namespaces";
+
+    private static final String PROPERTY_LEXICAL_HANDLER =
+        "http://xml.org/sax/properties/lexical-handler";
+
+    private static final String INDENT = "\t";
+
+    private final TagNode root;
+    private final CleanerProperties properties;
+    private final String outputType;
+    private final boolean replaceNbspWithSp;
+
+    private final Map<String, Boolean> features = new HashMap<String, Boolean>();
+    private final Map<String, Object> readerProperties = new HashMap<String, Object>();
+
+    private ContentHandler contentHandler;
+    private DTDHandler dtdHandler;
+    private EntityResolver entityResolver;
+    private ErrorHandler errorHandler;
+
+    /**
+     * Creates reader of specified cleaned tree.
+     *
+     * @param root
+     *            root of the tree returned by HtmlCleaner
+     * @param properties
+     *            properties of the cleaner which cleaned the tree
+     * @param outputType
+     *            type of serializer whose output is reported, one of
+     *            simple, pretty, browser-compact and compact (default)
+     * @param replaceNbspWithSp
+     *            whether non-breaking spaces are reported as spaces
+     */
+    public TagNodeXmlReader(final TagNode root,
+            final CleanerProperties properties, final String outputType,
+            final boolean replaceNbspWithSp) {
+        this.root = root;
+        this.properties = properties;
+        this.outputType = outputType;
+        this.replaceNbspWithSp = replaceNbspWithSp;
+    }
+
+    /**
+     * @return source of the tree which may be passed to any XML consumer
+     */
+    public Source toSource() {
+        return new SAXSource(this, new InputSource());
+    }
+
+    /**
+     * Serializes the tree to string, the same way the reader reports it.
+     */
+    public String serialize() throws IOException {
+        final String xml = createSerializer(properties, outputType).getAsString(root);
+        return replaceNbspWithSp ? xml.replace('\u00a0', ' ') : xml;
+    }
+
+    /**
+     * Creates HtmlCleaner's serializer of specified output type.
+     *
+     * @param outputType
+     *            one of simple, pretty, browser-compact and compact, which
+     *            is the default
+     */
+    public static XmlSerializer createSerializer(
+            final CleanerProperties properties, final String outputType) {
+        if ("simple".equalsIgnoreCase(outputType)) {
+            return new SimpleXmlSerializer(properties);
+        } else if ("pretty".equalsIgnoreCase(outputType)) {
+            return new PrettyXmlSerializer(properties);
+        } else if ("browser-compact".equalsIgnoreCase(outputType)) {
+            return new BrowserCompactXmlSerializer(properties);
+        } else {
+            return new CompactXmlSerializer(properties);
+        }
+    }
+
+    public void parse(final InputSource input) throws IOException, SAXException {
+        parse();
+    }
+
+    public void parse(final String systemId) throws IOException, SAXException {
+        parse();
+    }
+
+    private void parse() throws SAXException {
+        if (contentHandler == null) {
+            throw new SAXException("Content handler is not set");
+        }
+        final Emitter emitter = new Emitter();
+        contentHandler.startDocument();
+        if ("pretty".equalsIgnoreCase(outputType)) {
+            emitter.prettyElement(root, 0);
+        } else {
+            emitter.element(root);
+        }
+        emitter.flushText();
+        contentHandler.endDocument();
+    }
+
+    public boolean getFeature(final String name) {
+        final Boolean value = features.get(name);
+        return value != null ? value : FEATURE_NAMESPACES.equals(name);
+    }
+
+    /**
+     * Accepts any feature, as events are always reported the same way:
+     * namespaces are processed and declarations are not reported as
+     * attributes.
+     */
+    public void setFeature(final String name, final boolean value) {
+        features.put(name, value);
+    }
+
+    public Object getProperty(final String name) {
+        return readerProperties.get(name);
+    }
+
+    public void setProperty(final String name, final Object value) {
+        readerProperties.put(name, value);
+    }
+
+    public void setEntityResolver(final EntityResolver resolver) {
+        this.entityResolver = resolver;
+    }
+
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    public void setDTDHandler(final DTDHandler handler) {
+        this.dtdHandler = handler;
+    }
+
+    public DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    public void setContentHandler(final ContentHandler handler) {
+        this.contentHandler = handler;
+    }
+
+    public ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    public void setErrorHandler(final ErrorHandler handler) {
+        this.errorHandler = handler;
+    }
+
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Walks the tree reporting its nodes. Text is collected in the form the
+     * serializer writes it until the next element or comment, and then it is
+     * reported as XML parser would report it.
+     */
+    private final class Emitter {
+
+        private final StringBuilder pending = new StringBuilder();
+        private final NamespaceSupport namespaces = new NamespaceSupport();
+        private final List<OpenElement> openElements = new ArrayList<OpenElement>();
+
+        /**
+         * Reports node the way simple, compact and browser-compact
+         * serializers write it.
+         */
+        void element(final TagNode tagNode) throws SAXException {
+            startElement(tagNode, false);
+            if (isMinimized(tagNode)) {
+                return;
+            }
+            final boolean cdata = isCdata(tagNode);
+            final List<?> children = tagNode.getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
+                if (child instanceof ContentNode) {
+                    content(child.toString(), cdata, i + 1 < children.size()
+                            && !Utils.isWhitespaceString(children.get(i + 1)));
+                } else if (child instanceof CommentNode) {
+                    comment((CommentNode) child, cdata);
+                } else if (child instanceof TagNode) {
+                    element((TagNode) child);
+                }
+            }
+            endElement(tagNode, false);
+        }
+
+        /**
+         * Reports content node the way simple, compact and browser-compact
+         * serializers write it.
+         *
+         * @param beforeContent
+         *            whether the node is followed by a node which is not
+         *            whitespace
+         */
+        private void content(final String content, final boolean cdata,
+                final boolean beforeContent) {
+            if ("simple".equalsIgnoreCase(outputType)) {
+                text(escape(content, cdata));
+                return;
+            }
+            final String escaped = escape(content.trim(), cdata);
+            if ("browser-compact".equalsIgnoreCase(outputType)) {
+                if (content.length() > 0 && Character.isWhitespace(content.charAt(0))) {
+                    text(" ");
+                }
+                if (escaped.length() > 0) {
+                    text(escaped);
+                    if (content.length() > 1
+                            && Character.isWhitespace(content.charAt(content.length() - 1))) {
+                        text(" ");
+                    }
+                }
+            } else {
+                text(escaped);
+            }
+            if (beforeContent) {
+                text("\n");
+            }
+        }
+
+        /**
+         * Reports node the way {@link PrettyXmlSerializer} writes it,
+         * indented to specified level.
+         */
+        void prettyElement(final TagNode tagNode, final int level) throws SAXException {
+            final boolean envelope = Utils.isEmptyString(tagNode.getName());
+            final String indent = envelope ? "" : getIndent(level);
+            final int childLevel = envelope ? level : level + 1;
+            final boolean cdata = isCdata(tagNode);
+            text(indent);
+            startElement(tagNode, true);
+            if (isMinimized(tagNode)) {
+                return;
+            }
+            final List<?> children = tagNode.getChildren();
+            final String singleLine = getSingleLineOfChildren(children);
+            if (singleLine != null) {
+                text(escape(singleLine, cdata));
+            } else {
+                if (!envelope) {
+                    text("\n");
+                }
+                for (Object child : children) {
+                    if (child instanceof TagNode) {
+                        prettyElement((TagNode) child, childLevel);
+                    } else if (child instanceof ContentNode) {
+                        text(getIndentedText(escape(child.toString(), cdata), childLevel));
+                    } else if (child instanceof CommentNode) {
+                        final String comment = getIndentedText(
+                                ((CommentNode) child).getCommentedContent(), childLevel);
+                        if (cdata) {
+                            text(comment);
+                        } else {
+                            final int start = comment.indexOf("<!--");
+                            final int end = comment.lastIndexOf("-->");
+                            text(comment.substring(0, start));
+                            comment(comment.substring(start + 4, end));
+                            text(comment.substring(end + 3));
+                        }
+                    }
+                }
+                text(indent);
+            }
+            endElement(tagNode, true);
+        }
+
+        /**
+         * @return content of the children on single line, or {@code null}
+         *         if there is a child which is not content or which spans
+         *         more lines
+         */
+        private String getSingleLineOfChildren(final List<?> children) {
+            final StringBuilder result = new StringBuilder();
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
+                if (!(child instanceof ContentNode)) {
+                    return null;
+                }
+                String content = child.toString();
+                if (i == 0) {
+                    content = Utils.ltrim(content);
+                }
+                if (i == children.size() - 1) {
+                    content = Utils.rtrim(content);
+                }
+                if (content.indexOf('\n') >= 0 || content.indexOf('\r') >= 0) {
+                    return null;
+                }
+                result.append(content);
+            }
+            return result.toString();
+        }
+
+        /**
+         * @return non-empty lines of specified text, trimmed and indented
+         */
+        private String getIndentedText(final String text, final int level) {
+            final String indent = getIndent(level);
+            final StringBuilder result = new StringBuilder(text.length());
+            final StringTokenizer lines = new StringTokenizer(text, "\n\r");
+            while (lines.hasMoreTokens()) {
+                final String line = lines.nextToken().trim();
+                if (line.length() > 0) {
+                    result.append(indent).append(line).append('\n');
+                }
+            }
+            return result.toString();
+        }
+
+        private String getIndent(final int level) {
+            final StringBuilder indent = new StringBuilder();
+            for (int i = 0; i < level; i++) {
+                indent.append(INDENT);
+            }
+            return indent.toString();
+        }
+
+        private boolean isMinimized(final TagNode tagNode) {
+            final TagInfo tagInfo = properties.getTagInfoProvider().getTagInfo(tagNode.getName());
+            return tagNode.getChildren().isEmpty()
+                    && (properties.isUseEmptyElementTags() || (tagInfo != null && tagInfo.isEmptyTag()));
+        }
+
+        /**
+         * @return whether content of specified node is written as CDATA
+         */
+        private boolean isCdata(final TagNode tagNode) {
+            return properties.isUseCdataForScriptAndStyle()
+                    && ("script".equalsIgnoreCase(tagNode.getName())
+                            || "style".equalsIgnoreCase(tagNode.getName()));
+        }
+
+        private String escape(final String content, final boolean cdata) {
+            return cdata ? content.replaceAll("]]>", "]]&gt;")
+                    : Utils.escapeXml(content, properties, false);
+        }
+
+        private void comment(final CommentNode comment, final boolean cdata) throws SAXException {
+            if (cdata) {
+                text(comment.getCommentedContent());
+            } else {
+                comment(comment.getContent().toString());
+            }
+        }
+
+        private void comment(final String comment) throws SAXException {
+            flushText();
+            final Object handler = readerProperties.get(PROPERTY_LEXICAL_HANDLER);
+            if (handler instanceof LexicalHandler) {
+                final String text = normalizeLineEnds(replaceNbsp(comment));
+                ((LexicalHandler) handler).comment(text.toCharArray(), 0, text.length());
+            }
+        }
+
+        /**
+         * Collects text as the serializer writes it, i.e. escaped unless it
+         * is content of CDATA section.
+         */
+        private void text(final String text) {
+            pending.append(text);
+        }
+
+        /**
+         * Reports text collected since the last tag or comment. Text outside
+         * of the root element is whitespace, which is not reported.
+         */
+        void flushText() throws SAXException {
+            if (pending.length() == 0) {
+                return;
+            }
+            final String text = replaceNbsp(pending.toString());
+            pending.setLength(0);
+            if (openElements.isEmpty()) {
+                return;
+            }
+            final String chars = openElements.get(openElements.size() - 1).cdata
+                    ? normalizeLineEnds(text) : resolveReferences(text, false);
+            contentHandler.characters(chars.toCharArray(), 0, chars.length());
+        }
+
+        /**
+         * Reports start of element of specified node with the names and
+         * attributes XmlSerializer writes to its start tag. Minimized element
+         * is ended at once.
+         */
+        private void startElement(final TagNode tagNode, final boolean newLine) throws SAXException {
+            final String tagName = tagNode.getName();
+            if (Utils.isEmptyString(tagName)) {
+                return;
+            }
+            flushText();
+            final boolean namespacesAware = properties.isNamespacesAware();
+            final List<String[]> attributes = new ArrayList<String[]>();
+            Set<String> definedPrefixes = null;
+            Set<String> additionalPrefixes = null;
+
+            String name = tagName;
+            String prefix = Utils.getXmlNSPrefix(name);
+            if (prefix != null) {
+                if (namespacesAware) {
+                    definedPrefixes = collectNamespacePrefixes(tagNode);
+                    if (!definedPrefixes.contains(prefix)) {
+                        additionalPrefixes = new TreeSet<String>();
+                        additionalPrefixes.add(prefix);
+                    }
+                } else {
+                    name = Utils.getXmlName(name);
+                }
+            }
+
+            for (Map.Entry<String, String> attribute : tagNode.getAttributes().entrySet()) {
+                String attributeName = attribute.getKey();
+                prefix = Utils.getXmlNSPrefix(attributeName);
+                if (prefix != null) {
+                    if (namespacesAware) {
+                        if (definedPrefixes == null) {
+                            definedPrefixes = collectNamespacePrefixes(tagNode);
+                        }
+                        if (!definedPrefixes.contains(prefix)) {
+                            if (additionalPrefixes == null) {
+                                additionalPrefixes = new TreeSet<String>();
+                            }
+                            additionalPrefixes.add(prefix);
+                        }
+                    } else {
+                        attributeName = Utils.getXmlName(attributeName);
+                    }
+                }
+                attributes.add(new String[] {attributeName, attributeValue(attribute.getValue())});
+            }
+
+            if (namespacesAware && tagNode.getNamespaceDeclarations() != null) {
+                for (Map.Entry<String, String> declaration : tagNode.getNamespaceDeclarations().entrySet()) {
+                    final String declarationPrefix = declaration.getKey();
+                    attributes.add(new String[] {declarationPrefix.length() > 0
+                            ? "xmlns:" + declarationPrefix : "xmlns",
+                            attributeValue(declaration.getValue())});
+                }
+            }
+            if (additionalPrefixes != null) {
+                for (String additionalPrefix : additionalPrefixes) {
+                    // value is not escaped by the serializer either
+                    attributes.add(new String[] {"xmlns:" + additionalPrefix, additionalPrefix});
+                }
+            }
+
+            namespaces.pushContext();
+            final List<String> declaredPrefixes = new ArrayList<String>();
+            final Set<String> attributeNames = new HashSet<String>();
+            for (String[] attribute : attributes) {
+                final String attributeName = attribute[0];
+                if (!attributeNames.add(attributeName)) {
+                    throw new SAXException("Attribute \"" + attributeName
+                            + "\" was already specified for element \"" + name + "\"");
+                }
+                if ("xmlns".equals(attributeName) || attributeName.startsWith("xmlns:")) {
+                    final String declaredPrefix = attributeName.length() > 5
+                            ? attributeName.substring(6) : "";
+                    namespaces.declarePrefix(declaredPrefix, attribute[1]);
+                    declaredPrefixes.add(declaredPrefix);
+                    contentHandler.startPrefixMapping(declaredPrefix, attribute[1]);
+                }
+            }
+            final AttributesImpl saxAttributes = new AttributesImpl();
+            for (String[] attribute : attributes) {
+                final String attributeName = attribute[0];
+                if (!"xmlns".equals(attributeName) && !attributeName.startsWith("xmlns:")) {
+                    final String[] parts = processName(attributeName, true, name);
+                    saxAttributes.addAttribute(parts[0], parts[1], parts[2], "CDATA", attribute[1]);
+                }
+            }
+
+            final String[] parts = processName(name, false, name);
+            contentHandler.startElement(parts[0], parts[1], parts[2], saxAttributes);
+            openElements.add(new OpenElement(parts, declaredPrefixes, isCdata(tagNode)));
+            if (isMinimized(tagNode)) {
+                endElement(tagNode, newLine);
+            }
+        }
+
+        /**
+         * @return value of attribute as XML parser reports it after the
+         *         serializer has escaped it
+         */
+        private String attributeValue(final String value) throws SAXException {
+            return resolveReferences(replaceNbsp(Utils.escapeXml(value, properties, false)), true);
+        }
+
+        /**
+         * @return prefixes declared by specified node and its ancestors
+         */
+        private Set<String> collectNamespacePrefixes(final TagNode tagNode) {
+            final Set<String> prefixes = new HashSet<String>();
+            for (TagNode node = tagNode; node != null; node = node.getParent()) {
+                if (node.getNamespaceDeclarations() != null) {
+                    prefixes.addAll(node.getNamespaceDeclarations().keySet());
+                }
+            }
+            return prefixes;
+        }
+
+        private String[] processName(final String qName, final boolean attribute,
+                final String elementName) throws SAXException {
+            final String[] parts = namespaces.processName(qName, new String[3], attribute);
+            if (parts == null) {
+                throw new SAXException("The prefix \"" + Utils.getXmlNSPrefix(qName) + "\" for "
+                        + (attribute ? "attribute \"" + qName + "\" associated with an " : "")
+                        + "element \"" + elementName + "\" is not bound");
+            }
+            return parts;
+        }
+
+        /**
+         * Reports end of element of specified node, followed by new line if
+         * the serializer writes it.
+         */
+        private void endElement(final TagNode tagNode, final boolean newLine) throws SAXException {
+            if (Utils.isEmptyString(tagNode.getName())) {
+                return;
+            }
+            flushText();
+            final OpenElement element = openElements.remove(openElements.size() - 1);
+            contentHandler.endElement(element.parts[0], element.parts[1], element.parts[2]);
+            for (String prefix : element.prefixes) {
+                contentHandler.endPrefixMapping(prefix);
+            }
+            namespaces.popContext();
+            if (newLine) {
+                text("\n");
+            }
+        }
+
+        private String replaceNbsp(final String text) {
+            return replaceNbspWithSp ? text.replace('\u00a0', ' ') : text;
+        }
+
+        /**
+         * Normalizes line ends of CDATA section or comment, as XML parser
+         * does.
+         */
+        private String normalizeLineEnds(final String text) {
+            return text.indexOf('\r') < 0 ? text
+                    : text.replace("\r\n", "\n").replace('\r', '\n');
+        }
+
+        /**
+         * Resolves character and predefined entity references in escaped
+         * text and normalizes line ends, as XML parser does. Whitespace in
+         * attribute values is normalized to spaces as well.
+         */
+        private String resolveReferences(final String escaped, final boolean attribute)
+                throws SAXException {
+            if (escaped.indexOf('&') < 0 && escaped.indexOf('\r') < 0
+                    && !(attribute && (escaped.indexOf('\n') >= 0 || escaped.indexOf('\t') >= 0))) {
+                return escaped;
+            }
+            final StringBuilder result = new StringBuilder(escaped.length());
+            int i = 0;
+            while (i < escaped.length()) {
+                final char ch = escaped.charAt(i);
+                if (ch == '&') {
+                    final int end = escaped.indexOf(';', i);
+                    if (end < 0) {
+                        throw new SAXException("The entity name must immediately follow the '&' in the entity reference");
+                    }
+                    appendReference(result, escaped.substring(i + 1, end));
+                    i = end + 1;
+                } else if (ch == '\r') {
+                    result.append(attribute ? ' ' : '\n');
+                    i += i + 1 < escaped.length() && escaped.charAt(i + 1) == '\n' ? 2 : 1;
+                } else {
+                    result.append(attribute && (ch == '\n' || ch == '\t') ? ' ' : ch);
+                    i++;
+                }
+            }
+            return result.toString();
+        }
+
+        private void appendReference(final StringBuilder result, final String reference)
+                throws SAXException {
+            if ("lt".equals(reference)) {
+                result.append('<');
+            } else if ("gt".equals(reference)) {
+                result.append('>');
+            } else if ("amp".equals(reference)) {
+                result.append('&');
+            } else if ("quot".equals(reference)) {
+                result.append('"');
+            } else if ("apos".equals(reference)) {
+                result.append('\'');
+            } else if (reference.startsWith("#")) {
+                try {
+                    final int codePoint = reference.startsWith("#x")
+                            ? Integer.parseInt(reference.substring(2), 16)
+                            : Integer.parseInt(reference.substring(1));
+                    result.appendCodePoint(codePoint);
+                } catch (IllegalArgumentException e) {
+                    throw new SAXException("Invalid character reference &" + reference + ";");
+                }
+            } else {
+                throw new SAXException("The entity \"" + reference
+                        + "\" was referenced, but not declared");
+            }
+        }
+    }
+
+    /**
+     * Element which has been started, but not ended yet.
+     */
+    private static final class OpenElement {
+
+        private final String[] parts;
+        private final List<String> prefixes;
+        private final boolean cdata;
+
+        /**
+         * @param parts
+         *            namespace URI, local name and qualified name
+         * @param prefixes
+         *            prefixes declared by the element
+         * @param cdata
+         *            whether content of the element is CDATA section
+         */
+        OpenElement(final String[] parts, final List<String> prefixes, final boolean cdata) {
+            this.parts = parts;
+            this.prefixes = prefixes;
+            this.cdata = cdata;
+        }
+    }
+
+}
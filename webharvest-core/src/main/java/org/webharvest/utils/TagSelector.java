@@ -0,0 +1,188 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.htmlcleaner.TagNode;
+
+/**
+ * Simple selector of HTML elements, used to specify regions of page
+ * cleaned by html-to-xml. Selector consists of optional tag name, optional
+ * id (prefixed with '#') and optional class (prefixed with '.'), e.g.
+ * <code>head</code>, <code>div#content</code>, <code>#main</code> or
+ * <code>table.results</code>. Tag names are compared case insensitively.
+ * <p/>
+ * Instance is immutable.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public final class TagSelector {
+
+    private static final Pattern SELECTOR =
+        Pattern.compile("([A-Za-z_][\\w:\\-]*)?(?:#([^.#\\s]+))?(?:\\.([^.#\\s]+))?");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String name;
+    private final String id;
+    private final String className;
+
+    /**
+     * Creates selector from its textual form.
+     *
+     * @throws IllegalArgumentException
+     *             if the selector is not valid
+     */
+    public TagSelector(final String selector) {
+        final Matcher matcher = SELECTOR.matcher(selector.trim());
+        if (selector.trim().length() == 0 || !matcher.matches()) {
+            throw new IllegalArgumentException("Invalid tag selector: " + selector);
+        }
+        this.name = matcher.group(1) != null ? matcher.group(1).toLowerCase() : null;
+        this.id = matcher.group(2);
+        this.className = matcher.group(3);
+    }
+
+    /**
+     * Parses comma separated list of selectors.
+     *
+     * @return list of selectors, empty if specified string is blank
+     * @throws IllegalArgumentException
+     *             if any of the selectors is not valid
+     */
+    public static List<TagSelector> parseList(final String selectors) {
+        if (selectors == null || selectors.trim().length() == 0) {
+            return Collections.emptyList();
+        }
+        final List<TagSelector> result = new ArrayList<TagSelector>();
+        for (String selector : selectors.split(",")) {
+            if (selector.trim().length() > 0) {
+                result.add(new TagSelector(selector));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return lower case tag name or {@code null} if any tag matches
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether element is selected by its id, so at most one
+     *         element of a page matches
+     */
+    public boolean isUnique() {
+        return id != null;
+    }
+
+    /**
+     * @return whether attributes are needed to decide about the match
+     */
+    public boolean hasAttributes() {
+        return id != null || className != null;
+    }
+
+    /**
+     * @param tagName
+     *            lower case name of the tag
+     * @return whether tag of specified name may match the selector
+     */
+    public boolean matchesName(final String tagName) {
+        return name == null || name.equals(tagName);
+    }
+
+    /**
+     * Quickly rejects tags which cannot match the selector, as they do not
+     * contain id or class value of the selector at all.
+     *
+     * @param tag
+     *            source of the whole start tag
+     */
+    public boolean mayMatch(final StringBuilder tag) {
+        return (id == null || tag.indexOf(id) >= 0)
+                && (className == null || tag.indexOf(className) >= 0);
+    }
+
+    /**
+     * @param tagName
+     *            lower case name of the tag
+     * @param idValue
+     *            value of tag's id attribute or {@code null}
+     * @param classValue
+     *            value of tag's class attribute or {@code null}
+     * @return whether tag matches the selector
+     */
+    public boolean matches(final String tagName, final String idValue,
+            final String classValue) {
+        if (!matchesName(tagName) || id != null && !id.equals(idValue)) {
+            return false;
+        }
+        if (className != null) {
+            if (classValue == null) {
+                return false;
+            }
+            for (String token : WHITESPACE.split(classValue.trim())) {
+                if (className.equals(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether specified cleaned node matches the selector
+     */
+    public boolean matches(final TagNode node) {
+        return node.getName() != null && matches(node.getName().toLowerCase(),
+                node.getAttributeByName("id"), node.getAttributeByName("class"));
+    }
+
+    @Override
+    public String toString() {
+        return (name != null ? name : "") + (id != null ? "#" + id : "")
+                + (className != null ? "." + className : "");
+    }
+
+}
@@ -14,6 +14,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -41,8 +42,10 @@ import org.webharvest.definition.validation.SchemaSource;
 import org.webharvest.definition.validation.TransformerPair;
 import org.webharvest.definition.validation.URIToSchemaSourceTransformer;
 import org.webharvest.runtime.RuntimeConfig;
+import org.webharvest.runtime.variables.HtmlDocumentVariable;
 import org.webharvest.runtime.variables.ListVariable;
 import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.Variable;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -170,13 +173,26 @@ public class XmlUtil {
 
         XQueryExpression exp = runtimeConfig.getXQueryExpressionPool().getCompiledExpression(xpath);
         DynamicQueryContext dynamicContext = new DynamicQueryContext(config);
-        StringReader reader = new StringReader(xml);
-
-        dynamicContext.setContextItem(sqc.buildDocument(new StreamSource(reader)));
+        dynamicContext.setContextItem(runtimeConfig.getXmlDocumentCache().getDocument(xml));
 
         return createListOfXmlNodes(exp, dynamicContext);
     }
 
+    /**
+     * Creates XML source of specified variable. Document produced by
+     * html-to-xml is read from its tree directly, any other variable is
+     * parsed from its text.
+     *
+     * @param xml
+     *            variable containing XML document
+     * @return source which may be read once
+     */
+    public static Source toSource(Variable xml) {
+        return (xml instanceof HtmlDocumentVariable)
+                ? ((HtmlDocumentVariable) xml).toSource()
+                : new StreamSource(xml.toReader());
+    }
+
     /**
      * Creates list variable of resulting XML nodes.
      *
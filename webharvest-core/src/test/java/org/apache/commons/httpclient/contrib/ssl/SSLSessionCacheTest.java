@@ -0,0 +1,139 @@
+package org.apache.commons.httpclient.contrib.ssl;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SSLSessionCacheTest {
+
+    private static final String PASSWORD = "changeit";
+
+    private final URL keystore = getClass().getResource("/selfsigned.jks");
+
+    private SSLServerSocket serverSocket;
+
+    private Thread server;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        final KeyStore keys = KeyStore.getInstance("JKS");
+        final InputStream in = keystore.openStream();
+        try {
+            keys.load(in, PASSWORD.toCharArray());
+        } finally {
+            in.close();
+        }
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, PASSWORD.toCharArray());
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+
+        serverSocket = (SSLServerSocket) context.getServerSocketFactory()
+            .createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        final SSLSocket socket =
+                            (SSLSocket) serverSocket.accept();
+                        try {
+                            socket.startHandshake();
+                            socket.getOutputStream().write(
+                                    socket.getInputStream().read());
+                            socket.getOutputStream().flush();
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    // server socket closed
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        server.join();
+    }
+
+    @Test
+    public void resumesSessionsOfEasyFactory() throws Exception {
+        final SSLSessionCache cache = new SSLSessionCache(10, 60);
+
+        connect(new EasySSLProtocolSocketFactory(cache), 3);
+
+        assertHandshakes(cache, 1, 2);
+    }
+
+    @Test
+    public void resumesSessionsOfAuthFactory() throws Exception {
+        final SSLSessionCache cache = new SSLSessionCache();
+
+        connect(new AuthSSLProtocolSocketFactory(null, null, keystore,
+                PASSWORD, cache), 2);
+
+        assertHandshakes(cache, 1, 1);
+    }
+
+    @Test
+    public void appliesCacheSettings() throws Exception {
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+
+        new SSLSessionCache(10, 60).configure(context);
+
+        assertEquals(10, context.getClientSessionContext()
+                .getSessionCacheSize());
+        assertEquals(60, context.getClientSessionContext()
+                .getSessionTimeout());
+    }
+
+    private void connect(final SecureProtocolSocketFactory factory,
+            final int connections) throws IOException {
+        for (int i = 0; i < connections; i++) {
+            final Socket socket = factory.createSocket("localhost",
+                    serverSocket.getLocalPort());
+            try {
+                ((SSLSocket) socket).startHandshake();
+                // reading response processes session ticket of TLS 1.3
+                socket.getOutputStream().write(1);
+                socket.getOutputStream().flush();
+                socket.getInputStream().read();
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    private void assertHandshakes(final SSLSessionCache cache,
+            final long full, final long resumed) throws InterruptedException {
+        // handshake listeners are notified asynchronously
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getFullHandshakes() + cache.getResumedHandshakes()
+                < full + resumed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(full, cache.getFullHandshakes());
+        assertEquals(resumed, cache.getResumedHandshakes());
+    }
+
+}
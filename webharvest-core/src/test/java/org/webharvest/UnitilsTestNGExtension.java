@@ -8,6 +8,7 @@ import org.unitils.UnitilsTestNG;
 import org.unitils.mock.Mock;
 import org.webharvest.ioc.DebugFileLogger;
 import org.webharvest.ioc.InjectorHelper;
+import org.webharvest.runtime.RuntimeConfig;
 import org.webharvest.runtime.StatusHolder;
 import org.webharvest.runtime.scripting.ScriptEngineFactory;
 import org.webharvest.runtime.templaters.BaseTemplater;
@@ -105,6 +106,9 @@ public abstract class UnitilsTestNGExtension extends UnitilsTestNG {
 
             // Processor's decorators dependencies
             bind(Monitor.class).in(Singleton.class);
+
+            // XPath and XQuery processors dependencies
+            bind(RuntimeConfig.class).in(Singleton.class);
             bind(StatusHolder.class).toInstance(holderMock.getMock());
         }
 
@@ -45,6 +45,8 @@ import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
 
@@ -60,6 +62,7 @@ import org.unitils.reflectionassert.ReflectionComparatorMode;
 import org.webharvest.runtime.variables.EmptyVariable;
 import org.webharvest.runtime.variables.ListVariable;
 import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
 import org.webharvest.runtime.variables.Variable;
 import org.webharvest.runtime.web.HttpClientManager;
 import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
@@ -80,7 +83,7 @@ public class ScraperContextTest extends UnitilsTestNG {
     @Dummy
     private Variable dummyVar;
 
-    @InjectInto(property = "httpClientManager")
+    @InjectInto(property = "httpTransport")
     private HttpClientManager manager;
 
     @BeforeMethod
@@ -246,4 +249,58 @@ public class ScraperContextTest extends UnitilsTestNG {
                 new KeyValuePair<Variable>("y", new NodeVariable(1))
         ), IteratorUtils.toList(context.iterator()), ReflectionComparatorMode.LENIENT_ORDER);
     }
+
+    @Test
+    public void closesUnreferencedResourcesAtEndOfScope() throws Exception {
+        final Resource resource = new Resource();
+
+        context.executeWithinNewContext(new Callable<Object>() {
+            @Override
+            public Object call() {
+                context.registerResource(resource.variable);
+                context.setLocalVar("page", resource.variable);
+                return null;
+            }
+        });
+
+        assertTrue(resource.closed);
+    }
+
+    @Test
+    public void passesResourcesInUseToEnclosingScope() throws Exception {
+        final Resource returned = new Resource();
+        final Resource stored = new Resource();
+        context.setLocalVar("pages", new ListVariable());
+
+        final Object result = context.executeWithinNewContext(new Callable<Object>() {
+            @Override
+            public Object call() {
+                context.registerResource(returned.variable);
+                context.registerResource(stored.variable);
+                ((ListVariable) context.getVar("pages")).addVariable(stored.variable);
+                return returned.variable;
+            }
+        });
+
+        assertSame(result, returned.variable);
+        assertFalse(returned.closed);
+        assertFalse(stored.closed);
+
+        context.closeResources();
+
+        assertTrue(returned.closed);
+        assertTrue(stored.closed);
+    }
+
+    private static final class Resource implements Closeable {
+
+        final StreamVariable variable = new StreamVariable(
+                new ByteArrayInputStream(new byte[0]), null, this);
+
+        boolean closed;
+
+        public void close() {
+            closed = true;
+        }
+    }
 }
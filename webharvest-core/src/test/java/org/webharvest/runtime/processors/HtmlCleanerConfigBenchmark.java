@@ -0,0 +1,188 @@
+package org.webharvest.runtime.processors;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.CompactXmlSerializer;
+import org.htmlcleaner.HtmlCleaner;
+import org.webharvest.definition.DefinitionResolver;
+import org.webharvest.definition.HtmlToXmlDef;
+import org.webharvest.definition.XmlNodeTestUtils;
+import org.webharvest.runtime.ScraperContext;
+import org.webharvest.runtime.scripting.ScriptingLanguage;
+import org.webharvest.runtime.templaters.BaseTemplater;
+import org.webharvest.utils.CommonUtil;
+
+/**
+ * Microbenchmark of per-execution overhead of html-to-xml setup, i.e. of
+ * configuring {@link HtmlCleaner} before the page is cleaned. Compares
+ * evaluation of all attributes on each execution, as it was done before
+ * {@link HtmlCleanerConfig}, with the compiled configuration. Not a test,
+ * run it with its main method.
+ */
+public final class HtmlCleanerConfigBenchmark {
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    public static void main(String[] args) {
+        final HtmlToXmlDef def = (HtmlToXmlDef) DefinitionResolver.INSTANCE
+                .createElementDefinition(XmlNodeTestUtils.createXmlNode(
+                        "<html-to-xml outputtype='compact'"
+                        + " advancedxmlescape='true' usecdata='true'"
+                        + " specialentities='true' unicodechars='true'"
+                        + " omitunknowntags='false' omitdeprtags='false'"
+                        + " omitcomments='true' omitxmldecl='true'"
+                        + " omithtmlenvelope='false' namespacesaware='false'"
+                        + " prunetags='script,style'>"
+                        + "x</html-to-xml>",
+                        XmlNodeTestUtils.NAMESPACE_10));
+        final ScraperContext context = new ScraperContext();
+        context.setScriptingLanguage(ScriptingLanguage.JAVASCRIPT);
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("evaluated per call: "
+                    + measure(new Setup() {
+                        public Object run() {
+                            return evaluatePerCall(def, context);
+                        }
+                    }) + " ns/call");
+            System.out.println("compiled:           "
+                    + measure(new Setup() {
+                        public Object run() {
+                            final HtmlCleanerConfig config = def.getCleanerConfig();
+                            final HtmlCleaner cleaner = config.getCleaner(context);
+                            config.createSerializer(cleaner.getProperties(), context);
+                            return cleaner;
+                        }
+                    }) + " ns/call");
+        }
+    }
+
+    private interface Setup {
+        Object run();
+    }
+
+    private static double measure(Setup setup) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += setup.run().hashCode();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += setup.run().hashCode();
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return (double) elapsed / ITERATIONS;
+    }
+
+    /**
+     * Setup of the cleaner as it was done by {@link HtmlToXmlProcessor} on
+     * each execution.
+     */
+    private static HtmlCleaner evaluatePerCall(HtmlToXmlDef def,
+            ScraperContext context) {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        final CleanerProperties properties = cleaner.getProperties();
+
+        final String advancedXmlEscape = BaseTemplater.evaluateToString(def.getAdvancedXmlEscape(), null, context);
+        if (advancedXmlEscape != null) {
+            properties.setAdvancedXmlEscape(CommonUtil.isBooleanTrue(advancedXmlEscape));
+        }
+
+        final String cdataForScriptAndStyle = BaseTemplater.evaluateToString(def.getUseCdataForScriptAndStyle(), null, context);
+        if (cdataForScriptAndStyle != null) {
+            properties.setUseCdataForScriptAndStyle(CommonUtil.isBooleanTrue(cdataForScriptAndStyle));
+        }
+
+        final String specialEntities = BaseTemplater.evaluateToString(def.getTranslateSpecialEntities(), null, context);
+        if (specialEntities != null) {
+            properties.setTranslateSpecialEntities(CommonUtil.isBooleanTrue(specialEntities));
+        }
+
+        final String recognizeUnicodeChars = BaseTemplater.evaluateToString(def.getRecognizeUnicodeChars(), null, context);
+        if (recognizeUnicodeChars != null) {
+            properties.setRecognizeUnicodeChars(CommonUtil.isBooleanTrue(recognizeUnicodeChars));
+        }
+
+        final String replaceNbspWithSp = BaseTemplater.evaluateToString(def.getReplaceNbspWithSp(), null, context);
+
+        final String omitUnknownTags = BaseTemplater.evaluateToString(def.getOmitUnknownTags(), null, context);
+        if (omitUnknownTags != null) {
+            properties.setOmitUnknownTags(CommonUtil.isBooleanTrue(omitUnknownTags));
+        }
+
+        final String useEmptyElementTags = BaseTemplater.evaluateToString(def.getUseEmptyElementTags(), null, context);
+        if (useEmptyElementTags != null) {
+            properties.setUseEmptyElementTags(CommonUtil.isBooleanTrue(useEmptyElementTags));
+        }
+
+        final String treatUnknownTagsAsContent = BaseTemplater.evaluateToString(def.getTreatUnknownTagsAsContent(), null, context);
+        if (treatUnknownTagsAsContent != null) {
+            properties.setTreatUnknownTagsAsContent(CommonUtil.isBooleanTrue(treatUnknownTagsAsContent));
+        }
+
+        final String omitDeprecatedTags = BaseTemplater.evaluateToString(def.getOmitDeprecatedTags(), null, context);
+        if (omitDeprecatedTags != null) {
+            properties.setOmitDeprecatedTags(CommonUtil.isBooleanTrue(omitDeprecatedTags));
+        }
+
+        final String treatDeprTagsAsContent = BaseTemplater.evaluateToString(def.getTreatDeprecatedTagsAsContent(), null, context);
+        if (treatDeprTagsAsContent != null) {
+            properties.setTreatDeprecatedTagsAsContent(CommonUtil.isBooleanTrue(treatDeprTagsAsContent));
+        }
+
+        final String omitXmlDecl = BaseTemplater.evaluateToString(def.getOmitXmlDecl(), null, context);
+        if (omitXmlDecl != null) {
+            properties.setOmitXmlDeclaration(CommonUtil.isBooleanTrue(omitXmlDecl));
+        }
+
+        final String omitComments = BaseTemplater.evaluateToString(def.getOmitComments(), null, context);
+        if (omitComments != null) {
+            properties.setOmitComments(CommonUtil.isBooleanTrue(omitComments));
+        }
+
+        final String omitHtmlEnvelope = BaseTemplater.evaluateToString(def.getOmitHtmlEnvelope(), null, context);
+        if (omitHtmlEnvelope != null) {
+            properties.setOmitHtmlEnvelope(CommonUtil.isBooleanTrue(omitHtmlEnvelope));
+        }
+
+        final String allowMultiWordAttributes = BaseTemplater.evaluateToString(def.getAllowMultiWordAttributes(), null, context);
+        if (allowMultiWordAttributes != null) {
+            properties.setAllowMultiWordAttributes(CommonUtil.isBooleanTrue(allowMultiWordAttributes));
+        }
+
+        final String allowHtmlInsideAttributes = BaseTemplater.evaluateToString(def.getAllowHtmlInsideAttributes(), null, context);
+        if (allowHtmlInsideAttributes != null) {
+            properties.setAllowHtmlInsideAttributes(CommonUtil.isBooleanTrue(allowHtmlInsideAttributes));
+        }
+
+        final String namespacesAware = BaseTemplater.evaluateToString(def.getNamespacesAware(), null, context);
+        if (namespacesAware != null) {
+            properties.setNamespacesAware(CommonUtil.isBooleanTrue(namespacesAware));
+        } else {
+            properties.setNamespacesAware(false);
+        }
+
+        final String hyphenReplacement = BaseTemplater.evaluateToString(def.getHyphenReplacement(), null, context);
+        if (hyphenReplacement != null) {
+            properties.setHyphenReplacementInComment(hyphenReplacement);
+        }
+
+        final String pruneTags = BaseTemplater.evaluateToString(def.getPrunetags(), null, context);
+        if (pruneTags != null) {
+            properties.setPruneTags(pruneTags);
+        }
+
+        final String booleanAtts = BaseTemplater.evaluateToString(def.getBooleanAtts(), null, context);
+        if (booleanAtts != null) {
+            properties.setBooleanAttributeValues(booleanAtts);
+        }
+
+        BaseTemplater.evaluateToString(def.getOutputType(), null, context);
+        new CompactXmlSerializer(properties);
+        return cleaner;
+    }
+
+}
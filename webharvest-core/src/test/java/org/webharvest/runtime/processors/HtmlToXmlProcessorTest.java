@@ -0,0 +1,109 @@
+package org.webharvest.runtime.processors;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.webharvest.runtime.scripting.ScriptingLanguage.JAVASCRIPT;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.unitils.mock.Mock;
+import org.webharvest.UnitilsTestNGExtension;
+import org.webharvest.definition.DefinitionResolver;
+import org.webharvest.definition.HtmlToXmlDef;
+import org.webharvest.definition.XmlNodeTestUtils;
+import org.webharvest.runtime.ScraperContext;
+import org.webharvest.runtime.scripting.ScriptEngine;
+
+public class HtmlToXmlProcessorTest extends UnitilsTestNGExtension {
+
+    private static final String HTML =
+        "<![CDATA[<p>a&nbsp;b<!-- note --></p>]]>";
+
+    ScraperContext context;
+    Mock<ScriptEngine> engineMock;
+
+    @BeforeMethod
+    public void before() {
+        context = new ScraperContext();
+        context.setScriptingLanguage(JAVASCRIPT);
+        scriptEngineFactoryMock.returns(engineMock.getMock()).getEngine(null);
+    }
+
+    @Test
+    public void sharesCleanerOfStaticAttributes() {
+        final HtmlCleanerConfig config = definition("<html-to-xml"
+                + " omitcomments='true' prunetags='script'>x</html-to-xml>")
+                .getCleanerConfig();
+
+        assertTrue(config.isStatic());
+        assertSame(config.getCleaner(context), config.getCleaner(context));
+        assertTrue(config.getCleaner(context).getProperties().isOmitComments());
+        assertFalse(config.getCleaner(context).getProperties().isNamespacesAware());
+    }
+
+    @Test
+    public void evaluatesTemplatedAttributes() {
+        engineMock.returns("true").evaluate(null, null);
+        final HtmlCleanerConfig config = definition("<html-to-xml"
+                + " omitcomments='${omit}' prunetags='script'>x</html-to-xml>")
+                .getCleanerConfig();
+
+        assertFalse(config.isStatic());
+        assertNotSame(config.getCleaner(context), config.getCleaner(context));
+        assertTrue(config.getCleaner(context).getProperties().isOmitComments());
+        assertEquals("script",
+                config.getCleaner(context).getProperties().getPruneTags());
+    }
+
+    @Test
+    public void cleansWithCompiledConfiguration() throws Exception {
+        assertEquals("<p>a b</p>", clean("<html-to-xml omitcomments='true'"
+                + " omithtmlenvelope='true' omitxmldecl='true'"
+                + " nbsp-to-sp='true'>" + HTML + "</html-to-xml>"));
+        assertTrue(clean("<html-to-xml omithtmlenvelope='true'"
+                + " omitxmldecl='true'>" + HTML + "</html-to-xml>")
+                .contains("<!-- note -->"));
+    }
+
+    @Test
+    public void cleansRegionOfPage() throws Exception {
+        final String page = "<![CDATA[<html><head><title>t</title></head>"
+            + "<body><div id='nav'><a href='/'>home</a></div>"
+            + "<div id='content'><p>text</p></div><p>footer</p>"
+            + "<div id='more'>more</div></body></html>]]>";
+
+        assertEquals("<html><head><title>t</title></head><body></body></html>",
+                clean21("<html-to-xml omitxmldecl='true' stop-after='head'>"
+                        + page + "</html-to-xml>"));
+        assertEquals("<html><body><div id=\"content\">"
+                + "<p>text</p></div></body></html>", clean21("<html-to-xml"
+                + " omitxmldecl='true' include-only='div#content'>"
+                + page + "</html-to-xml>"));
+        // div#more is beyond the limit
+        assertEquals("<html><body><div id=\"nav\">"
+                + "<a href=\"/\">home</a></div></body></html>",
+                clean21("<html-to-xml omitxmldecl='true'"
+                + " include-only='#nav, div#more' max-chars='100'>"
+                + page + "</html-to-xml>"));
+    }
+
+    private String clean(String xml) throws InterruptedException {
+        return ProcessorTestUtils.processor(XmlNodeTestUtils.createXmlNode(
+                xml, XmlNodeTestUtils.NAMESPACE_10)).run(context).toString();
+    }
+
+    private String clean21(String xml) throws InterruptedException {
+        return ProcessorTestUtils.processor(XmlNodeTestUtils.createXmlNode(
+                xml, XmlNodeTestUtils.NAMESPACE_21)).run(context).toString();
+    }
+
+    private HtmlToXmlDef definition(String xml) {
+        return (HtmlToXmlDef) DefinitionResolver.INSTANCE
+                .createElementDefinition(XmlNodeTestUtils.createXmlNode(xml,
+                        XmlNodeTestUtils.NAMESPACE_10));
+    }
+
+}
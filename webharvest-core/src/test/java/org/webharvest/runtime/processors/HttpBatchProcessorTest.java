@@ -0,0 +1,271 @@
+package org.webharvest.runtime.processors;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.webharvest.runtime.scripting.ScriptingLanguage.JAVASCRIPT;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.unitils.mock.Mock;
+import org.webharvest.UnitilsTestNGExtension;
+import org.webharvest.definition.XmlNodeTestUtils;
+import org.webharvest.events.ProcessorStopEvent;
+import org.webharvest.ioc.InjectorHelper;
+import org.webharvest.ioc.WorkingDir;
+import org.webharvest.runtime.ScraperContext;
+import org.webharvest.runtime.scripting.ScriptEngine;
+import org.webharvest.runtime.variables.EmptyVariable;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.runtime.web.ConnectionPoolSettings;
+import org.webharvest.runtime.web.HostRateLimiter;
+import org.webharvest.runtime.web.HttpClientManager;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+import org.webharvest.runtime.web.HttpResponseCache;
+import org.webharvest.runtime.web.HttpTransport;
+import org.webharvest.runtime.web.PermanentRedirects;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpBatchProcessorTest extends UnitilsTestNGExtension {
+
+    ScraperContext context;
+    Mock<ScriptEngine> engineMock;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private ItemHandler handler;
+
+    private BatchListener listener;
+
+    private String url;
+
+    @BeforeMethod
+    public void before() throws Exception {
+        handler = new ItemHandler();
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", handler);
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+        listener = new BatchListener();
+        InjectorHelper.getInjector().getInstance(EventBus.class)
+            .register(listener);
+
+        context = new ScraperContext();
+        context.setScriptingLanguage(JAVASCRIPT);
+        scriptEngineFactoryMock.returns(engineMock.getMock()).getEngine(null);
+    }
+
+    @AfterMethod
+    public void after() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test(timeOut = 10000)
+    public void returnsResponsesInOrderOfUrls() throws Exception {
+        useTransport(new ConnectionPoolSettings.Builder()
+                .setMaxConnectionsPerHost(4).build());
+
+        // the first two responses are held until both are requested
+        final List<Variable> result = run("<http-batch parallelism='4'>"
+                + item(1) + item(2) + item(3) + item(4) + "</http-batch>");
+
+        assertEquals(4, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals("item " + (i + 1), result.get(i).toString());
+        }
+        assertTrue("Expected concurrent requests", handler.maxActive.get() > 1);
+        assertEquals(4, listener.properties.get("Parallelism"));
+    }
+
+    @Test(timeOut = 10000)
+    public void replacesFailedResponseWithEmptyValue() throws Exception {
+        useTransport(new ConnectionPoolSettings.Builder().build());
+        final String refused = "http://127.0.0.1:" + closedPort() + "/";
+
+        final List<Variable> result = run(
+                "<http-batch parallelism='2' retry-attempts='0'>" + item(1) + "<template>" + refused + "</template>" + item(3)
+                + "</http-batch>");
+
+        assertEquals(3, result.size());
+        assertEquals("item 1", result.get(0).toString());
+        assertEquals(EmptyVariable.INSTANCE, result.get(1));
+        assertEquals("item 3", result.get(2).toString());
+        assertTrue("Expected error property",
+                listener.properties.containsKey("Error [2]: " + refused));
+        assertEquals(1, listener.properties.get("Failed Requests"));
+    }
+
+    @Test(timeOut = 10000)
+    public void limitsParallelismToConnectionsPerHost() throws Exception {
+        useTransport(new ConnectionPoolSettings.Builder()
+                .setMaxConnectionsPerHost(2).build());
+
+        final List<Variable> result = run("<http-batch parallelism='4'>"
+                + item(1) + item(2) + item(3) + item(4) + item(5)
+                + "</http-batch>");
+
+        assertEquals(5, result.size());
+        assertEquals("item 5", result.get(4).toString());
+        assertTrue("Expected at most 2 requests at once",
+                handler.maxActive.get() <= 2);
+        assertEquals(2, listener.properties.get("Parallelism"));
+    }
+
+    @Test(timeOut = 10000)
+    public void sendsRequestsToOtherHostWhileHostIsHeldBack()
+            throws Exception {
+        useTransport(new ConnectionPoolSettings.Builder().build());
+        final String otherHost = url.replace("127.0.0.1", "localhost");
+
+        final List<Variable> result = run(
+                "<http-batch parallelism='1' rate-limit='2'>" + item(3)
+                + item(4) + "<template>" + otherHost + "5</template>"
+                + "</http-batch>");
+
+        assertEquals("item 4", result.get(1).toString());
+        assertEquals("item 5", result.get(2).toString());
+        assertEquals(Arrays.asList("3", "5", "4"), handler.requested);
+    }
+
+    @Test(timeOut = 10000)
+    public void executesRequestsSeriallyWithoutPooledConnections()
+            throws Exception {
+        useTransport(ConnectionPoolSettings.NO_POOL_SET);
+
+        final List<Variable> result = run("<http-batch parallelism='4'>"
+                + item(1) + item(2) + item(3) + "</http-batch>");
+
+        assertEquals(3, result.size());
+        assertEquals("item 1", result.get(0).toString());
+        assertEquals(1, handler.maxActive.get());
+        assertEquals(1, listener.properties.get("Parallelism"));
+    }
+
+    private String item(int number) {
+        return "<template>" + url + number + "</template>";
+    }
+
+    private List<Variable> run(String xml) throws InterruptedException {
+        return ProcessorTestUtils.processor(XmlNodeTestUtils.createXmlNode(
+                xml, XmlNodeTestUtils.NAMESPACE_21)).run(context).toList();
+    }
+
+    private void useTransport(final ConnectionPoolSettings poolSettings)
+            throws Exception {
+        final HostRateLimiter rateLimiter = new HostRateLimiter();
+        final HttpTransport transport = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET, poolSettings,
+                HttpResponseCache.NO_CACHE, rateLimiter,
+                new PermanentRedirects());
+        final Injector injector = InjectorHelper.getInjector()
+            .createChildInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    bind(HttpTransport.class).toInstance(transport);
+                    bind(ConnectionPoolSettings.class).toInstance(
+                            poolSettings);
+                    bind(HostRateLimiter.class).toInstance(rateLimiter);
+                    bind(String.class).annotatedWith(WorkingDir.class)
+                        .toInstance(".");
+                }
+            });
+        final Field injectorField = InjectorHelper.class
+                .getDeclaredField("injector");
+        injectorField.setAccessible(true);
+        injectorField.set(null, injector);
+    }
+
+    private static int closedPort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    public static final class BatchListener {
+
+        volatile Map<?, ?> properties;
+
+        @Subscribe
+        public void onProcessorStop(ProcessorStopEvent event) {
+            if (event.getProcessor() instanceof HttpBatchProcessor) {
+                properties = event.getProperties();
+            }
+        }
+    }
+
+    private static final class ItemHandler implements HttpHandler {
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        private final List<String> requested =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        private final CountDownLatch firstTwoArrived = new CountDownLatch(2);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final int current = active.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxActive.get()) < current
+                        && !maxActive.compareAndSet(max, current)) {
+                    // retries until the maximum is updated
+                }
+                final String item = exchange.getRequestURI().getPath()
+                        .substring(1);
+                requested.add(item);
+                if ("1".equals(item) || "2".equals(item)) {
+                    // both are active at once unless requests are serialized
+                    firstTwoArrived.countDown();
+                    firstTwoArrived.await(2, TimeUnit.SECONDS);
+                }
+                final byte[] body = ("item " + item).getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type",
+                        "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.webharvest.runtime.processors;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import static org.webharvest.runtime.scripting.ScriptingLanguage.JAVASCRIPT;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.unitils.mock.Mock;
+import org.webharvest.UnitilsTestNGExtension;
+import org.webharvest.definition.XmlNodeTestUtils;
+import org.webharvest.exception.ConfigurationException;
+import org.webharvest.ioc.InjectorHelper;
+import org.webharvest.ioc.WorkingDir;
+import org.webharvest.runtime.ScraperContext;
+import org.webharvest.runtime.scripting.ScriptEngine;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.runtime.web.ConnectionPoolSettings;
+import org.webharvest.runtime.web.HttpClientManager;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+import org.webharvest.runtime.web.HttpTransport;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpProcessorTest extends UnitilsTestNGExtension {
+
+    private static final String PAGE = "<ul><li>one</li><li>two</li></ul>";
+
+    ScraperContext context;
+    Mock<ScriptEngine> engineMock;
+
+    private HttpServer server;
+
+    private String url;
+
+    @BeforeMethod
+    public void before() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new PageHandler());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+
+        // single pooled connection, so an unreleased one blocks next request
+        final HttpTransport transport = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET,
+                new ConnectionPoolSettings.Builder()
+                    .setMaxConnectionsPerHost(1)
+                    .setMaxTotalConnections(1).build());
+        final Injector injector = InjectorHelper.getInjector()
+            .createChildInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    bind(HttpTransport.class).toInstance(transport);
+                    bind(String.class).annotatedWith(WorkingDir.class)
+                        .toInstance(".");
+                }
+            });
+        final Field injectorField = InjectorHelper.class
+                .getDeclaredField("injector");
+        injectorField.setAccessible(true);
+        injectorField.set(null, injector);
+
+        context = new ScraperContext();
+        context.setScriptingLanguage(JAVASCRIPT);
+        scriptEngineFactoryMock.returns(engineMock.getMock()).getEngine(null);
+    }
+
+    @AfterMethod
+    public void after() {
+        server.stop(0);
+    }
+
+    @Test(timeOut = 10000)
+    public void queriesStreamedResponseRepeatedly() throws Exception {
+        run("<def var='page'><http url='" + url + "' stream='true'/></def>");
+        assertTrue(context.getVar("page") instanceof StreamVariable);
+
+        assertEquals("one", run("<xpath expression='//li[1]/text()'>"
+                + "<get var='page'/></xpath>").toString());
+        assertEquals("two", run("<xpath expression='//li[2]/text()'>"
+                + "<get var='page'/></xpath>").toString());
+    }
+
+    @Test(timeOut = 10000)
+    public void releasesConnectionOfUnreadStream() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            // variable is dropped with the scope of empty processor
+            run("<empty><def var='page'><http url='" + url
+                    + "' stream='true'/></def></empty>");
+        }
+        assertEquals(PAGE, run("<http url='" + url + "'/>").toString());
+    }
+
+    @Test(timeOut = 10000)
+    public void closesStreamsWhenScrapingEnds() throws Exception {
+        run("<def var='page'><http url='" + url + "' stream='true'/></def>");
+
+        context.closeResources();
+
+        assertEquals(PAGE, run("<http url='" + url + "'/>").toString());
+    }
+
+    @Test
+    public void reportsAttributeWithInvalidNumber() throws Exception {
+        try {
+            run("<http url='" + url + "' max-redirects='many'/>");
+            fail("ConfigurationException expected");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max-redirects"));
+        }
+    }
+
+    private Variable run(String xml) throws InterruptedException {
+        return ProcessorTestUtils.processor(XmlNodeTestUtils.createXmlNode(
+                xml, XmlNodeTestUtils.NAMESPACE_21)).run(context);
+    }
+
+    private static final class PageHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final byte[] body = PAGE.getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type",
+                    "text/xml; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+}
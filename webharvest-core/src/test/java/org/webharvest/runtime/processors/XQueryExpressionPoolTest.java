@@ -0,0 +1,120 @@
+package org.webharvest.runtime.processors;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class XQueryExpressionPoolTest {
+
+    private CountingQueryContext sqc;
+
+    @BeforeMethod
+    public void setUp() {
+        sqc = new CountingQueryContext(new Configuration());
+    }
+
+    @Test
+    public void reusesCompiledExpression() throws Exception {
+        final XQueryExpressionPool pool = new XQueryExpressionPool(sqc);
+
+        final XQueryExpression first = pool.getCompiledExpression("1 + 1");
+        assertSame(first, pool.getCompiledExpression("1 + 1"));
+        pool.getCompiledExpression("2 + 2");
+
+        assertEquals(2, sqc.compilations.get());
+        final XQueryExpressionPool.Statistics stats = pool.getStatistics();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getCompilations());
+        assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void compilesConcurrentlyRequestedQueryOnce() throws Exception {
+        sqc.delay = 200;
+        final XQueryExpressionPool pool = new XQueryExpressionPool(sqc);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] results = new Future<?>[8];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = executor.submit(new Callable<XQueryExpression>() {
+                    public XQueryExpression call() throws XPathException {
+                        return pool.getCompiledExpression("//a/@href");
+                    }
+                });
+            }
+            for (Future<?> result : results) {
+                assertSame(results[0].get(), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, sqc.compilations.get());
+    }
+
+    @Test
+    public void evictsExpressionsOverLimit() throws Exception {
+        final XQueryExpressionPool pool = new XQueryExpressionPool(sqc, 10);
+        for (int i = 0; i < 100; i++) {
+            pool.getCompiledExpression("//div[" + i + "]");
+        }
+
+        final XQueryExpressionPool.Statistics stats = pool.getStatistics();
+        assertEquals(10, stats.getSize());
+        assertEquals(90, stats.getEvictions());
+    }
+
+    @Test
+    public void propagatesCompilationError() {
+        final XQueryExpressionPool pool = new XQueryExpressionPool(sqc);
+        for (int i = 0; i < 2; i++) {
+            try {
+                pool.getCompiledExpression("//div[");
+                fail("XPathException expected");
+            } catch (XPathException e) {
+                // invalid expression is not pooled
+            }
+        }
+        assertEquals(2, pool.getStatistics().getFailures());
+        assertEquals(0, pool.getStatistics().getSize());
+    }
+
+    private static final class CountingQueryContext extends StaticQueryContext {
+
+        private final AtomicInteger compilations = new AtomicInteger();
+
+        private volatile long delay;
+
+        CountingQueryContext(Configuration config) {
+            super(config);
+        }
+
+        @Override
+        public XQueryExpression compileQuery(String query) throws XPathException {
+            compilations.incrementAndGet();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.compileQuery(query);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.webharvest.runtime.processors;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.trans.XPathException;
+
+import org.htmlcleaner.HtmlCleaner;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.webharvest.runtime.RuntimeConfig;
+import org.webharvest.runtime.variables.HtmlDocumentVariable;
+import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.utils.XmlUtil;
+
+public class XmlDocumentCacheTest {
+
+    private XmlDocumentCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        cache = new XmlDocumentCache(
+                new StaticQueryContext(new Configuration()), 2);
+    }
+
+    @Test
+    public void reusesDocumentOfSameText() throws Exception {
+        final Variable page = new NodeVariable("<p>a</p>");
+        final DocumentInfo document = cache.getDocument(page);
+
+        assertSame(document, cache.getDocument(page));
+        assertSame(document, cache.getDocument(new NodeVariable("<p>a</p>")));
+        assertSame(document, cache.getDocument("<p>a</p>"));
+        assertNotSame(document, cache.getDocument("<p>b</p>"));
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void hashesTextOfSameVariableOnlyOnce() throws Exception {
+        final AtomicInteger serializations = new AtomicInteger();
+        final Variable page = new NodeVariable("<p>a</p>") {
+            @Override
+            public String toString() {
+                serializations.incrementAndGet();
+                return super.toString();
+            }
+        };
+
+        final DocumentInfo document = cache.getDocument(page);
+        final int parsed = serializations.get();
+        assertSame(document, cache.getDocument(page));
+        assertSame(document, cache.getDocument(page));
+
+        // neither serialized nor hashed again
+        assertEquals(parsed, serializations.get());
+        assertSame(document, cache.getDocument("<p>a</p>"));
+    }
+
+    @Test
+    public void reusesDocumentOfSameHtmlDocumentVariable() throws Exception {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        final HtmlDocumentVariable page = new HtmlDocumentVariable(
+                cleaner.clean("<ul><li>one<li>two</ul>"),
+                cleaner.getProperties(), "compact", false);
+
+        final DocumentInfo document = cache.getDocument(page);
+
+        assertSame(document, cache.getDocument(page));
+        // text of the variable is not serialized to look it up
+        assertNotSame(document, cache.getDocument(page.toString()));
+    }
+
+    @Test
+    public void parsesStreamWithoutCachingIt() throws Exception {
+        final StreamVariable page = new StreamVariable(
+                new ByteArrayInputStream("<p>a</p>".getBytes("UTF-8")), "UTF-8");
+
+        final DocumentInfo document = cache.getDocument(page);
+
+        assertEquals("a", document.getStringValue());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDocument() throws Exception {
+        final DocumentInfo first = cache.getDocument("<p>1</p>");
+        cache.getDocument("<p>2</p>");
+        cache.getDocument("<p>1</p>");
+        cache.getDocument("<p>3</p>");
+
+        assertEquals(2, cache.getSize());
+        assertSame(first, cache.getDocument("<p>1</p>"));
+    }
+
+    @Test
+    public void propagatesParseError() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getDocument("<p>");
+                fail("XPathException expected");
+            } catch (XPathException e) {
+                // malformed document is not cached
+            }
+        }
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void evaluatesXPathAgainstCachedDocument() throws Exception {
+        final RuntimeConfig runtimeConfig = new RuntimeConfig();
+        final String page = "<ul><li>one</li><li>two</li></ul>";
+
+        assertEquals("one", XmlUtil.evaluateXPath("//li[1]/text()", page,
+                runtimeConfig).toString());
+        assertEquals("two", XmlUtil.evaluateXPath("//li[2]/text()", page,
+                runtimeConfig).toString());
+        assertEquals(1, runtimeConfig.getXmlDocumentCache().getSize());
+    }
+
+}
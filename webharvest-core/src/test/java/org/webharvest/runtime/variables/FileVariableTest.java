@@ -0,0 +1,35 @@
+package org.webharvest.runtime.variables;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+
+public class FileVariableTest {
+
+    private final File file = new File("downloads", "report.pdf");
+
+    @Test
+    public void valueIsAbsolutePath() {
+        final FileVariable variable =
+                new FileVariable(file, 1024, "abcd", "application/pdf");
+
+        assertEquals(file.getAbsolutePath(), variable.toString());
+        assertEquals(file.getAbsolutePath(), new String(variable.toBinary()));
+        assertSame(file, variable.getWrappedObject());
+        assertFalse(variable.isEmpty());
+        assertEquals(1, variable.toList().size());
+    }
+
+    @Test
+    public void carriesContentDetails() {
+        final FileVariable variable =
+                new FileVariable(file, 1024, "abcd", "application/pdf");
+
+        assertEquals(1024, variable.getSize());
+        assertEquals("abcd", variable.getChecksum());
+        assertEquals("application/pdf", variable.getMimeType());
+    }
+
+}
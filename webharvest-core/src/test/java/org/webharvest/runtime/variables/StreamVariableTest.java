@@ -0,0 +1,125 @@
+package org.webharvest.runtime.variables;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+import org.webharvest.exception.VariableException;
+
+public class StreamVariableTest {
+
+    private static final String CHARSET = "UTF-8";
+
+    private static final String TEXT = "<html>żółw</html>";
+
+    @Test
+    public void toReaderStreamsTextContent() throws IOException {
+        final StreamVariable variable = new StreamVariable(stream(TEXT), CHARSET);
+        assertEquals(TEXT, IOUtils.toString(variable.toReader()));
+    }
+
+    @Test
+    public void toInputStreamStreamsBinaryContent() throws IOException {
+        final byte[] data = {0, 1, 2, (byte) 0xFF};
+        final StreamVariable variable =
+                new StreamVariable(new ByteArrayInputStream(data), null);
+        assertTrue(variable.isBinary());
+        assertTrue(Arrays.equals(data,
+                IOUtils.toByteArray(variable.toInputStream())));
+    }
+
+    @Test
+    public void toStringCachesContent() throws IOException {
+        final StreamVariable variable = new StreamVariable(stream(TEXT), CHARSET);
+        assertEquals(TEXT, variable.toString());
+        assertEquals(TEXT, variable.toString());
+        assertEquals(TEXT, IOUtils.toString(variable.toReader()));
+    }
+
+    @Test
+    public void isEmptyDoesNotConsumeStream() {
+        final StreamVariable variable = new StreamVariable(stream(TEXT), CHARSET);
+        assertFalse(variable.isEmpty());
+        assertEquals(TEXT, variable.toString());
+    }
+
+    @Test
+    public void isEmptyForEmptyStream() {
+        assertTrue(new StreamVariable(stream(""), CHARSET).isEmpty());
+    }
+
+    @Test
+    public void handsOverSingleUseContentOnce() throws IOException {
+        final StreamVariable variable = new StreamVariable(stream(TEXT), CHARSET);
+        assertEquals(TEXT, IOUtils.toString(variable.toReader()));
+
+        try {
+            variable.toString();
+            fail("VariableException expected");
+        } catch (VariableException e) {
+            // content has not been copied aside
+        }
+    }
+
+    @Test
+    public void servesContentAgainAfterPartialRead() throws IOException {
+        final StreamVariable variable = new StreamVariable(stream(TEXT), CHARSET);
+        variable.setRepeatable();
+        assertEquals('<', variable.toReader().read());
+
+        assertEquals(TEXT, IOUtils.toString(variable.toReader()));
+        assertEquals(TEXT, variable.toString());
+    }
+
+    @Test
+    public void servesLargeContentAgainFromFile() throws IOException {
+        final byte[] data = new byte[StreamVariable.MEMORY_THRESHOLD * 2];
+        Arrays.fill(data, (byte) 7);
+        final StreamVariable variable =
+                new StreamVariable(new ByteArrayInputStream(data), null);
+        variable.setRepeatable();
+        IOUtils.toByteArray(variable.toInputStream());
+
+        assertTrue(Arrays.equals(data,
+                IOUtils.toByteArray(variable.toInputStream())));
+        assertTrue(Arrays.equals(data, variable.toBinary()));
+    }
+
+    @Test
+    public void closeReleasesUnreadStream() {
+        final boolean[] released = new boolean[1];
+        final StreamVariable variable = new StreamVariable(stream(TEXT),
+                CHARSET, new Closeable() {
+                    public void close() {
+                        released[0] = true;
+                    }
+                });
+        variable.toReader();
+
+        variable.close();
+
+        assertTrue(released[0]);
+    }
+
+    @Test(expectedExceptions = VariableException.class)
+    public void closedStreamCannotBeRead() {
+        final StreamVariable variable = new StreamVariable(stream(TEXT), CHARSET);
+        variable.close();
+        variable.toString();
+    }
+
+    private InputStream stream(String text) {
+        try {
+            return new ByteArrayInputStream(text.getBytes(CHARSET));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.webharvest.runtime.variables;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.Reader;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+public class TextVariableTest {
+
+    private static final String TEXT = "žuć à la carte";
+
+    @Test
+    public void decodesText() throws Exception {
+        final TextVariable variable =
+            new TextVariable(TEXT.getBytes("UTF-8"), "UTF-8");
+
+        assertEquals(TEXT, variable.toString());
+        assertEquals(TEXT, variable.getWrappedObject());
+        assertFalse(variable.isEmpty());
+        assertEquals(Collections.singletonList(variable), variable.toList());
+    }
+
+    @Test
+    public void returnsBytesInSameCharset() throws Exception {
+        final byte[] bytes = TEXT.getBytes("UTF-8");
+        final TextVariable variable = new TextVariable(bytes, "utf8");
+
+        assertSame(bytes, variable.toBinary("UTF-8"));
+    }
+
+    @Test
+    public void encodesInOtherCharset() throws Exception {
+        final TextVariable variable =
+            new TextVariable(TEXT.getBytes("UTF-8"), "UTF-8");
+
+        assertEquals(TEXT, new String(variable.toBinary("UTF-16"), "UTF-16"));
+    }
+
+    @Test
+    public void readsText() throws Exception {
+        final Reader reader =
+            new TextVariable(TEXT.getBytes("UTF-16"), "UTF-16").toReader();
+
+        assertEquals(TEXT, IOUtils.toString(reader));
+    }
+
+    @Test
+    public void isEmptyWithoutBytes() {
+        final TextVariable variable = new TextVariable(new byte[0], "UTF-8");
+
+        assertTrue(variable.isEmpty());
+        assertEquals("", variable.toString());
+        assertFalse(variable.toIterator().hasNext());
+    }
+
+}
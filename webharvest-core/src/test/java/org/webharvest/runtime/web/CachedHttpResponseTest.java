@@ -0,0 +1,161 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.testng.annotations.Test;
+
+public class CachedHttpResponseTest {
+
+    private static final String KEY = "GET http://localhost/page";
+    private static final byte[] BODY = "content".getBytes();
+
+    @Test
+    public void isFreshWithinMaxAge() {
+        final CachedHttpResponse response = cache(new ExecutedMethod(
+                HttpStatus.SC_OK, "Cache-Control", "public, max-age=60"));
+
+        final long now = System.currentTimeMillis();
+        assertTrue("Expected fresh response", response.isFresh(now, -1));
+        assertFalse("Expected stale response",
+                response.isFresh(now + 61000, -1));
+    }
+
+    @Test
+    public void usesExpiresRelativeToDate() {
+        final long serverTime = System.currentTimeMillis() - 3600000;
+        final CachedHttpResponse response = cache(new ExecutedMethod(
+                HttpStatus.SC_OK,
+                "Date", DateUtil.formatDate(new java.util.Date(serverTime)),
+                "Expires", DateUtil.formatDate(
+                        new java.util.Date(serverTime + 120000))));
+
+        final long now = System.currentTimeMillis();
+        assertTrue("Expected fresh response", response.isFresh(now, -1));
+        assertFalse("Expected stale response",
+                response.isFresh(now + 121000, -1));
+    }
+
+    @Test
+    public void overridesMaxAge() {
+        final CachedHttpResponse response = cache(new ExecutedMethod(
+                HttpStatus.SC_OK, "Cache-Control", "no-cache",
+                "ETag", "\"v1\""));
+
+        final long now = System.currentTimeMillis();
+        assertFalse("Expected stale response", response.isFresh(now, -1));
+        assertTrue("Expected fresh response", response.isFresh(now, 60));
+    }
+
+    @Test
+    public void isNotStorableWithoutFreshnessOrValidator() {
+        assertFalse("Expected not storable response",
+                CachedHttpResponse.isStorable(new ExecutedMethod(
+                        HttpStatus.SC_OK), -1));
+        assertFalse("Expected not storable response",
+                CachedHttpResponse.isStorable(new ExecutedMethod(
+                        HttpStatus.SC_OK, "Cache-Control", "no-store",
+                        "ETag", "\"v1\""), -1));
+        assertFalse("Expected not storable response",
+                CachedHttpResponse.isStorable(new ExecutedMethod(
+                        HttpStatus.SC_NOT_FOUND, "ETag", "\"v1\""), -1));
+        assertFalse("Expected not storable response",
+                CachedHttpResponse.isStorable(new ExecutedMethod(
+                        HttpStatus.SC_OK, "Vary", "*", "ETag", "\"v1\""), -1));
+        assertTrue("Expected storable response",
+                CachedHttpResponse.isStorable(new ExecutedMethod(
+                        HttpStatus.SC_OK, "Last-Modified",
+                        "Mon, 01 Oct 2012 10:00:00 GMT"), -1));
+    }
+
+    @Test
+    public void addsValidators() {
+        final CachedHttpResponse response = cache(new ExecutedMethod(
+                HttpStatus.SC_OK, "ETag", "\"v1\"",
+                "Last-Modified", "Mon, 01 Oct 2012 10:00:00 GMT"));
+        final GetMethod method = new GetMethod("http://localhost/page");
+
+        response.addValidators(method);
+
+        assertEquals("Unexpected If-None-Match", "\"v1\"",
+                method.getRequestHeader("If-None-Match").getValue());
+        assertEquals("Unexpected If-Modified-Since",
+                "Mon, 01 Oct 2012 10:00:00 GMT",
+                method.getRequestHeader("If-Modified-Since").getValue());
+    }
+
+    @Test
+    public void revalidationRefreshesHeaders() {
+        final CachedHttpResponse response = cache(new ExecutedMethod(
+                HttpStatus.SC_OK, "Content-Type", "text/html",
+                "ETag", "\"v1\"", "Cache-Control", "max-age=0"));
+
+        final CachedHttpResponse revalidated = response.revalidate(
+                new ExecutedMethod(HttpStatus.SC_NOT_MODIFIED,
+                        "Cache-Control", "max-age=60"));
+
+        assertTrue("Expected fresh response",
+                revalidated.isFresh(System.currentTimeMillis(), -1));
+        assertEquals("Unexpected status", HttpStatus.SC_OK,
+                revalidated.getStatusCode());
+        assertEquals("Unexpected content type", "text/html",
+                revalidated.getHeader("Content-Type"));
+        assertEquals("Unexpected body", "content",
+                new String(revalidated.getBody()));
+    }
+
+    @Test
+    public void matchesVaryingRequestHeaders() {
+        final ExecutedMethod method = new ExecutedMethod(HttpStatus.SC_OK,
+                "Vary", "Accept-Language", "ETag", "\"v1\"");
+        method.setRequestHeader("Accept-Language", "en");
+        final CachedHttpResponse response = cache(method);
+
+        final GetMethod english = new GetMethod("http://localhost/page");
+        english.setRequestHeader("Accept-Language", "en");
+        final GetMethod german = new GetMethod("http://localhost/page");
+        german.setRequestHeader("Accept-Language", "de");
+
+        assertTrue("Expected matching request", response.matches(english));
+        assertFalse("Expected not matching request", response.matches(german));
+        assertNull("Unexpected header", response.getHeader("Expires"));
+    }
+
+    private static CachedHttpResponse cache(final ExecutedMethod method) {
+        return CachedHttpResponse.fromMethod(KEY, method, BODY);
+    }
+
+    /**
+     * GET method pretending to have been executed with specified response.
+     */
+    private static final class ExecutedMethod extends GetMethod {
+
+        private final int statusCode;
+
+        ExecutedMethod(final int statusCode, final String... headers) {
+            super("http://localhost/page");
+            this.statusCode = statusCode;
+            for (int i = 0; i < headers.length; i += 2) {
+                getResponseHeaderGroup().addHeader(
+                        new Header(headers[i], headers[i + 1]));
+            }
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public String getStatusText() {
+            return HttpStatus.getStatusText(statusCode);
+        }
+    }
+
+}
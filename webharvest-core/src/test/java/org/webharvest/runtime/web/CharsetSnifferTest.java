@@ -0,0 +1,45 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class CharsetSnifferTest {
+
+    @Test
+    public void findsMetaCharset() throws Exception {
+        assertEquals("windows-1250", CharsetSniffer.sniff(bytes("<html><head>"
+                + "<META HTTP-EQUIV='Content-Type' "
+                + "content='text/html; charset=windows-1250'/>")));
+    }
+
+    @Test
+    public void skipsNonAsciiBytes() throws Exception {
+        assertEquals("UTF-8", CharsetSniffer.sniff(bytes("<title>žuć"
+                + "</title><meta http-equiv=\"content-type\" "
+                + "content=\"text/html;charset=UTF-8\">")));
+    }
+
+    @Test
+    public void ignoresUnknownCharset() throws Exception {
+        assertNull(CharsetSniffer.sniff(bytes("<meta http-equiv='content-type'"
+                + " content='text/html; charset=no such'>")));
+    }
+
+    @Test
+    public void scansOnlyDocumentHead() throws Exception {
+        final char[] padding = new char[CharsetSniffer.SNIFF_LENGTH];
+        Arrays.fill(padding, ' ');
+        assertNull(CharsetSniffer.sniff(bytes(new String(padding)
+                + "<meta http-equiv='content-type' "
+                + "content='text/html; charset=UTF-8'>")));
+    }
+
+    private static byte[] bytes(final String text) throws Exception {
+        return text.getBytes("UTF-8");
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
+import org.testng.annotations.Test;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+
+public class ConnectionPoolSettingsTest {
+
+    private static final int MAX_PER_HOST = 8;
+    private static final int MAX_TOTAL = 64;
+
+    @Test
+    public void noPoolUsesSingleConnection() {
+        assertTrue("Unexpected connection manager",
+                ConnectionPoolSettings.NO_POOL_SET.getConnectionManager()
+                    instanceof SimpleHttpConnectionManager);
+    }
+
+    @Test
+    public void appliesPoolLimits() {
+        final HttpConnectionManager manager =
+            new ConnectionPoolSettings.Builder()
+                .setMaxConnectionsPerHost(MAX_PER_HOST)
+                .setMaxTotalConnections(MAX_TOTAL)
+                .setStaleCheckingEnabled(false)
+                .build()
+                .getConnectionManager();
+
+        assertTrue("Unexpected connection manager",
+                manager instanceof MultiThreadedHttpConnectionManager);
+        assertEquals("Unexpected max connections per host", MAX_PER_HOST,
+                manager.getParams().getDefaultMaxConnectionsPerHost());
+        assertEquals("Unexpected max total connections", MAX_TOTAL,
+                manager.getParams().getMaxTotalConnections());
+        assertFalse("Expected stale checking to be disabled",
+                manager.getParams().isStaleCheckingEnabled());
+    }
+
+    @Test
+    public void createsSeparatePoolsWhenNotShared() {
+        final ConnectionPoolSettings settings =
+            new ConnectionPoolSettings.Builder().build();
+        assertNotSame("Expected separate pools",
+                settings.getConnectionManager(),
+                settings.getConnectionManager());
+    }
+
+    @Test
+    public void sharesPoolAcrossClientManagers() {
+        final ConnectionPoolSettings settings =
+            new ConnectionPoolSettings.Builder().setShared(true).build();
+        assertSame("Expected shared pool",
+                new HttpClientManager(ProxySettings.NO_PROXY_SET, settings)
+                    .getHttpClient().getHttpConnectionManager(),
+                new HttpClientManager(ProxySettings.NO_PROXY_SET, settings)
+                    .getHttpClient().getHttpConnectionManager());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void builderDisallowsNonPositiveHostLimit() {
+        new ConnectionPoolSettings.Builder().setMaxConnectionsPerHost(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void builderDisallowsNonPositiveTotalLimit() {
+        new ConnectionPoolSettings.Builder().setMaxTotalConnections(0);
+    }
+}
@@ -0,0 +1,76 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+public class ContentEncodingTest {
+
+    private static final String CONTENT =
+        "<html><body>Web-Harvest compressed content</body></html>";
+
+    @Test
+    public void decodesGzip() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(CONTENT.getBytes());
+        out.close();
+
+        assertEquals("Unexpected content", CONTENT,
+                decode(buffer.toByteArray(), "gzip"));
+        assertEquals("Unexpected content", CONTENT,
+                decode(buffer.toByteArray(), "X-GZIP"));
+    }
+
+    @Test
+    public void decodesZlibDeflate() throws IOException {
+        assertEquals("Unexpected content", CONTENT,
+                decode(deflate(false), "deflate"));
+    }
+
+    @Test
+    public void decodesRawDeflate() throws IOException {
+        assertEquals("Unexpected content", CONTENT,
+                decode(deflate(true), "deflate"));
+    }
+
+    @Test
+    public void leavesEmptyBody() throws IOException {
+        assertEquals("Unexpected content", "", decode(new byte[0], "gzip"));
+    }
+
+    @Test
+    public void leavesUnknownEncoding() throws IOException {
+        final InputStream in = new ByteArrayInputStream(CONTENT.getBytes());
+
+        assertSame("Unexpected stream", in, ContentEncoding.decode(in, null));
+        assertSame("Unexpected stream", in,
+                ContentEncoding.decode(in, "identity"));
+    }
+
+    private static byte[] deflate(final boolean raw) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DeflaterOutputStream out = new DeflaterOutputStream(buffer,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        out.write(CONTENT.getBytes());
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static String decode(final byte[] body, final String encoding)
+            throws IOException {
+        return IOUtils.toString(ContentEncoding.decode(
+                new ByteArrayInputStream(body), encoding));
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class ContentTypeFilterTest {
+
+    @Test
+    public void acceptsListedTypes() {
+        final ContentTypeFilter filter =
+            ContentTypeFilter.parse("text/html, application/xhtml+xml,image/*");
+
+        assertTrue(filter.accepts("text/html"));
+        assertTrue(filter.accepts("Application/XHTML+XML"));
+        assertTrue(filter.accepts("image/png"));
+        assertFalse(filter.accepts("text/plain"));
+        assertFalse(filter.accepts("video/mp4"));
+    }
+
+    @Test
+    public void acceptsUnknownType() {
+        assertTrue(ContentTypeFilter.parse("text/html").accepts(null));
+    }
+
+    @Test
+    public void acceptsAnyTypeByDefault() {
+        assertSame(ContentTypeFilter.ANY, ContentTypeFilter.parse(null));
+        assertSame(ContentTypeFilter.ANY, ContentTypeFilter.parse(" "));
+        assertSame(ContentTypeFilter.ANY, ContentTypeFilter.parse("text/html, */*"));
+        assertTrue(ContentTypeFilter.ANY.accepts("video/mp4"));
+    }
+
+}
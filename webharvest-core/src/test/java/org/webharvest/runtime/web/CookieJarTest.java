@@ -0,0 +1,91 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.util.Date;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.testng.annotations.Test;
+
+public class CookieJarTest {
+
+    private static final Date FUTURE =
+        new Date(System.currentTimeMillis() + 60000);
+
+    private static final Date PAST =
+        new Date(System.currentTimeMillis() - 60000);
+
+    @Test
+    public void returnsCookiesOfHostAndParentDomains() {
+        final CookieJar jar = new CookieJar();
+        jar.addCookie(new Cookie("www.example.com", "host", "1", "/", FUTURE, false));
+        jar.addCookie(new Cookie(".example.com", "domain", "2", "/", FUTURE, false));
+        jar.addCookie(new Cookie("other.com", "other", "3", "/", FUTURE, false));
+        jar.addCookie(new Cookie("shop.example.com", "sibling", "4", "/", FUTURE, false));
+
+        assertEquals(2, jar.getCookies("WWW.example.com").length);
+        assertEquals(1, jar.getCookies("example.com").length);
+        assertEquals(4, jar.getCookies().length);
+    }
+
+    @Test
+    public void replacesCookieWithTheSameName() {
+        final CookieJar jar = new CookieJar();
+        jar.addCookie(new Cookie("example.com", "session", "1", "/", FUTURE, false));
+        jar.addCookie(new Cookie("example.com", "session", "2", "/", FUTURE, false));
+
+        assertEquals(1, jar.getCookies().length);
+        assertEquals("2", jar.getCookies()[0].getValue());
+    }
+
+    @Test
+    public void expiredCookieDeletesTheStoredOne() {
+        final CookieJar jar = new CookieJar();
+        jar.addCookie(new Cookie("example.com", "session", "1", "/", FUTURE, false));
+        jar.addCookie(new Cookie("example.com", "session", "", "/", PAST, false));
+
+        assertEquals(0, jar.getCookies().length);
+    }
+
+    @Test
+    public void givesExpirationDateToSessionCookie() {
+        final CookieJar jar = new CookieJar();
+        jar.addCookie(new Cookie("example.com", "session", "1", "/", null, false));
+
+        assertNotNull(jar.getCookies()[0].getExpiryDate());
+    }
+
+    @Test
+    public void removesCookieExpiredSinceItWasAdded() {
+        final CookieJar jar = new CookieJar();
+        final Cookie cookie =
+            new Cookie("example.com", "session", "1", "/", FUTURE, false);
+        jar.addCookie(cookie);
+        cookie.setExpiryDate(PAST);
+
+        assertEquals(0, jar.getCookies("example.com").length);
+        assertEquals(0, jar.getCookies().length);
+    }
+
+    @Test
+    public void hostStateSharesCookiesAndCredentials() {
+        final CookieJar jar = new CookieJar();
+        final UsernamePasswordCredentials credentials =
+            new UsernamePasswordCredentials("user", "secret");
+        jar.setCredentials(AuthScope.ANY, credentials);
+        jar.addCookie(new Cookie("other.com", "other", "1", "/", FUTURE, false));
+
+        final HttpState state = jar.forHost("www.example.com");
+        state.addCookie(new Cookie("example.com", "session", "2", "/", FUTURE, false));
+
+        assertEquals(1, state.getCookies().length);
+        assertEquals(2, jar.getCookies().length);
+        assertSame(credentials, state.getCredentials(AuthScope.ANY));
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DiskHttpResponseCacheTest {
+
+    private static final long MAX_SIZE = 16 * 1024;
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = File.createTempFile("httpcache", "");
+        directory.delete();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+        directory = null;
+    }
+
+    @Test
+    public void storesResponses() {
+        final DiskHttpResponseCache cache =
+            new DiskHttpResponseCache(directory, MAX_SIZE);
+
+        cache.put(response("GET http://localhost/a", 100));
+
+        final CachedHttpResponse cached = cache.get("GET http://localhost/a");
+        assertNotNull("Expected cached response", cached);
+        assertEquals("Unexpected body length", 100, cached.getBody().length);
+        assertEquals("Unexpected ETag", "\"v1\"", cached.getHeader("ETag"));
+        assertNull("Unexpected cached response",
+                cache.get("GET http://localhost/b"));
+    }
+
+    @Test
+    public void keepsResponsesBetweenInstances() {
+        new DiskHttpResponseCache(directory, MAX_SIZE).put(
+                response("GET http://localhost/a", 100));
+
+        final DiskHttpResponseCache cache =
+            new DiskHttpResponseCache(directory, MAX_SIZE);
+
+        assertNotNull("Expected cached response",
+                cache.get("GET http://localhost/a"));
+        assertEquals("Unexpected cache size",
+                directory.listFiles()[0].length(),
+                cache.getSize());
+    }
+
+    @Test
+    public void keepsVaryValuesBetweenInstances() {
+        final GetMethod request = new GetMethod("http://localhost/");
+        request.setRequestHeader("Accept-Language", "en");
+        final GetMethod method = method(request, new Header("Vary",
+                "Accept-Language"));
+        new DiskHttpResponseCache(directory, MAX_SIZE).put(
+                CachedHttpResponse.fromMethod("GET http://localhost/a",
+                        method, new byte[10]));
+
+        final CachedHttpResponse cached = new DiskHttpResponseCache(
+                directory, MAX_SIZE).get("GET http://localhost/a");
+
+        assertTrue("Expected matching request", cached.matches(request));
+        request.setRequestHeader("Accept-Language", "de");
+        assertFalse("Unexpected matching request", cached.matches(request));
+    }
+
+    @Test
+    public void discardsUnreadableResponses() throws Exception {
+        final DiskHttpResponseCache cache =
+            new DiskHttpResponseCache(directory, MAX_SIZE);
+        cache.put(response("GET http://localhost/a", 100));
+        FileUtils.writeStringToFile(directory.listFiles()[0], "garbage");
+
+        assertNull("Unexpected cached response",
+                cache.get("GET http://localhost/a"));
+        assertEquals("Unexpected cache size", 0, cache.getSize());
+        assertEquals("Unexpected cache files", 0, directory.list().length);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedResponses() {
+        final DiskHttpResponseCache cache =
+            new DiskHttpResponseCache(directory, MAX_SIZE);
+
+        cache.put(response("GET http://localhost/a", 6000));
+        cache.put(response("GET http://localhost/b", 6000));
+        cache.get("GET http://localhost/a");
+        cache.put(response("GET http://localhost/c", 6000));
+
+        assertNotNull("Expected cached response",
+                cache.get("GET http://localhost/a"));
+        assertNull("Expected evicted response",
+                cache.get("GET http://localhost/b"));
+        assertNotNull("Expected cached response",
+                cache.get("GET http://localhost/c"));
+    }
+
+    @Test
+    public void skipsResponsesLargerThanCache() {
+        final DiskHttpResponseCache cache =
+            new DiskHttpResponseCache(directory, MAX_SIZE);
+
+        cache.put(response("GET http://localhost/a", (int) MAX_SIZE));
+
+        assertNull("Unexpected cached response",
+                cache.get("GET http://localhost/a"));
+        assertEquals("Unexpected cache size", 0, cache.getSize());
+    }
+
+    @Test
+    public void removesResponses() {
+        final DiskHttpResponseCache cache =
+            new DiskHttpResponseCache(directory, MAX_SIZE);
+        cache.put(response("GET http://localhost/a", 100));
+
+        cache.remove("GET http://localhost/a");
+
+        assertNull("Unexpected cached response",
+                cache.get("GET http://localhost/a"));
+        assertEquals("Unexpected cache size", 0, cache.getSize());
+    }
+
+    private static CachedHttpResponse response(final String key,
+            final int length) {
+        return CachedHttpResponse.fromMethod(key,
+                method(new GetMethod("http://localhost/")), new byte[length]);
+    }
+
+    private static GetMethod method(final GetMethod request,
+            final Header... headers) {
+        final GetMethod method = new GetMethod("http://localhost/") {
+            {
+                getResponseHeaderGroup().addHeader(new Header("ETag", "\"v1\""));
+                for (Header header : headers) {
+                    getResponseHeaderGroup().addHeader(header);
+                }
+            }
+
+            @Override
+            public Header getRequestHeader(final String name) {
+                return request.getRequestHeader(name);
+            }
+
+            @Override
+            public int getStatusCode() {
+                return HttpStatus.SC_OK;
+            }
+
+            @Override
+            public String getStatusText() {
+                return "OK";
+            }
+        };
+        return method;
+    }
+
+}
@@ -0,0 +1,277 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.webharvest.runtime.variables.FileVariable;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class FileDownloadTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    private final byte[] content = new byte[3 * 1024 * 1024 + 123];
+
+    private final List<String> ranges =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    private HttpServer server;
+
+    private String url;
+
+    private File file;
+
+    // number of bytes sent before the first response is broken
+    private volatile int breakAfter = -1;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        ranges.clear();
+        breakAfter = -1;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new RangeHandler());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data";
+        file = File.createTempFile("download", ".bin");
+        file.delete();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop(0);
+        file.delete();
+        new File(file.getPath() + ".part").delete();
+        new File(file.getPath() + ".part.properties").delete();
+    }
+
+    @Test
+    public void downloadsWholeContent() throws Exception {
+        final FileVariable result = new FileDownload(file, requester())
+            .download();
+
+        assertContent(result);
+        assertEquals(Collections.singletonList(null), ranges);
+        assertFalse(new File(file.getPath() + ".part.properties").exists());
+    }
+
+    @Test
+    public void downloadsSegmentsInParallel() throws Exception {
+        final FileVariable result = new FileDownload(file, requester())
+            .setSegments(3).download();
+
+        assertContent(result);
+        assertEquals(4, ranges.size());
+        assertTrue(ranges.contains("bytes=0-0"));
+        assertTrue(ranges.contains("bytes=0-1048616"));
+        assertTrue(ranges.contains("bytes=1048617-2097233"));
+        assertTrue(ranges.contains("bytes=2097234-3145850"));
+    }
+
+    @Test
+    public void resumesBrokenTransfer() throws Exception {
+        breakAfter = 1000000;
+        final FileVariable result = new FileDownload(file, requester())
+            .setRetryAttempts(1).download();
+
+        assertContent(result);
+        assertEquals(2, ranges.size());
+        assertEquals("bytes=1000000-3145850", ranges.get(1));
+    }
+
+    @Test
+    public void resumesPreviousDownload() throws Exception {
+        breakAfter = 1000000;
+        try {
+            new FileDownload(file, requester()).download();
+        } catch (IOException e) {
+            // download is left for the next attempt
+        }
+        assertFalse(file.exists());
+        assertTrue(new File(file.getPath() + ".part.properties").exists());
+
+        final FileVariable result = new FileDownload(file, requester())
+            .download();
+
+        assertContent(result);
+        assertEquals("bytes=1000000-3145850", ranges.get(1));
+    }
+
+    @Test
+    public void restartsChangedContent() throws Exception {
+        FileUtils.writeByteArrayToFile(new File(file.getPath() + ".part"),
+                new byte[100]);
+        final OutputStream state = new FileOutputStream(file.getPath()
+                + ".part.properties");
+        state.write(("validator=\"v0\"\nlength=" + content.length
+                + "\nsegments=1\nsegment.0=0 " + content.length + " 100\n")
+                .getBytes("ISO-8859-1"));
+        state.close();
+
+        final FileVariable result = new FileDownload(file, requester())
+            .download();
+
+        assertContent(result);
+        assertEquals("bytes=100-3145850", ranges.get(0));
+        assertEquals(null, ranges.get(1));
+    }
+
+    @Test
+    public void validatesCompletedPreviousDownload() throws Exception {
+        FileUtils.writeByteArrayToFile(new File(file.getPath() + ".part"),
+                content);
+        writeState(ETAG, content.length);
+
+        final FileDownload download = new FileDownload(file, requester());
+        final FileVariable result = download.download();
+
+        assertContent(result);
+        assertEquals(Collections.singletonList("bytes=3145850-3145850"),
+                ranges);
+        assertEquals(206, download.getResponse().getStatusCode());
+    }
+
+    @Test
+    public void restartsCompletedDownloadOfChangedContent() throws Exception {
+        FileUtils.writeByteArrayToFile(new File(file.getPath() + ".part"),
+                new byte[content.length]);
+        writeState("\"v0\"", content.length);
+
+        final FileVariable result = new FileDownload(file, requester())
+            .download();
+
+        assertContent(result);
+        assertEquals(Arrays.asList("bytes=3145850-3145850", null), ranges);
+    }
+
+    @Test
+    public void truncatesContentOverMaxBytes() throws Exception {
+        final FileDownload download = new FileDownload(file, requester())
+            .setSegments(3).setMaxBytes(1000);
+        final FileVariable result = download.download();
+
+        assertTrue(download.isTruncated());
+        assertEquals(1000, result.getSize());
+        assertTrue(Arrays.equals(Arrays.copyOf(content, 1000),
+                FileUtils.readFileToByteArray(file)));
+        // limited download is neither segmented nor resumable
+        assertEquals(Collections.singletonList(null), ranges);
+        assertFalse(new File(file.getPath() + ".part.properties").exists());
+    }
+
+    @Test
+    public void downloadsContentWithinMaxBytes() throws Exception {
+        final FileDownload download = new FileDownload(file, requester())
+            .setMaxBytes(content.length);
+
+        assertContent(download.download());
+        assertFalse(download.isTruncated());
+    }
+
+    private void writeState(String validator, long done) throws IOException {
+        final OutputStream state = new FileOutputStream(file.getPath()
+                + ".part.properties");
+        state.write(("validator=" + validator + "\nlength=" + content.length
+                + "\nsegments=1\nsegment.0=0 " + content.length + " " + done
+                + "\n").getBytes("ISO-8859-1"));
+        state.close();
+    }
+
+    private void assertContent(FileVariable result) throws IOException {
+        assertTrue(file.isFile());
+        assertEquals(content.length, result.getSize());
+        assertEquals(DigestUtils.sha256Hex(content), result.getChecksum());
+        assertTrue(Arrays.equals(content,
+                FileUtils.readFileToByteArray(file)));
+    }
+
+    private FileDownload.Requester requester() {
+        // segments are requested in parallel, so connections are pooled
+        final HttpTransport transport = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET,
+                new ConnectionPoolSettings.Builder()
+                    .setMaxConnectionsPerHost(4).build());
+        return new FileDownload.Requester() {
+            public HttpResponseWrapper execute(Map<String, String> headers)
+                    throws IOException, InterruptedException {
+                return transport.execute("get", true, null, url, "UTF-8",
+                        null, null, null, null, headers, 0, 0, 1,
+                        HttpRequestOptions.DEFAULT);
+            }
+        };
+    }
+
+    private final class RangeHandler implements HttpHandler {
+
+        private final Pattern range = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final String rangeHeader =
+                exchange.getRequestHeaders().getFirst("Range");
+            final String ifRange =
+                exchange.getRequestHeaders().getFirst("If-Range");
+            ranges.add(rangeHeader);
+
+            int start = 0;
+            int end = content.length;
+            int status = 200;
+            final Matcher matcher = rangeHeader != null
+                    ? range.matcher(rangeHeader) : null;
+            if (matcher != null && matcher.matches()
+                    && (ifRange == null || ifRange.equals(ETAG))) {
+                start = Integer.parseInt(matcher.group(1));
+                if (matcher.group(2).length() > 0) {
+                    end = Integer.parseInt(matcher.group(2)) + 1;
+                }
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range", "bytes "
+                        + start + "-" + (end - 1) + "/" + content.length);
+            }
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("Content-Type",
+                    "application/octet-stream");
+            exchange.sendResponseHeaders(status, end - start);
+            final OutputStream out = exchange.getResponseBody();
+            try {
+                if (breakAfter >= 0) {
+                    out.write(content, start, breakAfter);
+                    out.flush();
+                    breakAfter = -1;
+                    // closes the connection in the middle of the body
+                    exchange.close();
+                    return;
+                }
+                out.write(content, start, end - start);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+}
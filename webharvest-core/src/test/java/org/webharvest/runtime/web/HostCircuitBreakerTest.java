@@ -0,0 +1,144 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+import org.webharvest.exception.HttpException;
+import org.webharvest.runtime.web.HostCircuitBreaker.State;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HostCircuitBreakerTest {
+
+    @Test
+    public void neverOpensByDefault() {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(breaker.allowRequest("localhost"));
+            assertNull(breaker.record("localhost", true));
+        }
+        assertEquals(State.CLOSED, breaker.getState("localhost"));
+    }
+
+    @Test
+    public void opensWhenFailureRateIsReached() {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(4, 0.5, 60000);
+
+        assertNull(breaker.record("localhost", true));
+        assertNull(breaker.record("localhost", true));
+        assertNull(breaker.record("localhost", false));
+        assertEquals(State.OPEN, breaker.record("Localhost", false));
+
+        assertFalse(breaker.allowRequest("localhost"));
+        assertEquals(State.OPEN, breaker.getState("LOCALHOST"));
+        assertTrue(breaker.getRetryTime("localhost") > System.currentTimeMillis());
+        assertTrue(breaker.allowRequest("other.host"));
+    }
+
+    @Test
+    public void staysClosedBelowFailureRate() {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(4, 0.5, 60000);
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(breaker.record("localhost", i % 4 == 0));
+        }
+        assertEquals(State.CLOSED, breaker.getState("localhost"));
+    }
+
+    @Test
+    public void letsSingleTrialThroughWhenHalfOpen() {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 1, 0);
+
+        assertEquals(State.OPEN, breaker.record("localhost", true));
+        assertEquals(State.HALF_OPEN, breaker.getState("localhost"));
+        assertTrue(breaker.allowRequest("localhost"));
+        assertEquals(State.OPEN, breaker.record("localhost", true));
+
+        assertTrue(breaker.allowRequest("localhost"));
+        assertEquals(State.CLOSED, breaker.record("localhost", false));
+        assertEquals(State.CLOSED, breaker.getState("localhost"));
+        assertEquals(0, breaker.getRetryTime("localhost"));
+    }
+
+    @Test
+    public void holdsOtherRequestsDuringTrial() {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 1, 100);
+
+        assertEquals(State.OPEN, breaker.record("localhost", true));
+        assertFalse(breaker.allowRequest("localhost"));
+        sleep(150);
+        assertTrue(breaker.allowRequest("localhost"));
+        assertFalse(breaker.allowRequest("localhost"));
+    }
+
+    @Test
+    public void failsFastForHostWhichIsDown() throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            final HostCircuitBreaker breaker =
+                new HostCircuitBreaker(2, 1, 60000);
+            final HttpClientManager manager = new HttpClientManager(
+                    ProxySettings.NO_PROXY_SET,
+                    ConnectionPoolSettings.NO_POOL_SET,
+                    HttpResponseCache.NO_CACHE, new HostRateLimiter(),
+                    new PermanentRedirects(), new SessionStore(),
+                    ProxyPool.NO_PROXY_POOL, breaker);
+            final String url = "http://127.0.0.1:"
+                + server.getAddress().getPort() + "/";
+
+            assertCircuitOpen(manager, url);
+            assertEquals(2, requests.get());
+            assertCircuitOpen(manager, url);
+            assertEquals(2, requests.get());
+            assertEquals("OPEN",
+                    manager.getHttpInfo().getCircuitState("127.0.0.1"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private void assertCircuitOpen(HttpClientManager manager, String url)
+            throws IOException {
+        try {
+            manager.execute("get", true, null, url, "UTF-8", null, null,
+                    null, null, null, 10, 1, 5, HttpRequestOptions.DEFAULT);
+            fail("Expected open circuit");
+        } catch (HttpException e) {
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Circuit breaker is open"));
+        } catch (InterruptedException e) {
+            fail("Interrupted");
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
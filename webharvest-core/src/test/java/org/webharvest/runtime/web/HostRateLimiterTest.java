@@ -0,0 +1,82 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class HostRateLimiterTest {
+
+    @Test
+    public void doesNotWaitWithoutLimit() throws InterruptedException {
+        final HostRateLimiter limiter = new HostRateLimiter();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Unexpected wait", 0, limiter.acquire("localhost"));
+        }
+    }
+
+    @Test
+    public void spreadsRequestsOverTime() throws InterruptedException {
+        final HostRateLimiter limiter = new HostRateLimiter(20, 2);
+
+        assertEquals("Unexpected wait", 0, limiter.acquire("localhost"));
+        assertEquals("Unexpected wait", 0, limiter.acquire("localhost"));
+        final long waited = limiter.acquire("localhost");
+
+        assertTrue("Expected wait for next token: " + waited,
+                waited > 0 && waited <= 50);
+    }
+
+    @Test
+    public void limitsHostsSeparately() throws InterruptedException {
+        final HostRateLimiter limiter = new HostRateLimiter(1, 1);
+
+        assertEquals("Unexpected wait", 0, limiter.acquire("first.host"));
+        assertEquals("Unexpected wait", 0, limiter.acquire("second.host"));
+        assertEquals("Unexpected wait", 0, limiter.acquire("Third.Host"));
+    }
+
+    @Test
+    public void appliesRateOfRequest() throws InterruptedException {
+        final HostRateLimiter limiter = new HostRateLimiter();
+
+        limiter.acquire("localhost", 20);
+        final long waited = limiter.acquire("localhost", 20);
+
+        assertTrue("Expected wait for next token: " + waited,
+                waited > 0 && waited <= 50);
+    }
+
+    @Test
+    public void holdsBackBlockedHost() throws InterruptedException {
+        final HostRateLimiter limiter = new HostRateLimiter();
+
+        limiter.blockUntil("localhost", System.currentTimeMillis() + 100);
+
+        assertTrue("Expected wait for blocked host",
+                limiter.acquire("localhost") > 0);
+        assertEquals("Unexpected wait", 0, limiter.acquire("other.host"));
+    }
+
+    @Test
+    public void reportsDelayWithoutReservingToken()
+            throws InterruptedException {
+        final HostRateLimiter limiter = new HostRateLimiter(1, 1);
+
+        assertEquals(0, limiter.getDelay("localhost", 1));
+        assertEquals(0, limiter.getDelay("localhost", 1));
+        assertEquals("Unexpected wait", 0, limiter.acquire("localhost"));
+
+        final long delay = limiter.getDelay("localhost", 1);
+        assertTrue("Expected delay of next token: " + delay,
+                delay > 0 && delay <= 1000);
+        assertEquals(0, limiter.getDelay("other.host", 1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsNegativeRate() {
+        new HostRateLimiter(-1, 1);
+    }
+
+}
@@ -0,0 +1,259 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.webharvest.exception.HttpException;
+import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.Variable;
+
+public class HttpArchiveTest {
+
+    private File file;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+        file = File.createTempFile("archive", ".whar");
+        file.delete();
+    }
+
+    @AfterMethod
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void replaysRecordedResponsesInOrder() throws IOException {
+        final HttpArchive recording = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        recording.record(response("GET http://a.com/", "first"));
+        recording.record(response("GET http://b.com/", "other"));
+        recording.record(response("GET http://a.com/", "second"));
+        recording.close();
+
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        assertEquals(3, replaying.size());
+        assertEquals("first", body(replaying.replay("GET http://a.com/")));
+        assertEquals("second", body(replaying.replay("GET http://a.com/")));
+        assertEquals("second", body(replaying.replay("GET http://a.com/")));
+        assertEquals("other", body(replaying.replay("GET http://b.com/")));
+        assertNull(replaying.replay("GET http://c.com/"));
+        replaying.close();
+    }
+
+    @Test
+    public void keepsHeadersAndStatus() throws IOException {
+        final HttpArchive recording = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        recording.record(response("GET http://a.com/", "body"));
+        recording.close();
+
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        final CachedHttpResponse response = replaying.replay("GET http://a.com/");
+        assertEquals(404, response.getStatusCode());
+        assertEquals("Not Found", response.getStatusText());
+        assertEquals("UTF-8", response.getCharset());
+        assertEquals("text/plain; charset=UTF-8", response.getHeader("Content-Type"));
+        replaying.close();
+    }
+
+    @Test
+    public void ignoresIncompleteRecord() throws IOException {
+        final HttpArchive recording = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        recording.record(response("GET http://a.com/", "complete"));
+        recording.record(response("GET http://b.com/", "incomplete"));
+        recording.close();
+        final RandomAccessFile data = new RandomAccessFile(file, "rw");
+        data.setLength(data.length() - 3);
+        data.close();
+
+        final HttpArchive appending = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        assertEquals(1, appending.size());
+        appending.record(response("GET http://c.com/", "appended"));
+        appending.close();
+
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        assertEquals(2, replaying.size());
+        assertEquals("appended", body(replaying.replay("GET http://c.com/")));
+        replaying.close();
+    }
+
+    @Test
+    public void replaysWithoutNetwork() throws Exception {
+        final HttpArchive recording = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        final ArchivingHttpTransport recorder =
+            new ArchivingHttpTransport(new StubTransport(true), recording);
+        assertEquals("body of GET http://a.com/?q=1",
+                read(recorder.execute("get", true, null, "a.com/?q=1",
+                        "UTF-8", null, null, null, null, null, 0, 0, 1,
+                        HttpRequestOptions.DEFAULT)));
+        recording.close();
+
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        final ArchivingHttpTransport replayer =
+            new ArchivingHttpTransport(new StubTransport(false), replaying);
+        final HttpResponseWrapper replayed = replayer.execute("get", true,
+                null, "http://a.com/?q=1", "UTF-8", null, null, null, null,
+                null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        assertEquals("body of GET http://a.com/?q=1", read(replayed));
+        assertEquals(1, replayer.getHttpInfo().totalResponses);
+        replaying.close();
+    }
+
+    @Test(expectedExceptions = HttpException.class)
+    public void failsToReplayUnknownRequest() throws Exception {
+        new HttpArchive(file, HttpArchive.Mode.RECORD).close();
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        try {
+            new ArchivingHttpTransport(new StubTransport(false), replaying).execute(
+                    "post", true, null, "http://a.com/", "UTF-8", null, null,
+                    new NodeVariable("body"), null, null, 0, 0, 1,
+                    HttpRequestOptions.DEFAULT);
+        } finally {
+            replaying.close();
+        }
+    }
+
+    @Test
+    public void distinguishesRequestsByBody() throws Exception {
+        final String first = ArchivingHttpTransport.getRequestKey("post",
+                "http://a.com/", "UTF-8", new NodeVariable("1"), null, null);
+        final String second = ArchivingHttpTransport.getRequestKey("post",
+                "http://a.com/", "UTF-8", new NodeVariable("2"), null, null);
+
+        assertEquals("GET http://a.com/", ArchivingHttpTransport.getRequestKey(
+                "get", "a.com/", "UTF-8", null, null, null));
+        assertEquals(false, first.equals(second));
+    }
+
+    @Test
+    public void distinguishesRequestsByRange() throws Exception {
+        final String key = ArchivingHttpTransport.getRequestKey("get",
+                "http://a.com/", "UTF-8", null, null,
+                Collections.singletonMap("Accept", "text/html"));
+        final String ranged = ArchivingHttpTransport.getRequestKey("get",
+                "http://a.com/", "UTF-8", null, null,
+                Collections.singletonMap("range", "bytes=10-"));
+
+        assertEquals("GET http://a.com/", key);
+        assertEquals("GET http://a.com/ [bytes=10-]", ranged);
+    }
+
+    @Test
+    public void recordsPartOfBodyWhichHasBeenRead() throws Exception {
+        final HttpArchive recording = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        final HttpResponseWrapper recorded = new ArchivingHttpTransport(
+                new StubTransport(true), recording).execute("get", true, null,
+                "http://a.com/", "UTF-8", null, null, null, null, null, 0, 0,
+                1, HttpRequestOptions.DEFAULT);
+        assertEquals("body", read(recorded, 4));
+        assertTrue(recorded.isTruncated());
+        recording.close();
+
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        final HttpResponseWrapper replayed = new ArchivingHttpTransport(
+                new StubTransport(false), replaying).execute("get", true,
+                null, "http://a.com/", "UTF-8", null, null, null, null, null,
+                0, 0, 1, HttpRequestOptions.DEFAULT);
+        assertEquals("body", read(replayed, 4));
+        assertTrue(replayed.isTruncated());
+        // only the part read when recording is in the archive
+        assertEquals("body ", body(replaying.replay("GET http://a.com/")));
+        replaying.close();
+    }
+
+    @Test
+    public void keepsLongKeys() throws IOException {
+        final String key = "GET http://a.com/?q=" + StringUtils.repeat("x", 70000);
+        final HttpArchive recording = new HttpArchive(file, HttpArchive.Mode.RECORD);
+        recording.record(response(key, "long"));
+        recording.close();
+
+        final HttpArchive replaying = new HttpArchive(file, HttpArchive.Mode.REPLAY);
+        assertEquals("long", body(replaying.replay(key)));
+        replaying.close();
+    }
+
+    private static CachedHttpResponse response(String key, String body)
+            throws IOException {
+        return CachedHttpResponse.create(key, 404, "Not Found", "UTF-8",
+                new String[] {"Content-Type"},
+                new String[] {"text/plain; charset=UTF-8"},
+                body.getBytes("UTF-8"), System.currentTimeMillis());
+    }
+
+    private static String body(CachedHttpResponse response) throws IOException {
+        return new String(response.getBody(), "UTF-8");
+    }
+
+    private static String read(HttpResponseWrapper response, long maxBytes)
+            throws IOException {
+        try {
+            return new String(response.readBodyAsArray(maxBytes), "UTF-8");
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String read(HttpResponseWrapper response) throws IOException {
+        try {
+            return new String(response.readBodyAsArray(), "UTF-8");
+        } finally {
+            response.close();
+        }
+    }
+
+    private static final class StubTransport implements HttpTransport {
+
+        private final HttpInfo httpInfo = new HttpInfo(null);
+
+        private final boolean online;
+
+        StubTransport(boolean online) {
+            this.online = online;
+        }
+
+        @Override
+        public void setCookiePolicy(String cookiePolicy) {
+        }
+
+        @Override
+        public HttpResponseWrapper execute(String methodType,
+                Boolean followRedirects, String contentType, String url,
+                String charset, String username, String password,
+                Variable bodyContent, Map<String, HttpParamInfo> params,
+                Map<String, String> headers, int retryAttempts, long retryDelay,
+                double retryDelayFactor, HttpRequestOptions options)
+                throws UnsupportedEncodingException {
+            if (!online) {
+                throw new IllegalStateException("Network is not available");
+            }
+            final String key = ArchivingHttpTransport.getRequestKey(
+                    methodType, url, charset, bodyContent, params, headers);
+            return new HttpResponseWrapper(CachedHttpResponse.create(key,
+                    200, "OK", "UTF-8", new String[0], new String[0],
+                    ("body of " + key).getBytes("UTF-8"), 0));
+        }
+
+        @Override
+        public boolean supportsConcurrentRequests() {
+            return false;
+        }
+
+        @Override
+        public HttpInfo getHttpInfo() {
+            return httpInfo;
+        }
+    }
+
+}
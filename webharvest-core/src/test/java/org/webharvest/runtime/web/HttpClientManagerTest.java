@@ -1,25 +1,43 @@
 package org.webharvest.runtime.web;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.FileUtils;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import org.webharvest.exception.HttpException;
 import org.webharvest.runtime.variables.NodeVariable;
 import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class HttpClientManagerTest {
 
     private static final String CHARSET = "utf-8";
 
     private HttpClientManager manager;
 
+    private HttpServer server;
+
     @BeforeMethod
     public void setUp() {
         this.manager = new HttpClientManager(ProxySettings.NO_PROXY_SET);
@@ -28,12 +46,16 @@ public class HttpClientManagerTest {
     @AfterMethod
     public void tearDown() {
         this.manager = null;
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
     }
 
     @Test
     public void createGetMethodNoHttpParams() throws URIException {
         final GetMethod get = manager.createGetMethod("http://sourceforge.net/",
-                new HashMap<String, HttpParamInfo>(), CHARSET, false);
+                new HashMap<String, HttpParamInfo>(), CHARSET);
 
         assertEquals("Unexpected URI created",
                 "http://sourceforge.net/", get.getURI().getURI());
@@ -49,10 +71,105 @@ public class HttpClientManagerTest {
                 new NodeVariable("param2Value")));
 
         final GetMethod get = manager.createGetMethod("http://sourceforge.net/",
-                params, CHARSET, false);
+                params, CHARSET);
 
         assertEquals("Unexpected URI created",
                 "http://sourceforge.net/?param1=param1Value&param2=param2Value",
                 get.getURI().getURI());
     }
+
+    @Test(timeOut = 10000)
+    public void releasesConnectionOfRetriedResponse() throws Exception {
+        final String url = startServer(3);
+        final HttpClientManager pooled = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET, new ConnectionPoolSettings.Builder()
+                    .setMaxConnectionsPerHost(1).setAcquireTimeout(2000).build());
+
+        final HttpResponseWrapper response = get(pooled, url, 4);
+        try {
+            assertEquals(200, response.getStatusCode());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void failsWhenPoolStaysFull() throws Exception {
+        final String url = startServer(0);
+        final HttpClientManager pooled = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET, new ConnectionPoolSettings.Builder()
+                    .setMaxConnectionsPerHost(1).setAcquireTimeout(100).build());
+
+        final HttpResponseWrapper unread = get(pooled, url, 0);
+        try {
+            get(pooled, url, 0);
+            fail("HttpException expected");
+        } catch (HttpException e) {
+            // connection held by the unread response is not available
+        } finally {
+            unread.close();
+        }
+        get(pooled, url, 0).close();
+    }
+
+    @Test(timeOut = 10000)
+    public void neverServesRangeRequestFromCache() throws Exception {
+        final String url = startServer(0);
+        final File directory = File.createTempFile("httpcache", "");
+        directory.delete();
+        try {
+            final HttpClientManager caching = new HttpClientManager(
+                    ProxySettings.NO_PROXY_SET, ConnectionPoolSettings.NO_POOL_SET,
+                    new DiskHttpResponseCache(directory, 1024 * 1024),
+                    new HostRateLimiter(), new PermanentRedirects());
+            final HttpRequestOptions options = new HttpRequestOptions.Builder()
+                    .setCacheEnabled(true).setCacheMaxAge(60).build();
+
+            caching.execute("get", false, null, url, CHARSET, null, null, null,
+                    null, null, 0, 0, 1, options).close();
+            final HttpResponseWrapper cached = caching.execute("get", false,
+                    null, url, CHARSET, null, null, null, null, null, 0, 0, 1,
+                    options);
+            assertTrue(cached.isFromCache());
+
+            final HttpResponseWrapper range = caching.execute("get", false,
+                    null, url, CHARSET, null, null, null, null,
+                    Collections.singletonMap("Range", "bytes=0-0"), 0, 0, 1,
+                    options);
+            try {
+                assertFalse(range.isFromCache());
+            } finally {
+                range.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static HttpResponseWrapper get(HttpClientManager manager,
+            String url, int retryAttempts) throws Exception {
+        return manager.execute("get", false, null, url, CHARSET, null, null,
+                null, null, null, retryAttempts, 0, 1, HttpRequestOptions.DEFAULT);
+    }
+
+    /**
+     * Starts server which answers first specified number of requests with
+     * 503 Service Unavailable.
+     */
+    private String startServer(final int failures) throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = "body".getBytes("UTF-8");
+                exchange.sendResponseHeaders(requests.incrementAndGet() > failures
+                        ? 200 : 503, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
 }
@@ -0,0 +1,307 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.webharvest.runtime.variables.FileVariable;
+import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+import org.webharvest.utils.KeyValuePair;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the same requests against local server with every transport.
+ */
+public class HttpTransportTest {
+
+    private static final String CHARSET = "UTF-8";
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new TestHandler());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @DataProvider(name = "transports")
+    public Object[][] transports() {
+        return new Object[][] {
+            {new HttpClientManager(ProxySettings.NO_PROXY_SET)}
+        };
+    }
+
+    @Test(dataProvider = "transports")
+    public void sendsQueryParams(HttpTransport transport) throws Exception {
+        final Map<String, HttpParamInfo> params =
+            new LinkedHashMap<String, HttpParamInfo>();
+        params.put("q", new HttpParamInfo("q", false, null, null,
+                new NodeVariable("a b")));
+
+        assertEquals("GET /echo?q=a+b ",
+                get(transport, "/echo", params));
+    }
+
+    @Test(dataProvider = "transports")
+    public void postsForm(HttpTransport transport) throws Exception {
+        final Map<String, HttpParamInfo> params =
+            new LinkedHashMap<String, HttpParamInfo>();
+        params.put("name", new HttpParamInfo("name", false, null, null,
+                new NodeVariable("x&y")));
+
+        final HttpResponseWrapper response = transport.execute("post",
+                true, "application/x-www-form-urlencoded",
+                baseUrl + "/echo", CHARSET, null, null, null, params, null,
+                0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals("POST /echo name=x%26y",
+                    new String(response.readBodyAsArray(), CHARSET));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test(dataProvider = "transports")
+    public void streamsMultipartUpload(HttpTransport transport)
+            throws Exception {
+        final File file = File.createTempFile("upload", ".txt");
+        try {
+            FileUtils.writeStringToFile(file, "file content", CHARSET);
+            final Map<String, HttpParamInfo> params =
+                new LinkedHashMap<String, HttpParamInfo>();
+            params.put("doc", new HttpParamInfo("doc", true, "doc.txt", null,
+                    new FileVariable(file, file.length(), null, null)));
+            params.put("data", new HttpParamInfo("data", true, "data.bin",
+                    null, new StreamVariable(new ByteArrayInputStream(
+                            "stream content".getBytes(CHARSET)), null)));
+
+            final HttpResponseWrapper response = transport.execute("post",
+                    true, "multipart/form-data", baseUrl + "/upload", CHARSET,
+                    null, null, null, params, null, 0, 0, 1,
+                    HttpRequestOptions.DEFAULT);
+            final String body;
+            try {
+                body = new String(response.readBodyAsArray(), CHARSET);
+            } finally {
+                response.close();
+            }
+            assertTrue(body, body.startsWith("chunked "));
+            assertTrue(body, body.contains("filename=\"doc.txt\""));
+            assertTrue(body, body.contains("file content"));
+            assertTrue(body, body.contains("filename=\"data.bin\""));
+            assertTrue(body, body.contains("stream content"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(dataProvider = "transports")
+    public void sendsHeadRequest(HttpTransport transport) throws Exception {
+        final HttpResponseWrapper response = transport.execute("head", true,
+                null, baseUrl + "/head", CHARSET, null, null, null, null,
+                null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertEquals("HEAD", getHeader(response, "X-Method"));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test(dataProvider = "transports")
+    public void truncatesLongBody(HttpTransport transport) throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + "/large", CHARSET, null, null, null, null,
+                null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals(10, response.readBodyAsArray(10).length);
+            assertTrue(response.isTruncated());
+        } finally {
+            response.close();
+        }
+
+        assertEquals("GET /echo ", get(transport, "/echo", null));
+    }
+
+    @Test(dataProvider = "transports")
+    public void followsRedirects(HttpTransport transport) throws Exception {
+        assertEquals("GET /echo ", get(transport, "/redirect/3", null));
+    }
+
+    @Test(dataProvider = "transports")
+    public void decodesCompressedResponse(HttpTransport transport)
+            throws Exception {
+        assertEquals("compressed", get(transport, "/gzip", null));
+    }
+
+    @Test(dataProvider = "transports")
+    public void sendsCookiesBack(HttpTransport transport) throws Exception {
+        transport.setCookiePolicy("browser");
+        get(transport, "/login", null);
+
+        assertEquals("session=42", get(transport, "/cookie", null));
+    }
+
+    @Test(dataProvider = "transports")
+    public void retriesUnavailableServer(HttpTransport transport)
+            throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + "/unavailable/" + transport.hashCode(),
+                CHARSET, null, null, null, null, null, 2, 10, 1,
+                HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals(200, response.getStatusCode());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test(dataProvider = "transports")
+    public void recordsTiming(HttpTransport transport) throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + "/unavailable/timing" + transport.hashCode(),
+                CHARSET, null, null, null, null, null, 2, 10, 1,
+                HttpRequestOptions.DEFAULT);
+        final RequestTiming timing = response.getTiming();
+        try {
+            assertNotNull(timing);
+            assertEquals(1, timing.getRetries());
+            assertEquals(-1, timing.getDownloadTime());
+            response.readBodyAsArray();
+        } finally {
+            response.close();
+        }
+
+        assertTrue(timing.getDownloadTime() >= 0);
+        assertEquals(0, timing.getReceivedLength());
+        final HttpInfo httpInfo = transport.getHttpInfo();
+        assertEquals(1, httpInfo.retries);
+        assertTrue(httpInfo.downloadTime >= 0);
+        final HostStatistics statistics =
+            httpInfo.getHostStatistics("127.0.0.1");
+        assertNotNull(statistics);
+        assertEquals(1, statistics.getRequests());
+        assertEquals(1, statistics.getRetries());
+    }
+
+    private static String getHeader(HttpResponseWrapper response,
+            String name) {
+        for (KeyValuePair<String> header : response.getHeaders()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private String get(HttpTransport transport, String path,
+            Map<String, HttpParamInfo> params) throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + path, CHARSET, null, null, null, params,
+                null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            return new String(response.readBodyAsArray(), CHARSET);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static final class TestHandler implements HttpHandler {
+
+        private final Map<String, Integer> attempts =
+            new LinkedHashMap<String, Integer>();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final String path = exchange.getRequestURI().getPath();
+            final String body = IOUtils.toString(
+                    exchange.getRequestBody(), CHARSET);
+            if (path.startsWith("/redirect/")) {
+                final int hops = Integer.parseInt(path.substring(10));
+                exchange.getResponseHeaders().add("Location",
+                        hops > 1 ? "/redirect/" + (hops - 1) : "/echo");
+                respond(exchange, 302, new byte[0]);
+            } else if (path.equals("/upload")) {
+                respond(exchange, 200, (exchange.getRequestHeaders().getFirst(
+                        "Transfer-Encoding") + " " + body).getBytes(CHARSET));
+            } else if (path.equals("/head")) {
+                exchange.getResponseHeaders().add("X-Method",
+                        exchange.getRequestMethod());
+                respond(exchange, 200, new byte[0]);
+            } else if (path.equals("/large")) {
+                respond(exchange, 200, new byte[1024 * 1024]);
+            } else if (path.equals("/gzip")) {
+                final ByteArrayOutputStream buffer =
+                    new ByteArrayOutputStream();
+                final GZIPOutputStream out = new GZIPOutputStream(buffer);
+                out.write("compressed".getBytes(CHARSET));
+                out.close();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                respond(exchange, 200, buffer.toByteArray());
+            } else if (path.equals("/login")) {
+                exchange.getResponseHeaders().add("Set-Cookie",
+                        "session=42; Path=/");
+                respond(exchange, 200, new byte[0]);
+            } else if (path.equals("/cookie")) {
+                final String cookie =
+                    exchange.getRequestHeaders().getFirst("Cookie");
+                respond(exchange, 200, String.valueOf(cookie).getBytes(CHARSET));
+            } else if (path.startsWith("/unavailable/")) {
+                final Integer count = attempts.get(path);
+                attempts.put(path, count == null ? 1 : count + 1);
+                respond(exchange, count == null ? 503 : 200, new byte[0]);
+            } else {
+                final String query = exchange.getRequestURI().getRawQuery();
+                respond(exchange, 200, (exchange.getRequestMethod() + " "
+                        + path + (query != null ? "?" + query : "") + " "
+                        + body).getBytes(CHARSET));
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, byte[] body)
+                throws IOException {
+            if (body.length == 0) {
+                // closing body stream of response without body would finish
+                // the exchange twice and may reset the kept-alive connection
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class PermanentRedirectsTest {
+
+    @Test
+    public void resolvesUnknownUrlToNull() {
+        assertNull(new PermanentRedirects().resolve("http://a.com/"));
+    }
+
+    @Test
+    public void resolvesChainOfRedirects() {
+        final PermanentRedirects redirects = new PermanentRedirects();
+        redirects.remember("http://a.com/", "http://b.com/");
+        redirects.remember("http://b.com/", "http://c.com/");
+
+        assertEquals("http://c.com/", redirects.resolve("http://a.com/"));
+        assertEquals("http://c.com/", redirects.resolve("http://b.com/"));
+    }
+
+    @Test
+    public void ignoresLoopOfRedirects() {
+        final PermanentRedirects redirects = new PermanentRedirects();
+        redirects.remember("http://a.com/", "http://b.com/");
+        redirects.remember("http://b.com/", "http://a.com/");
+        redirects.remember("http://c.com/", "http://c.com/");
+
+        assertNull(redirects.resolve("http://a.com/"));
+        assertNull(redirects.resolve("http://c.com/"));
+    }
+
+    @Test
+    public void keepsRedirectsInFile() throws IOException {
+        final File file = File.createTempFile("redirects", ".txt");
+        file.delete();
+        try {
+            final PermanentRedirects redirects = new PermanentRedirects(file);
+            redirects.remember("http://a.com/", "http://b.com/");
+            redirects.remember("http://a.com/", "http://b.com/");
+            redirects.remember("http://b.com/", "http://c.com/?q=1");
+
+            final PermanentRedirects loaded = new PermanentRedirects(file);
+            assertEquals(2, loaded.size());
+            assertEquals("http://c.com/?q=1", loaded.resolve("http://a.com/"));
+        } finally {
+            file.delete();
+        }
+    }
+
+}
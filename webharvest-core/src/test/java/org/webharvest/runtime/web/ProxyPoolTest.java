@@ -0,0 +1,249 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.webharvest.exception.HttpException;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ProxyPoolTest {
+
+    private final ProxySettings proxy1 = proxy("proxy1", 8080);
+    private final ProxySettings proxy2 = proxy("proxy2", 8080);
+    private final ProxySettings proxy3 = proxy("proxy3", 8080);
+
+    private final List<HttpServer> servers = new ArrayList<HttpServer>();
+
+    @AfterMethod
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        servers.clear();
+    }
+
+    @Test
+    public void selectsProxiesInTurn() {
+        final ProxyPool pool = pool().build();
+
+        assertSame(proxy1, acquireAndRelease(pool, "a.com"));
+        assertSame(proxy2, acquireAndRelease(pool, "a.com"));
+        assertSame(proxy3, acquireAndRelease(pool, "b.com"));
+        assertSame(proxy1, acquireAndRelease(pool, "a.com"));
+    }
+
+    @Test
+    public void selectsLeastLoadedProxy() {
+        final ProxyPool pool = pool()
+            .setSelection(ProxyPool.Selection.LEAST_LOADED).build();
+
+        assertSame(proxy1, pool.acquire("a.com"));
+        assertSame(proxy2, pool.acquire("a.com"));
+        pool.release(proxy1, false);
+        assertSame(proxy3, pool.acquire("a.com"));
+        assertSame(proxy1, pool.acquire("a.com"));
+    }
+
+    @Test
+    public void ejectsFailingProxy() {
+        final ProxyPool pool = pool().setMaxFailures(2).build();
+
+        pool.release(pool.acquire(null), true);
+        assertFalse(pool.isEjected(proxy1));
+        assertSame(proxy2, acquireAndRelease(pool, null));
+        assertSame(proxy3, acquireAndRelease(pool, null));
+        pool.release(pool.acquire(null), true);
+
+        assertTrue(pool.isEjected(proxy1));
+        assertSame(proxy2, acquireAndRelease(pool, null));
+        assertSame(proxy3, acquireAndRelease(pool, null));
+        assertSame(proxy2, acquireAndRelease(pool, null));
+    }
+
+    @Test
+    public void selectsProxyComingBackFirstWhenAllAreEjected() {
+        final ProxyPool pool = new ProxyPool.Builder().addProxy(proxy1)
+            .addProxy(proxy2).setMaxFailures(1).build();
+
+        pool.release(pool.acquire(null), true);
+        pool.release(pool.acquire(null), true);
+
+        assertSame(proxy1, acquireAndRelease(pool, null));
+    }
+
+    @Test
+    public void keepsHostOnItsProxy() {
+        final ProxyPool pool = pool().setStickyHosts(true).build();
+
+        assertSame(proxy1, acquireAndRelease(pool, "a.com"));
+        assertSame(proxy2, acquireAndRelease(pool, "b.com"));
+        assertSame(proxy1, acquireAndRelease(pool, "a.com"));
+        pool.release(pool.acquire("a.com"), true);
+        assertSame(proxy3, acquireAndRelease(pool, "a.com"));
+        assertSame(proxy2, acquireAndRelease(pool, "b.com"));
+    }
+
+    @Test
+    public void sendsRequestsThroughPool() throws Exception {
+        final ServerSocket closed = new ServerSocket(0);
+        closed.close();
+        final ProxyPool pool = new ProxyPool.Builder()
+            .addProxy(startProxy("one"))
+            .addProxy(proxy("127.0.0.1", closed.getLocalPort()))
+            .addProxy(startProxy("two"))
+            .setMaxFailures(1).build();
+        final HttpClientManager manager = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET, ConnectionPoolSettings.NO_POOL_SET,
+                HttpResponseCache.NO_CACHE, new HostRateLimiter(),
+                new PermanentRedirects(), new SessionStore(), pool);
+
+        final List<String> bodies = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            bodies.add(get(manager, "http://target.invalid/page" + i));
+        }
+
+        // request to the dead proxy is retried through the next one
+        assertEquals(Arrays.asList("one /page0", "two /page1", "one /page2"),
+                bodies);
+        assertTrue(pool.isEjected(pool.getProxies().get(1)));
+    }
+
+    @Test
+    public void keepsProxyInUseUntilResponseIsReleased() throws Exception {
+        final ProxyPool pool = new ProxyPool.Builder()
+            .addProxy(startProxy("one")).addProxy(startProxy("two"))
+            .setSelection(ProxyPool.Selection.LEAST_LOADED).build();
+        final HttpClientManager manager = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET,
+                new ConnectionPoolSettings.Builder().build(),
+                HttpResponseCache.NO_CACHE, new HostRateLimiter(),
+                new PermanentRedirects(), new SessionStore(), pool);
+
+        final HttpResponseWrapper streamed = manager.execute("get", false,
+                null, "http://target.invalid/streamed", "UTF-8", null, null,
+                null, null, null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        // body of the first response is still to be read through its proxy
+        assertEquals("two /page0", get(manager, "http://target.invalid/page0"));
+        assertEquals("two /page1", get(manager, "http://target.invalid/page1"));
+
+        assertEquals("one /streamed",
+                new String(streamed.readBodyAsArray(-1), "UTF-8"));
+        streamed.close();
+        assertEquals("one /page2", get(manager, "http://target.invalid/page2"));
+    }
+
+    @Test
+    public void ejectsProxyOnlyForItsOwnFailures() throws Exception {
+        final ProxySettings dropping = startProxy(-1);
+        final ProxySettings rejecting = startProxy(407);
+        final ProxyPool pool = new ProxyPool.Builder().addProxy(dropping)
+            .addProxy(rejecting).setMaxFailures(1).build();
+        final HttpClientManager manager = new HttpClientManager(
+                ProxySettings.NO_PROXY_SET, ConnectionPoolSettings.NO_POOL_SET,
+                HttpResponseCache.NO_CACHE, new HostRateLimiter(),
+                new PermanentRedirects(), new SessionStore(), pool);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                manager.execute("get", false, null, "http://target.invalid/",
+                        "UTF-8", null, null, null, null, null, 0, 0, 1,
+                        HttpRequestOptions.DEFAULT).close();
+            } catch (HttpException e) {
+                // the dropped request fails
+            }
+        }
+
+        // closed connection may be the target's failure, not the proxy's
+        assertFalse(pool.isEjected(dropping));
+        assertTrue(pool.isEjected(rejecting));
+    }
+
+    private String get(final HttpTransport transport, final String url)
+            throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", false,
+                null, url, "UTF-8", null, null, null, null, null, 1, 0, 1,
+                HttpRequestOptions.DEFAULT);
+        try {
+            return new String(response.readBodyAsArray(-1), "UTF-8");
+        } finally {
+            response.close();
+        }
+    }
+
+    private ProxySettings startProxy(final String name) throws IOException {
+        final HttpServer server =
+            HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange)
+                    throws IOException {
+                final byte[] body = (name + " "
+                        + exchange.getRequestURI().getPath()).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                try {
+                    IOUtils.write(body, out);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+        servers.add(server);
+        return proxy("127.0.0.1", server.getAddress().getPort());
+    }
+
+    /**
+     * Starts proxy answering every request with specified status, or closing
+     * the connection without response if the status is negative.
+     */
+    private ProxySettings startProxy(final int status) throws IOException {
+        final HttpServer server =
+            HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange)
+                    throws IOException {
+                if (status >= 0) {
+                    exchange.sendResponseHeaders(status, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        servers.add(server);
+        return proxy("127.0.0.1", server.getAddress().getPort());
+    }
+
+    private ProxyPool.Builder pool() {
+        return new ProxyPool.Builder().addProxy(proxy1).addProxy(proxy2)
+            .addProxy(proxy3);
+    }
+
+    private static ProxySettings acquireAndRelease(final ProxyPool pool,
+            final String host) {
+        final ProxySettings proxy = pool.acquire(host);
+        pool.release(proxy, false);
+        return proxy;
+    }
+
+    private static ProxySettings proxy(final String host, final int port) {
+        return new ProxySettings.Builder(host).setProxyPort(port).build();
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SessionStoreTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sessions", "");
+        directory.delete();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void restoresSavedCookies() {
+        final CookieJar jar = new CookieJar();
+        jar.addCookie(new Cookie(".a.com", "SID", "s1", "/", null, false));
+        jar.addCookie(new Cookie("b.com", "pref", "x=1", "/app",
+                new Date(System.currentTimeMillis() + 60000), true));
+        new SessionStore(directory, "login").save(jar);
+
+        final CookieJar restored = new CookieJar();
+        new SessionStore(directory, "login").restore(restored);
+
+        assertEquals(2, restored.getCookies().length);
+        final Cookie sid = restored.getCookies("www.a.com")[0];
+        assertEquals("SID", sid.getName());
+        assertEquals("s1", sid.getValue());
+        assertTrue(sid.isDomainAttributeSpecified());
+        final Cookie pref = restored.getCookies("b.com")[0];
+        assertEquals("x=1", pref.getValue());
+        assertEquals("/app", pref.getPath());
+        assertTrue(pref.getSecure());
+    }
+
+    @Test
+    public void dropsExpiredCookies() throws IOException {
+        final long now = System.currentTimeMillis() / 1000;
+        FileUtils.writeStringToFile(new File(directory, "login.cookies"),
+                "# Netscape HTTP Cookie File\n"
+                + "a.com\tFALSE\t/\tFALSE\t" + (now - 10) + "\told\t1\n"
+                + "a.com\tFALSE\t/\tFALSE\t" + (now + 60) + "\tnew\t2\n");
+
+        final CookieJar jar = new CookieJar();
+        new SessionStore(directory, "login").restore(jar);
+
+        assertEquals(1, jar.getCookies().length);
+        assertEquals("new", jar.getCookies()[0].getName());
+    }
+
+    @Test
+    public void savesOnlyChangedCookies() {
+        final SessionStore store = new SessionStore(directory, "login");
+        final CookieJar jar = new CookieJar();
+        store.save(jar);
+        final File file = new File(directory, "login.cookies");
+        assertTrue(file.exists());
+
+        file.delete();
+        store.save(jar);
+        assertFalse(file.exists());
+
+        jar.addCookie(new Cookie("a.com", "SID", "s2", "/", null, false));
+        store.save(jar);
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void savesCookiesOnlyWhenJarHasChanged() {
+        final SessionStore store = new SessionStore(directory, "login");
+        final CookieJar jar = new CookieJar();
+        jar.addCookie(new Cookie("a.com", "SID", "s1", "/", null, false));
+        store.save(jar);
+        final File file = new File(directory, "login.cookies");
+
+        file.delete();
+        jar.getCookies("a.com");
+        store.save(jar);
+        assertFalse(file.exists());
+
+        jar.clearCookies();
+        store.save(jar);
+        assertTrue(file.exists());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsSessionNameWithPath() {
+        new SessionStore(directory, "../login");
+    }
+
+}
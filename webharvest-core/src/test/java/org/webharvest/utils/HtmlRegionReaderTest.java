@@ -0,0 +1,69 @@
+package org.webharvest.utils;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+public class HtmlRegionReaderTest {
+
+    private static final String HEAD = "<html><head><title>t</title>"
+        + "<script>if (a</head>) { document.write('</head>'); }</script>"
+        + "<!-- </head> --></head>";
+
+    @Test
+    public void stopsAfterSelectedElement() throws IOException {
+        final HtmlRegionReader reader = reader(HEAD + "<body>rest</body></html>",
+                "head", -1);
+
+        assertEquals(HEAD, IOUtils.toString(reader));
+        assertTrue(reader.isFinished());
+    }
+
+    @Test
+    public void countsNestedElementsOfSameName() throws IOException {
+        final String region = "<html><body><div id=x>a</div>"
+            + "<div class='a main' id=\"main\"><div>b<div/></div>"
+            + "<style>div > b {}</style><img src='</div>'></div>";
+
+        assertEquals(region, read(region + "<div>c</div>", "div#main", -1));
+        assertEquals(region, read(region + "<div>c</div>", "#main,div.main", -1));
+        assertEquals("<p><IMG ID=logo>", read("<p><IMG ID=logo>x", "img#logo", -1));
+    }
+
+    @Test
+    public void readsWholePageWithoutSelectedEndTag() throws IOException {
+        final String page = "<html><body><div id=main><p>a</p></body></html>";
+        final HtmlRegionReader reader = reader(page, "div#main, head", -1);
+
+        assertEquals(page, IOUtils.toString(reader));
+        assertFalse(reader.isFinished());
+    }
+
+    @Test
+    public void stopsAfterMaxCharsOutsideTags() throws IOException {
+        assertEquals("<p>abc", read("<p>abcdef</p>", null, 6));
+        assertEquals("<p><a href='x'>", read("<p><a href='x'>link</a></p>", null, 5));
+        assertEquals("<p><!-- a > b -->", read("<p><!-- a > b -->c</p>", null, 5));
+        assertEquals("<p>abc</p>", read("<p>abc</p>", null, 100));
+    }
+
+    private static String read(String html, String selectors, long maxChars)
+            throws IOException {
+        return IOUtils.toString(reader(html, selectors, maxChars));
+    }
+
+    private static HtmlRegionReader reader(String html, String selectors,
+            long maxChars) {
+        return new HtmlRegionReader(new StringReader(html), selectors != null
+                ? TagSelector.parseList(selectors)
+                : Collections.<TagSelector>emptyList(), maxChars);
+    }
+
+}
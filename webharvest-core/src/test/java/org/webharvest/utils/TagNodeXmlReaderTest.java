@@ -0,0 +1,148 @@
+package org.webharvest.utils;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.query.QueryResult;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.trans.XPathException;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.TagNode;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.webharvest.runtime.variables.HtmlDocumentVariable;
+
+public class TagNodeXmlReaderTest {
+
+    private static final String HTML = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0//EN\">"
+        + "<html xmlns:o=\"urn:office\"><head><title>A &amp; B</title>"
+        + "<script>if (a < b && c) { x = ']]>'; }</script>"
+        + "<style>p > b { color: red }</style></head>"
+        + "<body class=\"main\r\n page\" data-q='say \"hi\"'>"
+        + "<!-- comment &amp; <b>markup</b> -->"
+        + "<p>Caf&eacute; &nbsp;costs &lt;5&euro; &copy; &#169; &#9786;</p>"
+        + "<br><img src=\"a.png?x=1&y=2\"><p></p>"
+        + "<o:p>office</o:p><svg:rect width=\"1\"/>"
+        + "<ul>\r\n<li>one\r\n<li>two</ul>"
+        + "<table><tr><td>cell</td></tr></table>"
+        + "<div>x &amp; y\r\n<script>z &amp; ]]></script></div>"
+        + "<!--\r\n two\r\n  lines -->"
+        + "text &unknown; & more</body></html>";
+
+    private final StaticQueryContext sqc =
+        new StaticQueryContext(new Configuration());
+
+    @DataProvider(name = "variants")
+    public Object[][] variants() {
+        final String[] types = {"simple", "pretty", "browser-compact", "compact"};
+        final Object[][] variants = new Object[types.length * 4][];
+        for (int i = 0; i < types.length; i++) {
+            variants[i * 4] = new Object[] {types[i], false, false, false};
+            variants[i * 4 + 1] = new Object[] {types[i], true, true, false};
+            variants[i * 4 + 2] = new Object[] {types[i], true, false, true};
+            variants[i * 4 + 3] = new Object[] {types[i], false, true, true};
+        }
+        return variants;
+    }
+
+    @Test(dataProvider = "variants")
+    public void buildsSameTreeAsParser(String outputType,
+            boolean advancedEscape, boolean namespacesAware, boolean nbspToSp)
+            throws Exception {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        final CleanerProperties properties = cleaner.getProperties();
+        properties.setAdvancedXmlEscape(advancedEscape);
+        properties.setTranslateSpecialEntities(advancedEscape);
+        properties.setRecognizeUnicodeChars(!advancedEscape);
+        properties.setUseCdataForScriptAndStyle(!advancedEscape);
+        properties.setNamespacesAware(namespacesAware);
+        properties.setOmitXmlDeclaration(advancedEscape);
+        properties.setOmitComments(false);
+
+        final TagNode root = cleaner.clean(HTML);
+        final HtmlDocumentVariable document = new HtmlDocumentVariable(
+                root, properties, outputType, nbspToSp);
+
+        assertEquals(parse(document.toString()),
+                serialize(document));
+    }
+
+    @Test
+    public void keepsXmlText() throws Exception {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        final TagNode root = cleaner.clean("<p>a&nbsp;b</p>");
+
+        assertEquals(new TagNodeXmlReader(root, cleaner.getProperties(),
+                "simple", false).serialize(),
+                TagNodeXmlReader.createSerializer(cleaner.getProperties(),
+                        "simple").getAsString(root));
+        assertTrue(new HtmlDocumentVariable(root, cleaner.getProperties(),
+                "simple", true).toString().contains("<p>a b</p>"));
+    }
+
+    @Test
+    public void transformsTree() throws Exception {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        final HtmlDocumentVariable document = new HtmlDocumentVariable(
+                cleaner.clean("<ul><li>one<li>two &amp; three</ul>"),
+                cleaner.getProperties(), "compact", false);
+        final Transformer transformer = new TransformerFactoryImpl()
+            .newTransformer(new StreamSource(new StringReader(
+                "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+                + "<xsl:output method='text'/><xsl:template match='/'>"
+                + "<xsl:value-of select='//li' separator='|'/>"
+                + "</xsl:template></xsl:stylesheet>")));
+        final StringWriter result = new StringWriter();
+
+        transformer.transform(XmlUtil.toSource(document),
+                new StreamResult(result));
+
+        assertEquals("one|two & three", result.toString());
+    }
+
+    @Test
+    public void failsLikeParserOnMalformedText() throws Exception {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        // advanced escaping drops 'x' of hexadecimal character references
+        cleaner.getProperties().setAdvancedXmlEscape(true);
+        cleaner.getProperties().setRecognizeUnicodeChars(false);
+        final HtmlDocumentVariable document = new HtmlDocumentVariable(
+                cleaner.clean("<p>&#x263A;</p>"), cleaner.getProperties(),
+                "compact", false);
+        try {
+            parse(document.toString());
+            fail("Serialized document is expected to be malformed");
+        } catch (XPathException e) {
+            // expected
+        }
+        try {
+            serialize(document);
+            fail("Tree is expected to be rejected as its serialization");
+        } catch (XPathException e) {
+            // expected
+        }
+    }
+
+    private String parse(String xml) throws XPathException {
+        return QueryResult.serialize(sqc.buildDocument(
+                new StreamSource(new StringReader(xml))));
+    }
+
+    private String serialize(HtmlDocumentVariable document)
+            throws XPathException {
+        return QueryResult.serialize(sqc.buildDocument(document.toSource()));
+    }
+
+}
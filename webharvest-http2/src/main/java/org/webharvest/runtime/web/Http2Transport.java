@@ -0,0 +1,694 @@
+/*
+ Copyright (c) 2006-2012 the original author or authors.
+
+ Redistribution and use of this software in source and binary forms,
+ with or without modification, are permitted provided that the following
+ conditions are met:
+
+ * Redistributions of source code must retain the above
+   copyright notice, this list of conditions and the
+   following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the
+   following disclaimer in the documentation and/or other
+   materials provided with the distribution.
+
+ * The name of Web-Harvest may not be used to endorse or promote
+   products derived from this software without specific prior
+   written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.webharvest.runtime.web;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.Authenticator;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.NTCredentials;
+import org.apache.commons.httpclient.ProxyHost;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webharvest.events.CircuitBreakerStateEvent;
+import org.webharvest.runtime.variables.Variable;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+import org.webharvest.utils.CommonUtil;
+import org.webharvest.utils.KeyValuePair;
+
+import com.google.common.eventbus.EventBus;
+import com.google.inject.Inject;
+
+/**
+ * {@link HttpTransport} built on the {@code java.net.http} client of Java 11,
+ * which speaks HTTP/2 with servers supporting it and HTTP/1.1 with the
+ * others. Requests to the same HTTP/2 server are multiplexed over one
+ * connection, so http-batch executes them concurrently without any pool
+ * configuration. The transport is selected with
+ * {@code HttpModule.setTransport(Http2Transport.class)}.
+ * <p/>
+ * Requests are sent with {@link HttpClient#sendAsync} and rate limited,
+ * retried, redirected and counted by {@link HostCircuitBreaker} the same way
+ * as by {@link HttpClientManager}. Unlike it, this transport does not use
+ * {@link HttpResponseCache} and {@link ProxyPool}, keeps cookies only for the
+ * time of its scraping, and authenticates to servers with preemptive Basic
+ * credentials only.
+ *
+ * @since 2.1.0-SNAPSHOT
+ * @version %I%, %G%
+ */
+public class Http2Transport implements HttpTransport {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(Http2Transport.class);
+
+    private static final String FORM_CONTENT_TYPE =
+            "application/x-www-form-urlencoded";
+
+    private static final String MULTIPART_CONTENT_TYPE = "multipart/form-data";
+
+    // headers set by the client itself, which it refuses to take from requests
+    private static final Set<String> RESTRICTED_HEADERS = Set.of(
+            "connection", "content-length", "expect", "host", "upgrade");
+
+    private final HttpClient client;
+    private final CookieManager cookieManager;
+    private final HostRateLimiter rateLimiter;
+    private final PermanentRedirects permanentRedirects;
+    private final HostCircuitBreaker circuitBreaker;
+    private final HttpInfo httpInfo;
+
+    @Inject(optional = true)
+    private EventBus eventBus;
+
+    public Http2Transport(final ProxySettings proxySettings) {
+        this(proxySettings, new HostRateLimiter(), new PermanentRedirects(),
+                new HostCircuitBreaker());
+    }
+
+    @Inject
+    public Http2Transport(final ProxySettings proxySettings,
+                          final HostRateLimiter rateLimiter,
+                          final PermanentRedirects permanentRedirects,
+                          final HostCircuitBreaker circuitBreaker) {
+        this.rateLimiter = rateLimiter;
+        this.permanentRedirects = permanentRedirects;
+        this.circuitBreaker = circuitBreaker;
+        this.cookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+        this.httpInfo = new HttpInfo(null, circuitBreaker);
+
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                // redirects are followed by executeFollowingRedirects()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .cookieHandler(cookieManager);
+        if (proxySettings != ProxySettings.NO_PROXY_SET) {
+            final ProxyHost proxyHost = proxySettings.getProxyHost();
+            builder.proxy(ProxySelector.of(new InetSocketAddress(
+                    proxyHost.getHostName(), proxyHost.getPort())));
+            final Authenticator authenticator =
+                    createProxyAuthenticator(proxySettings.getProxyCredentials());
+            if (authenticator != null) {
+                builder.authenticator(authenticator);
+            }
+        }
+        this.client = builder.build();
+    }
+
+    private static Authenticator createProxyAuthenticator(final Credentials credentials) {
+        if (credentials == null) {
+            return null;
+        }
+        if (credentials instanceof NTCredentials) {
+            LOG.warn("NTLM proxy authentication is not supported by HTTP/2 transport, Basic is used instead");
+        }
+        final UsernamePasswordCredentials userCredentials = (UsernamePasswordCredentials) credentials;
+        final PasswordAuthentication authentication = new PasswordAuthentication(
+                userCredentials.getUserName(), StringUtils.defaultString(
+                        userCredentials.getPassword()).toCharArray());
+        return new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return getRequestorType() == RequestorType.PROXY ? authentication : null;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc} Any policy other than "ignore" accepts cookies from the
+     * server which sent the response only.
+     */
+    @Override
+    public void setCookiePolicy(final String cookiePolicy) {
+        cookieManager.setCookiePolicy("ignore".equalsIgnoreCase(cookiePolicy)
+                ? CookiePolicy.ACCEPT_NONE : CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+    }
+
+    @Override
+    public HttpResponseWrapper execute(
+            String methodType,
+            Boolean followRedirects,
+            String contentType,
+            String url,
+            String charset,
+            String username,
+            String password,
+            Variable bodyContent, Map<String, HttpParamInfo> params,
+            Map<String, String> headers, int retryAttempts, long retryDelay, double retryDelayFactor,
+            HttpRequestOptions options) throws InterruptedException, UnsupportedEncodingException {
+        LOG.trace("Entering execute() method for for method {} and url {}", methodType, url);
+
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            url = "http://" + url;
+        }
+        url = CommonUtil.encodeUrl(url, charset);
+
+        if (options.isCacheEnabled()) {
+            LOG.debug("Caching of HTTP responses is not supported by HTTP/2 transport");
+        }
+
+        final Request request;
+        if ("post".equalsIgnoreCase(methodType)) {
+            request = createPostRequest(url, params, contentType, charset, bodyContent);
+        } else {
+            final String method = "head".equalsIgnoreCase(methodType) ? "HEAD" : "GET";
+            request = new Request(method, TransportSupport.appendQueryParams(url, params, charset));
+            if (BooleanUtils.isTrue(followRedirects)) {
+                final String target = permanentRedirects.resolve(request.url);
+                if (target != null) {
+                    LOG.debug("URL {} has been moved permanently to {}", url, target);
+                    request.url = target;
+                }
+            }
+        }
+        request.headers = headers != null ? headers : Collections.<String, String>emptyMap();
+        if (username != null && password != null) {
+            request.authorization = "Basic " + Base64.getEncoder().encodeToString(
+                    (username + ":" + password).getBytes(StandardCharsets.ISO_8859_1));
+            request.authorizedHost = getAuthority(request.url);
+        }
+
+        final RequestTiming timing = new RequestTiming(getHost(request.url));
+        final HttpResponse<InputStream> response = doExecute(url, request, followRedirects,
+                retryAttempts, retryDelay, retryDelayFactor, options, timing);
+        final HttpResponseWrapper responseWrapper = new HttpResponseWrapper(
+                response.statusCode(), "", getHeaders(response), response.body());
+        responseWrapper.setTiming(timing);
+        // updates HTTP info with response's details
+        this.httpInfo.setResponse(responseWrapper);
+        return responseWrapper;
+    }
+
+    private HttpResponse<InputStream> doExecute(String url, Request request, Boolean followRedirects,
+                                                int retryAttempts, long retryDelay, double retryDelayFactor,
+                                                HttpRequestOptions options, RequestTiming timing)
+            throws InterruptedException {
+        final String host = getHost(request.url);
+
+        int attemptsRemain = retryAttempts;
+
+        do {
+            timing.setRetries(retryAttempts - attemptsRemain);
+            if (host != null && !circuitBreaker.allowRequest(host)) {
+                throw circuitOpen(host, url);
+            }
+            HttpResponse<InputStream> response = null;
+            try {
+                response = executeFollowingRedirects(request, followRedirects, options, timing);
+            } catch (IOException e) {
+                recordOutcome(host, true);
+                if (attemptsRemain == 0) {
+                    throw new org.webharvest.exception.HttpException("IO error during HTTP execution for URL: " + url, e);
+                }
+                LOG.warn("Exception occurred during executing HTTP method {}: {}", request.method, e.getMessage());
+            }
+
+            long retryAfter = 0;
+            if (response != null) {
+                recordOutcome(host, TransportSupport.isHostFailure(response.statusCode()));
+                if (!TransportSupport.isRetryable(response.statusCode())) {
+                    // success.
+                    return response;
+                }
+                retryAfter = TransportSupport.parseRetryAfter(
+                        response.headers().firstValue("Retry-After").orElse(null));
+                // stream of the response is not returned, so it goes back to the connection
+                discard(response);
+                if (retryAfter > 0 && host != null) {
+                    // holds back other requests to the same host as well
+                    rateLimiter.blockUntil(host, System.currentTimeMillis() + retryAfter);
+                }
+                if (attemptsRemain == 0) {
+                    throw new org.webharvest.exception.HttpException("HTTP Status: " + response.statusCode() + ", Url: " + url);
+                }
+            }
+            if (host != null && circuitBreaker.getState(host) == HostCircuitBreaker.State.OPEN) {
+                // retries would only wait for the host which is known to be down
+                throw circuitOpen(host, url);
+            }
+
+            final long delayBeforeRetry = Math.max(retryAfter,
+                    (long) (retryDelay * (Math.pow(retryDelayFactor, retryAttempts - attemptsRemain))));
+
+            LOG.warn("HTTP Status: {}; URL: [{}]; Waiting for {} second(s) before retrying (attempt {} of {})...", new Object[]{
+                    response != null ? response.statusCode() : null, url, MILLISECONDS.toSeconds(delayBeforeRetry),
+                    retryAttempts - attemptsRemain + 1, retryAttempts});
+
+            Thread.sleep(delayBeforeRetry);
+            attemptsRemain--;
+        } while (true);
+    }
+
+    /**
+     * Records outcome of request in the {@link HostCircuitBreaker} and
+     * announces change of its state, if any.
+     */
+    private void recordOutcome(String host, boolean failed) {
+        if (host == null) {
+            return;
+        }
+        final HostCircuitBreaker.State state = circuitBreaker.record(host, failed);
+        if (state != null) {
+            LOG.warn("Circuit breaker of host {} is {}", host, state);
+            if (eventBus != null) {
+                eventBus.post(new CircuitBreakerStateEvent(host, state));
+            }
+        }
+    }
+
+    private org.webharvest.exception.HttpException circuitOpen(String host, String url) {
+        return new org.webharvest.exception.HttpException("Circuit breaker is open for host: " + host + ", Url: " + url);
+    }
+
+    /**
+     * Sends specified request and, if redirects are to be followed, the whole
+     * chain of redirects its response leads to.
+     *
+     * @return response which is not redirect to be followed
+     */
+    private HttpResponse<InputStream> executeFollowingRedirects(Request request, Boolean followRedirects,
+                                                               HttpRequestOptions options,
+                                                               RequestTiming timing)
+            throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = send(request, options, timing);
+        if (!BooleanUtils.isTrue(followRedirects)) {
+            return response;
+        }
+
+        // the same URL may be visited twice, e.g. when it redirects to itself after setting cookie
+        final Map<String, Integer> visits = new HashMap<String, Integer>();
+        visits.put(request.url, 1);
+        int redirectCount = 0;
+        String location;
+        while ((location = getRedirectLocation(response)) != null) {
+            final int statusCode = response.statusCode();
+            String nextUrl = response.uri().resolve(location).toString();
+            if (TransportSupport.isPermanentRedirect(statusCode) && "GET".equals(request.method)) {
+                permanentRedirects.remember(request.url, nextUrl);
+            }
+            final String knownTarget = permanentRedirects.resolve(nextUrl);
+            if (knownTarget != null) {
+                nextUrl = knownTarget;
+            }
+
+            final Integer visitCount = visits.get(nextUrl);
+            if (visitCount != null && visitCount >= 2) {
+                discard(response);
+                throw new org.webharvest.exception.HttpException("Redirect loop detected at URL: " + nextUrl);
+            }
+            if (++redirectCount > options.getMaxRedirects()) {
+                discard(response);
+                throw new org.webharvest.exception.HttpException("Maximum number of redirects ("
+                        + options.getMaxRedirects() + ") exceeded, last URL: " + nextUrl);
+            }
+            visits.put(nextUrl, visitCount == null ? 1 : visitCount + 1);
+
+            final Request nextRequest = request.redirect(nextUrl, TransportSupport.keepsMethodOnRedirect(statusCode));
+            if (nextRequest == null) {
+                LOG.warn("Cannot repeat request body of {} {}, redirect to {} is not followed",
+                        new Object[]{request.method, request.url, nextUrl});
+                break;
+            }
+            discard(response);
+            LOG.debug("Following redirect ({}) from {} to {}", new Object[]{statusCode, request.url, nextUrl});
+            request = nextRequest;
+            response = send(request, options, timing);
+        }
+        return response;
+    }
+
+    private String getRedirectLocation(HttpResponse<InputStream> response) {
+        if (!TransportSupport.isRedirect(response.statusCode())) {
+            return null;
+        }
+        final String location = response.headers().firstValue("Location").orElse(null);
+        return CommonUtil.isEmptyString(location) ? null : location.trim();
+    }
+
+    /**
+     * Sends specified request asynchronously and waits for the response
+     * headers; the body is read from the returned response as it arrives.
+     */
+    private HttpResponse<InputStream> send(Request request, HttpRequestOptions options,
+                                           RequestTiming timing) throws IOException, InterruptedException {
+        LOG.trace("About to send request for method {} and url {}", request.method, request.url);
+        final URI uri = toUri(request.url);
+        acquireRatePermit(uri.getHost(), options, timing);
+
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri);
+        boolean isUserAgentSpecified = false;
+        boolean isAcceptEncodingSpecified = false;
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            final String headerName = header.getKey();
+            if (RESTRICTED_HEADERS.contains(headerName.toLowerCase())
+                    || (request.redirected && (headerName.regionMatches(true, 0, "If-", 0, 3)
+                    || (request.body == null && headerName.regionMatches(true, 0, "Content-", 0, 8))))) {
+                continue;
+            }
+            if ("User-Agent".equalsIgnoreCase(headerName)) {
+                isUserAgentSpecified = true;
+            } else if ("Accept-Encoding".equalsIgnoreCase(headerName)) {
+                isAcceptEncodingSpecified = true;
+            }
+            builder.header(headerName, header.getValue());
+        }
+        if (!isUserAgentSpecified) {
+            builder.header("User-Agent", HttpClientManager.DEFAULT_USER_AGENT);
+        }
+        // compressed response is decoded on the fly by HttpResponseWrapper
+        if (options.isCompressionEnabled() && !isAcceptEncodingSpecified) {
+            builder.header("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+        }
+        if (request.authorization != null && request.authorizedHost.equals(getAuthority(request.url))) {
+            builder.header("Authorization", request.authorization);
+        }
+        if (request.body != null) {
+            builder.header("Content-Type", request.contentType);
+            builder.method(request.method, request.body);
+        } else {
+            builder.method(request.method, BodyPublishers.noBody());
+        }
+
+        timing.startExchange();
+        final CompletableFuture<HttpResponse<InputStream>> future =
+                client.sendAsync(builder.build(), BodyHandlers.ofInputStream());
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        } finally {
+            timing.endExchange();
+        }
+    }
+
+    /**
+     * Waits until request to specified host may be sent according to the
+     * {@link HostRateLimiter}.
+     */
+    private void acquireRatePermit(String host, HttpRequestOptions options,
+                                   RequestTiming timing) throws InterruptedException {
+        if (host == null) {
+            return;
+        }
+        final double requestsPerSecond = options.getRateLimit() >= 0
+                ? options.getRateLimit() : rateLimiter.getRequestsPerSecond();
+        final long waited = rateLimiter.acquire(host, requestsPerSecond);
+        if (waited > 0) {
+            LOG.debug("Waited {} ms before sending request to {}", waited, host);
+            timing.addQueueTime(MILLISECONDS.toNanos(waited));
+        }
+    }
+
+    /**
+     * Reads the rest of the response, so that HTTP/1.1 connection can be
+     * reused.
+     */
+    private static void discard(HttpResponse<InputStream> response) {
+        final InputStream stream = response.body();
+        try {
+            IOUtils.copy(stream, new NullOutputStream());
+        } catch (IOException e) {
+            LOG.debug("Cannot read the rest of response: {}", e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private static KeyValuePair<String>[] getHeaders(HttpResponse<InputStream> response) {
+        final List<KeyValuePair<String>> headers = new ArrayList<KeyValuePair<String>>();
+        for (Map.Entry<String, List<String>> entry : response.headers().map().entrySet()) {
+            // pseudo-header of HTTP/2 carrying the status
+            if (entry.getKey().startsWith(":")) {
+                continue;
+            }
+            for (String value : entry.getValue()) {
+                headers.add(new KeyValuePair<String>(entry.getKey(), value));
+            }
+        }
+        return headers.toArray(new KeyValuePair[headers.size()]);
+    }
+
+    private static URI toUri(String url) {
+        try {
+            return new URI(url);
+        } catch (URISyntaxException e) {
+            throw new org.webharvest.exception.HttpException("Invalid URL: " + e.getMessage(), e);
+        }
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static String getAuthority(String url) {
+        try {
+            return StringUtils.defaultString(new URI(url).getAuthority()).toLowerCase();
+        } catch (URISyntaxException e) {
+            return "";
+        }
+    }
+
+    private Request createPostRequest(String url, Map<String, HttpParamInfo> params, String contentType,
+                                      String charset, Variable bodyContent) throws UnsupportedEncodingException {
+        LOG.trace("Creating method POST for url '{}'", url);
+        final Request request = new Request("POST", url);
+        if (params == null) {
+            return request;
+        }
+
+        if (MULTIPART_CONTENT_TYPE.equals(contentType)) {
+            createMultipartBody(request, params, charset);
+
+        } else if (StringUtils.startsWith(contentType, "text/") || StringUtils.startsWith(contentType, "application/xml")) {
+            request.body = BodyPublishers.ofByteArray(bodyContent.toString(charset).getBytes(charset));
+            request.contentType = contentType + "; charset=" + charset;
+
+        } else {
+            final StringBuilder form = new StringBuilder();
+            for (Map.Entry<String, HttpParamInfo> entry : params.entrySet()) {
+                if (form.length() > 0) {
+                    form.append('&');
+                }
+                form.append(URLEncoder.encode(entry.getKey(), charset)).append('=')
+                        .append(URLEncoder.encode(entry.getValue().getValue().toString(), charset));
+            }
+            request.body = BodyPublishers.ofString(form.toString(), StandardCharsets.US_ASCII);
+            request.contentType = FORM_CONTENT_TYPE;
+        }
+        return request;
+    }
+
+    /**
+     * Defines multipart body of specified request. Uploaded files and binary
+     * streams are read while the request is being sent, so its length is not
+     * known and it is sent in chunks.
+     */
+    private void createMultipartBody(Request request, Map<String, HttpParamInfo> params, String charset)
+            throws UnsupportedEncodingException {
+        final String boundary = "----WebHarvestBoundary" + Long.toHexString(System.nanoTime());
+        // parts of the body, either bytes or sources of uploaded content
+        final List<Object> parts = new ArrayList<Object>();
+        boolean repeatable = true;
+        int filenameIndex = 1;
+        for (Map.Entry<String, HttpParamInfo> entry : params.entrySet()) {
+            final HttpParamInfo httpParamInfo = entry.getValue();
+            final StringBuilder partHeader = new StringBuilder();
+            partHeader.append("--").append(boundary).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"").append(entry.getKey()).append('"');
+            if (httpParamInfo.isFile()) {
+                String filename = httpParamInfo.getFileName();
+                if (CommonUtil.isEmptyString(filename)) {
+                    filename = "uploadedfile_" + filenameIndex;
+                    filenameIndex++;
+                }
+                final String paramContentType = httpParamInfo.getContentType();
+                partHeader.append("; filename=\"").append(filename).append("\"\r\n")
+                        .append("Content-Type: ")
+                        .append(CommonUtil.isEmptyString(paramContentType) ? "application/octet-stream" : paramContentType)
+                        .append("\r\nContent-Transfer-Encoding: binary\r\n\r\n");
+                final UploadSource source = UploadSource.create(filename, httpParamInfo.getValue(), charset);
+                repeatable &= source.isRepeatable();
+                parts.add(partHeader.toString().getBytes(charset));
+                parts.add(source);
+            } else {
+                partHeader.append("\r\nContent-Type: text/plain; charset=").append(charset)
+                        .append("\r\nContent-Transfer-Encoding: 8bit\r\n\r\n")
+                        .append(CommonUtil.nvl(httpParamInfo.getValue(), ""));
+                parts.add(partHeader.toString().getBytes(charset));
+            }
+            parts.add("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        parts.add(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        request.body = BodyPublishers.ofInputStream(
+                () -> new SequenceInputStream(new PartStreams(parts)));
+        request.contentType = MULTIPART_CONTENT_TYPE + "; boundary=" + boundary;
+        request.repeatable = repeatable;
+    }
+
+    @Override
+    public boolean supportsConcurrentRequests() {
+        return true;
+    }
+
+    @Override
+    public HttpInfo getHttpInfo() {
+        return httpInfo;
+    }
+
+    /**
+     * Streams of the multipart body parts, opened only when the previous
+     * part has been sent.
+     */
+    private static final class PartStreams implements Enumeration<InputStream> {
+
+        private final Iterator<Object> parts;
+
+        PartStreams(List<Object> parts) {
+            this.parts = parts.iterator();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return parts.hasNext();
+        }
+
+        @Override
+        public InputStream nextElement() {
+            final Object part = parts.next();
+            if (part instanceof byte[]) {
+                return new ByteArrayInputStream((byte[]) part);
+            }
+            try {
+                return ((UploadSource) part).createInputStream();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Single request of the (possibly redirected) HTTP method.
+     */
+    private static final class Request {
+
+        private final String method;
+        private String url;
+        private BodyPublisher body;
+        private String contentType;
+        private boolean repeatable = true;
+        private Map<String, String> headers;
+        private String authorization;
+        private String authorizedHost;
+        private boolean redirected;
+
+        Request(String method, String url) {
+            this.method = method;
+            this.url = url;
+        }
+
+        /**
+         * Creates request redirected to specified URL, or returns
+         * {@code null} if the request must keep its body which cannot be
+         * sent again.
+         */
+        Request redirect(String url, boolean keepMethod) {
+            final boolean keepBody = keepMethod && body != null;
+            if (keepBody && !repeatable) {
+                return null;
+            }
+            final Request next = new Request(keepMethod ? method : "GET", url);
+            next.body = keepBody ? body : null;
+            next.contentType = keepBody ? contentType : null;
+            next.headers = headers;
+            next.authorization = authorization;
+            next.authorizedHost = authorizedHost;
+            next.redirected = true;
+            return next;
+        }
+    }
+
+}
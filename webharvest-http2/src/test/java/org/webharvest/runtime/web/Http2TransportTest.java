@@ -0,0 +1,231 @@
+package org.webharvest.runtime.web;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.webharvest.runtime.variables.NodeVariable;
+import org.webharvest.runtime.variables.StreamVariable;
+import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class Http2TransportTest {
+
+    private static final String CHARSET = "UTF-8";
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private Http2Transport transport;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new TestHandler());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        transport = new Http2Transport(ProxySettings.NO_PROXY_SET);
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void sendsQueryParams() throws Exception {
+        final Map<String, HttpParamInfo> params =
+            new LinkedHashMap<String, HttpParamInfo>();
+        params.put("q", new HttpParamInfo("q", false, null, null,
+                new NodeVariable("a b")));
+
+        assertEquals("GET /echo?q=a+b ", get("/echo", params));
+    }
+
+    @Test
+    public void postsForm() throws Exception {
+        final Map<String, HttpParamInfo> params =
+            new LinkedHashMap<String, HttpParamInfo>();
+        params.put("name", new HttpParamInfo("name", false, null, null,
+                new NodeVariable("x&y")));
+
+        final HttpResponseWrapper response = transport.execute("post",
+                true, "application/x-www-form-urlencoded",
+                baseUrl + "/echo", CHARSET, null, null, null, params, null,
+                0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals("POST /echo name=x%26y",
+                    new String(response.readBodyAsArray(), CHARSET));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void streamsMultipartUpload() throws Exception {
+        final Map<String, HttpParamInfo> params =
+            new LinkedHashMap<String, HttpParamInfo>();
+        params.put("title", new HttpParamInfo("title", false, null, null,
+                new NodeVariable("report")));
+        params.put("data", new HttpParamInfo("data", true, "data.bin", null,
+                new StreamVariable(new ByteArrayInputStream(
+                        "stream content".getBytes(CHARSET)), null)));
+
+        final HttpResponseWrapper response = transport.execute("post", true,
+                "multipart/form-data", baseUrl + "/upload", CHARSET, null,
+                null, null, params, null, 0, 0, 1,
+                HttpRequestOptions.DEFAULT);
+        final String body;
+        try {
+            body = new String(response.readBodyAsArray(), CHARSET);
+        } finally {
+            response.close();
+        }
+        assertTrue(body, body.startsWith("chunked "));
+        assertTrue(body, body.contains("name=\"title\""));
+        assertTrue(body, body.contains("report"));
+        assertTrue(body, body.contains("filename=\"data.bin\""));
+        assertTrue(body, body.contains("stream content"));
+    }
+
+    @Test
+    public void streamsResponseBody() throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + "/large", CHARSET, null, null, null, null,
+                null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals(1024 * 1024, response.getContentLength());
+            assertEquals(10, response.readBodyAsArray(10).length);
+            assertTrue(response.isTruncated());
+        } finally {
+            response.close();
+        }
+
+        assertEquals("GET /echo ", get("/echo", null));
+    }
+
+    @Test
+    public void followsRedirects() throws Exception {
+        assertEquals("GET /echo ", get("/redirect/3", null));
+    }
+
+    @Test
+    public void decodesCompressedResponse() throws Exception {
+        assertEquals("compressed", get("/gzip", null));
+    }
+
+    @Test
+    public void sendsCookiesBack() throws Exception {
+        transport.setCookiePolicy("browser");
+        get("/login", null);
+
+        assertEquals("session=42", get("/cookie", null));
+    }
+
+    @Test
+    public void retriesUnavailableServer() throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + "/unavailable/retry", CHARSET, null, null,
+                null, null, null, 2, 10, 1, HttpRequestOptions.DEFAULT);
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertNotNull(response.getTiming());
+            assertEquals(1, response.getTiming().getRetries());
+        } finally {
+            response.close();
+        }
+        assertEquals(200, transport.getHttpInfo().statusCode);
+    }
+
+    private String get(String path, Map<String, HttpParamInfo> params)
+            throws Exception {
+        final HttpResponseWrapper response = transport.execute("get", true,
+                null, baseUrl + path, CHARSET, null, null, null, params,
+                null, 0, 0, 1, HttpRequestOptions.DEFAULT);
+        try {
+            return new String(response.readBodyAsArray(), CHARSET);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static final class TestHandler implements HttpHandler {
+
+        private final Map<String, Integer> attempts =
+            new LinkedHashMap<String, Integer>();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final String path = exchange.getRequestURI().getPath();
+            final String body = IOUtils.toString(
+                    exchange.getRequestBody(), CHARSET);
+            if (path.startsWith("/redirect/")) {
+                final int hops = Integer.parseInt(path.substring(10));
+                exchange.getResponseHeaders().add("Location",
+                        hops > 1 ? "/redirect/" + (hops - 1) : "/echo");
+                respond(exchange, 302, new byte[0]);
+            } else if (path.equals("/upload")) {
+                respond(exchange, 200, (exchange.getRequestHeaders().getFirst(
+                        "Transfer-Encoding") + " " + body).getBytes(CHARSET));
+            } else if (path.equals("/large")) {
+                respond(exchange, 200, new byte[1024 * 1024]);
+            } else if (path.equals("/gzip")) {
+                final ByteArrayOutputStream buffer =
+                    new ByteArrayOutputStream();
+                final GZIPOutputStream out = new GZIPOutputStream(buffer);
+                out.write("compressed".getBytes(CHARSET));
+                out.close();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                respond(exchange, 200, buffer.toByteArray());
+            } else if (path.equals("/login")) {
+                exchange.getResponseHeaders().add("Set-Cookie",
+                        "session=42; Path=/");
+                respond(exchange, 200, new byte[0]);
+            } else if (path.equals("/cookie")) {
+                final String cookie =
+                    exchange.getRequestHeaders().getFirst("Cookie");
+                respond(exchange, 200, String.valueOf(cookie).getBytes(CHARSET));
+            } else if (path.startsWith("/unavailable/")) {
+                final Integer count = attempts.get(path);
+                attempts.put(path, count == null ? 1 : count + 1);
+                respond(exchange, count == null ? 503 : 200, new byte[0]);
+            } else {
+                final String query = exchange.getRequestURI().getRawQuery();
+                respond(exchange, 200, (exchange.getRequestMethod() + " "
+                        + path + (query != null ? "?" + query : "") + " "
+                        + body).getBytes(CHARSET));
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, byte[] body)
+                throws IOException {
+            if (body.length == 0) {
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+}
@@ -64,7 +64,18 @@ import org.webharvest.ioc.ScraperModule;
 import org.webharvest.runtime.DynamicScopeContext;
 import org.webharvest.runtime.database.DefaultDriverManager;
 import org.webharvest.runtime.database.DriverManager;
+import org.webharvest.runtime.web.ConnectionPoolSettings;
+import org.webharvest.runtime.web.DiskHttpResponseCache;
+import org.webharvest.runtime.web.HostCircuitBreaker;
+import org.webharvest.runtime.web.HostRateLimiter;
+import org.webharvest.runtime.web.HttpArchive;
+import org.webharvest.runtime.web.HttpClientManager;
 import org.webharvest.runtime.web.HttpClientManager.ProxySettings;
+import org.webharvest.runtime.web.HttpResponseCache;
+import org.webharvest.runtime.web.HttpTransport;
+import org.webharvest.runtime.web.PermanentRedirects;
+import org.webharvest.runtime.web.ProxyPool;
+import org.webharvest.runtime.web.SessionStore;
 import org.webharvest.utils.CommonUtil;
 
 import com.google.inject.Guice;
@@ -75,6 +86,15 @@ import com.google.inject.Injector;
  */
 public class CommandLine {
 
+    private static final long DEFAULT_HTTP_CACHE_SIZE_MB = 100;
+
+    private static final String HTTP2_TRANSPORT_CLASS =
+            "org.webharvest.runtime.web.Http2Transport";
+
+    private static final int DEFAULT_HTTP_BREAKER_WINDOW = 20;
+
+    private static final int DEFAULT_HTTP_BREAKER_OPEN_SECONDS = 60;
+
     private static DefinitionResolver definitionResolver =
         DefinitionResolver.INSTANCE;
 
@@ -131,7 +151,16 @@ public class CommandLine {
 
             final Injector injector = Guice.createInjector(
                     new ScraperModule(workingDir),
-                    new HttpModule(proxySettings));
+                    new HttpModule(proxySettings)
+                            .setConnectionPoolSettings(parseConnectionPoolSettings(params))
+                            .setResponseCache(parseResponseCache(params))
+                            .setRateLimiter(parseRateLimiter(params))
+                            .setCircuitBreaker(parseCircuitBreaker(params))
+                            .setPermanentRedirects(parsePermanentRedirects(params))
+                            .setProxyPool(parseProxyPool(params))
+                            .setSessionStore(parseSessionStore(params, workingDir))
+                            .setArchive(parseArchive(params))
+                            .setTransport(parseTransport(params)));
 
             parseDebugModeSettings(params, workingDir);
 
@@ -217,11 +246,15 @@ public class CommandLine {
          if (proxyHost == null || "".equals(proxyHost)) {
              return ProxySettings.NO_PROXY_SET;
          }
+         return createProxySettings(params, proxyHost, params.get("proxyport"));
+    }
 
+    private static ProxySettings createProxySettings(
+            final Map<String, String> params, final String proxyHost,
+            final String proxyPort) {
          final ProxySettings.Builder proxySettingsBuilder =
              new ProxySettings.Builder(proxyHost);
 
-         String proxyPort = params.get("proxyport");
          if (proxyPort != null && !"".equals(proxyPort)) {
              proxySettingsBuilder.setProxyPort(
                      Integer.parseInt(proxyPort));
@@ -242,6 +275,162 @@ public class CommandLine {
          return proxySettingsBuilder.build();
     }
 
+    private static ProxyPool parseProxyPool(final Map<String, String> params) {
+        final String proxies = params.get("proxies");
+        if (proxies == null || "".equals(proxies)) {
+            return ProxyPool.NO_PROXY_POOL;
+        }
+
+        final ProxyPool.Builder builder = new ProxyPool.Builder();
+        for (String proxy : CommonUtil.tokenize(proxies, ",")) {
+            builder.addProxy(createProxySettings(params,
+                    StringUtils.substringBefore(proxy, ":").trim(),
+                    StringUtils.substringAfter(proxy, ":").trim()));
+        }
+
+        final String selection = params.get("proxyselection");
+        if ("leastloaded".equalsIgnoreCase(selection)) {
+            builder.setSelection(ProxyPool.Selection.LEAST_LOADED);
+        } else if (selection != null && !"".equals(selection)
+                && !"roundrobin".equalsIgnoreCase(selection)) {
+            throw new IllegalArgumentException("Unknown proxy selection: "
+                    + selection);
+        }
+        builder.setStickyHosts(CommonUtil.isBooleanTrue(params.get("proxysticky")));
+        return builder.build();
+    }
+
+    private static ConnectionPoolSettings parseConnectionPoolSettings(
+            final Map<String, String> params) {
+        final String connections = params.get("httpconnections");
+        if (connections == null || "".equals(connections)) {
+            return ConnectionPoolSettings.NO_POOL_SET;
+        }
+
+        final int maxConnections = Integer.parseInt(connections);
+        return new ConnectionPoolSettings.Builder()
+                .setMaxConnectionsPerHost(maxConnections)
+                .setMaxTotalConnections(maxConnections)
+                .build();
+    }
+
+    private static HostRateLimiter parseRateLimiter(
+            final Map<String, String> params) {
+        final String rateLimit = params.get("httpratelimit");
+        if (rateLimit == null || "".equals(rateLimit)) {
+            return new HostRateLimiter();
+        }
+
+        int burst = 1;
+        final String rateBurst = params.get("httpburst");
+        if (rateBurst != null && !"".equals(rateBurst)) {
+            burst = Integer.parseInt(rateBurst);
+        }
+
+        return new HostRateLimiter(Double.parseDouble(rateLimit), burst);
+    }
+
+    private static HostCircuitBreaker parseCircuitBreaker(
+            final Map<String, String> params) {
+        final String failureRate = params.get("httpbreaker");
+        if (failureRate == null || "".equals(failureRate)) {
+            return new HostCircuitBreaker();
+        }
+
+        int window = DEFAULT_HTTP_BREAKER_WINDOW;
+        final String breakerWindow = params.get("httpbreakerwindow");
+        if (breakerWindow != null && !"".equals(breakerWindow)) {
+            window = Integer.parseInt(breakerWindow);
+        }
+
+        int openSeconds = DEFAULT_HTTP_BREAKER_OPEN_SECONDS;
+        final String breakerOpen = params.get("httpbreakeropen");
+        if (breakerOpen != null && !"".equals(breakerOpen)) {
+            openSeconds = Integer.parseInt(breakerOpen);
+        }
+
+        return new HostCircuitBreaker(window,
+                Double.parseDouble(failureRate), openSeconds * 1000L);
+    }
+
+    private static HttpResponseCache parseResponseCache(
+            final Map<String, String> params) {
+        final String cacheDir = params.get("httpcache");
+        if (cacheDir == null || "".equals(cacheDir)) {
+            return HttpResponseCache.NO_CACHE;
+        }
+
+        long cacheSizeMb = DEFAULT_HTTP_CACHE_SIZE_MB;
+        final String cacheSize = params.get("httpcachesize");
+        if (cacheSize != null && !"".equals(cacheSize)) {
+            cacheSizeMb = Long.parseLong(cacheSize);
+        }
+
+        return new DiskHttpResponseCache(new File(cacheDir),
+                cacheSizeMb * 1024 * 1024);
+    }
+
+    private static PermanentRedirects parsePermanentRedirects(
+            final Map<String, String> params) {
+        final String redirectsFile = params.get("httpredirects");
+        if (redirectsFile == null || "".equals(redirectsFile)) {
+            // permanent redirects are remembered for each scraping separately
+            return null;
+        }
+        return new PermanentRedirects(new File(redirectsFile));
+    }
+
+    private static SessionStore parseSessionStore(
+            final Map<String, String> params, final String workingDir) {
+        final String session = params.get("httpsession");
+        if (session == null || "".equals(session)) {
+            // each scraping starts new session
+            return null;
+        }
+        String sessionDir = params.get("httpsessiondir");
+        if (sessionDir == null || "".equals(sessionDir)) {
+            sessionDir = workingDir;
+        }
+        return new SessionStore(new File(sessionDir), session);
+    }
+
+    private static HttpArchive parseArchive(final Map<String, String> params) {
+        final String recordFile = params.get("httprecord");
+        final String replayFile = params.get("httpreplay");
+        final boolean record = recordFile != null && !"".equals(recordFile);
+        final boolean replay = replayFile != null && !"".equals(replayFile);
+        if (record && replay) {
+            throw new IllegalArgumentException(
+                    "HTTP traffic cannot be recorded and replayed at once");
+        } else if (record) {
+            return new HttpArchive(new File(recordFile), HttpArchive.Mode.RECORD);
+        } else if (replay) {
+            return new HttpArchive(new File(replayFile), HttpArchive.Mode.REPLAY);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends HttpTransport> parseTransport(
+            final Map<String, String> params) {
+        final String transport = params.get("httptransport");
+        if (transport == null || "".equals(transport)
+                || "httpclient".equalsIgnoreCase(transport)) {
+            return HttpClientManager.class;
+        } else if ("http2".equalsIgnoreCase(transport)) {
+            // built by webharvest-http2 module, which needs Java 11
+            try {
+                return (Class<? extends HttpTransport>) Class.forName(
+                        HTTP2_TRANSPORT_CLASS);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("HTTP/2 transport needs "
+                        + "webharvest-http2 module and Java 11 or newer", e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown HTTP transport: "
+                + transport);
+    }
+
     private static void parseDatabaseDrivers(final Map<String, String> params) {
         final String drivers = params.get("dbdrivers");
         final DriverManager driverManager = DefaultDriverManager.INSTANCE;
@@ -283,6 +472,15 @@ public class CommandLine {
         System.out.println("             [proxyuser=<proxy username> [proxypassword=<proxy password>]]");
         System.out.println("             [proxynthost=<NT host name>]");
         System.out.println("             [proxyntdomain=<NT domain name>]");
+        System.out.println("             [proxies=<proxy server>:<port>[,<proxy server>:<port>]... [proxyselection=roundrobin|leastloaded] [proxysticky=true|false]]");
+        System.out.println("             [httpconnections=<number of connections>]");
+        System.out.println("             [httpratelimit=<requests per second> [httpburst=<requests>]]");
+        System.out.println("             [httpbreaker=<failure rate> [httpbreakerwindow=<requests>] [httpbreakeropen=<seconds>]]");
+        System.out.println("             [httpcache=<path> [httpcachesize=<size in MB>]]");
+        System.out.println("             [httpredirects=<path>]");
+        System.out.println("             [httpsession=<name> [httpsessiondir=<path>]]");
+        System.out.println("             [httprecord=<path> | httpreplay=<path>]");
+        System.out.println("             [httptransport=httpclient|http2]");
         System.out.println("             [loglevel=<level>]");
         System.out.println("             [logpropsfile=<path>]");
         System.out.println("             [plugins=<plugin-class1>[:<uri1>][,<plugin-class2>[:<uri2>]]...]");
@@ -299,6 +497,23 @@ public class CommandLine {
         System.out.println("   proxypassword - specify proxy server password.");
         System.out.println("   proxynthost   - NTLM authentication scheme - the host the request is originating from.");
         System.out.println("   proxyntdomain - NTLM authentication scheme - the domain to authenticate within.");
+        System.out.println("   proxies       - pool of proxy servers requests are spread over, sharing the proxy credentials above.");
+        System.out.println("   proxyselection - proxy of the pool taking a request: next one in turn (default) or the one with fewest requests in progress.");
+        System.out.println("   proxysticky   - whether requests to the same host go through the same proxy of the pool while it works.");
+        System.out.println("   httpconnections - maximum number of pooled HTTP connections, allows http-batch to execute requests concurrently.");
+        System.out.println("   httpratelimit - maximum average number of HTTP requests per second sent to one host (default is no limit).");
+        System.out.println("   httpburst     - number of HTTP requests which may be sent to one host at once after a pause (default is 1).");
+        System.out.println("   httpbreaker   - share of failed HTTP requests to one host (0-1) which stops sending requests to it for a while.");
+        System.out.println("   httpbreakerwindow - number of last HTTP requests to one host the failure share is computed from (default is " + DEFAULT_HTTP_BREAKER_WINDOW + ").");
+        System.out.println("   httpbreakeropen - seconds after which a failing host is tried again (default is " + DEFAULT_HTTP_BREAKER_OPEN_SECONDS + ").");
+        System.out.println("   httpcache     - directory of HTTP response cache used by http processors with cache attribute set.");
+        System.out.println("   httpcachesize - maximum size of HTTP response cache in megabytes (default is " + DEFAULT_HTTP_CACHE_SIZE_MB + ").");
+        System.out.println("   httpredirects - file remembering permanent HTTP redirects between runs.");
+        System.out.println("   httpsession   - name of HTTP session whose cookies are kept between runs, so login is not repeated.");
+        System.out.println("   httpsessiondir - directory of HTTP session files (default is working directory).");
+        System.out.println("   httprecord    - archive file all HTTP responses are recorded in.");
+        System.out.println("   httpreplay    - archive file HTTP responses are replayed from, without sending any request over network.");
+        System.out.println("   httptransport - client sending HTTP requests: HttpClient (default) or java.net.http speaking HTTP/2 (needs Java 11).");
         System.out.println("   loglevel      - specify level of logging for Log4J (trace,info,debug,warn,error,fatal).");
         System.out.println("   logpropsfile  - file path to custom Log4J properties. If specified, loglevel is ignored.");
         System.out.println("   plugins       - comma-separated list of pairs <plugin-class>[:<uri>], where <plugin-class> is full plugin class name," +